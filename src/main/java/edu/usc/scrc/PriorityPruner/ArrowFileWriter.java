@@ -0,0 +1,679 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class writes a table in the Arrow IPC file format (also known as
+ * Feather version 2), which pandas, pyarrow, Spark, R and DuckDB read
+ * without parsing text. It's used by ArrowResultsFile and ArrowLdFile for the
+ * --arrow option, and supports the few column types they need: 8 and 32-bit
+ * integers, single precision numbers, and strings encoded as 32-bit indices
+ * into a dictionary of values given up front.
+ * 
+ * Rows are added one value at a time with setInt and setFloat, followed by
+ * endRow, and are written as record batches of at most the given number of
+ * rows, or earlier when endBatch is called. The file starts with the schema
+ * and the dictionaries, and ends with a footer locating the dictionaries and
+ * batches. The metadata of these messages are flatbuffers, built here by a
+ * minimal FlatBufferBuilder instead of the flatbuffers library.
+ */
+public class ArrowFileWriter {
+
+	// column types
+	public static final int INT8 = 0;
+	public static final int INT32 = 1;
+	public static final int FLOAT32 = 2;
+	public static final int DICTIONARY = 3;
+
+	private static final byte[] MAGIC = { 'A', 'R', 'R', 'O', 'W', '1', 0, 0 };
+	private static final int CONTINUATION = 0xFFFFFFFF;
+	// metadata version V5
+	private static final short METADATA_VERSION = 4;
+	// message header types
+	private static final byte HEADER_SCHEMA = 1;
+	private static final byte HEADER_DICTIONARY_BATCH = 2;
+	private static final byte HEADER_RECORD_BATCH = 3;
+	// field types
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_FLOATING_POINT = 3;
+	private static final byte TYPE_UTF8 = 5;
+	private static final short PRECISION_SINGLE = 1;
+
+	private String filePath;
+	private OutputStream out;
+	private long fileLength = 0;
+	private Table schema;
+
+	private String[] names;
+	private int[] types;
+	private int capacity;
+	// values of the rows of the current batch, per column; null values are
+	// stored as -1 indices and NaN
+	private int[][] intValues;
+	private float[][] floatValues;
+	private int numRows = 0;
+	private int column = 0;
+
+	// offset, metadata length and body length of the dictionaries and batches
+	private ArrayList<long[]> dictionaryBlocks = new ArrayList<long[]>();
+	private ArrayList<long[]> batchBlocks = new ArrayList<long[]>();
+
+	/**
+	 * Constructor for ArrowFileWriter, creating the file and writing the
+	 * schema and the dictionaries.
+	 * 
+	 * @param filePath
+	 *            path of the file
+	 * @param names
+	 *            names of the columns
+	 * @param types
+	 *            types of the columns
+	 * @param dictionaries
+	 *            values of each DICTIONARY column, null for other columns
+	 * @param capacity
+	 *            maximum number of rows of a record batch
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public ArrowFileWriter(String filePath, String[] names, int[] types,
+			String[][] dictionaries, int capacity) throws PriorityPrunerException {
+		this.filePath = filePath;
+		this.names = names;
+		this.types = types;
+		this.capacity = capacity;
+		intValues = new int[names.length][];
+		floatValues = new float[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			if (types[i] == FLOAT32) {
+				floatValues[i] = new float[capacity];
+			} else {
+				intValues[i] = new int[capacity];
+			}
+		}
+		schema = createSchema();
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16);
+			out.write(MAGIC);
+			fileLength = MAGIC.length;
+			writeMessage(HEADER_SCHEMA, schema, new byte[0]);
+			for (int i = 0; i < names.length; i++) {
+				if (types[i] == DICTIONARY) {
+					writeDictionary(i, dictionaries[i]);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the next value of the current row, of an INT8, INT32 or
+	 * DICTIONARY column. A dictionary index of -1 is written as null.
+	 */
+	public void setInt(int value) {
+		intValues[column++][numRows] = value;
+	}
+
+	/**
+	 * Sets the next value of the current row, of a FLOAT32 column. NaN is
+	 * written as null.
+	 */
+	public void setFloat(float value) {
+		floatValues[column++][numRows] = value;
+	}
+
+	/**
+	 * Ends the current row, writing a record batch if it's full.
+	 * 
+	 * @throws IOException
+	 *             if the batch couldn't be written
+	 */
+	public void endRow() throws IOException {
+		column = 0;
+		numRows++;
+		if (numRows == capacity) {
+			endBatch();
+		}
+	}
+
+	/**
+	 * Writes the rows added since the last record batch as a record batch.
+	 * 
+	 * @throws IOException
+	 *             if the batch couldn't be written
+	 */
+	public void endBatch() throws IOException {
+		if (numRows == 0) {
+			return;
+		}
+		long[] nodes = new long[names.length * 2];
+		long[] buffers = new long[names.length * 4];
+		Body body = new Body();
+		for (int i = 0; i < names.length; i++) {
+			int nullCount = 0;
+			byte[] validity = new byte[(numRows + 7) / 8];
+			for (int row = 0; row < numRows; row++) {
+				boolean valid = (types[i] == FLOAT32) ? !Float.isNaN(floatValues[i][row])
+						: (types[i] != DICTIONARY || intValues[i][row] >= 0);
+				if (valid) {
+					validity[row >> 3] |= 1 << (row & 7);
+				} else {
+					nullCount++;
+				}
+			}
+			nodes[i * 2] = numRows;
+			nodes[i * 2 + 1] = nullCount;
+			buffers[i * 4] = body.length();
+			if (nullCount > 0) {
+				body.put(validity, validity.length);
+			}
+			buffers[i * 4 + 1] = body.length() - buffers[i * 4];
+			body.pad();
+			buffers[i * 4 + 2] = body.length();
+			if (types[i] == INT8) {
+				for (int row = 0; row < numRows; row++) {
+					body.putByte(intValues[i][row]);
+				}
+			} else if (types[i] == FLOAT32) {
+				for (int row = 0; row < numRows; row++) {
+					body.putInt(Float.floatToRawIntBits(floatValues[i][row]));
+				}
+			} else {
+				for (int row = 0; row < numRows; row++) {
+					body.putInt(Math.max(intValues[i][row], 0));
+				}
+			}
+			buffers[i * 4 + 3] = body.length() - buffers[i * 4 + 2];
+			body.pad();
+		}
+		Table recordBatch = createRecordBatch(numRows, nodes, buffers);
+		batchBlocks.add(writeMessage(HEADER_RECORD_BATCH, recordBatch,
+				body.toByteArray()));
+		numRows = 0;
+	}
+
+	/**
+	 * Writes the remaining rows, the end of stream marker and the footer, and
+	 * closes the file.
+	 * 
+	 * @throws IOException
+	 *             if the file couldn't be written
+	 */
+	public void finish() throws IOException {
+		endBatch();
+		writeInt(CONTINUATION);
+		writeInt(0);
+		Table footer = new Table();
+		footer.addShort(0, METADATA_VERSION);
+		footer.addRef(1, schema);
+		footer.addRef(2, createBlocks(dictionaryBlocks));
+		footer.addRef(3, createBlocks(batchBlocks));
+		byte[] footerBytes = new FlatBufferBuilder().finish(footer);
+		out.write(footerBytes);
+		writeInt(footerBytes.length);
+		out.write(MAGIC, 0, 6);
+		out.close();
+		out = null;
+	}
+
+	/**
+	 * Closes the file without finishing it, after an error.
+	 */
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			out = null;
+		}
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	/**
+	 * Creates the schema: one nullable field per column, with dictionary
+	 * columns encoded as 32-bit indices into the dictionary with the id of
+	 * the column.
+	 */
+	private Table createSchema() {
+		Table[] fields = new Table[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Table field = new Table();
+			field.addRef(0, names[i]);
+			field.addBool(1, true);
+			if (types[i] == FLOAT32) {
+				Table type = new Table();
+				type.addShort(0, PRECISION_SINGLE);
+				field.addByte(2, TYPE_FLOATING_POINT);
+				field.addRef(3, type);
+			} else if (types[i] == DICTIONARY) {
+				field.addByte(2, TYPE_UTF8);
+				field.addRef(3, new Table());
+				Table dictionary = new Table();
+				dictionary.addLong(0, i);
+				dictionary.addRef(1, createIntType(32));
+				dictionary.addBool(2, false);
+				field.addRef(4, dictionary);
+			} else {
+				field.addByte(2, TYPE_INT);
+				field.addRef(3, createIntType(types[i] == INT8 ? 8 : 32));
+			}
+			field.addRef(5, new Table[0]);
+			fields[i] = field;
+		}
+		Table schema = new Table();
+		// little endian
+		schema.addShort(0, (short) 0);
+		schema.addRef(1, fields);
+		return schema;
+	}
+
+	private static Table createIntType(int bitWidth) {
+		Table type = new Table();
+		type.addInt(0, bitWidth);
+		type.addBool(1, true);
+		return type;
+	}
+
+	/**
+	 * Creates the metadata of a record batch, with the length and null count
+	 * of each column, and the offset and length of each buffer in the body.
+	 */
+	private static Table createRecordBatch(long length, long[] nodes,
+			long[] buffers) {
+		Table recordBatch = new Table();
+		recordBatch.addLong(0, length);
+		recordBatch.addRef(1, new Structs(nodes, 16));
+		recordBatch.addRef(2, new Structs(buffers, 16));
+		return recordBatch;
+	}
+
+	/**
+	 * Creates the vector of Block structs of the footer: offset, metadata
+	 * length (a 32-bit integer, padded to 8 bytes) and body length.
+	 */
+	private static Structs createBlocks(ArrayList<long[]> blocks) {
+		long[] values = new long[blocks.size() * 3];
+		for (int i = 0; i < blocks.size(); i++) {
+			values[i * 3] = blocks.get(i)[0];
+			values[i * 3 + 1] = blocks.get(i)[1];
+			values[i * 3 + 2] = blocks.get(i)[2];
+		}
+		return new Structs(values, 24);
+	}
+
+	/**
+	 * Writes the dictionary of a column as a dictionary batch holding a
+	 * single string column.
+	 */
+	private void writeDictionary(int id, String[] values) throws IOException {
+		Charset utf8 = Charset.forName("UTF-8");
+		byte[][] bytes = new byte[values.length][];
+		int dataLength = 0;
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = values[i].getBytes(utf8);
+			dataLength += bytes[i].length;
+		}
+		Body body = new Body();
+		int offset = 0;
+		body.putInt(0);
+		for (byte[] value : bytes) {
+			offset += value.length;
+			body.putInt(offset);
+		}
+		long offsetsLength = body.length();
+		body.pad();
+		long dataStart = body.length();
+		for (byte[] value : bytes) {
+			body.put(value, value.length);
+		}
+		body.pad();
+		long[] nodes = { values.length, 0 };
+		long[] buffers = { 0, 0, 0, offsetsLength, dataStart, dataLength };
+		Table dictionaryBatch = new Table();
+		dictionaryBatch.addLong(0, id);
+		dictionaryBatch.addRef(1, createRecordBatch(values.length, nodes, buffers));
+		dictionaryBatch.addBool(2, false);
+		dictionaryBlocks.add(writeMessage(HEADER_DICTIONARY_BATCH,
+				dictionaryBatch, body.toByteArray()));
+	}
+
+	/**
+	 * Writes an encapsulated message: the continuation marker, the length of
+	 * the metadata, the metadata padded to 8 bytes, and the body.
+	 * 
+	 * @return the offset, metadata length and body length of the message
+	 */
+	private long[] writeMessage(byte headerType, Table header, byte[] body)
+			throws IOException {
+		Table message = new Table();
+		message.addShort(0, METADATA_VERSION);
+		message.addByte(1, headerType);
+		message.addRef(2, header);
+		message.addLong(3, body.length);
+		byte[] metadata = new FlatBufferBuilder().finish(message);
+		long offset = fileLength;
+		writeInt(CONTINUATION);
+		writeInt(metadata.length);
+		out.write(metadata);
+		out.write(body);
+		fileLength += metadata.length + body.length;
+		return new long[] { offset, 8 + metadata.length, body.length };
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+		fileLength += 4;
+	}
+
+	/**
+	 * The body of a message: little-endian buffers, each padded to 8 bytes.
+	 */
+	private static final class Body {
+		private ByteBuffer buffer = ByteBuffer.allocate(1 << 12).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		long length() {
+			return buffer.position();
+		}
+
+		void putByte(int value) {
+			reserve(1);
+			buffer.put((byte) value);
+		}
+
+		void putInt(int value) {
+			reserve(4);
+			buffer.putInt(value);
+		}
+
+		void put(byte[] bytes, int length) {
+			reserve(length);
+			buffer.put(bytes, 0, length);
+		}
+
+		void pad() {
+			while (buffer.position() % 8 != 0) {
+				putByte(0);
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+
+		private void reserve(int length) {
+			if (buffer.remaining() < length) {
+				ByteBuffer larger = ByteBuffer.allocate(
+						Math.max(buffer.capacity() * 2, buffer.position() + length))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+		}
+	}
+
+	/**
+	 * A flatbuffer table: scalar fields, and references to strings, tables,
+	 * vectors of tables and vectors of structs, by field id.
+	 */
+	private static final class Table {
+		private ArrayList<Integer> ids = new ArrayList<Integer>();
+		private ArrayList<Integer> sizes = new ArrayList<Integer>();
+		private ArrayList<Long> values = new ArrayList<Long>();
+		private ArrayList<Object> refs = new ArrayList<Object>();
+
+		void addBool(int id, boolean value) {
+			add(id, 1, value ? 1 : 0, null);
+		}
+
+		void addByte(int id, byte value) {
+			add(id, 1, value, null);
+		}
+
+		void addShort(int id, short value) {
+			add(id, 2, value, null);
+		}
+
+		void addInt(int id, int value) {
+			add(id, 4, value, null);
+		}
+
+		void addLong(int id, long value) {
+			add(id, 8, value, null);
+		}
+
+		// a String, Table, Table[] or Structs
+		void addRef(int id, Object ref) {
+			add(id, 4, 0, ref);
+		}
+
+		private void add(int id, int size, long value, Object ref) {
+			ids.add(id);
+			sizes.add(size);
+			values.add(value);
+			refs.add(ref);
+		}
+	}
+
+	/**
+	 * A vector of structs made of 64-bit integers, where the struct size may
+	 * leave room for padding (the 32-bit metadata length of a Block is
+	 * written in the low half of its 64-bit slot).
+	 */
+	private static final class Structs {
+		private long[] values;
+		private int structSize;
+
+		Structs(long[] values, int structSize) {
+			this.values = values;
+			this.structSize = structSize;
+		}
+	}
+
+	/**
+	 * Serializes a flatbuffer front to back: each table is preceded by its
+	 * vtable and followed by the objects it references, so that all offsets
+	 * point forward, and every scalar is aligned to its size.
+	 */
+	private static final class FlatBufferBuilder {
+		private ByteBuffer buffer = ByteBuffer.allocate(1 << 10).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		/**
+		 * Serializes a root table, padded to 8 bytes, after the offset of the
+		 * root table. Writing an object may replace the buffer, so offsets
+		 * are stored only once the object they point to is written.
+		 */
+		byte[] finish(Table root) {
+			reserve(4);
+			buffer.position(4);
+			int rootStart = writeTable(root);
+			buffer.putInt(0, rootStart);
+			align(8, 0);
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+
+		private int writeTable(Table table) {
+			int numFields = table.ids.size();
+			int maxId = -1;
+			for (int id : table.ids) {
+				maxId = Math.max(maxId, id);
+			}
+
+			// lays out the fields by descending size after the vtable offset
+			Integer[] order = new Integer[numFields];
+			for (int i = 0; i < numFields; i++) {
+				order[i] = i;
+			}
+			final Table fields = table;
+			Arrays.sort(order, new java.util.Comparator<Integer>() {
+				@Override
+				public int compare(Integer x, Integer y) {
+					return fields.sizes.get(y) - fields.sizes.get(x);
+				}
+			});
+			int[] fieldOffsets = new int[numFields];
+			int inlineSize = 4;
+			for (int i : order) {
+				int size = table.sizes.get(i);
+				inlineSize = (inlineSize + size - 1) / size * size;
+				fieldOffsets[i] = inlineSize;
+				inlineSize += size;
+			}
+
+			// vtable: its size, the size of the table, and the offset of each
+			// field (0 if absent)
+			align(2, 0);
+			int vtableStart = buffer.position();
+			int vtableSize = 4 + 2 * (maxId + 1);
+			reserve(vtableSize);
+			buffer.putShort((short) vtableSize);
+			buffer.putShort((short) inlineSize);
+			for (int id = 0; id <= maxId; id++) {
+				int index = table.ids.indexOf(id);
+				buffer.putShort((short) (index < 0 ? 0 : fieldOffsets[index]));
+			}
+
+			// table, starting with the offset back to its vtable
+			align(8, 0);
+			int tableStart = buffer.position();
+			reserve(inlineSize);
+			buffer.putInt(tableStart, tableStart - vtableStart);
+			for (int i = 0; i < numFields; i++) {
+				int position = tableStart + fieldOffsets[i];
+				long value = table.values.get(i);
+				switch (table.sizes.get(i)) {
+				case 1:
+					buffer.put(position, (byte) value);
+					break;
+				case 2:
+					buffer.putShort(position, (short) value);
+					break;
+				case 4:
+					buffer.putInt(position, (int) value);
+					break;
+				default:
+					buffer.putLong(position, value);
+				}
+			}
+			buffer.position(tableStart + inlineSize);
+
+			// referenced objects, with offsets relative to the referring field
+			for (int i = 0; i < numFields; i++) {
+				Object ref = table.refs.get(i);
+				if (ref != null) {
+					int position = tableStart + fieldOffsets[i];
+					int start = writeObject(ref);
+					buffer.putInt(position, start - position);
+				}
+			}
+			return tableStart;
+		}
+
+		private int writeObject(Object ref) {
+			if (ref instanceof Table) {
+				return writeTable((Table) ref);
+			} else if (ref instanceof String) {
+				byte[] bytes = ((String) ref).getBytes(Charset.forName("UTF-8"));
+				align(4, 0);
+				int start = buffer.position();
+				reserve(4 + bytes.length + 1);
+				buffer.putInt(bytes.length);
+				buffer.put(bytes);
+				buffer.put((byte) 0);
+				return start;
+			} else if (ref instanceof Table[]) {
+				Table[] tables = (Table[]) ref;
+				align(4, 0);
+				int start = buffer.position();
+				reserve(4 + 4 * tables.length);
+				buffer.putInt(tables.length);
+				buffer.position(start + 4 + 4 * tables.length);
+				for (int i = 0; i < tables.length; i++) {
+					int position = start + 4 + 4 * i;
+					int tableStart = writeTable(tables[i]);
+					buffer.putInt(position, tableStart - position);
+				}
+				return start;
+			} else {
+				Structs structs = (Structs) ref;
+				int wordsPerStruct = structs.structSize / 8;
+				int count = structs.values.length / wordsPerStruct;
+				// the structs following the length are 8-byte aligned
+				align(8, 4);
+				int start = buffer.position();
+				reserve(4 + 8 * structs.values.length);
+				buffer.putInt(count);
+				for (long value : structs.values) {
+					buffer.putLong(value);
+				}
+				return start;
+			}
+		}
+
+		/**
+		 * Pads until the position plus an offset is a multiple of alignment.
+		 */
+		private void align(int alignment, int offset) {
+			while ((buffer.position() + offset) % alignment != 0) {
+				reserve(1);
+				buffer.put((byte) 0);
+			}
+		}
+
+		private void reserve(int length) {
+			if (buffer.remaining() < length) {
+				ByteBuffer larger = ByteBuffer.allocate(
+						Math.max(buffer.capacity() * 2, buffer.position() + length))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				int position = buffer.position();
+				buffer.position(0);
+				larger.put(buffer.array(), 0, buffer.capacity());
+				larger.position(position);
+				buffer = larger;
+			}
+		}
+	}
+}
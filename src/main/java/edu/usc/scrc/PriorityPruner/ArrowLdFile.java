@@ -0,0 +1,121 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.IOException;
+
+/**
+ * This class writes the LD table in the Arrow IPC file format (<out>.ld.arrow),
+ * with the --arrow option. It has the columns of the text LD table, with the
+ * names, chromosomes and alleles dictionary-encoded, the positions as 32-bit
+ * integers, and r^2 and D' as single precision numbers. The rows are added by
+ * the writer thread of LinkageDisequilibriumFile, and a record batch is
+ * written per chromosome of the index SNPs.
+ */
+public class ArrowLdFile {
+
+	private static final String[] NAMES = { "index_snp_name", "index_snp_chr",
+			"index_snp_pos", "index_snp_a1", "index_snp_a2", "partner_snp_name",
+			"partner_snp_chr", "partner_snp_pos", "partner_snp_a1",
+			"partner_snp_a2", "r^2", "D'" };
+	private static final int[] TYPES = { ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.INT32,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.INT32, ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.FLOAT32,
+			ArrowFileWriter.FLOAT32 };
+
+	private ArrowFileWriter writer;
+	// chromosome of the index SNPs of the current record batch
+	private int batchChrCode = -1;
+
+	/**
+	 * Constructor for ArrowLdFile, creating the file and writing its
+	 * dictionaries.
+	 * 
+	 * @param filePath
+	 *            path of the file
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public ArrowLdFile(String filePath, SnpListFile snpListFile)
+			throws PriorityPrunerException {
+		String[] snpNames = ArrowResultsFile.getSnpNames(snpListFile);
+		String[] chrNames = ArrowResultsFile.getChrNames();
+		String[] alleles = snpListFile.getAlleles();
+		String[][] dictionaries = { snpNames, chrNames, null, alleles, alleles,
+				snpNames, chrNames, null, alleles, alleles, null, null };
+		LogWriter.getLogger().info("Writing LD metrics to [ " + filePath + " ]");
+		writer = new ArrowFileWriter(filePath, NAMES, TYPES, dictionaries,
+				ArrowResultsFile.BATCH_SIZE);
+	}
+
+	/**
+	 * Writes one row of LD data, starting a new record batch if the
+	 * chromosome of the index SNP differs from that of the previous row.
+	 * 
+	 * @throws IOException
+	 *             if the row couldn't be written
+	 */
+	public void writeRow(SnpInfo indexSnp, SnpInfo partnerSnp, double r2,
+			double dPrime) throws IOException {
+		if (indexSnp.getChrCode() != batchChrCode) {
+			writer.endBatch();
+			batchChrCode = indexSnp.getChrCode();
+		}
+		writer.setInt(indexSnp.getSortedByPosIndex());
+		writer.setInt(indexSnp.getChrCode());
+		writer.setInt(indexSnp.getPos());
+		writer.setInt(indexSnp.getAllele1Code());
+		writer.setInt(indexSnp.getAllele2Code());
+		writer.setInt(partnerSnp.getSortedByPosIndex());
+		writer.setInt(partnerSnp.getChrCode());
+		writer.setInt(partnerSnp.getPos());
+		writer.setInt(partnerSnp.getAllele1Code());
+		writer.setInt(partnerSnp.getAllele2Code());
+		writer.setFloat((float) r2);
+		writer.setFloat((float) dPrime);
+		writer.endRow();
+	}
+
+	/**
+	 * Writes the remaining rows and the footer, and closes the file.
+	 * 
+	 * @throws IOException
+	 *             if the file couldn't be written
+	 */
+	public void finish() throws IOException {
+		writer.finish();
+	}
+
+	/**
+	 * Closes the file without finishing it, after an error.
+	 */
+	public void close() {
+		writer.close();
+	}
+}
@@ -0,0 +1,146 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class writes the results file in the Arrow IPC file format
+ * (<results file>.arrow), with the --arrow option, next to the tab-delimited
+ * results file written by ResultsFile. It has the same columns and rows, but
+ * typed: the names, chromosomes and alleles are dictionary-encoded, the
+ * position is a 32-bit integer, the tagged and selected flags are 8-bit
+ * integers, and r^2 is a single precision number. NA values are nulls.
+ * 
+ * A record batch is written per chromosome, in the order of the rows.
+ */
+public class ArrowResultsFile {
+
+	// maximum number of rows of a record batch
+	static final int BATCH_SIZE = 1 << 16;
+	private static final String[] NAMES = { "name", "chr", "pos", "a1", "a2",
+			"tagged", "selected", "best_tag", "r^2" };
+	private static final int[] TYPES = { ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.INT32,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.DICTIONARY,
+			ArrowFileWriter.INT8, ArrowFileWriter.INT8,
+			ArrowFileWriter.DICTIONARY, ArrowFileWriter.FLOAT32 };
+
+	private ArrowFileWriter writer;
+	// chromosome of the rows of the current record batch
+	private int batchChrCode = -1;
+
+	/**
+	 * Constructor for ArrowResultsFile, creating the file and writing its
+	 * dictionaries.
+	 * 
+	 * @param filePath
+	 *            path of the file
+	 * @param snpListFile
+	 *            the SnpListFile containing the pruned SNPs
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public ArrowResultsFile(String filePath, SnpListFile snpListFile)
+			throws PriorityPrunerException {
+		String[] snpNames = getSnpNames(snpListFile);
+		String[] alleles = snpListFile.getAlleles();
+		String[][] dictionaries = { snpNames, getChrNames(), null, alleles,
+				alleles, null, null, snpNames, null };
+		LogWriter.getLogger().info("Writing pruning results to [ " + filePath + " ]");
+		writer = new ArrowFileWriter(filePath, NAMES, TYPES, dictionaries,
+				BATCH_SIZE);
+	}
+
+	/**
+	 * Returns the dictionary of SNP names, indexed by the position of each
+	 * SNP in SnpListFile.getSnpsSortedByChrPos().
+	 */
+	static String[] getSnpNames(SnpListFile snpListFile) {
+		ArrayList<SnpInfo> snps = snpListFile.getSnpsSortedByChrPos();
+		String[] names = new String[snps.size()];
+		for (SnpInfo snp : snps) {
+			names[snp.getSortedByPosIndex()] = snp.getSnpName();
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the dictionary of chromosome names, indexed by chromosome code.
+	 */
+	static String[] getChrNames() {
+		ChromosomeDictionary chromosomes = ChromosomeDictionary.getInstance();
+		String[] names = new String[chromosomes.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = chromosomes.getName(i);
+		}
+		return names;
+	}
+
+	/**
+	 * Writes the pruning results of a SNP, starting a new record batch if its
+	 * chromosome differs from that of the previous row.
+	 * 
+	 * @param snp
+	 *            the pruned SNP
+	 * @throws IOException
+	 *             if the results couldn't be written
+	 */
+	public void write(SnpInfo snp) throws IOException {
+		if (snp.getChrCode() != batchChrCode) {
+			writer.endBatch();
+			batchChrCode = snp.getChrCode();
+		}
+		boolean tagged = !Double.isNaN(snp.getBestTagRSquared());
+		writer.setInt(snp.getSortedByPosIndex());
+		writer.setInt(snp.getChrCode());
+		writer.setInt(snp.getPos());
+		writer.setInt(snp.getAllele1Code());
+		writer.setInt(snp.getAllele2Code());
+		writer.setInt(snp.getTagged() ? 1 : 0);
+		writer.setInt(snp.getPicked() ? 1 : 0);
+		writer.setInt(tagged && snp.getBestTag() != null ? snp.getBestTag()
+				.getSortedByPosIndex() : -1);
+		writer.setFloat(tagged ? (float) snp.getBestTagRSquared() : Float.NaN);
+		writer.endRow();
+	}
+
+	/**
+	 * Writes the remaining rows and the footer, and closes the file.
+	 * 
+	 * @throws IOException
+	 *             if the file couldn't be written
+	 */
+	public void finish() throws IOException {
+		writer.finish();
+	}
+
+	/**
+	 * Closes the file without finishing it, after an error.
+	 */
+	public void close() {
+		writer.close();
+	}
+}
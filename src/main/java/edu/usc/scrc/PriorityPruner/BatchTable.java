@@ -1,5 +1,5 @@
 /**
-Copyright (c) 2014 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
 University of Southern California,
 Los Angeles, CA  90033, USA.
 
@@ -24,45 +24,34 @@ THE SOFTWARE.
 package edu.usc.scrc.PriorityPruner;
 
 /**
- * This class is used to easily store a SNP together with an associated r^2
- * value. It's used by Pruner to store information about a SNP that is tagging
- * another and at what r^2 value this is done. The information is stored in a
- * "TaggedBy-list" in the SnpInfo-object corresponding to the SNP that is being
- * tagged.
+ * This class stores a SNP input file and the output prefix of its results, as
+ * defined on a line of the batch manifest (see the --batch option).
  */
-public class SnpR2Pair {
+public class BatchTable {
 
-	private SnpInfo snp;
-	private double rSquared;
+	private String snpTablePath;
+	private String outputPrefix;
 
 	/**
-	 * Constructor for SnpR2Pair.
+	 * Constructor for BatchTable.
 	 * 
-	 * @param snp
-	 *            tagging SNP
-	 * @param rSquared
-	 *            associated r^2 value
+	 * @param snpTablePath
+	 *            path of the SNP input file
+	 * @param outputPrefix
+	 *            prefix of the output files for this SNP input file
 	 */
-	public SnpR2Pair(SnpInfo snp, double rSquared) {
-		this.snp = snp;
-		this.rSquared = rSquared;
+	public BatchTable(String snpTablePath, String outputPrefix) {
+		this.snpTablePath = snpTablePath;
+		this.outputPrefix = outputPrefix;
 	}
 
-	// public getters and setters for private fields of this class
+	// public getters for private fields of this class
 
-	public SnpInfo getSnp() {
-		return snp;
+	public String getSnpTablePath() {
+		return snpTablePath;
 	}
 
-	public void setSnp(SnpInfo snp) {
-		this.snp = snp;
+	public String getOutputPrefix() {
+		return outputPrefix;
 	}
-
-	public double getrSquared() {
-		return rSquared;
-	}
-
-	public void setrSquared(double rSquared) {
-		this.rSquared = rSquared;
-	}
-}
\ No newline at end of file
+}
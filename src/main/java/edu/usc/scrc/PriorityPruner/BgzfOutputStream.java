@@ -0,0 +1,273 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses output files in the BGZF format (blocked GNU zip, as
+ * used by samtools and tabix). The data is split into blocks of at most 64 KB,
+ * each compressed as a separate gzip member with the block size recorded in an
+ * extra field, so the file can be read by standard gzip tools, and any block
+ * can be decompressed on its own for random access.
+ * 
+ * Blocks are compressed in parallel by a pool of threads, and written to the
+ * underlying stream in order. flush() ends the current block and waits until
+ * all blocks are written, so the file can be truncated to its length after a
+ * flush. close() writes the empty block marking the end of a BGZF file.
+ * 
+ * The offset of each block in the uncompressed data and in the output are
+ * recorded, so that an index of the data (see LdIndex) can refer to the
+ * compressed blocks.
+ */
+public class BgzfOutputStream extends OutputStream {
+
+	// uncompressed bytes per block, leaving room for the header, trailer and
+	// the (small) growth of data that doesn't compress
+	static final int BLOCK_DATA_SIZE = 0xff00;
+	static final int MAX_BLOCK_SIZE = 0x10000;
+	private static final int HEADER_SIZE = 18;
+	private static final int TRAILER_SIZE = 8;
+	// the empty block at the end of a BGZF file
+	static final byte[] EOF_BLOCK = { 0x1f, (byte) 0x8b, 0x08, 0x04, 0x00,
+			0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02,
+			0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+			0x00, 0x00 };
+
+	private OutputStream out;
+	private ExecutorService executor;
+	// blocks being compressed, in the order they're written
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private int maxPending;
+	private byte[] data = new byte[BLOCK_DATA_SIZE];
+	private int dataLength = 0;
+	private boolean closed = false;
+
+	// offset of each block written in the uncompressed data and in the
+	// output, and the offsets of the next block
+	private int numBlocks = 0;
+	private long[] blockDataOffsets = new long[1024];
+	private long[] blockFileOffsets = new long[1024];
+	private long dataOffset = 0;
+	private long fileOffset = 0;
+
+	/**
+	 * Constructor for BgzfOutputStream.
+	 * 
+	 * @param out
+	 *            the stream to write the compressed blocks to
+	 * @param numThreads
+	 *            number of threads compressing blocks
+	 */
+	public BgzfOutputStream(OutputStream out, int numThreads) {
+		this.out = out;
+		this.executor = Executors.newFixedThreadPool(numThreads);
+		// keeps every thread busy, while limiting the memory used
+		this.maxPending = 2 * numThreads;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (dataLength == data.length) {
+			submitBlock();
+		}
+		data[dataLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (dataLength == data.length) {
+				submitBlock();
+			}
+			int length = Math.min(len, data.length - dataLength);
+			System.arraycopy(b, off, data, dataLength, length);
+			dataLength += length;
+			off += length;
+			len -= length;
+		}
+	}
+
+	/**
+	 * Ends the current block, and writes all blocks to the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (dataLength > 0) {
+			submitBlock();
+		}
+		while (!pending.isEmpty()) {
+			writeNextBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the remaining blocks and the end of file marker, and closes the
+	 * underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			out.write(EOF_BLOCK);
+		} finally {
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	/**
+	 * Hands the current block to the pool to be compressed, first writing the
+	 * oldest blocks if too many are pending.
+	 */
+	private void submitBlock() throws IOException {
+		while (pending.size() >= maxPending) {
+			writeNextBlock();
+		}
+		final byte[] blockData = Arrays.copyOf(data, dataLength);
+		pending.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return compressBlock(blockData);
+			}
+		}));
+		dataLength = 0;
+	}
+
+	/**
+	 * Waits until the oldest pending block is compressed, and writes it.
+	 */
+	private void writeNextBlock() throws IOException {
+		try {
+			byte[] block = pending.remove().get();
+			out.write(block);
+			if (numBlocks == blockDataOffsets.length) {
+				blockDataOffsets = Arrays.copyOf(blockDataOffsets, numBlocks * 2);
+				blockFileOffsets = Arrays.copyOf(blockFileOffsets, numBlocks * 2);
+			}
+			blockDataOffsets[numBlocks] = dataOffset;
+			blockFileOffsets[numBlocks] = fileOffset;
+			numBlocks++;
+			// the uncompressed size is at the end of the block
+			int n = block.length;
+			dataOffset += (block[n - 4] & 0xff) | (block[n - 3] & 0xff) << 8
+					| (block[n - 2] & 0xff) << 16 | (block[n - 1] & 0xff) << 24;
+			fileOffset += n;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while compressing output");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress output: "
+					+ e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Compresses data into a BGZF block. Data that doesn't fit in a block when
+	 * compressed is stored uncompressed.
+	 * 
+	 * @param blockData
+	 *            the data, at most BLOCK_DATA_SIZE bytes
+	 * @return the block
+	 */
+	static byte[] compressBlock(byte[] blockData) {
+		byte[] block = new byte[MAX_BLOCK_SIZE];
+		int compressedLength = deflate(blockData, block, Deflater.DEFAULT_COMPRESSION);
+		if (compressedLength < 0) {
+			compressedLength = deflate(blockData, block, Deflater.NO_COMPRESSION);
+		}
+		int blockSize = HEADER_SIZE + compressedLength + TRAILER_SIZE;
+
+		// gzip header with the BC extra field holding the block size - 1
+		block[0] = 0x1f;
+		block[1] = (byte) 0x8b;
+		block[2] = 0x08;
+		block[3] = 0x04;
+		block[9] = (byte) 0xff;
+		block[10] = 0x06;
+		block[12] = 0x42;
+		block[13] = 0x43;
+		block[14] = 0x02;
+		putLittleEndian(block, 16, blockSize - 1, 2);
+
+		CRC32 crc = new CRC32();
+		crc.update(blockData, 0, blockData.length);
+		int trailer = HEADER_SIZE + compressedLength;
+		putLittleEndian(block, trailer, crc.getValue(), 4);
+		putLittleEndian(block, trailer + 4, blockData.length, 4);
+		return Arrays.copyOf(block, blockSize);
+	}
+
+	/**
+	 * Deflates data into a block after the header, returning the compressed
+	 * length, or -1 if it doesn't fit.
+	 */
+	private static int deflate(byte[] blockData, byte[] block, int level) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(blockData);
+			deflater.finish();
+			int capacity = MAX_BLOCK_SIZE - HEADER_SIZE - TRAILER_SIZE;
+			int length = deflater.deflate(block, HEADER_SIZE, capacity);
+			return deflater.finished() ? length : -1;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void putLittleEndian(byte[] bytes, int offset, long value,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			bytes[offset + i] = (byte) (value >>> (8 * i));
+		}
+	}
+
+	// public getters for private fields of this class
+
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	public long getBlockDataOffset(int block) {
+		return blockDataOffsets[block];
+	}
+
+	public long getBlockFileOffset(int block) {
+		return blockFileOffsets[block];
+	}
+}
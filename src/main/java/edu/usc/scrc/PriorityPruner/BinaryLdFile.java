@@ -0,0 +1,314 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * This class reads binary LD tables, written by LinkageDisequilibriumFile
+ * with the --ld_binary option, and converts them to the tab-delimited format
+ * of the text LD table.
+ * 
+ * A binary table starts with a dictionary of the SNPs, sorted by chromosome
+ * and position: the magic number, the format version and the number of SNPs,
+ * followed by the name, chromosome, position and alleles of each SNP. Then
+ * follows one block per index SNP, holding the ordinal of the index SNP in the
+ * dictionary and the number of rows, followed by the ordinal of the partner
+ * SNP, r^2 and D' (as single precision numbers) of each row. The table ends
+ * with an index of the blocks (the ordinal of the index SNP and the offset of
+ * each block), the number of blocks, the offset of the index and the magic
+ * number again, so that any block can be read without reading the blocks
+ * before it. All numbers are big-endian.
+ */
+public class BinaryLdFile {
+
+	// "PPLD"
+	static final int MAGIC = 0x50504C44;
+	static final int VERSION = 1;
+	// number of blocks, offset of the block index and magic number
+	static final int FOOTER_SIZE = 16;
+	private static final int ROW_SIZE = 12;
+
+	private String filePath;
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	// the SNPs of the dictionary
+	private ArrayList<SnpInfo> snps;
+
+	// ordinal of the index SNP and offset of each block
+	private int[] blockSnps;
+	private long[] blockOffsets;
+
+	// the rows of the block read last
+	private int numRows = 0;
+	private int[] partners = new int[0];
+	private float[] rSquared = new float[0];
+	private float[] dPrime = new float[0];
+
+	/**
+	 * Constructor for BinaryLdFile, used by open.
+	 */
+	private BinaryLdFile(String filePath, RandomAccessFile file) {
+		this.filePath = filePath;
+		this.file = file;
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * Opens a binary LD table, reading the dictionary and the block index.
+	 * 
+	 * @param filePath
+	 *            path of the table
+	 * @return the opened table
+	 * @throws PriorityPrunerException
+	 *             if the file can't be read or isn't a complete binary LD
+	 *             table
+	 */
+	public static BinaryLdFile open(String filePath)
+			throws PriorityPrunerException {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(filePath, "r");
+			BinaryLdFile ldFile = new BinaryLdFile(filePath, file);
+			ldFile.readDictionary();
+			ldFile.readBlockIndex();
+			return ldFile;
+		} catch (IOException e) {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException closeException) {
+					closeException.printStackTrace();
+				}
+			}
+			throw new PriorityPrunerException("Could not read binary LD table "
+					+ filePath + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Converts a binary LD table to a text LD table, with the same rows in the
+	 * same order as a text table written by the pruning run. r^2 and D' are
+	 * written with the precision they're stored with.
+	 * 
+	 * @param binaryFilePath
+	 *            path of the binary table
+	 * @param textFilePath
+	 *            path of the text table to write
+	 * @throws PriorityPrunerException
+	 *             if either file can't be read or written
+	 */
+	public static void convert(String binaryFilePath, String textFilePath)
+			throws PriorityPrunerException {
+		BinaryLdFile binaryFile = open(binaryFilePath);
+		LinkageDisequilibriumFile textFile = null;
+		try {
+			LogWriter.getLogger().info(
+					"Converting [ " + binaryFilePath + " ] to [ " + textFilePath
+							+ " ]");
+			textFile = new LinkageDisequilibriumFile(textFilePath);
+			for (int block = 0; block < binaryFile.getNumBlocks(); block++) {
+				SnpInfo indexSnp = binaryFile.getSnp(binaryFile.getBlockSnp(block));
+				int numRows = binaryFile.readBlock(block);
+				for (int row = 0; row < numRows; row++) {
+					textFile.writeLdRow(indexSnp,
+							binaryFile.getSnp(binaryFile.getPartner(row)),
+							toDouble(binaryFile.getRSquared(row)),
+							toDouble(binaryFile.getDPrime(row)));
+				}
+			}
+			textFile.flush();
+			LogWriter.getLogger().info(
+					"Converted " + binaryFile.getNumBlocks() + " blocks of "
+							+ binaryFile.getNumSnps() + " SNPs");
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not write to LD table: "
+					+ e.getMessage());
+		} finally {
+			binaryFile.close();
+			if (textFile != null) {
+				textFile.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of a block, which are then available through getPartner,
+	 * getRSquared and getDPrime.
+	 * 
+	 * @param block
+	 *            the block to read
+	 * @return the number of rows of the block
+	 * @throws IOException
+	 *             if the block can't be read
+	 */
+	public int readBlock(int block) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8);
+		readFully(header, blockOffsets[block]);
+		if (header.getInt() != blockSnps[block]) {
+			throw new IOException("Block " + block + " doesn't match the block index.");
+		}
+		numRows = header.getInt();
+		if (partners.length < numRows) {
+			partners = new int[numRows];
+			rSquared = new float[numRows];
+			dPrime = new float[numRows];
+		}
+		ByteBuffer rows = ByteBuffer.allocate(numRows * ROW_SIZE);
+		readFully(rows, blockOffsets[block] + 8);
+		for (int row = 0; row < numRows; row++) {
+			partners[row] = rows.getInt();
+			if (partners[row] < 0 || partners[row] >= snps.size()) {
+				throw new IOException("Block " + block + " has an invalid partner SNP.");
+			}
+			rSquared[row] = rows.getFloat();
+			dPrime[row] = rows.getFloat();
+		}
+		return numRows;
+	}
+
+	/**
+	 * Closes this file.
+	 */
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the dictionary of SNPs at the start of the file.
+	 */
+	private void readDictionary() throws IOException, PriorityPrunerException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel.position(0))));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a binary LD table.");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary LD table version " + version + ".");
+		}
+		int numSnps = in.readInt();
+		snps = new ArrayList<SnpInfo>(numSnps);
+		for (int i = 0; i < numSnps; i++) {
+			String snpName = in.readUTF();
+			String chr = in.readUTF();
+			int pos = in.readInt();
+			String allele1 = in.readUTF();
+			String allele2 = in.readUTF();
+			snps.add(new SnpInfo(snpName, chr, pos, allele1, allele2, 0, false,
+					0, null));
+		}
+	}
+
+	/**
+	 * Reads the block index at the end of the file.
+	 */
+	private void readBlockIndex() throws IOException {
+		long length = channel.size();
+		ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+		if (length < FOOTER_SIZE) {
+			throw new IOException("The block index is missing.");
+		}
+		readFully(footer, length - FOOTER_SIZE);
+		int numBlocks = footer.getInt();
+		long indexOffset = footer.getLong();
+		if (footer.getInt() != MAGIC || numBlocks < 0
+				|| indexOffset + (long) numBlocks * 12 != length - FOOTER_SIZE) {
+			throw new IOException("The block index is missing, the table may be incomplete.");
+		}
+		ByteBuffer index = ByteBuffer.allocate(numBlocks * 12);
+		readFully(index, indexOffset);
+		blockSnps = new int[numBlocks];
+		blockOffsets = new long[numBlocks];
+		for (int block = 0; block < numBlocks; block++) {
+			blockSnps[block] = index.getInt();
+			blockOffsets[block] = index.getLong();
+			if (blockSnps[block] < 0 || blockSnps[block] >= snps.size()) {
+				throw new IOException("Block " + block + " has an invalid index SNP.");
+			}
+		}
+	}
+
+	/**
+	 * Reads from the file until the buffer is full, and rewinds the buffer.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file " + filePath + ".");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Returns the double closest to the shortest decimal representation of a
+	 * single precision number, so that the text table shows e.g. 0.3 rather
+	 * than 0.30000001192092896.
+	 */
+	private static double toDouble(float value) {
+		return Double.parseDouble(Float.toString(value));
+	}
+
+	// public getters for private fields of this class
+
+	public int getNumSnps() {
+		return snps.size();
+	}
+
+	public SnpInfo getSnp(int ordinal) {
+		return snps.get(ordinal);
+	}
+
+	public int getNumBlocks() {
+		return blockSnps.length;
+	}
+
+	public int getBlockSnp(int block) {
+		return blockSnps[block];
+	}
+
+	public int getPartner(int row) {
+		return partners[row];
+	}
+
+	public float getRSquared(int row) {
+		return rSquared[row];
+	}
+
+	public float getDPrime(int row) {
+		return dPrime[row];
+	}
+}
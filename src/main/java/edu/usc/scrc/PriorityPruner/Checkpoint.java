@@ -0,0 +1,292 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * This class writes and reads checkpoints of the pruning (see the --checkpoint
+ * and --resume options), so that an interrupted run can continue where it
+ * stopped instead of starting over. A checkpoint holds the position in the
+ * p-value order of the SNPs to continue from, the length of the LD table
+ * written so far, and the state of each threshold configuration (see
+ * PruningState).
+ * 
+ * The checkpoint is written to <out>.checkpoint, by way of a temporary file
+ * that replaces it in one step, so an interruption while writing leaves the
+ * previous checkpoint intact. It's only read back for the same genotype
+ * panel, SNP input table and options.
+ */
+public class Checkpoint {
+
+	private static final long MAGIC = 0x5050434850544B31L; // "PPCHPTK1"
+	private static final int VERSION = 2;
+
+	// position in the p-value order of the SNPs to continue from
+	private int nextSnp;
+	// length of the LD table written up to the checkpoint, or -1
+	private long ldFileOffset;
+
+	private Checkpoint(int nextSnp, long ldFileOffset) {
+		this.nextSnp = nextSnp;
+		this.ldFileOffset = ldFileOffset;
+	}
+
+	/**
+	 * Returns the path of the checkpoint file of a run.
+	 */
+	public static String getFilePath(CommandLineOptions options) {
+		return options.getOutputPrefix() + ".checkpoint";
+	}
+
+	/**
+	 * Checks if the run should resume from a checkpoint, i.e. if --resume is
+	 * specified and the checkpoint file exists.
+	 */
+	public static boolean isResuming(CommandLineOptions options) {
+		return options.getResume() && new File(getFilePath(options)).exists();
+	}
+
+	/**
+	 * Deletes the checkpoint file of a run, if any.
+	 */
+	public static void delete(CommandLineOptions options) {
+		new File(getFilePath(options)).delete();
+	}
+
+	/**
+	 * Calculates a hash of everything a checkpoint depends on besides the
+	 * genotypes: the SNPs in p-value order with their p-values, design scores,
+	 * force include flags and metrics, the options in effect (except those
+	 * that don't change the results), and the thresholds of each configuration
+	 * of the sweep file, since the options only hold its path.
+	 * 
+	 * @param snps
+	 *            the SNPs to prune, in p-value order
+	 * @param options
+	 *            the command line options
+	 * @return 64-bit hash of the settings
+	 */
+	public static long getSettingsHash(ArrayList<SnpInfo> snps,
+			CommandLineOptions options) {
+		long hash = 0xcbf29ce484222325L;
+		for (String line : options.getOptionsInEffect().split("\r?\n")) {
+			String option = line.trim();
+			if (!option.startsWith("-resume") && !option.startsWith("-checkpoint")
+					&& !option.startsWith("-threads")
+					&& !option.startsWith("-batch_threads")
+					&& !option.startsWith("-verbose")) {
+				hash = LdStore.hash(hash, option);
+			}
+		}
+		hash = LdStore.hash(hash, options.getSweepConfigurations().size());
+		for (ThresholdConfiguration configuration : options.getSweepConfigurations()) {
+			hash = LdStore.hash(hash, String.valueOf(configuration.getName()));
+			hash = LdStore.hash(hash, configuration.getSortedR2Thresholds().size());
+			for (R2Threshold threshold : configuration.getSortedR2Thresholds()) {
+				hash = LdStore.hash(hash, Double.doubleToLongBits(threshold.getPValue()));
+				hash = LdStore.hash(hash, Double.doubleToLongBits(threshold.getR2Threshold()));
+			}
+			hash = LdStore.hash(hash, configuration.getSortedSurrogateThresholds().size());
+			for (SurrogateThreshold threshold : configuration.getSortedSurrogateThresholds()) {
+				hash = LdStore.hash(hash, Double.doubleToLongBits(threshold.getPValue()));
+				hash = LdStore.hash(hash, threshold.getNumSurrogates());
+			}
+		}
+		hash = LdStore.hash(hash, String.valueOf(options.getSnpTablePath()));
+		hash = LdStore.hash(hash, snps.size());
+		for (SnpInfo snp : snps) {
+			hash = LdStore.hash(hash, snp.getSortedByPosIndex());
+			hash = LdStore.hash(hash, Double.doubleToLongBits(snp.getPValue()));
+			hash = LdStore.hash(hash, Double.doubleToLongBits(snp.getDesignScore()));
+			hash = LdStore.hash(hash, snp.getForceInclude() ? 1 : 0);
+			for (double metric : snp.getMetrics()) {
+				hash = LdStore.hash(hash, Double.doubleToLongBits(metric));
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes a checkpoint.
+	 * 
+	 * @param options
+	 *            the command line options
+	 * @param settingsHash
+	 *            hash of the settings, from getSettingsHash
+	 * @param panelHash
+	 *            hash of the genotype panel, from LdStore.getPanelHash
+	 * @param nextSnp
+	 *            position in the p-value order of the SNPs to continue from
+	 * @param ldFileOffset
+	 *            length of the LD table written so far, or -1
+	 * @param states
+	 *            the pruning states of the threshold configurations
+	 * @throws PriorityPrunerException
+	 *             if the checkpoint can't be written
+	 */
+	public static void write(CommandLineOptions options, long settingsHash,
+			long panelHash, int nextSnp, long ldFileOffset,
+			ArrayList<PruningState> states) throws PriorityPrunerException {
+		File file = new File(getFilePath(options));
+		File tmpFile = new File(getFilePath(options) + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(settingsHash);
+			out.writeLong(panelHash);
+			out.writeInt(states.size());
+			out.writeInt(nextSnp);
+			out.writeLong(ldFileOffset);
+			for (PruningState state : states) {
+				state.write(out);
+			}
+			out.close();
+			out = null;
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not write checkpoint: "
+					+ e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a checkpoint, and restores the pruning states from it.
+	 * 
+	 * @param options
+	 *            the command line options
+	 * @param settingsHash
+	 *            hash of the current settings, from getSettingsHash
+	 * @param panelHash
+	 *            hash of the current genotype panel, from LdStore.getPanelHash
+	 * @param states
+	 *            the pruning states to restore
+	 * @return the checkpoint
+	 * @throws PriorityPrunerException
+	 *             if the checkpoint can't be read or was written for another
+	 *             panel or other settings
+	 */
+	public static Checkpoint read(CommandLineOptions options,
+			long settingsHash, long panelHash, ArrayList<PruningState> states)
+			throws PriorityPrunerException {
+		String filePath = getFilePath(options);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(filePath)));
+			if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+				throw new PriorityPrunerException("File " + filePath
+						+ " is not a checkpoint of this version of PriorityPruner.");
+			}
+			if (in.readLong() != settingsHash || in.readLong() != panelHash
+					|| in.readInt() != states.size()) {
+				throw new PriorityPrunerException("Checkpoint " + filePath
+						+ " was written for other input files or options. "
+						+ "Please resume with the same input files and options, or delete the checkpoint.");
+			}
+			Checkpoint checkpoint = new Checkpoint(in.readInt(), in.readLong());
+			for (PruningState state : states) {
+				state.read(in);
+			}
+			return checkpoint;
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not read checkpoint "
+					+ filePath + ": " + e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a non-negative integer in 7-bit groups, so that small values and
+	 * deltas take a single byte.
+	 */
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * Reads an integer written by writeVarInt.
+	 */
+	static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid integer in checkpoint.");
+	}
+
+	// public getters for private fields of this class
+
+	public int getNextSnp() {
+		return nextSnp;
+	}
+
+	public long getLdFileOffset() {
+		return ldFileOffset;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class maps chromosome names to small integer codes, so chromosomes can
+ * be stored and compared as integers while pruning. Names are assigned codes
+ * when the SNP input table is parsed, and different spellings of the same name
+ * (e.g. "x" and "X") share one code. The upper case name of a code is used
+ * whenever a chromosome is written to an output file.
+ * 
+ * Codes are assigned from several threads while the SNP input table is
+ * parsed, so adding and looking up names is synchronized. Reading the name of
+ * a code, or whether it's chromosome X, doesn't need any locking. The class is
+ * currently implementing the Singleton-pattern.
+ */
+public class ChromosomeDictionary {
+
+	private static ChromosomeDictionary singletonObject = null;
+
+	// codes of all spellings of chromosome names encountered
+	private HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+	// upper case name and X flag of each code, replaced when a code is added
+	private volatile String[] names = new String[0];
+	private volatile boolean[] chrX = new boolean[0];
+
+	/**
+	 * Private constructor for ChromosomeDictionary, to implement the
+	 * Singleton-pattern.
+	 */
+	private ChromosomeDictionary() {
+	}
+
+	/**
+	 * To implement the Singleton-pattern, the following getInstance-method
+	 * manages the public access to this class.
+	 * 
+	 * @return instance of this class
+	 */
+	public static synchronized ChromosomeDictionary getInstance() {
+		if (singletonObject == null) {
+			singletonObject = new ChromosomeDictionary();
+		}
+		return singletonObject;
+	}
+
+	/**
+	 * Returns the code of a chromosome name, assigning a new code if the name
+	 * (in upper case) hasn't been seen before.
+	 * 
+	 * @param name
+	 *            chromosome name
+	 * @return the chromosome code
+	 */
+	public synchronized int getCode(String name) {
+		Integer code = codes.get(name);
+		if (code == null) {
+			String upperCaseName = name.toUpperCase();
+			code = codes.get(upperCaseName);
+			if (code == null) {
+				code = names.length;
+				String[] newNames = Arrays.copyOf(names, code + 1);
+				boolean[] newChrX = Arrays.copyOf(chrX, code + 1);
+				newNames[code] = upperCaseName;
+				newChrX[code] = upperCaseName.equals("X")
+						|| upperCaseName.equals("CHRX")
+						|| upperCaseName.equals("23");
+				chrX = newChrX;
+				names = newNames;
+				codes.put(upperCaseName, code);
+			}
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the code of a chromosome name, without assigning new codes.
+	 * 
+	 * @param name
+	 *            chromosome name
+	 * @return the chromosome code, or -1 if no chromosome with this name (in
+	 *         upper case) has been encountered
+	 */
+	public synchronized int findCode(String name) {
+		Integer code = codes.get(name);
+		if (code == null) {
+			code = codes.get(name.toUpperCase());
+			if (code == null) {
+				return -1;
+			}
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the number of codes assigned.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the upper case name of a chromosome code.
+	 */
+	public String getName(int code) {
+		return names[code];
+	}
+
+	/**
+	 * Returns true if the chromosome code is chromosome X ("X", "CHRX" or
+	 * "23").
+	 */
+	public boolean isChrX(int code) {
+		return chrX[code];
+	}
+}
@@ -0,0 +1,219 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class prunes the SNPs one chromosome at a time (--stream option). The
+ * tped file is parsed on a separate thread one chromosome ahead of the
+ * pruning, and once a chromosome is pruned its results are written and its
+ * genotypes are released. At most two chromosomes of genotypes are held in
+ * memory, instead of the whole genome.
+ * 
+ * Since pruning windows don't span chromosomes, the results are the same as
+ * when all chromosomes are pruned at once. Only the order of the lines of the
+ * results and LD tables may differ: the chromosomes are listed in the order of
+ * the tped file, and force included SNPs are listed first within their
+ * chromosome rather than before all other SNPs.
+ */
+public class ChromosomePipeline {
+
+	private SnpListFile snpListFile;
+	private LinkageDisequilibriumFile ldFile;
+	private CommandLineOptions options;
+	// SNPs of each chromosome in order of ascending p-value, keyed on the
+	// chromosome code
+	private HashMap<Integer, ArrayList<SnpInfo>> chromosomeSnps = new HashMap<Integer, ArrayList<SnpInfo>>();
+
+	/**
+	 * Constructor for ChromosomePipeline. Parses, prunes and writes the SNPs
+	 * of the SNP input file one chromosome at a time.
+	 * 
+	 * @param snpListFile
+	 *            The SnpListFile containing the SNPs to prune
+	 * @param keepRemoveSamples
+	 *            The PlinkSampleList containing the list samples to keep or
+	 *            remove based on the --keep or --remove options. If null, then
+	 *            no list is defined.
+	 * @param ldFile
+	 *            The LinkageDisequilibriumFile to write to (if not null)
+	 * @param options
+	 *            the command line options
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during parsing, pruning or
+	 *             writing
+	 */
+	public ChromosomePipeline(SnpListFile snpListFile,
+			PlinkSampleListFile keepRemoveSamples,
+			LinkageDisequilibriumFile ldFile, CommandLineOptions options)
+			throws PriorityPrunerException {
+		this.snpListFile = snpListFile;
+		this.ldFile = ldFile;
+		this.options = options;
+		for (SnpInfo snp : snpListFile.getSnps()) {
+			ArrayList<SnpInfo> snps = chromosomeSnps.get(snp.getChrCode());
+			if (snps == null) {
+				snps = new ArrayList<SnpInfo>();
+				chromosomeSnps.put(snp.getChrCode(), snps);
+			}
+			snps.add(snp);
+		}
+		run(keepRemoveSamples);
+	}
+
+	/**
+	 * Parses, prunes and writes the chromosomes. The next chromosome is parsed
+	 * while the current one is pruned.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during parsing, pruning or
+	 *             writing
+	 */
+	private void run(PlinkSampleListFile keepRemoveSamples)
+			throws PriorityPrunerException {
+		final TPlink genotypes = new TPlink(options.getTped(),
+				options.getTfam(), snpListFile, keepRemoveSamples, options, true);
+		Pruner pruner = new Pruner(snpListFile, ldFile, options);
+
+		// one results file per threshold configuration in sweep mode
+		ArrayList<PruningState> states = pruner.getStates();
+		ArrayList<ResultsFile> resultsFiles = new ArrayList<ResultsFile>();
+		
+		Callable<Genotypes> parseNextChromosome = new Callable<Genotypes>() {
+			@Override
+			public Genotypes call() throws PriorityPrunerException {
+				return genotypes.nextChromosome();
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Throwable error = null;
+		try {
+			for (PruningState state : states) {
+				resultsFiles.add(new ResultsFile(ResultsWriter.getFilePath(
+						state, options), snpListFile, options));
+			}
+			
+			Future<Genotypes> next = executor.submit(parseNextChromosome);
+			Genotypes chromosome;
+			while ((chromosome = getParsedChromosome(next)) != null) {
+				next = executor.submit(parseNextChromosome);
+
+				SnpInfo firstSnp = chromosome.getSnpGenotypes().get(0).getSnpInfo();
+				ArrayList<SnpInfo> snps = chromosomeSnps.get(firstSnp.getChrCode());
+				try {
+					PriorityPruner.checkSnpsAreInGenotypeFile(snps);
+				} catch (PriorityPrunerException e) {
+					throw new PriorityPrunerException(e.getMessage()
+							+ "\r\nThe --stream option requires a tped file sorted by chromosome.");
+				}
+				LogWriter.getLogger().info(
+						"Pruning chromosome " + firstSnp.getChr() + " ( "
+								+ snps.size() + " SNPs )");
+				pruner.pruneChromosome(chromosome, snps);
+				chromosome = null;
+
+				// writes the results of the chromosome, and releases its
+				// genotypes
+				ArrayList<SnpInfo> rowSnps = snps;
+				if (options.getResultsByChrPos()) {
+					rowSnps = new ArrayList<SnpInfo>(snps);
+					Collections.sort(rowSnps, new PositionSorter());
+				}
+				for (int i = 0; i < states.size(); i++) {
+					for (SnpInfo snp : snps) {
+						states.get(i).copyToSnp(snp);
+					}
+					resultsFiles.get(i).write(rowSnps);
+				}
+				for (SnpInfo snp : snps) {
+					snp.setSnpGenotypes(null);
+				}
+			}
+
+			// SNPs of chromosomes that aren't in the tped file at all
+			PriorityPruner.checkSnpsAreInGenotypeFile(snpListFile.getSnps());
+			pruner.finishPruning();
+		} catch (Throwable e) {
+			error = e;
+			throw e;
+		} finally {
+			executor.shutdownNow();
+			// a failure to close the output files is attached to the error
+			// pruning failed with, if any, rather than replacing it
+			try {
+				try {
+					pruner.closeOutputFiles();
+				} finally {
+					ResultsWriter.closeAll(resultsFiles);
+				}
+			} catch (PriorityPrunerException closeError) {
+				if (error == null) {
+					throw closeError;
+				}
+				error.addSuppressed(closeError);
+			}
+		}
+	}
+
+	/**
+	 * Sorts the SNPs of a chromosome by position, in the order of
+	 * SnpListFile.getSnpsSortedByChrPos().
+	 */
+	private static class PositionSorter implements Comparator<SnpInfo> {
+		@Override
+		public int compare(SnpInfo x, SnpInfo y) {
+			return Integer.compare(x.getSortedByPosIndex(),
+					y.getSortedByPosIndex());
+		}
+	}
+
+	/**
+	 * Waits for a chromosome to be parsed, and rethrows any exception thrown
+	 * while parsing it.
+	 */
+	private Genotypes getParsedChromosome(Future<Genotypes> future)
+			throws PriorityPrunerException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new PriorityPrunerException(
+					"Interrupted while parsing the genotype dataset.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PriorityPrunerException) {
+				throw (PriorityPrunerException) e.getCause();
+			}
+			throw new PriorityPrunerException("Could not parse the genotype dataset: "
+					+ e.getCause(), e.getCause());
+		}
+	}
+}
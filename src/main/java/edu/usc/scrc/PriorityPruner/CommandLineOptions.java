@@ -27,8 +27,12 @@ package edu.usc.scrc.PriorityPruner;
 
 //import javax.swing.text.html.HTMLDocument.Iterator;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 import org.apache.commons.cli.AlreadySelectedException;
@@ -51,7 +55,7 @@ import org.apache.commons.cli.UnrecognizedOptionException;
  * program. It uses the Apache Commons CLI 1.2 library for both specifying and
  * parsing the options.
  */
-public class CommandLineOptions {
+public class CommandLineOptions implements Cloneable {
 
 	// parameters storing command line options. In cases where it apply, they
 	// are set to default values.
@@ -82,6 +86,33 @@ public class CommandLineOptions {
 	private String keep = null;
 	private double keepPercentage = -1;
 	private Long seed = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean ldGraph = false;
+	private String ldStore = null;
+	private ArrayList<ThresholdConfiguration> sweepConfigurations = new ArrayList<ThresholdConfiguration>();
+	private ArrayList<BatchTable> batchTables = new ArrayList<BatchTable>();
+	private int batchThreads = 1;
+	private boolean batchLdCache = false;
+	// adaptive pruning window, off if ldDecayCount is 0
+	private int ldDecayCount = 0;
+	private double ldDecayFloorRSquared = 0;
+	// maximum number of valid SNPs on each side of an index SNP, or 0
+	private int maxWindowSnps = 0;
+	// seconds between checkpoints, or 0 if no checkpoints are written
+	private int checkpointInterval = 0;
+	private boolean resume = false;
+	// read, prune and write one chromosome at a time
+	private boolean stream = false;
+	// write every tag of each SNP to a tags file
+	private boolean outputTags = false;
+	private boolean ldBinary = false;
+	private boolean bgzf = false;
+	private double ldMinRSquared = 0;
+	private boolean ldIndex = false;
+	private int precision = NumberFormatter.SHORTEST;
+	private boolean resultsByChrPos = false;
+	private boolean arrow = false;
+	private boolean trace = false;
 	
 	// flag indicating if surrogates should be added for force included SNPs
 	// this value goes together with option "nos", [no s(urrogates)]
@@ -392,6 +423,153 @@ public class CommandLineOptions {
 				false, 
 				"seed");
 				
+		//threads
+		Option threads = createOptionOneName(1, 
+				"integer", 
+				"Number of threads used for parsing input files, calculating the LD graph and compressing output files. Default is the number of available processors.", 
+				false, 
+				"threads");
+
+		//ld_graph
+		Option ldGraph = createOptionOneName(
+				0,
+				"none",
+				"Calculate LD between all pairs of SNPs within the maximum distance before pruning, using multiple threads, instead of calculating it for one index SNP at a time",
+				false, "ld_graph");
+
+		//ld_store
+		Option ldStore = createOptionOneName(
+				1,
+				"filename",
+				"Specify file path for an LD store. LD is read from the store if it matches the genotype data and settings, otherwise it is calculated as with --ld_graph and written to the store, so that SNPs can be pruned again without calculating LD",
+				false, "ld_store");
+
+		//sweep
+		Option sweep = createOptionOneName(
+				1,
+				"filename",
+				"Specify file path for a file with one threshold configuration per line: a name followed by --r2, --r2t and/or --st options (thresholds not specified are taken from the command line). All configurations are pruned from the same LD calculations, and the results of each are written to <out>.<name>.results",
+				false, "sweep");
+
+		//batch
+		Option batch = createOptionOneName(
+				1,
+				"filename",
+				"Specify file path for a manifest with one SNP input table and output prefix per line. The genotype dataset is parsed once, and the SNPs of each table are pruned separately, with the results written to <prefix>.results. May not be combined with --snp_table or --ld_store",
+				false, "batch");
+
+		//batch_threads
+		Option batchThreads = createOptionOneName(1, 
+				"integer", 
+				"Number of SNP input tables of the batch manifest pruned at the same time. Default is 1.", 
+				false, 
+				"batch_threads");
+
+		//batch_ld_cache
+		Option batchLdCache = createOptionOneName(
+				0,
+				"none",
+				"Share LD calculated for one SNP input table of the batch manifest with the other tables, using up to a quarter of the maximum heap size",
+				false, "batch_ld_cache");
+				
+		//ld_decay
+		Option ldDecay = createOptionOneName(
+				2,
+				"num_snps, r^2",
+				"Calculate LD walking outward from the index SNP, and stop on each side once num_snps SNPs in a row have r^2 below the specified floor, instead of calculating LD for all SNPs within the maximum distance. May not be combined with --ld_graph or --ld_store",
+				false, "ld_decay");
+				
+		//max_window_snps
+		Option maxWindowSnps = createOptionOneName(1, 
+				"integer", 
+				"Limit the pruning window of each index SNP to the nearest specified number of valid SNPs on each side (within the maximum distance). May not be combined with --ld_store", 
+				false, 
+				"max_window_snps");
+				
+		//checkpoint
+		Option checkpoint = createOptionOneName(1, 
+				"seconds", 
+				"Write a checkpoint of the pruning to <out>.checkpoint at the specified interval, so that an interrupted run can be resumed with --resume", 
+				false, 
+				"checkpoint");
+
+		//resume
+		Option resume = createOptionOneName(
+				0,
+				"none",
+				"Resume pruning from <out>.checkpoint, if it exists, after a run with the same input files and options was interrupted. The log and LD table are appended to",
+				false, "resume");
+				
+		//stream
+		Option stream = createOptionOneName(
+				0,
+				"none",
+				"Read, prune and write the genotypes one chromosome at a time, reading the next chromosome while the current one is pruned. Requires a tped file sorted by chromosome. May not be combined with --batch, --ld_graph, --ld_store, --checkpoint or --resume",
+				false, "stream");
+				
+		//tags
+		Option outputTags = createOptionOneName(
+				0,
+				"none",
+				"Write every tag of each SNP to <out>.tags (one file per configuration in sweep mode), and not only the best tag as in the results file. May not be combined with --checkpoint or --resume",
+				false, "tags");
+				
+		//ld_binary
+		Option ldBinary = createOptionOneName(
+				0,
+				"none",
+				"Output the LD table in a compact binary format to <out>.ldb instead of <out>.ld: a dictionary of the SNPs, followed by one block of partner SNPs, r^2 and D' (single precision) per index SNP, and an index of the blocks. Run PriorityPruner with \"convert <in.ldb> <out.ld>\" to convert it to the text format. May not be combined with --checkpoint or --resume",
+				false, "ld_binary");
+				
+		//bgzf
+		Option bgzf = createOptionOneName(
+				0,
+				"none",
+				"Compress the results files and the LD table in the BGZF format (readable by gzip, and by tools such as tabix), appending \".gz\" to their names. Blocks are compressed in parallel, using the number of threads specified by --threads. May not be combined with --ld_binary",
+				false, "bgzf");
+				
+		//ld_min_r2
+		Option ldMinR2 = createOptionOneName(
+				1,
+				"r^2",
+				"Only write pairs with r^2 at or above the specified value to the LD table. If no r^2 threshold is lower, LD isn't estimated for pairs whose allele frequencies don't allow an r^2 this high. Default is 0.",
+				false, "ld_min_r2");
+				
+		//ld_index
+		Option ldIndex = createOptionOneName(
+				0,
+				"none",
+				"Write an index of the LD table to <out>.ld.idx (<out>.ld.gz.idx with --bgzf), locating the rows of each index SNP by chromosome and position. Run PriorityPruner with \"query <table> <chr>:<start>-<end>\" to print the rows of the index SNPs within a region. Requires --ld. May not be combined with --ld_binary, --checkpoint or --resume",
+				false, "ld_index");
+				
+		//precision
+		Option precision = createOptionOneName(
+				1,
+				"digits",
+				"Number of decimal places (0-" + NumberFormatter.MAX_PRECISION + ") of the r^2 and D' values in the results, tags and LD tables. By default, each value is written with as many digits as needed to read back the exact value",
+				false, "precision");
+				
+		//results_order
+		Option resultsOrder = createOptionOneName(
+				1,
+				"order",
+				"Order of the rows of the results file: \"pvalue\" (default), the order the SNPs are pruned in, or \"chr_pos\", by chromosome and position. The rows are written as soon as the SNPs they depend on are pruned, one chromosome at a time in the chr_pos order, or in the pvalue order if no SNPs are force included",
+				false, "results_order");
+				
+		//arrow
+		Option arrow = createOptionOneName(
+				0,
+				"none",
+				"Also write the results file, and the LD table if --ld or --ld_binary is specified, in the Arrow IPC file format (<out>.results.arrow, <out>.ld.arrow), with typed columns and dictionary-encoded names, for loading into pandas, Spark or R. May not be combined with --checkpoint or --resume when the LD table is written",
+				false, "arrow");
+				
+		//trace
+		Option trace = createOptionOneName(
+				0,
+				"none",
+				"Record every pruning decision (skipped, picked and surrogate index SNPs, and tagged SNPs, with r^2 and the r^2 threshold) in a compact binary trace file (<out>.trace), written in the background. Render it as text with the subcommand \"trace <out>.trace\". When resuming from a checkpoint, only the decisions after the checkpoint are recorded",
+				false, "trace");
+				
 		//help
 		Option help = createOptionTwoNames(0, "none", "help", "Print help",
 				false, "h");
@@ -437,6 +615,27 @@ public class CommandLineOptions {
 		options.addOption(r2Threshold);
 		options.addOption(fixedR2);
 		options.addOption(seed);
+		options.addOption(threads);
+		options.addOption(ldGraph);
+		options.addOption(ldStore);
+		options.addOption(sweep);
+		options.addOption(batch);
+		options.addOption(batchThreads);
+		options.addOption(batchLdCache);
+		options.addOption(ldDecay);
+		options.addOption(maxWindowSnps);
+		options.addOption(checkpoint);
+		options.addOption(resume);
+		options.addOption(stream);
+		options.addOption(outputTags);
+		options.addOption(ldBinary);
+		options.addOption(bgzf);
+		options.addOption(ldMinR2);
+		options.addOption(ldIndex);
+		options.addOption(precision);
+		options.addOption(resultsOrder);
+		options.addOption(arrow);
+		options.addOption(trace);
 		options.addOption(help);
 		options.addOptionGroup(keepRemoveGroup);
 		options.addOptionGroup(r2Group);
@@ -778,6 +977,149 @@ public class CommandLineOptions {
 				this.seed = new Long(this.getLongArgument("seed", value, Long.MIN_VALUE, Long.MAX_VALUE));
 			}
 
+			// parse threads
+			if (commandLine.hasOption("threads")) {
+				this.setThreads(getIntegerArgument("threads",
+						commandLine.getOptionValue("threads"), 1, Integer.MAX_VALUE));
+				checkInput(1, "threads", commandLine);
+			}
+
+			// parse ld_graph
+			if (commandLine.hasOption("ld_graph")) {
+				this.setLdGraph(true);
+			}
+
+			// parse ld_store
+			if (commandLine.hasOption("ld_store")) {
+				String value = commandLine.getOptionValue("ld_store");
+				checkInput(1, "ld_store", commandLine);
+				this.setLdStore(value);
+			}
+
+			// parse sweep, after the thresholds of the command line
+			if (commandLine.hasOption("sweep")) {
+				String value = commandLine.getOptionValue("sweep");
+				checkInput(1, "sweep", commandLine);
+				parseSweepFile(value);
+			}
+
+			// parse batch
+			if (commandLine.hasOption("batch")) {
+				String value = commandLine.getOptionValue("batch");
+				checkInput(1, "batch", commandLine);
+				parseBatchFile(value);
+				// the metrics apply to every SNP input table of the batch
+				this.setNumMetrics(this.getMetrics().size());
+			}
+
+			// parse batch_threads
+			if (commandLine.hasOption("batch_threads")) {
+				this.setBatchThreads(getIntegerArgument("batch_threads",
+						commandLine.getOptionValue("batch_threads"), 1, Integer.MAX_VALUE));
+				checkInput(1, "batch_threads", commandLine);
+			}
+
+			// parse batch_ld_cache
+			if (commandLine.hasOption("batch_ld_cache")) {
+				this.setBatchLdCache(true);
+			}
+
+			// parse max_window_snps
+			if (commandLine.hasOption("max_window_snps")) {
+				this.setMaxWindowSnps(getIntegerArgument("max_window_snps",
+						commandLine.getOptionValue("max_window_snps"), 1, Integer.MAX_VALUE));
+				checkInput(1, "max_window_snps", commandLine);
+			}
+
+			// parse checkpoint
+			if (commandLine.hasOption("checkpoint")) {
+				this.setCheckpointInterval(getIntegerArgument("checkpoint",
+						commandLine.getOptionValue("checkpoint"), 1, Integer.MAX_VALUE));
+				checkInput(1, "checkpoint", commandLine);
+			}
+
+			// parse resume
+			if (commandLine.hasOption("resume")) {
+				this.setResume(true);
+			}
+
+			// parse stream
+			if (commandLine.hasOption("stream")) {
+				this.setStream(true);
+			}
+
+			// parse tags
+			if (commandLine.hasOption("tags")) {
+				this.setOutputTags(true);
+			}
+
+			// parse ld_binary, which implies --ld
+			if (commandLine.hasOption("ld_binary")) {
+				this.setOutputLDTable(true);
+				this.setLdBinary(true);
+			}
+
+			// parse bgzf
+			if (commandLine.hasOption("bgzf")) {
+				this.setBgzf(true);
+			}
+
+			// parse ld_min_r2
+			if (commandLine.hasOption("ld_min_r2")) {
+				this.setLdMinRSquared(getDoubleArgument("ld_min_r2",
+						commandLine.getOptionValue("ld_min_r2"), 0, 1));
+				checkInput(1, "ld_min_r2", commandLine);
+			}
+
+			// parse ld_index
+			if (commandLine.hasOption("ld_index")) {
+				this.setLdIndex(true);
+			}
+
+			// parse precision
+			if (commandLine.hasOption("precision")) {
+				this.setPrecision(getIntegerArgument("precision",
+						commandLine.getOptionValue("precision"), 0,
+						NumberFormatter.MAX_PRECISION));
+				checkInput(1, "precision", commandLine);
+			}
+
+			// parse results_order
+			if (commandLine.hasOption("results_order")) {
+				String order = commandLine.getOptionValue("results_order");
+				if (order.equals("chr_pos")) {
+					this.setResultsByChrPos(true);
+				} else if (!order.equals("pvalue")) {
+					throw new PriorityPrunerException("Invalid order: \""
+							+ order
+							+ "\" for option \"results_order\", please specify \"pvalue\" or \"chr_pos\".");
+				}
+				checkInput(1, "results_order", commandLine);
+			}
+
+			// parse arrow
+			if (commandLine.hasOption("arrow")) {
+				this.setArrow(true);
+			}
+
+			// parse trace
+			if (commandLine.hasOption("trace")) {
+				this.setTrace(true);
+			}
+
+			// parse ld_decay
+			if (commandLine.hasOption("ld_decay")) {
+				String[] str = commandLine.getOptionValues("ld_decay");
+				if (str.length == 1) {
+					throw new PriorityPrunerException(
+							"Only one argument specified for option: \"ld_decay\", a number of SNPs (integer) and an r^2 floor (decimal number) are required.");
+				}
+				checkInput(2, "ld_decay", commandLine);
+				this.setLdDecay(this.getIntegerArgument("ld_decay", str[0], 1,
+						Integer.MAX_VALUE), this.getDoubleArgument("ld_decay",
+						str[1], 0, 1));
+			}
+
 			// check that we have all required arguments
 			checkRequiredArguments(commandLine);
 			
@@ -840,7 +1182,7 @@ public class CommandLineOptions {
 		}
 		
 		// check for r2 
-		if (this.sortedR2Thresholds.isEmpty()){
+		if (this.sortedR2Thresholds.isEmpty() && this.sweepConfigurations.isEmpty()){
 			messages += "At least one r-squared threshold must be specified with the --r2 or --r2t options.\r\n";
 		}
 		
@@ -850,10 +1192,67 @@ public class CommandLineOptions {
 		}
 	
 		// check snpTable
-		if (this.snpTablePath == null){
+		if (this.snpTablePath == null && this.batchTables.isEmpty()){
 			messages += "A SNP input table file must be specified with the --snp_table option.\r\n";
 		}
 		
+		// check batch
+		if (!this.batchTables.isEmpty() && this.snpTablePath != null){
+			messages += "Only the --batch option or the --snp_table option may be specified.\r\n";
+		}
+		if (!this.batchTables.isEmpty() && this.ldStore != null){
+			messages += "The --ld_store option can't be used with the --batch option.\r\n";
+		}
+		
+		// check max_window_snps
+		if (this.maxWindowSnps > 0 && this.ldStore != null){
+			messages += "The --max_window_snps option can't be used with the --ld_store option.\r\n";
+		}
+		
+		// check ld_decay
+		if (this.ldDecayCount > 0 && (this.ldGraph || this.ldStore != null)){
+			messages += "The --ld_decay option can't be used with the --ld_graph or --ld_store options.\r\n";
+		}
+		
+		// check stream
+		if (this.stream && (!this.batchTables.isEmpty() || this.ldGraph || this.ldStore != null)){
+			messages += "The --stream option can't be used with the --batch, --ld_graph or --ld_store options.\r\n";
+		}
+		if (this.stream && (this.checkpointInterval > 0 || this.resume)){
+			messages += "The --stream option can't be used with the --checkpoint or --resume options.\r\n";
+		}
+		
+		// check tags
+		if (this.outputTags && (this.checkpointInterval > 0 || this.resume)){
+			messages += "The --tags option can't be used with the --checkpoint or --resume options.\r\n";
+		}
+		
+		// check ld_binary
+		if (this.ldBinary && (this.checkpointInterval > 0 || this.resume)){
+			messages += "The --ld_binary option can't be used with the --checkpoint or --resume options.\r\n";
+		}
+		if (this.ldBinary && this.bgzf){
+			messages += "The --ld_binary option can't be used with the --bgzf option.\r\n";
+		}
+		
+		// check ld_min_r2
+		if (this.ldMinRSquared > 0 && !this.outputLDTable){
+			messages += "The --ld_min_r2 option requires the --ld or --ld_binary option.\r\n";
+		}
+		
+		// check ld_index
+		if (this.ldIndex && (!this.outputLDTable || this.ldBinary)){
+			messages += "The --ld_index option requires the --ld option, and can't be used with the --ld_binary option.\r\n";
+		}
+		if (this.ldIndex && (this.checkpointInterval > 0 || this.resume)){
+			messages += "The --ld_index option can't be used with the --checkpoint or --resume options.\r\n";
+		}
+		
+		// check arrow
+		if (this.arrow && this.outputLDTable && (this.checkpointInterval > 0 || this.resume)){
+			messages += "The --arrow option can't be used with the --checkpoint or --resume options when the LD table is written.\r\n";
+		}
+		
 		if (messages.length() >0){
 			throw new PriorityPrunerException(messages);
 		}
@@ -1058,6 +1457,186 @@ public class CommandLineOptions {
 		Collections.sort(sortedR2Thresholds);
 	}
 
+	/**
+	 * Parses the sweep file, which has one threshold configuration per line: a
+	 * name followed by --r2, --r2t and/or --st options, given as on the
+	 * command line. Thresholds that aren't specified for a configuration are
+	 * taken from the command line. Empty lines and lines starting with "#" are
+	 * skipped.
+	 * 
+	 * @param filePath
+	 *            path of the sweep file
+	 * @throws PriorityPrunerException
+	 *             if the file can't be read or contains invalid configurations
+	 */
+	private void parseSweepFile(String filePath) throws PriorityPrunerException {
+		BufferedReader reader = null;
+		HashSet<String> names = new HashSet<String>();
+		try {
+			reader = new BufferedReader(new FileReader(filePath));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				String name = tokens[0];
+				if (!names.add(name)) {
+					throw new PriorityPrunerException("Configuration \"" + name
+							+ "\" defined more than once in sweep file " + filePath + ".");
+				}
+				ArrayList<R2Threshold> r2Thresholds = new ArrayList<R2Threshold>();
+				ArrayList<SurrogateThreshold> surrogateThresholds = new ArrayList<SurrogateThreshold>();
+				boolean fixedR2 = false;
+				for (int i = 1; i < tokens.length; i++) {
+					String option = tokens[i].replaceFirst("^--?", "");
+					int numArgs = option.equals("r2") ? 1 : 2;
+					if (!option.equals("r2") && !option.equals("r2t")
+							&& !option.equals("st")) {
+						throw new PriorityPrunerException("Invalid option \""
+								+ tokens[i] + "\" for configuration \"" + name
+								+ "\" in sweep file " + filePath
+								+ ". Only the --r2, --r2t and --st options may be specified.");
+					}
+					if (i + numArgs >= tokens.length) {
+						throw new PriorityPrunerException("Missing argument for option \""
+								+ tokens[i] + "\" for configuration \"" + name
+								+ "\" in sweep file " + filePath + ".");
+					}
+					if (option.equals("st")) {
+						surrogateThresholds.add(new SurrogateThreshold(
+								getDoubleArgument("st", tokens[i + 1], 0, 1),
+								getIntegerArgument("st", tokens[i + 2], 0, Integer.MAX_VALUE)));
+					} else if (option.equals("r2t")) {
+						r2Thresholds.add(new R2Threshold(
+								getDoubleArgument("r2t", tokens[i + 1], 0, 1),
+								getDoubleArgument("r2t", tokens[i + 2], 0, 1)));
+					} else {
+						if (fixedR2) {
+							throw new PriorityPrunerException("Option \"r2\" specified more than once for configuration \""
+									+ name + "\" in sweep file " + filePath + ".");
+						}
+						fixedR2 = true;
+						r2Thresholds.add(new R2Threshold(1, getDoubleArgument("r2",
+								tokens[i + 1], 0, 1)));
+					}
+					i += numArgs;
+				}
+				if (fixedR2 && r2Thresholds.size() > 1) {
+					throw new PriorityPrunerException("Options \"r2\" and \"r2t\" can't both be specified for configuration \""
+							+ name + "\" in sweep file " + filePath + ".");
+				}
+
+				// thresholds that aren't specified are taken from the command line
+				if (r2Thresholds.isEmpty()) {
+					r2Thresholds.addAll(sortedR2Thresholds);
+				}
+				if (surrogateThresholds.isEmpty()) {
+					surrogateThresholds.addAll(sortedSurrogateThresholds);
+				}
+				if (r2Thresholds.isEmpty()) {
+					throw new PriorityPrunerException("No r-squared threshold specified for configuration \""
+							+ name + "\" in sweep file " + filePath
+							+ ". Please specify one with the --r2 or --r2t options in the sweep file or command line.");
+				}
+				Collections.sort(r2Thresholds);
+				Collections.sort(surrogateThresholds);
+				sweepConfigurations.add(new ThresholdConfiguration(name,
+						r2Thresholds, surrogateThresholds));
+			}
+			if (sweepConfigurations.isEmpty()) {
+				throw new PriorityPrunerException("No threshold configurations found in sweep file "
+						+ filePath + ".");
+			}
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not open file for reading:\n\n"
+					+ e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses the batch manifest, which has one SNP input table and output
+	 * prefix per line, separated by whitespace. Empty lines and lines starting
+	 * with "#" are skipped.
+	 * 
+	 * @param filePath
+	 *            path of the batch manifest
+	 * @throws PriorityPrunerException
+	 *             if the file can't be read or contains invalid lines
+	 */
+	private void parseBatchFile(String filePath) throws PriorityPrunerException {
+		BufferedReader reader = null;
+		HashSet<String> outputPrefixes = new HashSet<String>();
+		try {
+			reader = new BufferedReader(new FileReader(filePath));
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				if (tokens.length != 2) {
+					throw new PriorityPrunerException("Problem with line " + lineNumber
+							+ " in batch manifest " + filePath
+							+ ". Expected 2 columns (SNP input table and output prefix) but found "
+							+ tokens.length + ".");
+				}
+				if (!outputPrefixes.add(tokens[1])) {
+					throw new PriorityPrunerException("Output prefix \"" + tokens[1]
+							+ "\" defined more than once in batch manifest " + filePath + ".");
+				}
+				batchTables.add(new BatchTable(tokens[0], tokens[1]));
+			}
+			if (batchTables.isEmpty()) {
+				throw new PriorityPrunerException("No SNP input tables found in batch manifest "
+						+ filePath + ".");
+			}
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not open file for reading:\n\n"
+					+ e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of these options for one SNP input table of the batch
+	 * manifest, with its SNP input table and output prefix.
+	 * 
+	 * @param batchTable
+	 *            the SNP input table
+	 * @return options for pruning the SNP input table
+	 */
+	public CommandLineOptions getBatchTableOptions(BatchTable batchTable) {
+		CommandLineOptions tableOptions;
+		try {
+			tableOptions = (CommandLineOptions) this.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		tableOptions.snpTablePath = batchTable.getSnpTablePath();
+		tableOptions.outputPrefix = batchTable.getOutputPrefix();
+		return tableOptions;
+	}
+
 	/**
 	 * Creates and adds metric to an ArrayList called metricWeights. If a
 	 * duplicated metric is encountered an exception gets thrown.
@@ -1292,4 +1871,169 @@ public class CommandLineOptions {
 	public Long getSeed(){
 		return this.seed;
 	}
-}
\ No newline at end of file
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public boolean getLdGraph() {
+		return ldGraph;
+	}
+
+	public void setLdGraph(boolean ldGraph) {
+		this.ldGraph = ldGraph;
+	}
+
+	public String getLdStore() {
+		return ldStore;
+	}
+
+	public void setLdStore(String ldStore) {
+		this.ldStore = ldStore;
+	}
+
+	public ArrayList<ThresholdConfiguration> getSweepConfigurations() {
+		return sweepConfigurations;
+	}
+
+	public ArrayList<BatchTable> getBatchTables() {
+		return batchTables;
+	}
+
+	public int getBatchThreads() {
+		return batchThreads;
+	}
+
+	public void setBatchThreads(int batchThreads) {
+		this.batchThreads = batchThreads;
+	}
+
+	public boolean getBatchLdCache() {
+		return batchLdCache;
+	}
+
+	public void setBatchLdCache(boolean batchLdCache) {
+		this.batchLdCache = batchLdCache;
+	}
+
+	public int getLdDecayCount() {
+		return ldDecayCount;
+	}
+
+	public double getLdDecayFloorRSquared() {
+		return ldDecayFloorRSquared;
+	}
+
+	public void setLdDecay(int ldDecayCount, double ldDecayFloorRSquared) {
+		this.ldDecayCount = ldDecayCount;
+		this.ldDecayFloorRSquared = ldDecayFloorRSquared;
+	}
+
+	public int getMaxWindowSnps() {
+		return maxWindowSnps;
+	}
+
+	public void setMaxWindowSnps(int maxWindowSnps) {
+		this.maxWindowSnps = maxWindowSnps;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public boolean getResume() {
+		return resume;
+	}
+
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public boolean getStream() {
+		return stream;
+	}
+
+	public void setStream(boolean stream) {
+		this.stream = stream;
+	}
+
+	public boolean getOutputTags() {
+		return outputTags;
+	}
+
+	public void setOutputTags(boolean outputTags) {
+		this.outputTags = outputTags;
+	}
+
+	public boolean getLdBinary() {
+		return ldBinary;
+	}
+
+	public void setLdBinary(boolean ldBinary) {
+		this.ldBinary = ldBinary;
+	}
+
+	public boolean getBgzf() {
+		return bgzf;
+	}
+
+	public void setBgzf(boolean bgzf) {
+		this.bgzf = bgzf;
+	}
+
+	public double getLdMinRSquared() {
+		return ldMinRSquared;
+	}
+
+	public void setLdMinRSquared(double ldMinRSquared) {
+		this.ldMinRSquared = ldMinRSquared;
+	}
+
+	public boolean getLdIndex() {
+		return ldIndex;
+	}
+
+	public void setLdIndex(boolean ldIndex) {
+		this.ldIndex = ldIndex;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public void setPrecision(int precision) {
+		this.precision = precision;
+	}
+
+	public boolean getResultsByChrPos() {
+		return resultsByChrPos;
+	}
+
+	public void setResultsByChrPos(boolean resultsByChrPos) {
+		this.resultsByChrPos = resultsByChrPos;
+	}
+
+	public boolean getArrow() {
+		return arrow;
+	}
+
+	public void setArrow(boolean arrow) {
+		this.arrow = arrow;
+	}
+
+	public boolean getTrace() {
+		return trace;
+	}
+
+	public void setTrace(boolean trace) {
+		this.trace = trace;
+	}
+}
@@ -0,0 +1,184 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * This class caches the genotypes of SNPs in decoded form, i.e. one byte per
+ * founder holding the genotype code (0 = missing, 1 = homozygous allele 1, 2 =
+ * homozygous allele 2, 3 = heterozygous), which is the form used by the LD
+ * calculation in SnpWorkUnit. Consecutive index SNPs in a region have
+ * overlapping pruning windows, so most of the SNPs in a window are already
+ * decoded when the window is built.
+ * 
+ * When the cache grows beyond its capacity, the SNPs farthest away from the
+ * current index SNP (SNPs on other chromosomes first) are evicted.
+ */
+public class GenotypeCache {
+
+	// decoded genotypes of the cached SNPs
+	private HashMap<SnpGenotypes, byte[]> decodedGenotypes = new HashMap<SnpGenotypes, byte[]>();
+
+	private int numFounders;
+	private int capacity;
+
+	// current index SNP, used to determine which SNPs to evict
+	private SnpInfo indexSnp = null;
+
+	// statistics for the log
+	private long numHits = 0;
+	private long numMisses = 0;
+
+	/**
+	 * Constructor for GenotypeCache.
+	 * 
+	 * @param numFounders
+	 *            number of kept founders, i.e. the number of genotypes per SNP
+	 * @param capacityBytes
+	 *            approximate maximum memory used by the cached genotypes
+	 */
+	public GenotypeCache(int numFounders, long capacityBytes) {
+		this.numFounders = numFounders;
+		this.capacity = (int) Math.min(Integer.MAX_VALUE,
+				Math.max(1, capacityBytes / Math.max(1, numFounders)));
+	}
+
+	/**
+	 * Sets the current index SNP. SNPs are evicted by their distance to this
+	 * SNP.
+	 * 
+	 * @param indexSnp
+	 *            the current index SNP
+	 */
+	public void setIndexSnp(SnpInfo indexSnp) {
+		this.indexSnp = indexSnp;
+	}
+
+	/**
+	 * Returns the decoded genotypes of a SNP, decoding them if they aren't
+	 * already cached. The returned array must not be modified.
+	 * 
+	 * @param snpGenotypes
+	 *            genotypes of the SNP
+	 * @return genotype code of each founder
+	 */
+	public byte[] getDecodedGenotypes(SnpGenotypes snpGenotypes) {
+		byte[] decoded = decodedGenotypes.get(snpGenotypes);
+		if (decoded != null) {
+			numHits++;
+			return decoded;
+		}
+		numMisses++;
+		if (decodedGenotypes.size() >= capacity) {
+			evict();
+		}
+		decoded = decode(snpGenotypes, numFounders);
+		decodedGenotypes.put(snpGenotypes, decoded);
+		return decoded;
+	}
+
+	/**
+	 * Decodes the compressed genotypes of a SNP.
+	 * 
+	 * @param snpGenotypes
+	 *            genotypes of the SNP
+	 * @param numFounders
+	 *            number of kept founders
+	 * @return genotype code of each founder
+	 */
+	public static byte[] decode(SnpGenotypes snpGenotypes, int numFounders) {
+		byte[] decoded = new byte[numFounders];
+		for (int f = 0; f < numFounders; f++) {
+			decoded[f] = snpGenotypes.getByteGenotype(f);
+		}
+		return decoded;
+	}
+
+	/**
+	 * Evicts the SNPs farthest away from the current index SNP, until the
+	 * cache is filled to half of its capacity.
+	 */
+	private void evict() {
+		final SnpInfo center = indexSnp;
+		int target = capacity / 2;
+
+		// SNPs on other chromosomes than the index SNP are evicted first
+		Iterator<Map.Entry<SnpGenotypes, byte[]>> iterator = decodedGenotypes
+				.entrySet().iterator();
+		while (iterator.hasNext()) {
+			SnpInfo snpInfo = iterator.next().getKey().getSnpInfo();
+			if (center == null || snpInfo.getChrCode() != center.getChrCode()) {
+				iterator.remove();
+			}
+		}
+		if (decodedGenotypes.size() <= target) {
+			return;
+		}
+
+		// then the SNPs farthest away from the index SNP
+		ArrayList<SnpGenotypes> cached = new ArrayList<SnpGenotypes>(
+				decodedGenotypes.keySet());
+		Collections.sort(cached, new Comparator<SnpGenotypes>() {
+			@Override
+			public int compare(SnpGenotypes x, SnpGenotypes y) {
+				return Long.compare(distance(y.getSnpInfo(), center),
+						distance(x.getSnpInfo(), center));
+			}
+		});
+		for (int i = 0; i < cached.size() - target; i++) {
+			decodedGenotypes.remove(cached.get(i));
+		}
+	}
+
+	private static long distance(SnpInfo snpInfo, SnpInfo center) {
+		return Math.abs((long) snpInfo.getPos() - center.getPos());
+	}
+
+	/**
+	 * Empties the cache.
+	 */
+	public void clear() {
+		decodedGenotypes.clear();
+	}
+
+	// public getters for private fields of this class
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getNumHits() {
+		return numHits;
+	}
+
+	public long getNumMisses() {
+		return numMisses;
+	}
+}
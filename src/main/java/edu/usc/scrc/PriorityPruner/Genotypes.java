@@ -40,6 +40,23 @@ public class Genotypes {
 		this.options = options;
 		
 	}
+
+	/**
+	 * Constructor for a Genotypes-object holding a subset of the SNPs of
+	 * another Genotypes-object, sharing its individuals.
+	 * 
+	 * @param genotypes
+	 *            the Genotypes-object the SNPs were parsed by
+	 * @param snpGenotypes
+	 *            the SNPs of this object
+	 */
+	public Genotypes(Genotypes genotypes, ArrayList<SnpGenotypes> snpGenotypes) {
+		this.keepRemoveSamples = genotypes.keepRemoveSamples;
+		this.options = genotypes.options;
+		this.snpGenotypes = snpGenotypes;
+		this.individuals = genotypes.individuals;
+		this.keptFounders = genotypes.keptFounders;
+	}
 	
 	// SNPs stored as SnpGenotypes-object
 	protected ArrayList<SnpGenotypes> snpGenotypes = new ArrayList<SnpGenotypes>();
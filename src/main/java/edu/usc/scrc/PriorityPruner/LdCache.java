@@ -0,0 +1,136 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches LD between pairs of SNPs, so that it can be shared by the
+ * SNP input tables of a batch (see the --batch_ld_cache option). Pairs are
+ * identified by the tped lines of their SNPs, which are shared by all tables,
+ * and the LD of a pair is the same no matter which table it's calculated for.
+ * 
+ * LD isn't symmetric in the last bits of r^2, so a pair is cached separately
+ * for each of its SNPs as index SNP. Once the cache is full, no more pairs are
+ * added. This class is thread safe.
+ */
+public class LdCache {
+
+	// approximate memory used by a cached pair
+	private static final int BYTES_PER_PAIR = 96;
+
+	// stands in for pairs with undefined LD
+	private static final LdResult UNDEFINED = new LdResult(Double.NaN,
+			Double.NaN);
+
+	private ConcurrentHashMap<Long, LdResult> ldResults = new ConcurrentHashMap<Long, LdResult>();
+	private int capacity;
+
+	// statistics for the log
+	private AtomicLong numHits = new AtomicLong();
+	private AtomicLong numMisses = new AtomicLong();
+
+	/**
+	 * Constructor for LdCache.
+	 * 
+	 * @param capacityBytes
+	 *            approximate maximum memory used by the cached pairs
+	 */
+	public LdCache(long capacityBytes) {
+		this.capacity = (int) Math.min(Integer.MAX_VALUE,
+				Math.max(1, capacityBytes / BYTES_PER_PAIR));
+	}
+
+	/**
+	 * Returns whether LD is cached for a pair of SNPs, and counts the lookup.
+	 * 
+	 * @param indexGenotypes
+	 *            genotypes of the index SNP
+	 * @param genotypes
+	 *            genotypes of the partner SNP
+	 * @return true if LD is cached for the pair
+	 */
+	public boolean contains(SnpGenotypes indexGenotypes, SnpGenotypes genotypes) {
+		if (ldResults.containsKey(getKey(indexGenotypes, genotypes))) {
+			numHits.incrementAndGet();
+			return true;
+		}
+		numMisses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Returns the cached LD of a pair of SNPs.
+	 * 
+	 * @param indexGenotypes
+	 *            genotypes of the index SNP
+	 * @param genotypes
+	 *            genotypes of the partner SNP
+	 * @return the cached LD, or null if LD is undefined for the pair
+	 */
+	public LdResult get(SnpGenotypes indexGenotypes, SnpGenotypes genotypes) {
+		LdResult ldResult = ldResults.get(getKey(indexGenotypes, genotypes));
+		return ldResult == UNDEFINED ? null : ldResult;
+	}
+
+	/**
+	 * Caches the LD of a pair of SNPs, unless the cache is full. The cached
+	 * LdResult-object mustn't be modified afterwards.
+	 * 
+	 * @param indexGenotypes
+	 *            genotypes of the index SNP
+	 * @param genotypes
+	 *            genotypes of the partner SNP
+	 * @param ldResult
+	 *            LD of the pair, or null if it's undefined
+	 */
+	public void put(SnpGenotypes indexGenotypes, SnpGenotypes genotypes,
+			LdResult ldResult) {
+		if (ldResults.size() < capacity) {
+			ldResults.put(getKey(indexGenotypes, genotypes),
+					ldResult == null ? UNDEFINED : ldResult);
+		}
+	}
+
+	/**
+	 * Returns the key of a pair of SNPs, made from the indices of their tped
+	 * lines.
+	 */
+	private static Long getKey(SnpGenotypes indexGenotypes,
+			SnpGenotypes genotypes) {
+		return Long.valueOf(((long) indexGenotypes.getRowIndex() << 32)
+				| (genotypes.getRowIndex() & 0xFFFFFFFFL));
+	}
+
+	// public getters for private fields of this class
+
+	public long getNumHits() {
+		return numHits.get();
+	}
+
+	public long getNumMisses() {
+		return numMisses.get();
+	}
+}
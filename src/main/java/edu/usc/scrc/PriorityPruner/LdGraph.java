@@ -0,0 +1,478 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class holds the LD between all pairs of SNPs that are within each
+ * other's pruning windows, calculated before pruning starts. The pairs are
+ * calculated in a single sweep over the SNPs in order of chromosome and
+ * position, split into blocks that are processed in parallel, and only pairs
+ * with an r^2 of at least a given minimum are kept. Pruning then only has to
+ * look up the pairs of each index SNP instead of calculating LD.
+ * 
+ * The pairs are stored in compressed sparse row form: the partners of the SNP
+ * at index i in the list sorted by chromosome and position are stored, in
+ * order of position, from rowStarts[i] up to rowStarts[i + 1]. A pair is
+ * stored in both directions, with the LD calculated with the SNP of the row
+ * as first marker, which gives exactly the same values as calculating LD for
+ * one index SNP at a time.
+ * 
+ * LdStore extends this class to read the pairs from a file instead.
+ */
+public class LdGraph {
+
+	// number of SNPs in each block processed by a single thread
+	private static final int BLOCK_SIZE = 512;
+
+	private SnpListFile snpListFile;
+	private ArrayList<Individual> keptFounders;
+	private CommandLineOptions options;
+	private double minRSquared;
+	// flag showing whether to calculate LD between all pairs of SNPs, instead
+	// of only from SNPs that can become index SNP to valid SNPs
+	private boolean allPairs;
+
+	// first and last SNP of the pruning window of each SNP
+	private int[] windowStarts;
+	private int[] windowEnds;
+
+	// pairs in LD, in compressed sparse row form
+	private int[] rowStarts;
+	private int[] partners;
+	private double[] rSquared;
+	private double[] dPrime;
+
+	/**
+	 * Constructor for LdGraph. Calculates LD between all SNPs that could be
+	 * index SNP and all valid SNPs within their pruning windows.
+	 * 
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune
+	 * @param keptFounders
+	 *            founder subjects in the genotypes
+	 * @param options
+	 *            the command line options
+	 * @param minRSquared
+	 *            minimum r^2 of the pairs to keep
+	 * @param allPairs
+	 *            flag showing whether to calculate LD between all pairs of
+	 *            SNPs, regardless of design scores, force include status and
+	 *            the maf and call rate thresholds (used for LdStore)
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during LD calculation
+	 */
+	public LdGraph(SnpListFile snpListFile, ArrayList<Individual> keptFounders,
+			CommandLineOptions options, double minRSquared, boolean allPairs)
+			throws PriorityPrunerException {
+		this.snpListFile = snpListFile;
+		this.keptFounders = keptFounders;
+		this.options = options;
+		this.minRSquared = minRSquared;
+		this.allPairs = allPairs;
+		build();
+	}
+
+	/**
+	 * Constructor for LdGraph, taking pairs that have already been calculated.
+	 * 
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs of the graph
+	 * @param minRSquared
+	 *            minimum r^2 of the pairs to look up
+	 * @param rowStarts
+	 *            start of the pairs of each SNP, with the total number of
+	 *            pairs at the end
+	 * @param partners
+	 *            partner of each pair
+	 * @param rSquared
+	 *            r^2 of each pair
+	 * @param dPrime
+	 *            D' of each pair
+	 */
+	public LdGraph(SnpListFile snpListFile, double minRSquared,
+			int[] rowStarts, int[] partners, double[] rSquared, double[] dPrime) {
+		this.snpListFile = snpListFile;
+		this.minRSquared = minRSquared;
+		this.rowStarts = rowStarts;
+		this.partners = partners;
+		this.rSquared = rSquared;
+		this.dPrime = dPrime;
+	}
+
+	/**
+	 * Calculates the pruning windows, processes the blocks of SNPs and stores
+	 * the pairs found in compressed sparse row form.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during LD calculation
+	 */
+	private void build() throws PriorityPrunerException {
+		ArrayList<SnpInfo> snps = snpListFile.getSnpsSortedByChrPos();
+		int numSnps = snps.size();
+
+		windowStarts = new int[numSnps];
+		windowEnds = new int[numSnps];
+		int numCappedWindows = 0;
+		for (int i = 0; i < numSnps; i++) {
+			SnpInfo snp = snps.get(i);
+			// if genotypes couldn't be found -- this shouldn't ever happen
+			if (snp.getSnpGenotypes() == null) {
+				throw new PriorityPrunerException("Could not find genotypes for " + 
+					snp.getSnpName());
+			}
+			if (options.getMaxWindowSnps() == 0) {
+				windowStarts[i] = snpListFile.getWindowStart(snp, options.getMaxDistance());
+				windowEnds[i] = snpListFile.getWindowEnd(snp, options.getMaxDistance());
+			} else {
+				windowStarts[i] = snpListFile.getWindowStart(snp,
+						options.getMaxDistance(), options.getMaxWindowSnps());
+				windowEnds[i] = snpListFile.getWindowEnd(snp,
+						options.getMaxDistance(), options.getMaxWindowSnps());
+				if (snpListFile.isWindowCapped(snp, options.getMaxDistance(),
+						windowStarts[i], windowEnds[i])) {
+					numCappedWindows++;
+				}
+			}
+		}
+		if (options.getMaxWindowSnps() > 0) {
+			LogWriter.getLogger().info(
+					"Window SNP limit hit for " + numCappedWindows + " of "
+							+ numSnps + " SNPs");
+		}
+
+		ArrayList<Block> blocks = new ArrayList<Block>();
+		for (int start = 0; start < numSnps; start += BLOCK_SIZE) {
+			blocks.add(new Block(start, Math.min(start + BLOCK_SIZE, numSnps)));
+		}
+
+		// processes the blocks, each thread with its own genotype cache
+		int numThreads = Math.max(1, Math.min(options.getThreads(), blocks.size()));
+		long cacheBytes = Runtime.getRuntime().maxMemory() / 8 / numThreads;
+		ExecutorService executor = null;
+		try {
+			if (numThreads > 1) {
+				executor = Executors.newFixedThreadPool(numThreads);
+				ArrayList<Future<Block>> futures = new ArrayList<Future<Block>>();
+				for (Block block : blocks) {
+					block.cacheBytes = cacheBytes;
+					futures.add(executor.submit(block));
+				}
+				for (Future<Block> future : futures) {
+					getProcessedBlock(future);
+				}
+			} else {
+				for (Block block : blocks) {
+					block.cacheBytes = cacheBytes;
+					block.call();
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		// counts the pairs of each SNP
+		long numPairs = 0;
+		for (Block block : blocks) {
+			numPairs += block.numPairs;
+		}
+		if (numPairs > Integer.MAX_VALUE - 8) {
+			throw new PriorityPrunerException("Too many pairs of SNPs in LD ("
+					+ numPairs + ") to store in the LD graph. "
+					+ "Please decrease the maximum distance.");
+		}
+		rowStarts = new int[numSnps + 1];
+		for (Block block : blocks) {
+			for (int p = 0; p < block.numPairs; p++) {
+				rowStarts[block.snps[p] + 1]++;
+			}
+		}
+		for (int i = 0; i < numSnps; i++) {
+			rowStarts[i + 1] += rowStarts[i];
+		}
+
+		// stores the pairs by SNP. The blocks are in order of position, and
+		// within a block the pairs of each SNP are found in order of the
+		// position of the partner, so the partners of each SNP end up sorted
+		// by position
+		partners = new int[(int) numPairs];
+		rSquared = new double[(int) numPairs];
+		dPrime = new double[(int) numPairs];
+		int[] next = Arrays.copyOf(rowStarts, numSnps);
+		for (int b = 0; b < blocks.size(); b++) {
+			Block block = blocks.get(b);
+			for (int p = 0; p < block.numPairs; p++) {
+				int pair = next[block.snps[p]]++;
+				partners[pair] = block.partners[p];
+				rSquared[pair] = block.rSquared[p];
+				dPrime[pair] = block.dPrime[p];
+			}
+			blocks.set(b, null);
+		}
+	}
+
+	/**
+	 * Waits for a block to be processed, rethrowing any exception thrown while
+	 * processing it.
+	 * 
+	 * @param future
+	 *            the submitted block
+	 * @return the processed block
+	 * @throws PriorityPrunerException
+	 *             if problems were encountered during LD calculation
+	 */
+	private Block getProcessedBlock(Future<Block> future)
+			throws PriorityPrunerException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new PriorityPrunerException(
+					"Interrupted while calculating the LD graph.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PriorityPrunerException) {
+				throw (PriorityPrunerException) e.getCause();
+			}
+			throw new PriorityPrunerException("Could not calculate the LD graph: "
+					+ e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * Checks if a SNP can become an index SNP, i.e. if it passes the design
+	 * score minimum and the maf and call rate thresholds, or is force included.
+	 * 
+	 * @param snp
+	 *            the SNP to check
+	 * @return true if the SNP can become an index SNP, false otherwise
+	 */
+	private boolean canBeIndexSnp(SnpInfo snp) {
+		return allPairs
+				|| (snp.getDesignScore() >= options.getMinDesignScore() || snp
+				.getForceInclude())
+				&& (snp.getSnpGenotypes().isValid() || snp.getForceInclude());
+	}
+
+	/**
+	 * Checks if a SNP can be in LD with an index SNP, i.e. if it passes the maf
+	 * and call rate thresholds.
+	 * 
+	 * @param snp
+	 *            the SNP to check
+	 * @return true if the SNP can be in LD with an index SNP, false otherwise
+	 */
+	private boolean canBePartner(SnpInfo snp) {
+		return allPairs || snp.getSnpGenotypes().isValid();
+	}
+
+	/**
+	 * Returns the LD results of an index SNP, in order of position and
+	 * including the index SNP itself, as SnpWorkUnit would calculate them
+	 * except that pairs with an r^2 below the minimum are left out.
+	 * 
+	 * @param indexSnp
+	 *            the index SNP
+	 * @return list of Result-objects
+	 */
+	public ArrayList<Result> getResults(SnpInfo indexSnp) {
+		int snp = indexSnp.getSortedByPosIndex();
+		int rowStart = getRowStart(snp);
+		int rowEnd = getRowStart(snp + 1);
+		ArrayList<Result> results = new ArrayList<Result>(rowEnd - rowStart + 1);
+		boolean indexSnpAdded = false;
+		for (int pair = rowStart; pair < rowEnd; pair++) {
+			int partner = getPartner(pair);
+			if (!indexSnpAdded && partner > snp) {
+				results.add(createResult(indexSnp, indexSnp, 1, 1));
+				indexSnpAdded = true;
+			}
+			// only valid SNPs are partners of the index SNP
+			SnpInfo partnerSnp = snpListFile.getSnpsSortedByChrPos().get(partner);
+			double r2 = getRSquared(pair);
+			if (partnerSnp.getSnpGenotypes().isValid() && r2 >= minRSquared) {
+				results.add(createResult(indexSnp, partnerSnp, r2,
+						getDPrime(pair)));
+			}
+		}
+		if (!indexSnpAdded) {
+			results.add(createResult(indexSnp, indexSnp, 1, 1));
+		}
+		return results;
+	}
+
+	/**
+	 * Creates the Result-object of a pair of SNPs.
+	 */
+	private Result createResult(SnpInfo indexSnp, SnpInfo partnerSnp,
+			double rSquared, double dPrime) {
+		return new Result(indexSnp.getSnpName(), indexSnp.getSnpGenotypes()
+				.getMaf(), indexSnp.getChrCode(), indexSnp.getPos(),
+				partnerSnp.getSnpName(), partnerSnp.getSnpGenotypes().getMaf(),
+				partnerSnp.getChrCode(), partnerSnp.getPos(), rSquared, dPrime,
+				indexSnp, partnerSnp);
+	}
+
+	// public getters for the pairs of this graph, which are overridden by
+	// LdStore
+
+	/**
+	 * Returns the start of the pairs of a SNP, or the total number of pairs
+	 * for the index right after the last SNP.
+	 */
+	public int getRowStart(int snp) {
+		return rowStarts[snp];
+	}
+
+	public int getPartner(int pair) {
+		return partners[pair];
+	}
+
+	public double getRSquared(int pair) {
+		return rSquared[pair];
+	}
+
+	public double getDPrime(int pair) {
+		return dPrime[pair];
+	}
+
+	public int getNumPairs() {
+		return partners.length;
+	}
+
+	public double getMinRSquared() {
+		return minRSquared;
+	}
+
+	/**
+	 * A block of consecutive SNPs (in order of chromosome and position), for
+	 * which LD is calculated with all SNPs further downstream in their windows.
+	 */
+	private class Block implements Callable<Block> {
+
+		private int start;
+		private int end;
+		private long cacheBytes;
+
+		// pairs found, in the order they were found
+		private int numPairs = 0;
+		private int[] snps = new int[1024];
+		private int[] partners = new int[1024];
+		private double[] rSquared = new double[1024];
+		private double[] dPrime = new double[1024];
+
+		private Block(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Block call() {
+			ArrayList<SnpInfo> snpList = snpListFile.getSnpsSortedByChrPos();
+			GenotypeCache genotypeCache = new GenotypeCache(keptFounders.size(),
+					cacheBytes);
+			SnpWorkUnit snpWorkUnit = new SnpWorkUnit(keptFounders);
+			snpWorkUnit.setMinRSquared(minRSquared);
+
+			for (int a = start; a < end; a++) {
+				SnpInfo snpA = snpList.get(a);
+				boolean validA = canBePartner(snpA);
+				boolean indexA = canBeIndexSnp(snpA);
+				if (!validA && !indexA) {
+					continue;
+				}
+				genotypeCache.setIndexSnp(snpA);
+				byte[] decodedA = null;
+
+				for (int b = a + 1; b < snpList.size(); b++) {
+					SnpInfo snpB = snpList.get(b);
+					boolean inWindowOfA = b <= windowEnds[a];
+					boolean inWindowOfB = windowStarts[b] <= a;
+					if (snpB.getChrCode() != snpA.getChrCode()
+							|| (!inWindowOfA && !inWindowOfB)) {
+						break;
+					}
+
+					// LD is only needed from SNPs that can become index SNP to
+					// valid SNPs in their windows
+					boolean forward = inWindowOfA && indexA
+							&& canBePartner(snpB);
+					boolean backward = inWindowOfB && validA
+							&& canBeIndexSnp(snpB);
+					if (!forward && !backward) {
+						continue;
+					}
+					if (decodedA == null) {
+						decodedA = genotypeCache.getDecodedGenotypes(snpA
+								.getSnpGenotypes());
+					}
+					LdResult[] ldResults = snpWorkUnit.calculateLdResultPair(
+							snpA.getSnpGenotypes(), decodedA,
+							snpB.getSnpGenotypes(),
+							genotypeCache.getDecodedGenotypes(snpB.getSnpGenotypes()),
+							forward, backward);
+					addPair(a, b, ldResults[0]);
+					addPair(b, a, ldResults[1]);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a pair, unless LD is undefined or r^2 is below the minimum.
+		 */
+		private void addPair(int snp, int partner, LdResult ldResult) {
+			if (ldResult == null) {
+				return;
+			}
+			double r2 = ldResult.getRSquared();
+			if (r2 > 1) {
+				r2 = 1;
+			}
+			// also skips r^2-values that aren't valid numbers
+			if (!(r2 >= minRSquared)) {
+				return;
+			}
+			if (numPairs == snps.length) {
+				int capacity = snps.length * 2;
+				snps = Arrays.copyOf(snps, capacity);
+				partners = Arrays.copyOf(partners, capacity);
+				rSquared = Arrays.copyOf(rSquared, capacity);
+				dPrime = Arrays.copyOf(dPrime, capacity);
+			}
+			snps[numPairs] = snp;
+			partners[numPairs] = partner;
+			rSquared[numPairs] = r2;
+			dPrime[numPairs] = ldResult.getDPrime();
+			numPairs++;
+		}
+	}
+}
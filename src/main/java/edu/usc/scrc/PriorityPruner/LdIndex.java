@@ -0,0 +1,402 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class writes and reads the index of a text LD table (<table>.idx),
+ * written with the --ld_index option, and looks up the rows of the index SNPs
+ * within a region of a chromosome.
+ * 
+ * The rows of each index SNP are consecutive in the LD table, so the index
+ * holds one entry per index SNP: its chromosome and position, and the offset
+ * and length of its rows in the uncompressed table. Entries are sorted by
+ * chromosome and position, so the entries of a region are found by binary
+ * search. For tables compressed with --bgzf, the index also holds the offset
+ * of each BGZF block in the uncompressed table and in the file, so rows are
+ * read by seeking to the block holding their offset.
+ * 
+ * The file starts with the magic number, the format version, flags and the
+ * chromosome names, followed by the entries and, for compressed tables, the
+ * blocks. All numbers are big-endian.
+ */
+public class LdIndex {
+
+	// "PPLI"
+	private static final int MAGIC = 0x50504C49;
+	private static final int VERSION = 1;
+	private static final int FLAG_BGZF = 1;
+
+	// entries, in the order the index SNPs were written while building the
+	// index, or sorted by chromosome and position once read
+	private int numEntries = 0;
+	private int[] chrs = new int[1024];
+	private int[] positions = new int[1024];
+	private long[] offsets = new long[1024];
+	private long[] lengths;
+
+	// names of the chromosomes of the entries, when read
+	private String[] chrNames;
+
+	// offsets of the BGZF blocks in the uncompressed table and in the file,
+	// or null if the table isn't compressed
+	private long[] blockDataOffsets;
+	private long[] blockFileOffsets;
+
+	/**
+	 * Adds the entry of an index SNP, whose rows start at the specified
+	 * offset. The rows of each index SNP must be added in the order they are
+	 * written, and end where the rows of the next index SNP start.
+	 * 
+	 * @param chrCode
+	 *            chromosome code of the index SNP
+	 * @param pos
+	 *            position of the index SNP
+	 * @param offset
+	 *            offset of its first row in the uncompressed table
+	 */
+	public void addEntry(int chrCode, int pos, long offset) {
+		if (numEntries == chrs.length) {
+			chrs = Arrays.copyOf(chrs, numEntries * 2);
+			positions = Arrays.copyOf(positions, numEntries * 2);
+			offsets = Arrays.copyOf(offsets, numEntries * 2);
+		}
+		chrs[numEntries] = chrCode;
+		positions[numEntries] = pos;
+		offsets[numEntries] = offset;
+		numEntries++;
+	}
+
+	/**
+	 * Writes the index.
+	 * 
+	 * @param filePath
+	 *            path of the index
+	 * @param tableLength
+	 *            length of the uncompressed table, where the rows of the last
+	 *            index SNP end
+	 * @param bgzfStream
+	 *            the stream the table was compressed with, or null if the table
+	 *            isn't compressed
+	 * @throws IOException
+	 *             if the index couldn't be written
+	 */
+	public void write(String filePath, long tableLength,
+			BgzfOutputStream bgzfStream) throws IOException {
+		// chromosomes are numbered in order of their codes
+		final int[] chrNumbers = new int[ChromosomeDictionary.getInstance().size()];
+		Arrays.fill(chrNumbers, -1);
+		for (int i = 0; i < numEntries; i++) {
+			chrNumbers[chrs[i]] = 0;
+		}
+		ArrayList<String> names = new ArrayList<String>();
+		for (int code = 0; code < chrNumbers.length; code++) {
+			if (chrNumbers[code] == 0) {
+				chrNumbers[code] = names.size();
+				names.add(ChromosomeDictionary.getInstance().getName(code));
+			}
+		}
+
+		ArrayList<Integer> order = new ArrayList<Integer>(numEntries);
+		for (int i = 0; i < numEntries; i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer x, Integer y) {
+				if (chrs[x] != chrs[y]) {
+					return chrNumbers[chrs[x]] < chrNumbers[chrs[y]] ? -1 : 1;
+				}
+				if (positions[x] != positions[y]) {
+					return positions[x] < positions[y] ? -1 : 1;
+				}
+				return x.compareTo(y);
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filePath)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(bgzfStream != null ? FLAG_BGZF : 0);
+			out.writeInt(names.size());
+			for (String name : names) {
+				out.writeUTF(name);
+			}
+			out.writeInt(numEntries);
+			for (int i : order) {
+				long end = i + 1 < numEntries ? offsets[i + 1] : tableLength;
+				out.writeInt(chrNumbers[chrs[i]]);
+				out.writeInt(positions[i]);
+				out.writeLong(offsets[i]);
+				out.writeLong(end - offsets[i]);
+			}
+			if (bgzfStream != null) {
+				out.writeInt(bgzfStream.getNumBlocks());
+				for (int b = 0; b < bgzfStream.getNumBlocks(); b++) {
+					out.writeLong(bgzfStream.getBlockDataOffset(b));
+					out.writeLong(bgzfStream.getBlockFileOffset(b));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the header and the rows of the index SNPs within a region of a
+	 * chromosome, in the order they appear in the LD table.
+	 * 
+	 * @param tablePath
+	 *            path of the LD table, whose index is <tablePath>.idx
+	 * @param region
+	 *            the region, as chr, chr:pos or chr:start-end
+	 * @param out
+	 *            the stream to write the rows to
+	 * @return the number of index SNPs within the region
+	 * @throws PriorityPrunerException
+	 *             if the region is invalid, or the table or index can't be
+	 *             read
+	 */
+	public static int query(String tablePath, String region, OutputStream out)
+			throws PriorityPrunerException {
+		String chr = region;
+		int start = 0;
+		int end = Integer.MAX_VALUE;
+		int colon = region.lastIndexOf(':');
+		if (colon >= 0) {
+			chr = region.substring(0, colon);
+			String range = region.substring(colon + 1);
+			int dash = range.indexOf('-');
+			try {
+				if (dash >= 0) {
+					start = Integer.parseInt(range.substring(0, dash));
+					end = Integer.parseInt(range.substring(dash + 1));
+				} else {
+					start = Integer.parseInt(range);
+					end = start;
+				}
+			} catch (NumberFormatException e) {
+				throw new PriorityPrunerException("Invalid region: " + region
+						+ ". Regions are specified as chr, chr:pos or chr:start-end.");
+			}
+		}
+
+		LdIndex index = read(tablePath + ".idx");
+		try {
+			out.write(LinkageDisequilibriumFile.HEADER.getBytes());
+			int chrNumber = Arrays.asList(index.chrNames).indexOf(chr.toUpperCase());
+			if (chrNumber < 0) {
+				return 0;
+			}
+
+			// finds the first entry of the region by binary search
+			int low = 0;
+			int high = index.numEntries;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (index.chrs[middle] < chrNumber
+						|| (index.chrs[middle] == chrNumber && index.positions[middle] < start)) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			ArrayList<long[]> ranges = new ArrayList<long[]>();
+			int numIndexSnps = 0;
+			for (int i = low; i < index.numEntries && index.chrs[i] == chrNumber
+					&& index.positions[i] <= end; i++) {
+				ranges.add(new long[] { index.offsets[i], index.lengths[i] });
+				numIndexSnps++;
+			}
+
+			// reads the rows in table order, merging adjacent ranges
+			Collections.sort(ranges, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] x, long[] y) {
+					return Long.compare(x[0], y[0]);
+				}
+			});
+			RandomAccessFile table = new RandomAccessFile(tablePath, "r");
+			try {
+				int r = 0;
+				while (r < ranges.size()) {
+					long offset = ranges.get(r)[0];
+					long length = ranges.get(r)[1];
+					for (r++; r < ranges.size() && ranges.get(r)[0] == offset + length; r++) {
+						length += ranges.get(r)[1];
+					}
+					if (index.blockDataOffsets == null) {
+						copyRange(table, offset, length, out);
+					} else {
+						index.copyCompressedRange(table, offset, length, out);
+					}
+				}
+			} finally {
+				table.close();
+			}
+			out.flush();
+			return numIndexSnps;
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not read LD table "
+					+ tablePath + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads an index, with its entries sorted by chromosome and position.
+	 */
+	private static LdIndex read(String filePath) throws PriorityPrunerException {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+					filePath)));
+			if (in.readInt() != MAGIC) {
+				throw new PriorityPrunerException("File " + filePath
+						+ " is not an LD table index.");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new PriorityPrunerException("Unsupported LD table index version "
+						+ version + " in " + filePath + ".");
+			}
+			int flags = in.readInt();
+			LdIndex index = new LdIndex();
+			index.chrNames = new String[in.readInt()];
+			for (int c = 0; c < index.chrNames.length; c++) {
+				index.chrNames[c] = in.readUTF();
+			}
+			index.numEntries = in.readInt();
+			index.chrs = new int[index.numEntries];
+			index.positions = new int[index.numEntries];
+			index.offsets = new long[index.numEntries];
+			index.lengths = new long[index.numEntries];
+			for (int i = 0; i < index.numEntries; i++) {
+				index.chrs[i] = in.readInt();
+				index.positions[i] = in.readInt();
+				index.offsets[i] = in.readLong();
+				index.lengths[i] = in.readLong();
+			}
+			if ((flags & FLAG_BGZF) != 0) {
+				int numBlocks = in.readInt();
+				index.blockDataOffsets = new long[numBlocks];
+				index.blockFileOffsets = new long[numBlocks];
+				for (int b = 0; b < numBlocks; b++) {
+					index.blockDataOffsets[b] = in.readLong();
+					index.blockFileOffsets[b] = in.readLong();
+				}
+			}
+			return index;
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not read LD table index "
+					+ filePath + ": " + e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies a range of an uncompressed table.
+	 */
+	private static void copyRange(RandomAccessFile table, long offset,
+			long length, OutputStream out) throws IOException {
+		byte[] buffer = new byte[65536];
+		table.seek(offset);
+		while (length > 0) {
+			int read = table.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+			out.write(buffer, 0, read);
+			length -= read;
+		}
+	}
+
+	/**
+	 * Copies a range of the uncompressed data of a BGZF table, decompressing
+	 * the blocks from the one holding the start of the range.
+	 */
+	private void copyCompressedRange(RandomAccessFile table, long offset,
+			long length, OutputStream out) throws IOException {
+		int block = Arrays.binarySearch(blockDataOffsets, offset);
+		if (block < 0) {
+			block = -block - 2;
+		}
+		byte[] compressed = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+		byte[] data = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+		Inflater inflater = new Inflater(true);
+		try {
+			table.seek(blockFileOffsets[block]);
+			long dataOffset = blockDataOffsets[block];
+			while (length > 0) {
+				// reads the header, which holds the block size - 1
+				table.readFully(compressed, 0, 18);
+				int blockSize = (compressed[16] & 0xff) + ((compressed[17] & 0xff) << 8) + 1;
+				table.readFully(compressed, 18, blockSize - 18);
+				inflater.reset();
+				inflater.setInput(compressed, 18, blockSize - 26);
+				int dataLength;
+				try {
+					dataLength = inflater.inflate(data);
+				} catch (DataFormatException e) {
+					throw new IOException("Invalid compressed block: " + e.getMessage());
+				}
+				if (dataLength == 0) {
+					throw new IOException("Unexpected end of file.");
+				}
+				int from = (int) Math.max(0, offset - dataOffset);
+				int to = (int) Math.min(dataLength, offset + length - dataOffset);
+				if (to > from) {
+					out.write(data, from, to - from);
+					length -= to - from;
+					offset += to - from;
+				}
+				dataOffset += dataLength;
+			}
+		} finally {
+			inflater.end();
+		}
+	}
+}
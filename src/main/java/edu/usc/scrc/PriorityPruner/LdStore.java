@@ -0,0 +1,464 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * This class stores an LdGraph on disk, so that SNPs can be pruned again
+ * (e.g. with other thresholds, surrogates or metrics) without calculating LD.
+ * The store holds the LD between all pairs of SNPs within the maximum
+ * distance with r^2 at or above a minimum, regardless of which SNPs could
+ * become index SNPs, and is keyed by a hash of the genotype panel (the SNPs and
+ * the genotypes of the kept founders), the maximum distance and the minimum
+ * r^2.
+ * 
+ * The file starts with a header and a table of sections, followed by one
+ * section per chromosome, each holding the pairs of its SNPs in compressed
+ * sparse row form: the start of the pairs of each SNP, the partner of each
+ * pair, r^2 quantized to 16 bits and, optionally, D' quantized to 16 bits.
+ * The sections are memory-mapped when the store is opened, so pairs are only
+ * read from disk when they're looked up.
+ */
+public class LdStore extends LdGraph {
+
+	// "PPLDSTOR"
+	private static final long MAGIC = 0x50504C4453544F52L;
+	// version 1 rounded r^2 and D' to the nearest level instead of up
+	private static final int VERSION = 2;
+	private static final int FLAG_D_PRIME = 1;
+	private static final int HEADER_SIZE = 56;
+	private static final int SECTION_ENTRY_SIZE = 24;
+	private static final double QUANTIZATION_LEVELS = 65535;
+
+	private long panelHash;
+	private long maxDistance;
+	private double storedMinRSquared;
+	private boolean hasDPrime;
+	private int numSnps;
+	private int numPairs;
+
+	// first SNP and first pair of each section, with the totals at the end
+	private int[] sectionSnps;
+	private int[] sectionPairs;
+
+	// memory-mapped contents of each section
+	private IntBuffer[] rowStarts;
+	private IntBuffer[] partners;
+	private ShortBuffer[] rSquared;
+	private ShortBuffer[] dPrime;
+
+	/**
+	 * Constructor for LdStore, used by open.
+	 */
+	private LdStore(SnpListFile snpListFile, double minRSquared) {
+		super(snpListFile, minRSquared, null, null, null, null);
+	}
+
+	/**
+	 * Opens a store, if it matches the current genotype panel and settings.
+	 * 
+	 * @param filePath
+	 *            path of the store
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune
+	 * @param panelHash
+	 *            hash of the current genotype panel, from getPanelHash
+	 * @param maxDistance
+	 *            maximum distance between index SNP and partners
+	 * @param minRSquared
+	 *            minimum r^2 of the pairs needed
+	 * @param needDPrime
+	 *            flag showing whether D' is needed
+	 * @return the opened store, or null if the store can't be used for these
+	 *         settings
+	 * @throws PriorityPrunerException
+	 *             if the file can't be read or isn't an LD store
+	 */
+	public static LdStore open(String filePath, SnpListFile snpListFile,
+			long panelHash, long maxDistance, double minRSquared,
+			boolean needDPrime) throws PriorityPrunerException {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(filePath, "r");
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			if (header.getLong() != MAGIC) {
+				throw new PriorityPrunerException("File " + filePath
+						+ " is not an LD store.");
+			}
+			LdStore store = new LdStore(snpListFile, minRSquared);
+			int version = header.getInt();
+			int flags = header.getInt();
+			store.panelHash = header.getLong();
+			store.maxDistance = header.getLong();
+			store.storedMinRSquared = header.getDouble();
+			store.hasDPrime = (flags & FLAG_D_PRIME) != 0;
+			store.numSnps = header.getInt();
+			int numSections = header.getInt();
+			store.numPairs = (int) header.getLong();
+			if (version != VERSION || store.panelHash != panelHash
+					|| store.maxDistance != maxDistance
+					|| store.storedMinRSquared > minRSquared
+					|| (needDPrime && !store.hasDPrime)) {
+				return null;
+			}
+
+			// maps the sections
+			ByteBuffer table = ByteBuffer.allocate(numSections * SECTION_ENTRY_SIZE);
+			readFully(channel, table, HEADER_SIZE);
+			store.sectionSnps = new int[numSections + 1];
+			store.sectionPairs = new int[numSections + 1];
+			store.rowStarts = new IntBuffer[numSections];
+			store.partners = new IntBuffer[numSections];
+			store.rSquared = new ShortBuffer[numSections];
+			store.dPrime = new ShortBuffer[numSections];
+			for (int s = 0; s < numSections; s++) {
+				store.sectionSnps[s] = table.getInt();
+				int sectionNumSnps = table.getInt();
+				store.sectionPairs[s] = (int) table.getLong();
+				long offset = table.getLong();
+				int sectionNumPairs = (int) (s + 1 < numSections ? table
+						.getLong(table.position() + 8) : store.numPairs)
+						- store.sectionPairs[s];
+				MappedByteBuffer section = channel.map(
+						FileChannel.MapMode.READ_ONLY, offset,
+						getSectionSize(sectionNumSnps, sectionNumPairs,
+								store.hasDPrime));
+				store.rowStarts[s] = slice(section, 0, 4 * (sectionNumSnps + 1))
+						.asIntBuffer();
+				long position = 4L * (sectionNumSnps + 1);
+				store.partners[s] = slice(section, position,
+						4 * sectionNumPairs).asIntBuffer();
+				position += 4L * sectionNumPairs;
+				store.rSquared[s] = slice(section, position,
+						2 * sectionNumPairs).asShortBuffer();
+				position += 2L * sectionNumPairs;
+				if (store.hasDPrime) {
+					store.dPrime[s] = slice(section, position,
+							2 * sectionNumPairs).asShortBuffer();
+				}
+			}
+			store.sectionSnps[numSections] = store.numSnps;
+			store.sectionPairs[numSections] = store.numPairs;
+			return store;
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not read LD store "
+					+ filePath + ": " + e.getMessage());
+		} finally {
+			if (file != null) {
+				try {
+					// the mapped sections stay valid after closing the file
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes an LdGraph to a store. The graph should have been calculated for
+	 * all pairs of SNPs.
+	 * 
+	 * @param filePath
+	 *            path of the store
+	 * @param graph
+	 *            the LdGraph to store
+	 * @param snps
+	 *            the SNPs of the graph, sorted by chromosome and position
+	 * @param panelHash
+	 *            hash of the genotype panel, from getPanelHash
+	 * @param maxDistance
+	 *            maximum distance the graph was calculated for
+	 * @param withDPrime
+	 *            flag showing whether to store D'
+	 * @throws PriorityPrunerException
+	 *             if the file can't be written
+	 */
+	public static void write(String filePath, LdGraph graph,
+			ArrayList<SnpInfo> snps, long panelHash, long maxDistance,
+			boolean withDPrime) throws PriorityPrunerException {
+
+		// one section per chromosome
+		ArrayList<Integer> sectionStarts = new ArrayList<Integer>();
+		for (int i = 0; i < snps.size(); i++) {
+			if (i == 0 || snps.get(i).getChrCode() != snps.get(i - 1).getChrCode()) {
+				sectionStarts.add(i);
+			}
+		}
+		sectionStarts.add(snps.size());
+		int numSections = sectionStarts.size() - 1;
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(new File(filePath)), 1 << 16));
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(withDPrime ? FLAG_D_PRIME : 0);
+			out.writeLong(panelHash);
+			out.writeLong(maxDistance);
+			out.writeDouble(graph.getMinRSquared());
+			out.writeInt(snps.size());
+			out.writeInt(numSections);
+			out.writeLong(graph.getNumPairs());
+
+			long offset = HEADER_SIZE + (long) numSections * SECTION_ENTRY_SIZE;
+			for (int s = 0; s < numSections; s++) {
+				int first = sectionStarts.get(s);
+				int last = sectionStarts.get(s + 1);
+				int firstPair = graph.getRowStart(first);
+				out.writeInt(first);
+				out.writeInt(last - first);
+				out.writeLong(firstPair);
+				out.writeLong(offset);
+				offset += getSectionSize(last - first, graph.getRowStart(last)
+						- firstPair, withDPrime);
+			}
+
+			for (int s = 0; s < numSections; s++) {
+				int first = sectionStarts.get(s);
+				int last = sectionStarts.get(s + 1);
+				int firstPair = graph.getRowStart(first);
+				int lastPair = graph.getRowStart(last);
+				for (int i = first; i <= last; i++) {
+					out.writeInt(graph.getRowStart(i) - firstPair);
+				}
+				for (int pair = firstPair; pair < lastPair; pair++) {
+					out.writeInt(graph.getPartner(pair));
+				}
+				for (int pair = firstPair; pair < lastPair; pair++) {
+					out.writeShort(quantize(graph.getRSquared(pair)));
+				}
+				if (withDPrime) {
+					for (int pair = firstPair; pair < lastPair; pair++) {
+						out.writeShort(quantize(graph.getDPrime(pair)));
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not write LD store "
+					+ filePath + ": " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates a hash of the genotype panel, i.e. the SNPs to prune (names,
+	 * positions, alleles and genotypes) and the kept founders (IDs and sex).
+	 * 
+	 * @param snps
+	 *            the SNPs to prune, sorted by chromosome and position
+	 * @param keptFounders
+	 *            founder subjects in the genotypes
+	 * @return 64-bit hash of the panel
+	 */
+	public static long getPanelHash(ArrayList<SnpInfo> snps,
+			ArrayList<Individual> keptFounders) {
+		// 64-bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, keptFounders.size());
+		for (Individual founder : keptFounders) {
+			hash = hash(hash, founder.getFamilyID());
+			hash = hash(hash, founder.getIndividualID());
+			hash = hash(hash, founder.getSex().ordinal());
+		}
+		hash = hash(hash, snps.size());
+		for (SnpInfo snp : snps) {
+			SnpGenotypes genotypes = snp.getSnpGenotypes();
+			hash = hash(hash, snp.getSnpName());
+			hash = hash(hash, snp.getChr());
+			hash = hash(hash, snp.getPos());
+			hash = hash(hash, genotypes.getAllele1());
+			hash = hash(hash, genotypes.getAllele2());
+			for (byte b : genotypes.getGenotypes()) {
+				hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	// steps of the 64-bit FNV-1a hash, also used by Checkpoint
+
+	static long hash(long hash, int value) {
+		for (int i = 0; i < 4; i++) {
+			hash = (hash ^ ((value >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	static long hash(long hash, long value) {
+		hash = hash(hash, (int) value);
+		return hash(hash, (int) (value >>> 32));
+	}
+
+	static long hash(long hash, String value) {
+		hash = hash(hash, value.length());
+		for (int i = 0; i < value.length(); i++) {
+			hash = hash(hash, value.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * Quantizes a value between 0 and 1 to 16 bits. Values are rounded up, so
+	 * that a pair of SNPs at or above an r^2 threshold is never read back below
+	 * it.
+	 * 
+	 * @param value
+	 *            the value to quantize
+	 * @return the quantized value, as stored in a short
+	 */
+	public static short quantize(double value) {
+		if (!(value > 0)) {
+			return 0;
+		}
+		if (value >= 1) {
+			return (short) QUANTIZATION_LEVELS;
+		}
+		return (short) Math.min(QUANTIZATION_LEVELS,
+				Math.ceil(value * QUANTIZATION_LEVELS));
+	}
+
+	/**
+	 * Converts a quantized value back to a value between 0 and 1.
+	 * 
+	 * @param value
+	 *            the quantized value, as stored in a short
+	 * @return the value
+	 */
+	public static double dequantize(short value) {
+		return (value & 0xffff) / QUANTIZATION_LEVELS;
+	}
+
+	private static long getSectionSize(int numSnps, int numPairs,
+			boolean withDPrime) throws IOException {
+		long size = 4L * (numSnps + 1) + 6L * numPairs
+				+ (withDPrime ? 2L * numPairs : 0);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Too many pairs of SNPs on a chromosome ("
+					+ numPairs + ").");
+		}
+		return size;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, long position, int size) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position((int) position);
+		duplicate.limit((int) position + size);
+		return duplicate.slice();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Finds the section containing a SNP or a pair.
+	 */
+	private static int findSection(int[] sectionStarts, int value) {
+		int low = 0;
+		int high = sectionStarts.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (sectionStarts[middle] <= value) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	// getters for the pairs of this store
+
+	@Override
+	public int getRowStart(int snp) {
+		if (snp >= numSnps) {
+			return numPairs;
+		}
+		int s = findSection(sectionSnps, snp);
+		return sectionPairs[s] + rowStarts[s].get(snp - sectionSnps[s]);
+	}
+
+	@Override
+	public int getPartner(int pair) {
+		int s = findSection(sectionPairs, pair);
+		return partners[s].get(pair - sectionPairs[s]);
+	}
+
+	@Override
+	public double getRSquared(int pair) {
+		int s = findSection(sectionPairs, pair);
+		return dequantize(rSquared[s].get(pair - sectionPairs[s]));
+	}
+
+	@Override
+	public double getDPrime(int pair) {
+		if (!hasDPrime) {
+			return Double.NaN;
+		}
+		int s = findSection(sectionPairs, pair);
+		return dequantize(dPrime[s].get(pair - sectionPairs[s]));
+	}
+
+	@Override
+	public int getNumPairs() {
+		return numPairs;
+	}
+
+	public int getNumSnps() {
+		return numSnps;
+	}
+
+	public double getStoredMinRSquared() {
+		return storedMinRSquared;
+	}
+}
@@ -23,11 +23,18 @@ THE SOFTWARE.
 
 package edu.usc.scrc.PriorityPruner;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.StringJoiner;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 /***
  * This class writes the Linkage Disequilibrium (LD) file to disk, which
@@ -46,27 +53,229 @@ import java.util.StringJoiner;
  * exposes a method to write LD calculations, which can be called by the Pruner 
  * class. 
  * 
+ * To keep formatting and I/O out of the pruning loop, rows are only added to
+ * a bounded ring buffer by writeLdRow. A dedicated writer thread formats them,
+ * in the order they were added, into a reusable block of bytes, which is
+ * written to the file with a FileChannel whenever it's full. writeLdRow only
+ * blocks when the ring buffer is full.
+ * 
+ * With the --ld_binary option, the table is written in the compact binary
+ * format described in BinaryLdFile instead, to <out>.ldb. With the --bgzf
+ * option, the text table is compressed to <out>.ld.gz by a BgzfOutputStream.
+ * With the --ld_index option, an LdIndex of the rows of each index SNP is
+ * written to <table>.idx when the table is closed. With the --arrow option,
+ * the rows are also written to <out>.ld.arrow by an ArrowLdFile.
+ * 
  * @author Chris Edlund
  *
  */
 public class LinkageDisequilibriumFile {
 
-	private BufferedWriter ldWriter = null;
+	// number of rows the ring buffer holds
+	private static final int RING_CAPACITY = 8192;
+	// size of the blocks written to the file
+	private static final int BLOCK_SIZE = 1 << 18;
+	static final String HEADER = "index_snp_name" + "\t" + "index_snp_chr" + "\t" + "index_snp_pos" + "\t"
+			+ "index_snp_a1" + "\t" + "index_snp_a2" + "\t" + "partner_snp_name" + "\t" + 
+			"partner_snp_chr" + "\t" + "partner_snp_pos" + "\t" + "partner_snp_a1" + "\t"
+			+ "partner_snp_a2" + "\t" + "r^2" + "\t" + "D'" + "\n";
+
+	private FileOutputStream ldStream = null;
+	private FileChannel ldChannel = null;
+	// compresses the blocks written to ldStream, if --bgzf is specified
+	private BgzfOutputStream bgzfStream = null;
+	// index of the text table and its path, if --ld_index is specified, with
+	// the index SNP of the rows written last
+	private LdIndex ldIndex = null;
+	private String ldIndexPath = null;
+	private SnpInfo ldIndexSnp = null;
+	// Arrow copy of the table, if --arrow is specified
+	private ArrowLdFile arrowFile = null;
 	CommandLineOptions options = null;
+
+	// ring buffer of rows to write, with the number of rows added by
+	// writeLdRow and taken by the writer thread so far. The counters and
+	// flags below are guarded by this object
+	private SnpInfo[] indexSnps = new SnpInfo[RING_CAPACITY];
+	private SnpInfo[] partnerSnps = new SnpInfo[RING_CAPACITY];
+	private double[] rSquareds = new double[RING_CAPACITY];
+	private double[] dPrimes = new double[RING_CAPACITY];
+	private long numAdded = 0;
+	private long numTaken = 0;
+	private boolean flushRequested = false;
+	private boolean closing = false;
+	private IOException writeError = null;
+	private Thread writerThread = null;
+
+	// block of formatted rows, only used by the writer thread once started
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength = 0;
+	private byte[] digits = new byte[11];
+	private NumberFormatter formatter = new NumberFormatter(NumberFormatter.SHORTEST);
+	private Charset charset = Charset.defaultCharset();
+	private ChromosomeDictionary chromosomes = ChromosomeDictionary.getInstance();
+	// number of bytes written to the file by the writer thread
+	private long fileLength = 0;
+
+	// binary tables only: the ordinal of each SNP in the dictionary, the
+	// index SNP, offset and number of rows of the current block, and the
+	// index SNP ordinal and offset of each block written so far
+	private boolean binary = false;
+	private IdentityHashMap<SnpInfo, Integer> ordinals = null;
+	private SnpInfo blockSnp = null;
+	private long blockOffset = 0;
+	private int blockRows = 0;
+	private int numBlocks = 0;
+	private int[] blockSnps = new int[1024];
+	private long[] blockOffsets = new long[1024];
 	
-	public LinkageDisequilibriumFile(CommandLineOptions options) throws PriorityPrunerException{
+	/**
+	 * Constructor for LinkageDisequilibriumFile, creating <out>.ld, or
+	 * <out>.ldb if the --ld_binary option is specified.
+	 * 
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune, written to the
+	 *            dictionary of a binary table
+	 * @param options
+	 *            the command line options
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public LinkageDisequilibriumFile(SnpListFile snpListFile,
+			CommandLineOptions options) throws PriorityPrunerException{
 		this.options = options;
-		createLdFile();
+		this.binary = options.getLdBinary();
+		this.formatter = new NumberFormatter(options.getPrecision());
+		if (options.getArrow()) {
+			arrowFile = new ArrowLdFile(options.getOutputPrefix() + ".ld.arrow",
+					snpListFile);
+		}
+		try {
+			if (binary) {
+				createBinaryLdFile(snpListFile.getSnpsSortedByChrPos());
+			} else {
+				createLdFile();
+			}
+		} catch (PriorityPrunerException e) {
+			if (arrowFile != null) {
+				arrowFile.close();
+			}
+			throw e;
+		}
+		startWriter();
+	}
+
+	/**
+	 * Constructor for LinkageDisequilibriumFile, creating a text table at the
+	 * specified path. Used to convert binary tables.
+	 * 
+	 * @param filePath
+	 *            path of the table
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public LinkageDisequilibriumFile(String filePath) throws PriorityPrunerException{
+		try {
+			this.ldStream = new FileOutputStream(filePath);
+			this.ldChannel = ldStream.getChannel();
+			putString(HEADER);
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage());
+		}
+		startWriter();
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	private void startWriter() {
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeRows();
+			}
+		}, "LD table writer");
+		// the thread never keeps the program from exiting
+		writerThread.setDaemon(true);
+		writerThread.start();
 	}
 	
 	/***
-	 * Closes this file.
+	 * Writes the rows added so far to the file, and returns its length. Used
+	 * to record the length of the file in a checkpoint.
+	 * 
+	 * @throws IOException
+	 *             if the rows couldn't be written
 	 */
-	public void close(){
-		if (ldWriter != null){
+	public long flush() throws IOException {
+		synchronized (this) {
+			flushRequested = true;
+			notifyAll();
+			try {
+				while (flushRequested && writeError == null) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while writing LD table");
+			}
+			if (writeError != null) {
+				throw writeError;
+			}
+		}
+		return ldChannel.size();
+	}
+
+	/***
+	 * Truncates the file to the length recorded in a checkpoint, dropping the
+	 * rows written after the checkpoint by an interrupted run. New rows are
+	 * appended after that length.
+	 * 
+	 * @throws IOException
+	 *             if the file couldn't be truncated
+	 */
+	public void truncate(long length) throws IOException {
+		if (flush() < length) {
+			throw new IOException("The LD table is shorter than recorded in the checkpoint.");
+		}
+		ldChannel.truncate(length);
+	}
+
+	/***
+	 * Writes the remaining rows, and closes this file.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining rows couldn't be written, so the table is
+	 *             incomplete
+	 */
+	public void close() throws PriorityPrunerException {
+		if (ldStream != null){
+			synchronized (this) {
+				closing = true;
+				notifyAll();
+			}
+			IOException error = null;
+			try{
+				writerThread.join();
+				error = writeError;
+			}catch(InterruptedException e){
+				error = new InterruptedIOException("Interrupted while writing LD table");
+			}
+			if (arrowFile != null) {
+				arrowFile.close();
+			}
 			try{
-				ldWriter.close();
-			}catch(IOException e){e.printStackTrace();}
+				ldStream.close();
+			}catch(IOException e){
+				if (error == null) {
+					error = e;
+				}
+			}
+			ldStream = null;
+			if (error != null) {
+				throw new PriorityPrunerException("Could not write to LD table: "
+						+ error.getMessage());
+			}
 		}
 	}
 	
@@ -75,7 +284,8 @@ public class LinkageDisequilibriumFile {
 	 * Creates LD file to store information calculated in SnpWorkUnit. The file
 	 * will be placed in file path specified by the user. It will overwrite
 	 * already existing file with same name. The file is only created and the
-	 * header line written. The file is kept open.
+	 * header line written. The file is kept open. When resuming from a
+	 * checkpoint, the existing file is opened for appending instead.
 	 * 
 	 * @throws PriorityPrunerException
 	 *             if new file couldn't be created
@@ -86,15 +296,36 @@ public class LinkageDisequilibriumFile {
 		//CommandLineOptions options = CommandLineOptions.getInstance();
 		
 		try {
+			String filePath = this.options.getOutputPrefix() + ".ld";
+			if (this.options.getBgzf()) {
+				filePath += ".gz";
+			}
+			File outputFile = new File(filePath);
+			if (Checkpoint.isResuming(this.options)) {
+				LogWriter.getLogger().info("Appending LD metrics to [ " + filePath + " ]");
+				this.ldStream = new FileOutputStream(outputFile, true);
+				this.ldChannel = ldStream.getChannel();
+				if (this.options.getBgzf()) {
+					// the file ends with a complete block at the checkpoint
+					this.bgzfStream = new BgzfOutputStream(ldStream, this.options.getThreads());
+				}
+				return;
+			}
+			
 			// creates output file
-			LogWriter.getLogger().info("Writing LD metrics to [ " + this.options.getOutputPrefix() + ".ld" + " ]");
-			File outputFile = new File(this.options.getOutputPrefix() + ".ld");
-			this.ldWriter = new BufferedWriter(new FileWriter(outputFile));
+			LogWriter.getLogger().info("Writing LD metrics to [ " + filePath + " ]");
+			this.ldStream = new FileOutputStream(outputFile);
+			this.ldChannel = ldStream.getChannel();
+			if (this.options.getBgzf()) {
+				this.bgzfStream = new BgzfOutputStream(ldStream, this.options.getThreads());
+			}
+			if (this.options.getLdIndex()) {
+				this.ldIndex = new LdIndex();
+				this.ldIndexPath = filePath + ".idx";
+			}
 			
-			ldWriter.write("index_snp_name" + "\t" + "index_snp_chr" + "\t" + "index_snp_pos" + "\t"
-			+ "index_snp_a1" + "\t" + "index_snp_a2" + "\t" + "partner_snp_name" + "\t" + 
-					"partner_snp_chr" + "\t" + "partner_snp_pos" + "\t" + "partner_snp_a1" + "\t"
-			+ "partner_snp_a2" + "\t" + "r^2" + "\t" + "D'" + "\n");
+			// the header is written with the first block
+			putString(HEADER);
 			
 		} catch (IOException e) {
 			throw new PriorityPrunerException("Could not create file: "
@@ -104,28 +335,384 @@ public class LinkageDisequilibriumFile {
 		
 	}
 	
+	/**
+	 * Creates a binary LD file, writing the dictionary of SNPs to the first
+	 * block. Binary tables can't be appended to when resuming.
+	 * 
+	 * @param snps
+	 *            the SNPs of the dictionary
+	 * @throws PriorityPrunerException
+	 *             if new file couldn't be created
+	 */
+	private void createBinaryLdFile(ArrayList<SnpInfo> snps)
+			throws PriorityPrunerException {
+		String filePath = this.options.getOutputPrefix() + ".ldb";
+		try {
+			LogWriter.getLogger().info("Writing binary LD metrics to [ " + filePath + " ]");
+			this.ldStream = new FileOutputStream(filePath);
+			this.ldChannel = ldStream.getChannel();
+
+			ordinals = new IdentityHashMap<SnpInfo, Integer>(snps.size());
+			putBinaryInt(BinaryLdFile.MAGIC);
+			putBinaryInt(BinaryLdFile.VERSION);
+			putBinaryInt(snps.size());
+			ByteArrayOutputStream entry = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(entry);
+			for (SnpInfo snp : snps) {
+				ordinals.put(snp, ordinals.size());
+				entry.reset();
+				out.writeUTF(snp.getSnpName());
+				out.writeUTF(snp.getChr());
+				out.writeInt(snp.getPos());
+				out.writeUTF(snp.getAllele1());
+				out.writeUTF(snp.getAllele2());
+				reserve(entry.size());
+				System.arraycopy(entry.toByteArray(), 0, block, blockLength, entry.size());
+				blockLength += entry.size();
+			}
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage());
+		}
+	}
+
 	/***
-	 * Writes one row of LD data to the file
-	 * @throws IOException 
-	 */
-	public void writeLdRow(String indexSnpName, String indexChr, int indexPos, String indexAllele1, String indexAllele2,
-						String partnerSnpName, String partnerChr, int partnerPos, String partnerAllele1, String partnerAllele2,
-						double partnerR2, double partnerDPrime) throws IOException{
-		StringJoiner joiner = new StringJoiner("\t");
-		joiner.add(indexSnpName);
-		joiner.add(indexChr);
-		joiner.add(Integer.toString(indexPos));
-		joiner.add(indexAllele1);
-		joiner.add(indexAllele2);
-		joiner.add(partnerSnpName);
-		joiner.add(partnerChr);
-		joiner.add(Integer.toString(partnerPos));
-		joiner.add(partnerAllele1);
-		joiner.add(partnerAllele2);
-		joiner.add(Double.toString(partnerR2));
-		joiner.add(Double.toString(partnerDPrime));
-		
-		this.ldWriter.write(joiner.toString() + "\n");
+	 * Adds one row of LD data to be written to the file, waiting while the
+	 * ring buffer is full.
+	 * 
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param partnerSnp
+	 *            the partner SNP
+	 * @param partnerR2
+	 *            r^2 between the index and partner SNP
+	 * @param partnerDPrime
+	 *            D' between the index and partner SNP
+	 * @throws IOException
+	 *             if the writer thread failed to write earlier rows
+	 */
+	public synchronized void writeLdRow(SnpInfo indexSnp, SnpInfo partnerSnp,
+			double partnerR2, double partnerDPrime) throws IOException {
+		try {
+			while (numAdded - numTaken == RING_CAPACITY && writeError == null) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while writing LD table");
+		}
+		if (writeError != null) {
+			throw writeError;
+		}
+		int slot = (int) (numAdded % RING_CAPACITY);
+		indexSnps[slot] = indexSnp;
+		partnerSnps[slot] = partnerSnp;
+		rSquareds[slot] = partnerR2;
+		dPrimes[slot] = partnerDPrime;
+		// only wakes the writer thread if it's waiting for rows
+		if (numAdded++ == numTaken) {
+			notifyAll();
+		}
+	}
+
+	/***
+	 * Run by the writer thread: formats the rows in the ring buffer in the
+	 * order they were added, and writes the block of formatted rows to the
+	 * file when it's full, or when a flush or close is requested and all rows
+	 * are formatted.
+	 */
+	private void writeRows() {
+		try {
+			while (true) {
+				long first;
+				long last;
+				boolean close;
+				synchronized (this) {
+					while (numTaken == numAdded && !flushRequested && !closing) {
+						wait();
+					}
+					first = numTaken;
+					last = numAdded;
+					close = closing;
+				}
+				if (first == last) {
+					if (binary) {
+						endBinaryBlock();
+						if (close) {
+							putBlockIndex();
+						}
+					}
+					writeBlock();
+					if (bgzfStream != null) {
+						// ends the compressed block, so the file can be
+						// truncated to its length after a flush
+						if (close) {
+							bgzfStream.close();
+						} else {
+							bgzfStream.flush();
+						}
+					}
+					if (close && ldIndex != null) {
+						ldIndex.write(ldIndexPath, fileLength, bgzfStream);
+					}
+					if (close && arrowFile != null) {
+						arrowFile.finish();
+						arrowFile = null;
+					}
+					synchronized (this) {
+						flushRequested = false;
+						notifyAll();
+						if (close) {
+							return;
+						}
+					}
+					continue;
+				}
+				for (long row = first; row < last; row++) {
+					int slot = (int) (row % RING_CAPACITY);
+					if (binary) {
+						putBinaryRow(indexSnps[slot], partnerSnps[slot],
+								rSquareds[slot], dPrimes[slot]);
+					} else {
+						putRow(indexSnps[slot], partnerSnps[slot],
+								rSquareds[slot], dPrimes[slot]);
+					}
+					if (arrowFile != null) {
+						arrowFile.writeRow(indexSnps[slot], partnerSnps[slot],
+								rSquareds[slot], dPrimes[slot]);
+					}
+					indexSnps[slot] = null;
+					partnerSnps[slot] = null;
+				}
+				synchronized (this) {
+					numTaken = last;
+					notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				writeError = e;
+				notifyAll();
+			}
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				writeError = new InterruptedIOException("Interrupted while writing LD table");
+				notifyAll();
+			}
+		}
+	}
+
+	/***
+	 * Formats one row of LD data into the block
+	 */
+	private void putRow(SnpInfo indexSnp, SnpInfo partnerSnp, double r2,
+			double dPrime) throws IOException {
+		if (ldIndex != null && indexSnp != ldIndexSnp) {
+			ldIndex.addEntry(indexSnp.getChrCode(), indexSnp.getPos(),
+					fileLength + blockLength);
+			ldIndexSnp = indexSnp;
+		}
+		putString(indexSnp.getSnpName());
+		putByte('\t');
+		putString(chromosomes.getName(indexSnp.getChrCode()));
+		putByte('\t');
+		putInt(indexSnp.getPos());
+		putByte('\t');
+		putString(indexSnp.getAllele1());
+		putByte('\t');
+		putString(indexSnp.getAllele2());
+		putByte('\t');
+		putString(partnerSnp.getSnpName());
+		putByte('\t');
+		putString(chromosomes.getName(partnerSnp.getChrCode()));
+		putByte('\t');
+		putInt(partnerSnp.getPos());
+		putByte('\t');
+		putString(partnerSnp.getAllele1());
+		putByte('\t');
+		putString(partnerSnp.getAllele2());
+		putByte('\t');
+		putDouble(r2);
+		putByte('\t');
+		putDouble(dPrime);
+		putByte('\n');
+	}
+
+	/***
+	 * Formats one row of LD data into the block of a binary table: the
+	 * ordinal of the partner SNP, and r^2 and D' as single precision numbers.
+	 * A new block of rows is started whenever the index SNP changes.
+	 */
+	private void putBinaryRow(SnpInfo indexSnp, SnpInfo partnerSnp, double r2,
+			double dPrime) throws IOException {
+		if (indexSnp != blockSnp) {
+			endBinaryBlock();
+			reserve(8);
+			if (numBlocks == blockSnps.length) {
+				blockSnps = Arrays.copyOf(blockSnps, numBlocks * 2);
+				blockOffsets = Arrays.copyOf(blockOffsets, numBlocks * 2);
+			}
+			blockSnp = indexSnp;
+			blockOffset = fileLength + blockLength;
+			blockRows = 0;
+			blockSnps[numBlocks] = getOrdinal(indexSnp);
+			blockOffsets[numBlocks] = blockOffset;
+			numBlocks++;
+			putBinaryInt(blockSnps[numBlocks - 1]);
+			// the number of rows is filled in by endBinaryBlock
+			putBinaryInt(0);
+		}
+		reserve(12);
+		putBinaryInt(getOrdinal(partnerSnp));
+		putBinaryInt(Float.floatToIntBits((float) r2));
+		putBinaryInt(Float.floatToIntBits((float) dPrime));
+		blockRows++;
+	}
+
+	/***
+	 * Fills in the number of rows of the current block of a binary table,
+	 * either in the block of formatted rows, or in the file if that part of
+	 * the block is already written
+	 */
+	private void endBinaryBlock() throws IOException {
+		if (blockSnp == null) {
+			return;
+		}
+		long countOffset = blockOffset + 4;
+		if (countOffset >= fileLength) {
+			int position = (int) (countOffset - fileLength);
+			int length = blockLength;
+			blockLength = position;
+			putBinaryInt(blockRows);
+			blockLength = length;
+		} else {
+			ByteBuffer count = ByteBuffer.allocate(4);
+			count.putInt(blockRows);
+			count.flip();
+			while (count.hasRemaining()) {
+				ldChannel.write(count, countOffset + count.position());
+			}
+		}
+		blockSnp = null;
+	}
+
+	/***
+	 * Formats the index of the blocks of a binary table, followed by the
+	 * number of blocks, the offset of the index and the magic number
+	 */
+	private void putBlockIndex() throws IOException {
+		long indexOffset = fileLength + blockLength;
+		for (int i = 0; i < numBlocks; i++) {
+			reserve(12);
+			putBinaryInt(blockSnps[i]);
+			putBinaryLong(blockOffsets[i]);
+		}
+		reserve(BinaryLdFile.FOOTER_SIZE);
+		putBinaryInt(numBlocks);
+		putBinaryLong(indexOffset);
+		putBinaryInt(BinaryLdFile.MAGIC);
+	}
+
+	private int getOrdinal(SnpInfo snp) throws IOException {
+		Integer ordinal = ordinals.get(snp);
+		if (ordinal == null) {
+			throw new IOException("SNP " + snp.getSnpName()
+					+ " isn't in the dictionary of the binary LD table.");
+		}
+		return ordinal;
+	}
+
+	/***
+	 * Makes room for the specified number of bytes in the block, writing it
+	 * to the file if needed
+	 */
+	private void reserve(int length) throws IOException {
+		if (blockLength + length > block.length) {
+			writeBlock();
+			if (length > block.length) {
+				block = new byte[length];
+			}
+		}
+	}
+
+	/***
+	 * Formats a big-endian int into the block, after room has been reserved
+	 */
+	private void putBinaryInt(int value) {
+		block[blockLength++] = (byte) (value >>> 24);
+		block[blockLength++] = (byte) (value >>> 16);
+		block[blockLength++] = (byte) (value >>> 8);
+		block[blockLength++] = (byte) value;
+	}
+
+	private void putBinaryLong(long value) {
+		putBinaryInt((int) (value >>> 32));
+		putBinaryInt((int) value);
+	}
+
+	private void putByte(char value) throws IOException {
+		reserve(1);
+		block[blockLength++] = (byte) value;
+	}
+
+	/***
+	 * Formats a string into the block, copying ASCII characters directly and
+	 * encoding other strings with the default character set, as an
+	 * OutputStreamWriter would
+	 */
+	private void putString(String value) throws IOException {
+		int length = value.length();
+		reserve(length);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				byte[] bytes = value.getBytes(charset);
+				reserve(bytes.length);
+				System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+				blockLength += bytes.length;
+				return;
+			}
+			block[blockLength + i] = (byte) c;
+		}
+		blockLength += length;
+	}
+
+	private void putDouble(double value) throws IOException {
+		reserve(NumberFormatter.MAX_LENGTH);
+		blockLength = formatter.format(value, block, blockLength);
+	}
+
+	private void putInt(int value) throws IOException {
+		if (value < 0) {
+			putString(Integer.toString(value));
+			return;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		int length = digits.length - start;
+		reserve(length);
+		System.arraycopy(digits, start, block, blockLength, length);
+		blockLength += length;
+	}
+
+	/***
+	 * Writes the block to the file, and empties it
+	 */
+	private void writeBlock() throws IOException {
+		if (bgzfStream != null) {
+			bgzfStream.write(block, 0, blockLength);
+			fileLength += blockLength;
+			blockLength = 0;
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(block, 0, blockLength);
+		while (buffer.hasRemaining()) {
+			ldChannel.write(buffer);
+		}
+		fileLength += blockLength;
+		blockLength = 0;
 	}
 	
 }
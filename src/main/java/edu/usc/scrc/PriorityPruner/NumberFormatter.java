@@ -0,0 +1,172 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * This class formats r^2 and D' values for the text outputs (the results,
+ * tags and LD tables) without creating a String per value. A value is
+ * written either with a fixed number of decimal places, rounded half away
+ * from zero, or, by default, exactly as Double.toString writes it: the
+ * shortest decimal that reads back as the same double.
+ * 
+ * The formatter reuses its buffers, so each thread writing output needs its
+ * own instance.
+ */
+public class NumberFormatter {
+
+	// precision meaning the shortest decimal, as written by Double.toString
+	public static final int SHORTEST = -1;
+	// maximum number of decimal places
+	public static final int MAX_PRECISION = 15;
+	// maximum number of characters written for a value
+	public static final int MAX_LENGTH = 32;
+	// scaled values at or above this limit aren't exact in a double, and are
+	// written in the shortest form instead
+	private static final double MAX_SCALED = 9007199254740992.0;
+
+	private final int precision;
+	private final double scale;
+	private final StringBuilder shortest = new StringBuilder(MAX_LENGTH);
+	private final char[] chars = new char[MAX_LENGTH];
+
+	/**
+	 * Constructor for NumberFormatter.
+	 * 
+	 * @param precision
+	 *            number of decimal places, between 0 and MAX_PRECISION, or
+	 *            SHORTEST
+	 */
+	public NumberFormatter(int precision) {
+		if (precision != SHORTEST && (precision < 0 || precision > MAX_PRECISION)) {
+			throw new IllegalArgumentException("Invalid precision: " + precision);
+		}
+		this.precision = precision;
+		this.scale = Math.pow(10, Math.max(precision, 0));
+	}
+
+	/**
+	 * Formats a value into a byte array, as ASCII.
+	 * 
+	 * @param value
+	 *            the value to format
+	 * @param buffer
+	 *            the array, with room for MAX_LENGTH bytes from offset
+	 * @param offset
+	 *            position to write the value at
+	 * @return the position following the value
+	 */
+	public int format(double value, byte[] buffer, int offset) {
+		int length = format(value);
+		for (int i = 0; i < length; i++) {
+			buffer[offset + i] = (byte) chars[i];
+		}
+		return offset + length;
+	}
+
+	/**
+	 * Formats a value into a ByteBuffer, as ASCII.
+	 * 
+	 * @param value
+	 *            the value to format
+	 * @param buffer
+	 *            the buffer, with room for MAX_LENGTH bytes
+	 */
+	public void format(double value, ByteBuffer buffer) {
+		int length = format(value);
+		for (int i = 0; i < length; i++) {
+			buffer.put((byte) chars[i]);
+		}
+	}
+
+	/**
+	 * Writes a formatted value to a Writer.
+	 * 
+	 * @param value
+	 *            the value to format
+	 * @param writer
+	 *            the Writer
+	 * @throws IOException
+	 *             if the value couldn't be written
+	 */
+	public void write(double value, Writer writer) throws IOException {
+		writer.write(chars, 0, format(value));
+	}
+
+	/**
+	 * Formats a value as a String.
+	 * 
+	 * @param value
+	 *            the value to format
+	 * @return the formatted value
+	 */
+	public String toString(double value) {
+		return new String(chars, 0, format(value));
+	}
+
+	/**
+	 * Formats a value into chars.
+	 * 
+	 * @return the number of characters of the value
+	 */
+	private int format(double value) {
+		double scaled = Math.abs(value) * scale;
+		if (precision == SHORTEST || !(scaled < MAX_SCALED)) {
+			// StringBuilder appends doubles the way Double.toString formats
+			// them, without creating a String
+			shortest.setLength(0);
+			shortest.append(value);
+			int length = shortest.length();
+			shortest.getChars(0, length, chars, 0);
+			return length;
+		}
+		long units = Math.round(scaled);
+		// writes the digits backwards from the end of the buffer
+		int start = MAX_LENGTH;
+		for (int i = 0; i < precision; i++) {
+			chars[--start] = (char) ('0' + units % 10);
+			units /= 10;
+		}
+		if (precision > 0) {
+			chars[--start] = '.';
+		}
+		do {
+			chars[--start] = (char) ('0' + units % 10);
+			units /= 10;
+		} while (units > 0);
+		if (value < 0 && Math.round(scaled) != 0) {
+			chars[--start] = '-';
+		}
+		int length = MAX_LENGTH - start;
+		System.arraycopy(chars, start, chars, 0, length);
+		return length;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+}
@@ -25,6 +25,11 @@ package edu.usc.scrc.PriorityPruner;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
@@ -41,6 +46,21 @@ import org.apache.log4j.PatternLayout;
 public class PriorityPruner {
 	public static void main(String[] args) {
 		
+		// converts a binary LD table, if the convert subcommand is specified
+		if (args.length > 0 && args[0].equals("convert")) {
+			System.exit(convert(args));
+		}
+		
+		// looks up the LD of a region, if the query subcommand is specified
+		if (args.length > 0 && args[0].equals("query")) {
+			System.exit(query(args));
+		}
+		
+		// renders a trace file as text, if the trace subcommand is specified
+		if (args.length > 0 && args[0].equals("trace")) {
+			System.exit(trace(args));
+		}
+		
 		// LD output file
 		LinkageDisequilibriumFile ldFile = null;
 		int returnCode = 0;
@@ -74,8 +94,9 @@ public class PriorityPruner {
 			PatternLayout layout = new PatternLayout(
 					"org.apache.log4j.PatternLayout");
 			layout.setConversionPattern("%m%n");
+			// the log of an interrupted run is appended to when resuming
 			logFileAppender = new FileAppender(layout,
-					options.getOutputPrefix() + ".log", false);
+					options.getOutputPrefix() + ".log", Checkpoint.isResuming(options));
 			Logger.getRootLogger().addAppender(logFileAppender);
 			// TODO: update download info
 			LogWriter
@@ -106,6 +127,16 @@ public class PriorityPruner {
 			// if(Genotypes.getSnpGenotypes()!=null &&
 			// Genotypes.getSnpGenotypes()!=null) could be used instead.
 			if (options.getTped() != null && options.getTfam() != null
+					&& !options.getBatchTables().isEmpty()) {
+				
+				// prune the SNP input tables of the batch manifest
+				runBatch(options);
+				
+				LogWriter.getLogger().info("\nAnalysis finished: " + new Date());
+				long end = System.currentTimeMillis();
+				// prints duration time
+				printDuration(end - start);
+			} else if (options.getTped() != null && options.getTfam() != null
 					&& options.getSnpTablePath() != null) {
 				
 				// parse the list of SNPs to prune; all pruning results are 
@@ -114,28 +145,31 @@ public class PriorityPruner {
 				
 				// create an LD file if specified by user
 				if (options.isOutputLDTable()){
-					ldFile = new LinkageDisequilibriumFile(options);
+					ldFile = new LinkageDisequilibriumFile(snpListFile, options);
 				}
 				
 				// parse keep/remove samples list in case --keep or --remove is specified by user
-				PlinkSampleListFile keepRemoveSamples = null;
-				if (options.getKeep() != null){
-					keepRemoveSamples = new PlinkSampleListFile(options.getKeep());
-				}else if (options.getRemove() != null){
-					keepRemoveSamples = new PlinkSampleListFile(options.getRemove());
-				}
+				PlinkSampleListFile keepRemoveSamples = parseKeepRemoveSamples(options);
 				
-				// parse genotypes (at this time only Transposed PLINK is supported)
-				Genotypes genotypes = new TPlink(options.getTped(), options.getTfam(), snpListFile, keepRemoveSamples, options);
+				if (options.getStream()) {
+					// parse, prune and write one chromosome at a time
+					new ChromosomePipeline(snpListFile, keepRemoveSamples, ldFile, options);
+				} else {
+					// parse genotypes (at this time only Transposed PLINK is supported)
+					Genotypes genotypes = new TPlink(options.getTped(), options.getTfam(), snpListFile, keepRemoveSamples, options);
 				
-				// verify all SNPs from snpListFile are in genotypes
-				checkSnpsAreInGenotypeFile(snpListFile);
+					// verify all SNPs from snpListFile are in genotypes
+					checkSnpsAreInGenotypeFile(snpListFile.getSnps());
 						
-				// prune the list of SNPs
-				Pruner pruner = new Pruner(genotypes, snpListFile, ldFile, options);
+					// prune the list of SNPs, writing the results file(s)
+					new Pruner(genotypes, snpListFile, ldFile, options);
+				}
 				
-				// write the results file
-				new ResultsFile(snpListFile, options);
+				// writes the remaining rows of the LD table, failing the run
+				// if they couldn't be written
+				if (ldFile != null) {
+					ldFile.close();
+				}
 				
 				LogWriter.getLogger().info("\nAnalysis finished: " + new Date());
 				long end = System.currentTimeMillis();
@@ -149,6 +183,10 @@ public class PriorityPruner {
 			// execution of this program and exits it
 		} catch (PriorityPrunerException e) {
 			LogWriter.getLogger().warn("\r\nERROR: " + e.getMessage());
+			// errors closing output files after the error
+			for (Throwable suppressed : e.getSuppressed()) {
+				LogWriter.getLogger().warn("ERROR: " + suppressed.getMessage());
+			}
 			returnCode = 1;
 		} catch (IOException e) {
 			LogWriter
@@ -157,14 +195,22 @@ public class PriorityPruner {
 							+ e.getMessage()
 							+ "\nPlease check that correct file path is provided.");
 			returnCode = 1;
+			// unexpected failures, e.g. running out of memory, are logged with
+			// their stack trace instead of exiting with return code 0
+		} catch (RuntimeException e) {
+			LogWriter.getLogger().error("\r\nERROR: " + e, e);
+			returnCode = 1;
+		} catch (Error e) {
+			LogWriter.getLogger().error("\r\nERROR: " + e, e);
+			returnCode = 1;
 		} finally{
 			// close all open files
 			if (ldFile != null){
 				try{
 					ldFile.close();
-				}catch(Exception e){
+				}catch(PriorityPrunerException e){
+					LogWriter.getLogger().error("\r\nERROR: " + e.getMessage());
 					returnCode = 1;
-					e.printStackTrace();
 				}
 			}
 			if (logFileAppender != null){
@@ -177,6 +223,224 @@ public class PriorityPruner {
 		}
 	}
 
+	/**
+	 * Runs the convert subcommand, converting a binary LD table written with
+	 * the --ld_binary option to the tab-delimited text format.
+	 * 
+	 * @param args
+	 *            the command line arguments: "convert", the binary table and
+	 *            the text table to write
+	 * @return the return code of the program
+	 */
+	private static int convert(String[] args) {
+		if (args.length != 3) {
+			LogWriter.getLogger().warn(
+					"ERROR: Usage: convert <binary LD table (.ldb)> <text LD table (.ld)>");
+			return 1;
+		}
+		try {
+			BinaryLdFile.convert(args[1], args[2]);
+			return 0;
+		} catch (PriorityPrunerException e) {
+			LogWriter.getLogger().warn("ERROR: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Runs the query subcommand, printing the rows of the index SNPs within a
+	 * region from an LD table written with the --ld_index option.
+	 * 
+	 * @param args
+	 *            the command line arguments: "query", the LD table and the
+	 *            region
+	 * @return the return code of the program
+	 */
+	private static int query(String[] args) {
+		if (args.length != 3) {
+			LogWriter.getLogger().warn(
+					"ERROR: Usage: query <LD table (.ld or .ld.gz)> <chr>:<start>-<end>");
+			return 1;
+		}
+		try {
+			LdIndex.query(args[1], args[2], System.out);
+			return 0;
+		} catch (PriorityPrunerException e) {
+			LogWriter.getLogger().warn("ERROR: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Runs the trace subcommand, printing a trace file written with the
+	 * --trace option as tab-delimited text.
+	 * 
+	 * @param args
+	 *            the command line arguments: "trace" and the trace file
+	 * @return the return code of the program
+	 */
+	private static int trace(String[] args) {
+		if (args.length != 2) {
+			LogWriter.getLogger().warn(
+					"ERROR: Usage: trace <trace file (.trace)>");
+			return 1;
+		}
+		try {
+			TraceFile.render(args[1], System.out);
+			return 0;
+		} catch (PriorityPrunerException e) {
+			LogWriter.getLogger().warn("ERROR: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Parses the list of samples to keep or remove, in case --keep or --remove
+	 * is specified by user.
+	 * 
+	 * @return the list of samples, or null if neither option is specified
+	 * @throws PriorityPrunerException
+	 *             if the list couldn't be parsed
+	 */
+	private static PlinkSampleListFile parseKeepRemoveSamples(
+			CommandLineOptions options) throws PriorityPrunerException {
+		if (options.getKeep() != null){
+			return new PlinkSampleListFile(options.getKeep());
+		}else if (options.getRemove() != null){
+			return new PlinkSampleListFile(options.getRemove());
+		}
+		return null;
+	}
+
+	/**
+	 * Prunes the SNP input tables of the batch manifest. The genotype dataset
+	 * is parsed once, with the compressed genotypes shared by all tables, and
+	 * each table is then pruned with its own Pruner, on a thread pool if more
+	 * than one batch thread is specified. LD is shared between the tables if
+	 * the --batch_ld_cache option is specified.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during parsing or pruning
+	 */
+	private static void runBatch(CommandLineOptions options)
+			throws PriorityPrunerException {
+
+		// parse the SNP input tables, each with its own options
+		final ArrayList<CommandLineOptions> tableOptions = new ArrayList<CommandLineOptions>();
+		final ArrayList<SnpListFile> snpListFiles = new ArrayList<SnpListFile>();
+		for (BatchTable batchTable : options.getBatchTables()) {
+			CommandLineOptions batchTableOptions = options.getBatchTableOptions(batchTable);
+			tableOptions.add(batchTableOptions);
+			snpListFiles.add(new SnpListFile(batchTableOptions.getSnpTablePath(),
+					batchTableOptions.getNumMetrics(), batchTableOptions));
+		}
+
+		// parse genotypes once for all tables
+		final TPlink genotypes = new TPlink(options.getTped(), options.getTfam(),
+				snpListFiles, parseKeepRemoveSamples(options), options);
+		for (SnpListFile snpListFile : snpListFiles) {
+			checkSnpsAreInGenotypeFile(snpListFile.getSnps());
+		}
+
+		// the shared LD cache may use up to a quarter of the maximum heap size
+		final LdCache ldCache = options.getBatchLdCache() ? new LdCache(Runtime
+				.getRuntime().maxMemory() / 4) : null;
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < snpListFiles.size(); i++) {
+			final int table = i;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws PriorityPrunerException {
+					pruneBatchTable(genotypes.getTableGenotypes(table),
+							snpListFiles.get(table), tableOptions.get(table), ldCache);
+					return null;
+				}
+			});
+		}
+
+		int numThreads = Math.min(options.getBatchThreads(), tasks.size());
+		ExecutorService executor = null;
+		try {
+			if (numThreads > 1) {
+				executor = Executors.newFixedThreadPool(numThreads);
+				ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+				for (Callable<Void> task : tasks) {
+					futures.add(executor.submit(task));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+			} else {
+				for (Callable<Void> task : tasks) {
+					task.call();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new PriorityPrunerException(
+					"Interrupted while pruning the SNP input tables.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PriorityPrunerException) {
+				throw (PriorityPrunerException) e.getCause();
+			}
+			throw new PriorityPrunerException("Could not prune the SNP input tables: "
+					+ e.getCause(), e.getCause());
+		} catch (PriorityPrunerException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new PriorityPrunerException("Could not prune the SNP input tables: "
+					+ e, e);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		if (ldCache != null) {
+			LogWriter.getLogger().debug(
+					"Shared LD cache: " + ldCache.getNumHits() + " hits, "
+							+ ldCache.getNumMisses() + " misses");
+		}
+	}
+
+	/**
+	 * Prunes a single SNP input table of the batch manifest, and writes its
+	 * output files.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during pruning
+	 */
+	private static void pruneBatchTable(Genotypes genotypes,
+			SnpListFile snpListFile, CommandLineOptions options, LdCache ldCache)
+			throws PriorityPrunerException {
+		LogWriter.getLogger().info(
+				"Pruning SNPs from [ " + snpListFile.getFilePath() + " ]");
+		LinkageDisequilibriumFile ldFile = null;
+		Throwable error = null;
+		try {
+			if (options.isOutputLDTable()){
+				ldFile = new LinkageDisequilibriumFile(snpListFile, options);
+			}
+			new Pruner(genotypes, snpListFile, ldFile, options, ldCache);
+		} catch (Throwable e) {
+			error = e;
+			throw e;
+		} finally {
+			// a failure to close the LD table is attached to the error pruning
+			// failed with, if any, rather than replacing it
+			if (ldFile != null) {
+				try {
+					ldFile.close();
+				} catch (PriorityPrunerException closeError) {
+					if (error == null) {
+						throw closeError;
+					}
+					error.addSuppressed(closeError);
+				}
+			}
+		}
+	}
+
 	/**
 	 * This method prints the duration time in correct format.
 	 * 
@@ -242,12 +506,14 @@ public class PriorityPruner {
 	 * Checks that all SNPs defined in the SNP Input Table have corresponding data in the
 	 * genotype dataset.
 	 * 
+	 * @param snps
+	 *            SNPs of the SNP Input Table
 	 * @throws PriorityPrunerException
 	 *             if SNP not found in the genotype dataset
 	 */
-	private static void checkSnpsAreInGenotypeFile(SnpListFile snpListFile) throws PriorityPrunerException{
+	static void checkSnpsAreInGenotypeFile(ArrayList<SnpInfo> snps) throws PriorityPrunerException{
 		// checks that corresponding SNP is provided in genotypes file
-		for (SnpInfo snp : snpListFile.getSnps()) {
+		for (SnpInfo snp : snps) {
 			if (!snp.getInTped()) {
 				throw new PriorityPrunerException(snp.getSnpName()
 						+ " at chromsome " + snp.getChr()
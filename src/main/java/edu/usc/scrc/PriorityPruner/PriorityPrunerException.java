@@ -31,4 +31,12 @@ public class PriorityPrunerException extends Exception {
 	public PriorityPrunerException(String s) {
 		super(s);
 	}
+
+	/**
+	 * Constructor for an exception caused by an unexpected failure, e.g. in a
+	 * worker thread, so that it's reported like any other error.
+	 */
+	public PriorityPrunerException(String s, Throwable cause) {
+		super(s, cause);
+	}
 }
@@ -23,6 +23,7 @@ THE SOFTWARE.
 
 package edu.usc.scrc.PriorityPruner;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -41,9 +42,41 @@ public class Pruner {
 
 	private SnpListFile snpListFile;
 	private LinkageDisequilibriumFile ldFile;
+	// writes the results files as the chromosomes are pruned, when pruning
+	// all chromosomes at once
+	private ResultsWriter resultsWriter = null;
+	// trace of the pruning decisions, if specified
+	private TraceFile trace = null;
 	private Genotypes genotypes;
-	private int pickOrder = 1;
+	// pruning state of each threshold configuration
+	private ArrayList<PruningState> states = new ArrayList<PruningState>();
+	// index SNP of the most recent LD results, which are shared by all
+	// configurations
+	private SnpInfo resultsIndexSnp = null;
+	private ArrayList<Result> results = null;
 	private CommandLineOptions options = null;
+	// decoded genotypes of the SNPs around recent index SNPs
+	private GenotypeCache genotypeCache;
+	// LD between all pairs of SNPs, if calculated before pruning
+	private LdGraph ldGraph = null;
+	// LD shared with the other SNP input tables of a batch, if any
+	private LdCache ldCache = null;
+	// pairs of SNPs within the maximum distance, and those LD was calculated
+	// for, in adaptive mode
+	private long numWindowPairs = 0;
+	private long numEvaluatedPairs = 0;
+	// windows calculated, and those limited by --max_window_snps
+	private long numWindows = 0;
+	private long numCappedWindows = 0;
+	// SNPs failing the minimum MAF or call rate
+	private int numFailMaf = 0;
+	private int numFailCallRate = 0;
+	private int numFail = 0;
+	// SNPs parsed so far, when pruning one chromosome at a time
+	private int numStreamedSnps = 0;
+	// formats the r^2 of surrogates in the debug log, created once rather
+	// than per call
+	private DecimalFormat debugFormat = new DecimalFormat("##.00");
 	//private BufferedWriter ldWriter = null;
 
 	/**
@@ -61,8 +94,29 @@ public class Pruner {
 	 */
 	public Pruner(Genotypes genotypes, SnpListFile snpListFile, 
 			LinkageDisequilibriumFile ldFile, CommandLineOptions options) throws PriorityPrunerException {
+		this(genotypes, snpListFile, ldFile, options, null);
+	}
+
+	/**
+	 * Constructor for Pruner, sharing calculated LD with the Pruners of other
+	 * SNP input tables of a batch.
+	 * 
+	 * @param snpListFile
+	 *            The SnpListFile containing the SNPs to prune
+	 * @param ldFile
+	 *            The LinkageDisequilibriumFile to write to (if not null)
+	 * @param ldCache
+	 *            The LdCache shared by the SNP input tables (if not null)
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during parsing or pruning
+	 */
+	public Pruner(Genotypes genotypes, SnpListFile snpListFile,
+			LinkageDisequilibriumFile ldFile, CommandLineOptions options,
+			LdCache ldCache) throws PriorityPrunerException {
 		
 		this.snpListFile = snpListFile;
+		this.ldCache = ldCache;
 		this.ldFile = ldFile;
 		this.options = options;
 		
@@ -78,59 +132,49 @@ public class Pruner {
 //		this.genotypes = new TPlink(options.getTped(), options.getTfam(),
 //				this.snpListFile, keepRemoveSamples);
 		
+		Throwable error = null;
 		try{
 			//checkSnpsAreInGenotypeFile();
 			
 			//LogWriter.getLogger().info("Calculating SNP statistics");
 			// calculate maf, call rate, hwe for all snps
 			// already been done for current SNP - calculate this!
-			int numFailMaf = 0;
-			//int numFailHwe = 0;
-			int numFailCallRate = 0;
-			int numFail = 0;
-			for (SnpGenotypes g : this.genotypes.getSnpGenotypes()) {
-				//getMafHweMissingPercent(genotype, founderIndices,subjectSexes);
-				g.calculateMafHweMissingPercentCompressed(genotypes.getKeptFounders());
-				boolean fail = false;
-				if (g.getMaf() < options.getMinMaf()){
-					numFailMaf++;
-					fail = true;
-				}
-//				if (g.getHwePvalue() < options.getMinHwe()){
-//					numFailHwe++;
-//					fail = true;
-//				}
-				if ( (1 - g.getMissingPercent()) <  options.getMinSnpCallRate()){
-					numFailCallRate++;
-					fail = true;
-				}
-				if (fail){
-					g.setValid(false);
-					numFail++;
-				}
-				
-				//g.checkSnpValid(options.getMinMaf(),options.getMinSnpCallRate(), options.getMinHwe());
-			}
-			if (numFailMaf >0){
-				LogWriter.getLogger().info(numFailMaf + " SNPs failed frequency test ( MAF < " + options.getMinMaf() + " )");
-			}
-//			if (numFailHwe >0){
-//				LogWriter.getLogger().info(numFailMaf + " SNPs failed HWE test ( p < " + options.getMinHwe() + " )");
-//			}
-			if (numFailCallRate >0){
-				LogWriter.getLogger().info(numFailCallRate + " SNPs failed callrate test ( callrate < " + options.getMinSnpCallRate() + " )");
-			}
-			if (numFail > 0){
-				LogWriter.getLogger().info("After filtering, there are " + (this.genotypes.getSnpGenotypes().size() - numFail) + " SNPs");
-			}
+			filterSnps(this.genotypes.getSnpGenotypes());
+			logFilterResults(this.genotypes.getSnpGenotypes().size());
 			
 			
 //			if (options.isOutputLDTable()){
 //				createLdFile();
 //			}
+			initStates();
+			resultsWriter = new ResultsWriter(states, snpListFile, options);
 			startPruning();
-		}catch (PriorityPrunerException e){
+
+			// the results of a single configuration are stored in the
+			// SnpInfo-objects
+			if (states.size() == 1) {
+				states.get(0).copyToSnps(snpListFile.getSnpsSortedByChrPos());
+			}
+		}catch (Throwable e){
+			error = e;
 			throw e;
+		}finally{
+			// a failure to close the output files is attached to the error
+			// pruning failed with, if any, rather than replacing it
+			try {
+				try {
+					closeOutputFiles();
+				} finally {
+					if (resultsWriter != null) {
+						resultsWriter.close();
+					}
+				}
+			} catch (PriorityPrunerException closeError) {
+				if (error == null) {
+					throw closeError;
+				}
+				error.addSuppressed(closeError);
+			}
 		}
 //		finally{
 //			if (ldWriter != null){
@@ -141,6 +185,27 @@ public class Pruner {
 //		}
 	}
 
+	/**
+	 * Constructor for Pruner, pruning one chromosome at a time. Nothing is
+	 * pruned here; each chromosome is pruned by pruneChromosome() once its
+	 * genotypes are parsed, and finishPruning() is called after the last one.
+	 * 
+	 * @param snpListFile
+	 *            The SnpListFile containing the SNPs to prune
+	 * @param ldFile
+	 *            The LinkageDisequilibriumFile to write to (if not null)
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if a tags file or the trace couldn't be created
+	 */
+	public Pruner(SnpListFile snpListFile, LinkageDisequilibriumFile ldFile,
+			CommandLineOptions options) throws PriorityPrunerException {
+		this.snpListFile = snpListFile;
+		this.ldFile = ldFile;
+		this.options = options;
+		initStates();
+	}
+
 //	/**
 //	 * Creates LD file to store information calculated in SnpWorkUnit. The file
 //	 * will be placed in file path specified by the user. It will overwrite
@@ -192,6 +257,169 @@ public class Pruner {
 //		}
 //	}
 
+	/**
+	 * Prunes the SNPs of a single chromosome, when pruning one chromosome at a
+	 * time. Since pruning windows don't span chromosomes, the results are the
+	 * same as when all chromosomes are pruned at once.
+	 * 
+	 * @param genotypes
+	 *            genotypes of the SNPs of the chromosome
+	 * @param snps
+	 *            the SNPs of the chromosome, in order of ascending p-value
+	 * @throws PriorityPrunerException
+	 *             if invalid information is encountered
+	 */
+	public void pruneChromosome(Genotypes genotypes, ArrayList<SnpInfo> snps)
+			throws PriorityPrunerException {
+		this.genotypes = genotypes;
+		filterSnps(genotypes.getSnpGenotypes());
+		numStreamedSnps += genotypes.getSnpGenotypes().size();
+		
+		// the genotype cache may use up to an eighth of the maximum heap size
+		if (genotypeCache == null) {
+			genotypeCache = new GenotypeCache(genotypes.getKeptFounders().size(),
+					Runtime.getRuntime().maxMemory() / 8);
+		}
+		for (SnpInfo snp : snps) {
+			pruneIndexSnp(snp);
+		}
+		resultsIndexSnp = null;
+		results = null;
+		genotypeCache.clear();
+		this.genotypes = null;
+	}
+
+	/**
+	 * Logs the statistics of pruning one chromosome at a time, after the last
+	 * chromosome is pruned.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining records of the trace couldn't be written
+	 */
+	public void finishPruning() throws PriorityPrunerException {
+		closeOutputFiles();
+		logFilterResults(numStreamedSnps);
+		LogWriter.getLogger().debug(
+				"--------------------------------------------------");
+		if (genotypeCache != null) {
+			LogWriter.getLogger().debug(
+					"Genotype cache: " + genotypeCache.getNumHits() + " hits, "
+							+ genotypeCache.getNumMisses() + " misses");
+		}
+		logWindowStatistics();
+	}
+
+	/**
+	 * Creates one pruning state per threshold configuration of the sweep file,
+	 * or a single one for the thresholds of the command line, and their tags
+	 * files and the trace if specified.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if a tags file or the trace couldn't be created
+	 */
+	private void initStates() throws PriorityPrunerException {
+		ArrayList<SnpInfo> snps = snpListFile.getSnpsSortedByChrPos();
+		if (options.getSweepConfigurations().isEmpty()) {
+			states.add(new PruningState(new ThresholdConfiguration(null,
+					options.getSortedR2Thresholds(), options
+							.getSortedSurrogateThresholds()), snps));
+		} else {
+			for (ThresholdConfiguration configuration : options
+					.getSweepConfigurations()) {
+				states.add(new PruningState(configuration, snps));
+			}
+		}
+		if (options.getOutputTags()) {
+			for (PruningState state : states) {
+				String name = state.getConfiguration().getName();
+				state.setTagsFile(new TagsFile(options.getOutputPrefix()
+						+ (name == null ? "" : "." + name) + ".tags",
+						options.getPrecision()));
+			}
+		}
+		if (options.getTrace()) {
+			trace = new TraceFile(options.getOutputPrefix() + ".trace", states,
+					snps);
+		}
+	}
+
+	/**
+	 * Closes the tags files of the pruning states and the trace, if any.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining records of the trace couldn't be written
+	 */
+	public void closeOutputFiles() throws PriorityPrunerException {
+		for (PruningState state : states) {
+			if (state.getTagsFile() != null) {
+				state.getTagsFile().close();
+				state.setTagsFile(null);
+			}
+		}
+		if (trace != null) {
+			TraceFile closing = trace;
+			trace = null;
+			closing.close();
+		}
+	}
+
+	/**
+	 * Calculates MAF and call rate of SNPs, and marks the SNPs failing the
+	 * minimum MAF or call rate as invalid.
+	 * 
+	 * @param snpGenotypesList
+	 *            the SNPs to check
+	 * @throws PriorityPrunerException
+	 *             if the genotypes of a SNP couldn't be read
+	 */
+	private void filterSnps(ArrayList<SnpGenotypes> snpGenotypesList)
+			throws PriorityPrunerException {
+		for (SnpGenotypes g : snpGenotypesList) {
+			//getMafHweMissingPercent(genotype, founderIndices,subjectSexes);
+			g.calculateMafHweMissingPercentCompressed(genotypes.getKeptFounders());
+			boolean fail = false;
+			if (g.getMaf() < options.getMinMaf()){
+				numFailMaf++;
+				fail = true;
+			}
+//			if (g.getHwePvalue() < options.getMinHwe()){
+//				numFailHwe++;
+//				fail = true;
+//			}
+			if ( (1 - g.getMissingPercent()) <  options.getMinSnpCallRate()){
+				numFailCallRate++;
+				fail = true;
+			}
+			if (fail){
+				g.setValid(false);
+				numFail++;
+			}
+			
+			//g.checkSnpValid(options.getMinMaf(),options.getMinSnpCallRate(), options.getMinHwe());
+		}
+	}
+
+	/**
+	 * Logs the number of SNPs failing the minimum MAF or call rate.
+	 * 
+	 * @param numSnps
+	 *            number of SNPs checked
+	 */
+	private void logFilterResults(int numSnps) {
+		if (numFailMaf >0){
+			LogWriter.getLogger().info(numFailMaf + " SNPs failed frequency test ( MAF < " + options.getMinMaf() + " )");
+		}
+//		if (numFailHwe >0){
+//			LogWriter.getLogger().info(numFailMaf + " SNPs failed HWE test ( p < " + options.getMinHwe() + " )");
+//		}
+		if (numFailCallRate >0){
+			LogWriter.getLogger().info(numFailCallRate + " SNPs failed callrate test ( callrate < " + options.getMinSnpCallRate() + " )");
+		}
+		if (numFail > 0){
+			LogWriter.getLogger().info("After filtering, there are " + (numSnps - numFail) + " SNPs");
+		}
+	}
+
 	/**
 	 * Initiates pruning of SNPs defined in the SNP input file. Loops through
 	 * provided SNPs and checks that chromosome is valid and that information
@@ -205,16 +433,144 @@ public class Pruner {
 	private void startPruning() throws PriorityPrunerException {
 
 		//int prunedSnpIndex = 0;
+		
+		// the genotype cache may use up to an eighth of the maximum heap size
+		genotypeCache = new GenotypeCache(genotypes.getKeptFounders().size(),
+				Runtime.getRuntime().maxMemory() / 8);
+
+		// calculates LD between all pairs of SNPs before pruning, or reads it
+		// from an LD store, if specified, keeping only the pairs with the r^2
+		// needed
+		if (options.getLdGraph() || options.getLdStore() != null) {
+			double minRSquared = getMinNeededRSquared();
+			if (options.getLdStore() != null) {
+				ldGraph = getLdStore(minRSquared);
+			} else {
+				LogWriter.getLogger().info("Calculating LD graph");
+				ldGraph = new LdGraph(snpListFile, genotypes.getKeptFounders(),
+						options, minRSquared, false);
+			}
+			LogWriter.getLogger().debug(
+					"LD graph: " + ldGraph.getNumPairs() + " pairs of SNPs with r^2 >= "
+							+ minRSquared);
+		}
+
+		// resumes from the checkpoint of an interrupted run, if specified
+		ArrayList<SnpInfo> snps = snpListFile.getSnps();
+		int firstSnp = 0;
+		boolean resuming = Checkpoint.isResuming(options);
+		long settingsHash = 0;
+		long panelHash = 0;
+		if (resuming || options.getCheckpointInterval() > 0) {
+			settingsHash = Checkpoint.getSettingsHash(snps, options);
+			panelHash = LdStore.getPanelHash(snpListFile.getSnpsSortedByChrPos(),
+					genotypes.getKeptFounders());
+		}
+		if (resuming) {
+			Checkpoint checkpoint = Checkpoint.read(options, settingsHash,
+					panelHash, states);
+			firstSnp = checkpoint.getNextSnp();
+			if (ldFile != null) {
+				try {
+					ldFile.truncate(checkpoint.getLdFileOffset());
+				} catch (IOException e) {
+					throw new PriorityPrunerException("Could not resume LD table: " + e.getMessage());
+				}
+			}
+			LogWriter.getLogger().info(
+					"Resuming from checkpoint [ " + Checkpoint.getFilePath(options)
+							+ " ] at SNP " + (firstSnp + 1) + " of " + snps.size());
+		} else if (options.getResume()) {
+			LogWriter.getLogger().info(
+					"No checkpoint found at [ " + Checkpoint.getFilePath(options)
+							+ " ], pruning from the start");
+		}
+		long lastCheckpoint = System.currentTimeMillis();
+
+		// the results of the SNPs pruned before the checkpoint
+		for (int snpIndex = 0; snpIndex < firstSnp; snpIndex++) {
+			resultsWriter.setPruned(snps.get(snpIndex));
+		}
+
+		// loops through all SNPs in the SNP Input Table in order of ascending
+		// p-value, pruning each threshold configuration side by side, and
+		// writes the results of each chromosome once it's pruned
+		for (int snpIndex = firstSnp; snpIndex < snps.size(); snpIndex++) {
+			pruneIndexSnp(snps.get(snpIndex));
+			resultsWriter.setPruned(snps.get(snpIndex));
 
-		// loops through all SNPs in the SNP Input Table in order of ascending p-value
-		for (SnpInfo snp : snpListFile.getSnps()) {
+			// writes a checkpoint once the interval has passed
+			if (options.getCheckpointInterval() > 0
+					&& System.currentTimeMillis() - lastCheckpoint >= options
+							.getCheckpointInterval() * 1000L) {
+				long ldFileOffset = -1;
+				if (ldFile != null) {
+					try {
+						ldFileOffset = ldFile.flush();
+					} catch (IOException e) {
+						throw new PriorityPrunerException("Could not write to LD table: " + e.getMessage());
+					}
+				}
+				Checkpoint.write(options, settingsHash, panelHash, snpIndex + 1,
+						ldFileOffset, states);
+				LogWriter.getLogger().debug(
+						"Wrote checkpoint at SNP " + (snpIndex + 1) + " of " + snps.size());
+				lastCheckpoint = System.currentTimeMillis();
+			}
+		}
+		resultsIndexSnp = null;
+
+		// the checkpoint isn't needed once pruning is done
+		if (resuming || options.getCheckpointInterval() > 0) {
+			Checkpoint.delete(options);
+		}
+		results = null;
+
+		LogWriter.getLogger().debug(
+				"--------------------------------------------------");
+		if (ldGraph == null) {
+			LogWriter.getLogger().debug(
+					"Genotype cache: " + genotypeCache.getNumHits() + " hits, "
+							+ genotypeCache.getNumMisses() + " misses");
+		}
+		genotypeCache.clear();
+		ldGraph = null;
+
+		logWindowStatistics();
+
+		// creates the pruning results file
+		//createResultsFile();
+	}
+
+	/**
+	 * Prunes an index SNP with each threshold configuration, if it's not
+	 * already picked and either force included or not tagged.
+	 * 
+	 * @param snp
+	 *            the index SNP
+	 * @throws PriorityPrunerException
+	 *             if invalid information is encountered
+	 */
+	private void pruneIndexSnp(SnpInfo snp) throws PriorityPrunerException {
+		boolean debug = LogWriter.getLogger().isDebugEnabled();
+		for (int configuration = 0; configuration < states.size(); configuration++) {
+			PruningState state = states.get(configuration);
+
+			// in sweep mode, the log messages of each configuration are
+			// prefixed with its name
+			String prefix = "";
+			if (debug && state.getConfiguration().getName() != null) {
+				prefix = "[" + state.getConfiguration().getName() + "] ";
+			}
 
 			// prunes current SNP if it's not already picked and either force
 			// included or not tagged
-			if (!snp.getPicked() && (!snp.getTagged() || snp.getForceInclude())) {
-				LogWriter.getLogger().debug(
-					"\nUsing index SNP " + snp.getSnpName() + " with p-value: " + snp.getPValue());
-				prune(snp);
+			if (!state.isPicked(snp) && (!state.isTagged(snp) || snp.getForceInclude())) {
+				if (debug) {
+					LogWriter.getLogger().debug(
+						"\n" + prefix + "Using index SNP " + snp.getSnpName() + " with p-value: " + snp.getPValue());
+				}
+				prune(snp, state, configuration);
 				//prunedSnpIndex++;
 
 				// prints out how many SNPs that currently are processed, if
@@ -225,17 +581,36 @@ public class Pruner {
 //				}
 				
 			} else {
-				LogWriter.getLogger().debug(
-						"\nSkipping " + snp.getSnpName()
-								+ " - already tagged or picked");
+				if (debug) {
+					LogWriter.getLogger().debug(
+							"\n" + prefix + "Skipping " + snp.getSnpName()
+									+ " - already tagged or picked");
+				}
+				if (trace != null) {
+					trace.record(TraceFile.SKIP_TAGGED, configuration, snp, null,
+							Double.NaN, Double.NaN);
+				}
 			}
 		}
+	}
 
-		LogWriter.getLogger().debug(
-				"--------------------------------------------------");
-
-		// creates the pruning results file
-		//createResultsFile();
+	/**
+	 * Logs how many pruning windows were limited by --max_window_snps, and how
+	 * many pairs of SNPs the adaptive LD window saved.
+	 */
+	private void logWindowStatistics() {
+		if (options.getMaxWindowSnps() > 0 && numWindows > 0) {
+			LogWriter.getLogger().info(
+					"Window SNP limit hit for " + numCappedWindows + " of "
+							+ numWindows + " index SNPs");
+		}
+		if (options.getLdDecayCount() > 0) {
+			LogWriter.getLogger().info(
+					"Adaptive LD window: calculated LD for " + numEvaluatedPairs
+							+ " of " + numWindowPairs
+							+ " pairs of SNPs within the maximum distance ("
+							+ (numWindowPairs - numEvaluatedPairs) + " saved)");
+		}
 	}
 
 //	/**
@@ -305,7 +680,8 @@ public class Pruner {
 
 	/**
 	 * Calculates scaled scores for potential surrogates, based on their minimum
-	 * and maximum values of chosen metrics.
+	 * and maximum values of chosen metrics. The minimum and maximum of all
+	 * metrics are found in a single pass over the potential surrogates.
 	 * 
 	 * @param potentialSurrogates
 	 *            potential surrogates for current SNP, represented as
@@ -313,40 +689,137 @@ public class Pruner {
 	 */
 	private void recalculateScores(ArrayList<Result> potentialSurrogates) {
 
-		// for each metric, find min and max
-		double[] metricMins = new double[options.getMetrics().size()];
-		double[] metricMaxes = new double[options.getMetrics().size()];
-
-		for (int i = 0; i < options.getMetrics().size(); i++) {
-			double min = Double.MAX_VALUE;
-			double max = Double.MIN_VALUE;
+		int numMetrics = options.getMetrics().size();
+		double[] weights = new double[numMetrics];
+		double[] metricMins = new double[numMetrics];
+		double[] metricMaxes = new double[numMetrics];
+		for (int i = 0; i < numMetrics; i++) {
+			weights[i] = options.getMetrics().get(i).getWeight();
+			metricMins[i] = Double.MAX_VALUE;
+			metricMaxes[i] = Double.MIN_VALUE;
+		}
 
-			for (Result result : potentialSurrogates) {
-				if (result.getPartnerSnp().getMetrics()[i] > max) {
-					max = result.getPartnerSnp().getMetrics()[i];
+		// for each metric, find min and max
+		for (int r = 0; r < potentialSurrogates.size(); r++) {
+			double[] metrics = potentialSurrogates.get(r).getPartnerSnp().getMetrics();
+			for (int i = 0; i < numMetrics; i++) {
+				if (metrics[i] > metricMaxes[i]) {
+					metricMaxes[i] = metrics[i];
 				}
-				if (result.getPartnerSnp().getMetrics()[i] < min) {
-					min = result.getPartnerSnp().getMetrics()[i];
+				if (metrics[i] < metricMins[i]) {
+					metricMins[i] = metrics[i];
 				}
 			}
-			metricMins[i] = min;
-			metricMaxes[i] = max;
 		}
+
 		// now calculate the scaled score for each SNP
-		for (Result result : potentialSurrogates) {
+		for (int r = 0; r < potentialSurrogates.size(); r++) {
+			SnpInfo snp = potentialSurrogates.get(r).getPartnerSnp();
+			double[] metrics = snp.getMetrics();
 			double score = 0;
-			for (int i = 0; i < options.getMetrics().size(); i++) {
+			for (int i = 0; i < numMetrics; i++) {
 				if (metricMaxes[i] == metricMins[i]) {
-					score += options.getMetrics().get(i).getWeight();
+					score += weights[i];
 				} else {
-					score += options.getMetrics().get(i).getWeight()
-							* ((result.getPartnerSnp().getMetrics()[i] - metricMins[i]) / (metricMaxes[i] - metricMins[i]));
+					score += weights[i]
+							* ((metrics[i] - metricMins[i]) / (metricMaxes[i] - metricMins[i]));
 				}
 			}
-			result.getPartnerSnp().setScore(score);
+			snp.setScore(score);
 		}
 	}
 
+	/**
+	 * Selects the k best Results according to a comparator, using a heap of
+	 * size k instead of sorting all Results. Results that the comparator
+	 * considers equal are ordered as in the list, as they would be by a
+	 * (stable) sort of the whole list.
+	 * 
+	 * @param results
+	 *            Results to select from
+	 * @param k
+	 *            number of Results to select
+	 * @param comparator
+	 *            comparator ordering the best Results first
+	 * @return the k best Results (or all Results, if fewer), best first
+	 */
+	private static ArrayList<Result> selectBest(ArrayList<Result> results,
+			int k, Comparator<Result> comparator) {
+		k = Math.min(k, results.size());
+		ArrayList<Result> best = new ArrayList<Result>(Math.max(k, 0));
+		if (k <= 0) {
+			return best;
+		}
+
+		// max-heap of the indices of the k best Results seen so far, with
+		// the worst of them at the root
+		int[] heap = new int[k];
+		int size = 0;
+		for (int i = 0; i < results.size(); i++) {
+			if (size < k) {
+				// sifts the new index up
+				int child = size++;
+				while (child > 0) {
+					int parent = (child - 1) / 2;
+					if (compare(results, heap[parent], i, comparator) >= 0) {
+						break;
+					}
+					heap[child] = heap[parent];
+					child = parent;
+				}
+				heap[child] = i;
+			} else if (compare(results, i, heap[0], comparator) < 0) {
+				siftDown(results, heap, size, i, comparator);
+			}
+		}
+
+		// removes the worst index from the heap until it's empty
+		Result[] sorted = new Result[size];
+		while (size > 0) {
+			sorted[size - 1] = results.get(heap[0]);
+			size--;
+			if (size > 0) {
+				siftDown(results, heap, size, heap[size], comparator);
+			}
+		}
+		Collections.addAll(best, sorted);
+		return best;
+	}
+
+	/**
+	 * Places an index at the root of the heap and sifts it down.
+	 */
+	private static void siftDown(ArrayList<Result> results, int[] heap,
+			int size, int index, Comparator<Result> comparator) {
+		int parent = 0;
+		while (2 * parent + 1 < size) {
+			int child = 2 * parent + 1;
+			if (child + 1 < size
+					&& compare(results, heap[child + 1], heap[child], comparator) > 0) {
+				child++;
+			}
+			if (compare(results, heap[child], index, comparator) <= 0) {
+				break;
+			}
+			heap[parent] = heap[child];
+			parent = child;
+		}
+		heap[parent] = index;
+	}
+
+	/**
+	 * Compares two Results by their indices, breaking ties by the order in the
+	 * list.
+	 */
+	private static int compare(ArrayList<Result> results, int x, int y,
+			Comparator<Result> comparator) {
+		int compare = comparator.compare(results.get(x), results.get(y));
+		if (compare == 0) {
+			compare = x < y ? -1 : (x == y ? 0 : 1);
+		}
+		return compare;
+	}
+
 	/**
 	 * Method responsible for the pruning procedure. Based on current index SNP
 	 * and window size, a list of SNPs to calculate LD with is created. Together
@@ -368,68 +841,244 @@ public class Pruner {
 	 * 
 	 * @param indexSnp
 	 *            current index SNP
+	 * @param state
+	 *            pruning state of the current threshold configuration
+	 * @param configuration
+	 *            ordinal of the current threshold configuration
 	 * @throws PriorityPrunerException
 	 *             if problems are encountered during LD calculation
 	 * @throws IOException 
 	 */
-	private void prune(SnpInfo indexSnp) throws PriorityPrunerException {
+	private void prune(SnpInfo indexSnp, PruningState state, int configuration)
+			throws PriorityPrunerException {
+		boolean debug = LogWriter.getLogger().isDebugEnabled();
 
 		// first check if the index SNP passes the design score or is force-included
 		if (indexSnp.getDesignScore() < options.getMinDesignScore() && 
 				!indexSnp.getForceInclude()){
-			LogWriter.getLogger().debug("Skipping index SNP " + indexSnp.getSnpName() + 
-					"- design score is less than threshold.");
+			if (debug) {
+				LogWriter.getLogger().debug("Skipping index SNP " + indexSnp.getSnpName() + 
+						"- design score is less than threshold.");
+			}
+			if (trace != null) {
+				trace.record(TraceFile.SKIP_DESIGN_SCORE, configuration,
+						indexSnp, null, Double.NaN, Double.NaN);
+			}
 			return;
 		}
 		
 		// check if the index SNP passes maf, hwe and call rate thresholds
 		if (!indexSnp.getSnpGenotypes().isValid() && !indexSnp.getForceInclude()){
-			LogWriter.getLogger().debug("Skipping index SNP " + indexSnp.getSnpName() + 
-					"- does not pass MAF, HWE or call rate threshold.");
+			if (debug) {
+				LogWriter.getLogger().debug("Skipping index SNP " + indexSnp.getSnpName() + 
+						"- does not pass MAF, HWE or call rate threshold.");
+			}
+			if (trace != null) {
+				trace.record(TraceFile.SKIP_FILTERS, configuration, indexSnp,
+						null, Double.NaN, Double.NaN);
+			}
 			return;
 		}
 		
-		int startPos = (int) (indexSnp.getPos() - options.getMaxDistance());
-		int endPos = (int) (indexSnp.getPos() + options.getMaxDistance());
+		// calculates LD between the index SNP and the SNPs in its window, or
+		// looks it up if the LD graph has been calculated. The results are
+		// shared by all threshold configurations
+		if (resultsIndexSnp != indexSnp) {
+			if (ldGraph != null) {
+				results = ldGraph.getResults(indexSnp);
+			} else {
+				results = calculateResults(indexSnp);
+			}
+			resultsIndexSnp = indexSnp;
+			writeLdRows(indexSnp, results);
+		}
 
-		if (startPos < 1) {
-			startPos = 1;
+		// determine which r^2 threshold to use		
+		// if no threshold is defined for associated p-value, an exception gets
+		// thrown
+		double r2Threshold = -1;
+		for (R2Threshold threshold : state.getConfiguration().getSortedR2Thresholds()) {
+			if (indexSnp.getPValue() <= threshold.getPValue()) {
+				r2Threshold = threshold.getR2Threshold();
+				if (debug) {
+					LogWriter.getLogger().debug(
+							"Defined r^2-threshold: " + r2Threshold);
+				}
+				break;
+			}
+		}
+		if (r2Threshold < 0) {
+			throw new PriorityPrunerException(
+					"No r-squared threshold defined for p-value of " + indexSnp.getSnpName() + ": "
+							+ indexSnp.getPValue());
 		}
 
-		SnpInfo startSnpInfo = indexSnp;
-		SnpInfo endSnpInfo = indexSnp;
 
-		// find the starting SNP
-		while (startSnpInfo.getSortedByPosIndex() > 0) {
-			SnpInfo checkSnpInfo = snpListFile.getSnpsSortedByChrPos().get(
-					startSnpInfo.getSortedByPosIndex() - 1);
-			if (!checkSnpInfo.getChr().equals(indexSnp.getChr())
-					|| checkSnpInfo.getPos() < startPos) {
-				break;
-			} else {
-				startSnpInfo = checkSnpInfo;
+
+		// pick index SNP
+		state.pick(indexSnp);
+		if (debug) {
+			LogWriter.getLogger().debug("Selecting index SNP " + indexSnp.getSnpName());
+		}
+		if (trace != null) {
+			trace.record(TraceFile.INDEX, configuration, indexSnp, null,
+					Double.NaN, r2Threshold);
+		}
+		
+		// pick surrogates if necessary
+		pickSurrogates(indexSnp, state, configuration, r2Threshold, results);
+		
+		// tags SNPs within the pruning window if their r^2-value are equal to
+		// or above the current r^2-threshold
+		int numTagged = 0;
+		for (Result result : results) {
+			if (result.getRSquared() >= r2Threshold) {
+				numTagged++;
+				state.tag(result.getPartnerSnp(), indexSnp,
+						result.getRSquared());
+				if (trace != null) {
+					trace.record(TraceFile.TAG, configuration, indexSnp,
+							result.getPartnerSnp(), result.getRSquared(),
+							r2Threshold);
+				}
 			}
 		}
 
-		// find the ending SNP
-		while (endSnpInfo.getSortedByPosIndex() < snpListFile
-				.getSnpsSortedByChrPos().size() - 1) {
-			SnpInfo checkSnpInfo = snpListFile.getSnpsSortedByChrPos().get(
-					endSnpInfo.getSortedByPosIndex() + 1);
-			if (!checkSnpInfo.getChr().equals(indexSnp.getChr())
-					|| checkSnpInfo.getPos() > endPos) {
-				break;
-			} else {
-				endSnpInfo = checkSnpInfo;
+		if (debug) {
+			LogWriter.getLogger().debug("Marking "+ numTagged + " SNP(s) as tagged.");
+		}
+	}
+
+	/**
+	 * Writes the LD results of an index SNP to the LD table, if specified.
+	 * 
+	 * @param indexSnp
+	 *            current index SNP
+	 * @param results
+	 *            LD results of the index SNP
+	 * @throws PriorityPrunerException
+	 *             if the LD table couldn't be written
+	 */
+	private void writeLdRows(SnpInfo indexSnp, ArrayList<Result> results)
+			throws PriorityPrunerException {
+		if (this.ldFile == null) {
+			return;
+		}
+		for (Result result : results) {
+			if (result.getRSquared() < options.getLdMinRSquared()) {
+				continue;
+			}
+			try{
+				// prints to LD output file
+				this.ldFile.writeLdRow(indexSnp, result.getPartnerSnp(),
+						result.getRSquared(), result.getDPrime());
+			}catch(IOException e){
+				throw new PriorityPrunerException("Could not write to LD table: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the lowest r^2 needed by this run. Pairs with lower r^2 can't
+	 * tag any SNP under the thresholds of any configuration, and aren't
+	 * written to the LD table, so LD doesn't need to be estimated for them.
+	 * In adaptive mode, the r^2 floor is needed as well, to tell where LD
+	 * decays.
+	 * 
+	 * @return the minimum r^2 needed
+	 */
+	private double getMinNeededRSquared() {
+		double minRSquared = 1;
+		for (PruningState state : states) {
+			for (R2Threshold threshold : state.getConfiguration()
+					.getSortedR2Thresholds()) {
+				minRSquared = Math.min(minRSquared, threshold.getR2Threshold());
+			}
+		}
+		if (ldFile != null) {
+			minRSquared = Math.min(minRSquared, options.getLdMinRSquared());
+		}
+		if (options.getLdDecayCount() > 0) {
+			minRSquared = Math.min(minRSquared, options.getLdDecayFloorRSquared());
+		}
+		return minRSquared;
+	}
+
+	/**
+	 * Opens the LD store specified in the command line. If the store doesn't
+	 * exist or doesn't match the genotype data and settings of this run, LD is
+	 * calculated between all pairs of SNPs and written to the store first.
+	 * 
+	 * @param minRSquared
+	 *            minimum r^2 of the pairs needed
+	 * @return the opened LD store
+	 * @throws PriorityPrunerException
+	 *             if the store can't be read or written
+	 */
+	private LdStore getLdStore(double minRSquared) throws PriorityPrunerException {
+		String filePath = options.getLdStore();
+		long panelHash = LdStore.getPanelHash(snpListFile.getSnpsSortedByChrPos(),
+				genotypes.getKeptFounders());
+		boolean needDPrime = ldFile != null;
+		if (new File(filePath).exists()) {
+			LdStore ldStore = LdStore.open(filePath, snpListFile, panelHash,
+					options.getMaxDistance(), minRSquared, needDPrime);
+			if (ldStore != null) {
+				LogWriter.getLogger().info("Reading LD from [ " + filePath + " ]");
+				return ldStore;
+			}
+			LogWriter.getLogger().info("LD store [ " + filePath
+					+ " ] does not match the genotype data or settings");
+		}
+		LogWriter.getLogger().info("Calculating LD graph");
+		LdGraph graph = new LdGraph(snpListFile, genotypes.getKeptFounders(),
+				options, minRSquared, true);
+		LogWriter.getLogger().info("Writing LD store to [ " + filePath + " ]");
+		LdStore.write(filePath, graph, snpListFile.getSnpsSortedByChrPos(),
+				panelHash, options.getMaxDistance(), needDPrime);
+		return LdStore.open(filePath, snpListFile, panelHash,
+				options.getMaxDistance(), minRSquared, needDPrime);
+	}
+
+	/**
+	 * Calculates LD between an index SNP and the valid SNPs within its pruning
+	 * window, using SnpWorkUnit.
+	 * 
+	 * @param indexSnp
+	 *            current index SNP
+	 * @return list of Result-objects, in order of position
+	 * @throws PriorityPrunerException
+	 *             if problems are encountered during LD calculation
+	 */
+	private ArrayList<Result> calculateResults(SnpInfo indexSnp)
+			throws PriorityPrunerException {
+
+		int windowStart;
+		int windowEnd;
+		if (options.getMaxWindowSnps() == 0) {
+			windowStart = snpListFile.getWindowStart(indexSnp,
+					options.getMaxDistance());
+			windowEnd = snpListFile.getWindowEnd(indexSnp,
+					options.getMaxDistance());
+		} else {
+			windowStart = snpListFile.getWindowStart(indexSnp,
+					options.getMaxDistance(), options.getMaxWindowSnps());
+			windowEnd = snpListFile.getWindowEnd(indexSnp,
+					options.getMaxDistance(), options.getMaxWindowSnps());
+			if (snpListFile.isWindowCapped(indexSnp, options.getMaxDistance(),
+					windowStart, windowEnd)) {
+				numCappedWindows++;
 			}
 		}
+		numWindows++;
 
 		int referenceSNPIndex = -1;
 		ArrayList<SnpGenotypes> genotypesList = new ArrayList<SnpGenotypes>();
+		ArrayList<byte[]> decodedGenotypesList = new ArrayList<byte[]>();
+		genotypeCache.setIndexSnp(indexSnp);
 
 		// get the list of SNPs to calculate LD with
-		for (int i = startSnpInfo.getSortedByPosIndex(); i < endSnpInfo
-				.getSortedByPosIndex() + 1; i++) {
+		for (int i = windowStart; i < windowEnd + 1; i++) {
 			SnpInfo snpInfo = snpListFile.getSnpsSortedByChrPos().get(i);
 			// if genotypes couldn't be found -- this shouldn't ever happen
 			if (snpInfo.getSnpGenotypes() == null) {
@@ -437,17 +1086,21 @@ public class Pruner {
 					snpInfo.getSnpName());
 			}
 			
-			// if the snp is valid or if this is the index snp, add it to the genotype list
+			// if the snp is valid or if this is the index snp, add it to the
+			// genotype list. In adaptive mode, genotypes are only decoded for
+			// the SNPs LD is calculated for
 			if (snpInfo.getSnpGenotypes().isValid() || indexSnp == snpInfo){
 				genotypesList.add(snpInfo.getSnpGenotypes());
+				if (options.getLdDecayCount() == 0) {
+					decodedGenotypesList.add(genotypeCache
+							.getDecodedGenotypes(snpInfo.getSnpGenotypes()));
+				}
 			}
 			
 			if (indexSnp == snpInfo) {
 				// the position of the index SNP in the list
 				referenceSNPIndex = genotypesList.size() - 1;
 			}
-			
-
 		}
 		// if index SNP wasn't found - this shouldn't ever happen
 		if (referenceSNPIndex < 0) {
@@ -455,75 +1108,31 @@ public class Pruner {
 					indexSnp.getSnpName());
 		}
 		
-		
 		// calling SnpWorkUnit to do LD calculations
-		SnpWorkUnit snpWorkUnit = new SnpWorkUnit(indexSnp.getSnpName(),
-				genotypesList, referenceSNPIndex,
-				genotypes.getKeptFounders());
-
-		snpWorkUnit.performWork();
-
-
-		// determine which r^2 threshold to use		
-		// if no threshold is defined for associated p-value, an exception gets
-		// thrown
-		double r2Threshold = -1;
-		for (R2Threshold threshold : options.getSortedR2Thresholds()) {
-			if (indexSnp.getPValue() <= threshold.getPValue()) {
-				r2Threshold = threshold.getR2Threshold();
-				LogWriter.getLogger().debug(
-						"Defined r^2-threshold: " + r2Threshold);
-				break;
-			}
-		}
-		if (r2Threshold < 0) {
-			throw new PriorityPrunerException(
-					"No r-squared threshold defined for p-value of " + indexSnp.getSnpName() + ": "
-							+ indexSnp.getPValue());
+		SnpWorkUnit snpWorkUnit;
+		if (options.getLdDecayCount() == 0) {
+			snpWorkUnit = new SnpWorkUnit(indexSnp.getSnpName(),
+					genotypesList, decodedGenotypesList, referenceSNPIndex,
+					genotypes.getKeptFounders());
+		} else {
+			snpWorkUnit = new SnpWorkUnit(indexSnp.getSnpName(),
+					genotypesList, genotypeCache, referenceSNPIndex,
+					genotypes.getKeptFounders());
+			snpWorkUnit.setLdDecay(options.getLdDecayCount(),
+					options.getLdDecayFloorRSquared());
 		}
+		snpWorkUnit.setLdCache(ldCache);
+		snpWorkUnit.setMinRSquared(getMinNeededRSquared());
 
-
-
-		// pick index SNP
-		indexSnp.setPicked(true);
-		indexSnp.setTagged(true);
-		indexSnp.setPickOrder(pickOrder);
-		pickOrder++;
-		LogWriter.getLogger().debug("Selecting index SNP " + indexSnp.getSnpName());
-		
-		// pick surrogates if necessary
-		pickSurrogates(indexSnp, r2Threshold, snpWorkUnit.getResults());
-		
-		// tags SNPs within the pruning window if their r^2-value are equal to
-		// or above the current r^2-threshold
-		int numTagged = 0;
-		for (Result result : snpWorkUnit.getResults()) {
-
-			if (this.ldFile != null){
-				try{
-					// prints to LD output file
-					this.ldFile.writeLdRow(indexSnp.getSnpName(),indexSnp.getChr(),indexSnp.getPos(),
-							indexSnp.getAllele1(),indexSnp.getAllele2(),result.getPartnerSnpName(), 
-							result.getPartnerChr(),result.getPartnerPos(),result.getPartnerSnp().getAllele1(),
-							result.getPartnerSnp().getAllele2(),result.getRSquared(),result.getDPrime());
-				}catch(IOException e){
-					throw new PriorityPrunerException("Could not write to LD table: " + e.getMessage());
-				}
-			}
-			if (result.getRSquared() >= r2Threshold) {
-				result.getPartnerSnp().setTagged(true);
-				numTagged++;
-				result.getPartnerSnp().addTaggedBy(indexSnp,
-						result.getRSquared());
-			}
-		}
-
-		LogWriter.getLogger().debug("Marking "+ numTagged + " SNP(s) as tagged.");
+		snpWorkUnit.performWork();
+		numWindowPairs += genotypesList.size();
+		numEvaluatedPairs += snpWorkUnit.getNumEvaluations();
+		return snpWorkUnit.getResults();
 	}
 	
-	private void pickSurrogates(SnpInfo indexSnp, double r2Threshold, ArrayList<Result> results){
-		
-		DecimalFormat decimal = new DecimalFormat("##.00");
+	private void pickSurrogates(SnpInfo indexSnp, PruningState state,
+			int configuration, double r2Threshold, ArrayList<Result> results)
+			throws PriorityPrunerException {
 		
 		// determine number of surrogates needed
 		// if user specified that surrogates shouldn't be added for force
@@ -533,7 +1142,8 @@ public class Pruner {
 				&& !options.getAddSurrogatesForForceIncludedSnps()) {
 			numSurrogates = 0;
 		}else{
-			for (SurrogateThreshold threshold : options.getSortedSurrogateThresholds()) {
+			for (SurrogateThreshold threshold : state.getConfiguration()
+					.getSortedSurrogateThresholds()) {
 				if (indexSnp.getPValue() < threshold.getPValue()) {
 					numSurrogates = threshold.getNumSurrogates();
 					break;
@@ -541,7 +1151,10 @@ public class Pruner {
 			}
 		}
 		
-		LogWriter.getLogger().debug("Surrogates needed: " + numSurrogates);
+		boolean debug = LogWriter.getLogger().isDebugEnabled();
+		if (debug) {
+			LogWriter.getLogger().debug("Surrogates needed: " + numSurrogates);
+		}
 		
 		if (numSurrogates == 0){
 			return;
@@ -556,14 +1169,14 @@ public class Pruner {
 			Result result = results.get(i);
 
 			// adds to list of already picked surrogates
-			if (result.getPartnerSnp().getPicked()
+			if (state.isPicked(result.getPartnerSnp())
 					&& result.getRSquared() >= r2Threshold
 					&& !result.getPartnerSnp().equals(indexSnp)) {
 				surrogatesPicked.add(result.getPartnerSnp());
 			}
 			
 			// adds to list of potential surrogates
-			if (!result.getPartnerSnp().getPicked()
+			if (!state.isPicked(result.getPartnerSnp())
 					&& result.getRSquared() >= r2Threshold
 					&& (result.getPartnerSnp().getDesignScore() >= options.getMinDesignScore()
 						|| result.getPartnerSnp().getForceInclude())
@@ -571,38 +1184,53 @@ public class Pruner {
 				potentialSurrogateResults.add(result);
 			}
 		}
-		LogWriter.getLogger().debug("Surrogates available: " + potentialSurrogateResults.size());
+		if (debug) {
+			LogWriter.getLogger().debug("Surrogates available: " + potentialSurrogateResults.size());
+		}
 		
+		// only the best of the potential surrogates are needed, so they're
+		// selected with a heap instead of sorting all of them
+		int numNeeded = numSurrogates - surrogatesPicked.size();
+		if (numNeeded <= 0 || potentialSurrogateResults.isEmpty()) {
+			return;
+		}
+		ArrayList<Result> selectedResults;
 		
-		// calculates scaled scores for potential surrogates and sorts them
+		// calculates scaled scores for potential surrogates and selects the
+		// best
 		if (options.getMetrics().size() > 0){
 			recalculateScores(potentialSurrogateResults);
-			Collections.sort(potentialSurrogateResults, new ScoreSorter());
+			selectedResults = selectBest(potentialSurrogateResults, numNeeded, new ScoreSorter());
 		}
-		// sort by r-squared
+		// select by r-squared
 		else{
 			
-			Collections.sort(potentialSurrogateResults, new RSquaredSorter());
+			selectedResults = selectBest(potentialSurrogateResults, numNeeded, new RSquaredSorter());
 		}
 		
 		// now pick additional surrogates
-		for (Result result : potentialSurrogateResults) {
-			if (surrogatesPicked.size() < numSurrogates) {
-				result.getPartnerSnp().setPicked(true);
-				result.getPartnerSnp().setTagged(true);
-				result.getPartnerSnp().setPickOrder(pickOrder);
-				pickOrder++;
-				surrogatesPicked.add(result.getPartnerSnp());
+		for (Result result : selectedResults) {
+			state.pick(result.getPartnerSnp());
+			surrogatesPicked.add(result.getPartnerSnp());
 
+			if (debug) {
 				LogWriter.getLogger().debug(
-							"Selecting surrogate "
-									+ result.getPartnerSnp().getSnpName()
-							+ " with r^2: " + decimal.format(result.getRSquared()));
+						"Selecting surrogate "
+								+ result.getPartnerSnp().getSnpName()
+								+ " with r^2: " + debugFormat.format(result.getRSquared()));
+			}
+			if (trace != null) {
+				trace.record(TraceFile.SURROGATE, configuration, indexSnp,
+						result.getPartnerSnp(), result.getRSquared(), r2Threshold);
 			}
 		}
 
 	}
 	
+	public ArrayList<PruningState> getStates() {
+		return states;
+	}
+
 	/***
 	 * Class to sort Result objects by force include status, then 
 	 * pairwise r-squared, then SNP name (to prevent randomness) 
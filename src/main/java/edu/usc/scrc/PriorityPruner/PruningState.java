@@ -0,0 +1,299 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class stores the state of the pruning for one threshold configuration:
+ * which SNPs are picked and tagged, the order in which they were picked, and
+ * the best tag of each SNP. Pruner keeps one state per configuration, so that
+ * several configurations can be pruned side by side from the same LD results.
+ * 
+ * Only the best tag of each SNP is kept, in primitive arrays, since the
+ * results file only lists the best tag. All tags of a SNP can be written to a
+ * tags file as they're made.
+ * 
+ * SNPs are identified by their index in the list sorted by chromosome and
+ * position.
+ */
+public class PruningState {
+
+	private ThresholdConfiguration configuration;
+	// the SNPs, sorted by chromosome and position
+	private ArrayList<SnpInfo> snps;
+	private boolean[] picked;
+	private boolean[] tagged;
+	private int[] pickOrder;
+	// index of the SNP tagging each SNP with the highest r^2 (the first one
+	// in case of ties), or -1 if none, and that r^2. The r^2 is NaN until
+	// the SNP is tagged by another SNP, and -1 if it's only tagged with
+	// unknown r^2.
+	private int[] bestTags;
+	private double[] bestTagRSquared;
+	private int nextPickOrder = 1;
+	// file all tags are written to, if specified
+	private TagsFile tagsFile = null;
+
+	/**
+	 * Constructor for PruningState.
+	 * 
+	 * @param configuration
+	 *            the threshold configuration to prune with
+	 * @param snps
+	 *            the SNPs to prune, sorted by chromosome and position
+	 */
+	public PruningState(ThresholdConfiguration configuration,
+			ArrayList<SnpInfo> snps) {
+		this.configuration = configuration;
+		this.snps = snps;
+		int numSnps = snps.size();
+		this.picked = new boolean[numSnps];
+		this.tagged = new boolean[numSnps];
+		this.pickOrder = new int[numSnps];
+		this.bestTags = new int[numSnps];
+		this.bestTagRSquared = new double[numSnps];
+		Arrays.fill(pickOrder, -1);
+		Arrays.fill(bestTags, -1);
+		Arrays.fill(bestTagRSquared, Double.NaN);
+	}
+
+	/**
+	 * Picks a SNP, which also tags it.
+	 * 
+	 * @param snp
+	 *            the SNP to pick
+	 */
+	public void pick(SnpInfo snp) {
+		int i = snp.getSortedByPosIndex();
+		picked[i] = true;
+		tagged[i] = true;
+		pickOrder[i] = nextPickOrder;
+		nextPickOrder++;
+	}
+
+	/**
+	 * Tags a SNP by another SNP.
+	 * 
+	 * @param snp
+	 *            the SNP to tag
+	 * @param taggedBy
+	 *            the SNP tagging it
+	 * @param rSquared
+	 *            r^2 between the two SNPs
+	 * @throws PriorityPrunerException
+	 *             if the tag couldn't be written to the tags file
+	 */
+	public void tag(SnpInfo snp, SnpInfo taggedBy, double rSquared)
+			throws PriorityPrunerException {
+		int i = snp.getSortedByPosIndex();
+		tagged[i] = true;
+		if (Double.isNaN(bestTagRSquared[i])) {
+			bestTagRSquared[i] = -1;
+		}
+		if (rSquared > bestTagRSquared[i]) {
+			bestTags[i] = taggedBy.getSortedByPosIndex();
+			bestTagRSquared[i] = rSquared;
+		}
+		if (tagsFile != null) {
+			tagsFile.writeTag(snp, taggedBy, rSquared);
+		}
+	}
+
+	/**
+	 * Copies this state to the SnpInfo-objects, where ResultsFile reads it.
+	 * 
+	 * @param snps
+	 *            the SNPs
+	 */
+	public void copyToSnps(ArrayList<SnpInfo> snps) {
+		for (SnpInfo snp : snps) {
+			copyToSnp(snp);
+		}
+	}
+
+	/**
+	 * Copies the state of a single SNP to its SnpInfo-object.
+	 * 
+	 * @param snp
+	 *            the SNP
+	 */
+	public void copyToSnp(SnpInfo snp) {
+		int i = snp.getSortedByPosIndex();
+		snp.setPicked(picked[i]);
+		snp.setTagged(tagged[i]);
+		snp.setPickOrder(pickOrder[i]);
+		snp.setBestTag(bestTags[i] >= 0 ? snps.get(bestTags[i]) : null,
+				bestTagRSquared[i]);
+	}
+
+	/**
+	 * Writes this state to a checkpoint. The picked and tagged flags are
+	 * written as bitsets, the picked SNPs in pick order, and the best tag of
+	 * each tagged SNP with the distance to the previous tagged SNP.
+	 * 
+	 * @param out
+	 *            stream of the checkpoint
+	 * @throws IOException
+	 *             if the state can't be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		writeBits(out, picked);
+		writeBits(out, tagged);
+
+		int numPicked = nextPickOrder - 1;
+		int[] snpsByPickOrder = new int[numPicked];
+		for (int i = 0; i < pickOrder.length; i++) {
+			if (pickOrder[i] > 0) {
+				snpsByPickOrder[pickOrder[i] - 1] = i;
+			}
+		}
+		Checkpoint.writeVarInt(out, numPicked);
+		for (int i = 0; i < numPicked; i++) {
+			Checkpoint.writeVarInt(out, snpsByPickOrder[i]);
+		}
+
+		int numBestTags = 0;
+		for (double rSquared : bestTagRSquared) {
+			if (!Double.isNaN(rSquared)) {
+				numBestTags++;
+			}
+		}
+		Checkpoint.writeVarInt(out, numBestTags);
+		int previous = -1;
+		for (int i = 0; i < bestTagRSquared.length; i++) {
+			if (Double.isNaN(bestTagRSquared[i])) {
+				continue;
+			}
+			Checkpoint.writeVarInt(out, i - previous);
+			previous = i;
+			Checkpoint.writeVarInt(out, bestTags[i] + 1);
+			out.writeDouble(bestTagRSquared[i]);
+		}
+	}
+
+	/**
+	 * Restores this state from a checkpoint written by write.
+	 * 
+	 * @param in
+	 *            stream of the checkpoint
+	 * @throws IOException
+	 *             if the state can't be read
+	 */
+	public void read(DataInputStream in) throws IOException {
+		readBits(in, picked);
+		readBits(in, tagged);
+
+		int numPicked = Checkpoint.readVarInt(in);
+		Arrays.fill(pickOrder, -1);
+		for (int i = 0; i < numPicked; i++) {
+			pickOrder[checkIndex(Checkpoint.readVarInt(in))] = i + 1;
+		}
+		nextPickOrder = numPicked + 1;
+
+		Arrays.fill(bestTags, -1);
+		Arrays.fill(bestTagRSquared, Double.NaN);
+		int numBestTags = Checkpoint.readVarInt(in);
+		int snp = -1;
+		for (int i = 0; i < numBestTags; i++) {
+			snp = checkIndex(snp + Checkpoint.readVarInt(in));
+			int bestTag = Checkpoint.readVarInt(in) - 1;
+			bestTags[snp] = bestTag < 0 ? -1 : checkIndex(bestTag);
+			bestTagRSquared[snp] = in.readDouble();
+		}
+	}
+
+	/**
+	 * Writes flags as a bitset.
+	 */
+	private static void writeBits(DataOutputStream out, boolean[] flags)
+			throws IOException {
+		BitSet bits = new BitSet(flags.length);
+		for (int i = 0; i < flags.length; i++) {
+			if (flags[i]) {
+				bits.set(i);
+			}
+		}
+		long[] words = bits.toLongArray();
+		Checkpoint.writeVarInt(out, words.length);
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	/**
+	 * Reads flags written by writeBits.
+	 */
+	private static void readBits(DataInputStream in, boolean[] flags)
+			throws IOException {
+		long[] words = new long[Checkpoint.readVarInt(in)];
+		if (words.length > (flags.length + 63) / 64) {
+			throw new IOException("Invalid bitset in checkpoint.");
+		}
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readLong();
+		}
+		BitSet bits = BitSet.valueOf(words);
+		for (int i = 0; i < flags.length; i++) {
+			flags[i] = bits.get(i);
+		}
+	}
+
+	/**
+	 * Checks that a SNP index read from a checkpoint is valid.
+	 */
+	private int checkIndex(int snp) throws IOException {
+		if (snp < 0 || snp >= picked.length) {
+			throw new IOException("Invalid SNP index in checkpoint.");
+		}
+		return snp;
+	}
+
+	// public getters for private fields of this class
+
+	public ThresholdConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	public boolean isPicked(SnpInfo snp) {
+		return picked[snp.getSortedByPosIndex()];
+	}
+
+	public boolean isTagged(SnpInfo snp) {
+		return tagged[snp.getSortedByPosIndex()];
+	}
+
+	public TagsFile getTagsFile() {
+		return tagsFile;
+	}
+
+	public void setTagsFile(TagsFile tagsFile) {
+		this.tagsFile = tagsFile;
+	}
+}
@@ -34,14 +34,14 @@ public class Result implements Comparable<Object> {
 	// variables for SNP 1 (index SNP)
 	private String snpName;
 	private double snpMaf;
-	private String snpChr;
+	private int snpChrCode;
 	private int snpPos;
 	private SnpInfo indexSnp;
 
 	// variables for SNP 2
 	private String partnerSnpName;
 	private double partnerMaf;
-	private String partnerChr;
+	private int partnerChrCode;
 	private int partnerPos;
 	private SnpInfo partnerSnp;
 
@@ -82,13 +82,52 @@ public class Result implements Comparable<Object> {
 			String partnerSnpName, double partnerMaf, String partnerChr,
 			int partnerPos, double rSquared, double dPrime, SnpInfo indexSnp,
 			SnpInfo partnerSnp) {
+		this(snpName, snpMaf, ChromosomeDictionary.getInstance().getCode(
+				snpChr), snpPos, partnerSnpName, partnerMaf,
+				ChromosomeDictionary.getInstance().getCode(partnerChr),
+				partnerPos, rSquared, dPrime, indexSnp, partnerSnp);
+	}
+
+	/**
+	 * Constructor for Result, taking the chromosomes as codes from
+	 * ChromosomeDictionary.
+	 * 
+	 * @param snpName
+	 *            SNP 1 name
+	 * @param snpMaf
+	 *            SNP 1 MAF
+	 * @param snpChrCode
+	 *            SNP 1 Chr code
+	 * @param snpPos
+	 *            SNP 1 Pos
+	 * @param partnerSnpName
+	 *            SNP 2 Name
+	 * @param partnerMaf
+	 *            SNP 2 MAF
+	 * @param partnerChrCode
+	 *            SNP 2 Chr code
+	 * @param partnerPos
+	 *            SNP 2 Pos
+	 * @param rSquared
+	 *            r^2 calculated between SNP 1 and SNP 2
+	 * @param dPrime
+	 *            D' calculated between SNP 1 and SNP 2
+	 * @param indexSnp
+	 *            SnpInfo for SNP 1
+	 * @param partnerSnp
+	 *            SnpInfo for SNP 2
+	 */
+	public Result(String snpName, double snpMaf, int snpChrCode, int snpPos,
+			String partnerSnpName, double partnerMaf, int partnerChrCode,
+			int partnerPos, double rSquared, double dPrime, SnpInfo indexSnp,
+			SnpInfo partnerSnp) {
 		this.snpName = snpName;
 		this.snpMaf = snpMaf;
-		this.snpChr = snpChr;
+		this.snpChrCode = snpChrCode;
 		this.snpPos = snpPos;
 		this.partnerSnpName = partnerSnpName;
 		this.partnerMaf = partnerMaf;
-		this.partnerChr = partnerChr;
+		this.partnerChrCode = partnerChrCode;
 		this.partnerPos = partnerPos;
 		this.rSquared = rSquared;
 		this.dPrime = dPrime;
@@ -116,7 +155,11 @@ public class Result implements Comparable<Object> {
 	}
 
 	public String getSnpChr() {
-		return snpChr;
+		return ChromosomeDictionary.getInstance().getName(snpChrCode);
+	}
+
+	public int getSnpChrCode() {
+		return snpChrCode;
 	}
 
 	public int getSnpPos() {
@@ -132,7 +175,11 @@ public class Result implements Comparable<Object> {
 	}
 
 	public String getPartnerChr() {
-		return partnerChr;
+		return ChromosomeDictionary.getInstance().getName(partnerChrCode);
+	}
+
+	public int getPartnerChrCode() {
+		return partnerChrCode;
 	}
 
 	public int getPartnerPos() {
@@ -23,10 +23,13 @@ THE SOFTWARE.
 
 package edu.usc.scrc.PriorityPruner;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 
 /**
  * This class handles writing the main PriorityPruner results file, which 
@@ -36,28 +39,56 @@ import java.io.IOException;
  * and its best tag. 
  * 
  * The file is tab-delimited and in plain text format. One header line and 
- * one line per SNP in the SNP list file inputted by the user
+ * one line per SNP in the SNP list file inputted by the user. With the --bgzf
+ * option, the file is compressed by a BgzfOutputStream, and ".gz" is appended
+ * to its path. With the --arrow option, the rows are also written to
+ * <path>.arrow by an ArrowResultsFile.
+ * 
+ * Like the LD table, the rows are formatted as ASCII straight into a
+ * reusable buffer, sized from the number of SNPs, which is written to the
+ * file with a FileChannel whenever it's full.
  */
 public class ResultsFile {
 
 	private CommandLineOptions options = null;
-	
-	public ResultsFile(SnpListFile snpListFile, CommandLineOptions options) throws PriorityPrunerException{
-		this.options = options;
-		createResultsFile(snpListFile);
-	}
+	private String filePath;
+	private FileOutputStream stream = null;
+	private FileChannel channel = null;
+	// compresses the rows written to stream, if --bgzf is specified
+	private BgzfOutputStream bgzfStream = null;
+	// buffer of formatted rows, written to the file whenever it's full
+	private ByteBuffer buffer = null;
+	private byte[] digits = new byte[11];
+	private Charset charset = Charset.defaultCharset();
+	private NumberFormatter formatter = null;
+	// Arrow copy of the file, if --arrow is specified
+	private ArrowResultsFile arrowFile = null;
 	
 	/**
-	 * Creates output file for pruning results. The file will be placed in file
-	 * path specified by the user. It will overwrite already existing file with
-	 * same name.
+	 * Constructor for ResultsFile, creating the file and writing its header.
+	 * The results are then written by write(), a part of the SNPs at a time,
+	 * and the file is closed by close(). Creating the file will overwrite
+	 * already existing file with same name.
 	 * 
+	 * @param filePath
+	 *            path of the results file
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune, whose number
+	 *            of rows sizes the buffer, and whose names and alleles are
+	 *            written to the dictionaries of an Arrow copy
+	 * @param options
+	 *            the command line options
 	 * @throws PriorityPrunerException
 	 *             if new file couldn't be created
 	 */
-	private void createResultsFile(SnpListFile snpListFile) throws PriorityPrunerException {
-
-		BufferedWriter writer = null;
+	public ResultsFile(String filePath, SnpListFile snpListFile,
+			CommandLineOptions options) throws PriorityPrunerException {
+		this.options = options;
+		this.filePath = filePath;
+		this.formatter = new NumberFormatter(options.getPrecision());
+		if (options.getBgzf()) {
+			this.filePath += ".gz";
+		}
 		
 		//CommandLineOptions options = CommandLineOptions.getInstance();
 		
@@ -65,53 +96,215 @@ public class ResultsFile {
 			// creates output file
 			//DecimalFormat df = new DecimalFormat("0.00##");
 			
-			File outputFile = new File(this.options.getOutputPrefix() + ".results");
-			writer = new BufferedWriter(new FileWriter(outputFile));
+			stream = new FileOutputStream(new File(this.filePath));
+			int bufferSize = getBufferSize(snpListFile.getSnps());
+			if (options.getBgzf()) {
+				bgzfStream = new BgzfOutputStream(stream, options.getThreads());
+				buffer = ByteBuffer.allocate(bufferSize);
+			} else {
+				channel = stream.getChannel();
+				buffer = ByteBuffer.allocateDirect(bufferSize);
+			}
 			
-			LogWriter.getLogger().info("Writing pruning results to [ " + this.options.getOutputPrefix() + ".results" + " ]");
+			LogWriter.getLogger().info("Writing pruning results to [ " + this.filePath + " ]");
 			// writes to log and output files
 			
-			writer.write("name" + "\t" + "chr" + "\t" + "pos" + "\t" + "a1" + "\t" + "a2" + "\t" 
+			putString("name" + "\t" + "chr" + "\t" + "pos" + "\t" + "a1" + "\t" + "a2" + "\t" 
 						+ "tagged" + "\t" + "selected" + "\t" + "best_tag" + "\t" + "r^2" + "\n" );
-			for (SnpInfo snp : snpListFile.getSnps()) {
-						
-				String bestTag = "NA";
-				String r2 = "NA";
-				if (snp.getTaggedByList().size() > 0){
-					Double bestR2 = new Double(-1);
-					for (SnpR2Pair tag: snp.getTaggedByList()){
-						if (tag.getrSquared() > bestR2){
-							bestR2 = tag.getrSquared();
-							bestTag = tag.getSnp().getSnpName();
-						}
-					}
-					r2 = bestR2.toString();
-					//primaryTag = snp.getTaggedByList().
+			
+			if (options.getArrow()) {
+				arrowFile = new ArrowResultsFile(filePath + ".arrow", snpListFile);
+			}
+		} catch (IOException e) {
+			close();
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage()
+					+ "\nPlease check that correct file path is provided.");
+		} catch (PriorityPrunerException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Estimates the size of the file from the lengths of the names and
+	 * alleles of the SNPs, to size the buffer between 64 kB and 4 MB.
+	 */
+	private static int getBufferSize(ArrayList<SnpInfo> snps) {
+		long size = 0;
+		for (SnpInfo snp : snps) {
+			// chromosome, position, flags and r^2 take at most 48 bytes
+			size += 2 * snp.getSnpName().length() + snp.getAllele1().length()
+					+ snp.getAllele2().length() + 48;
+		}
+		return (int) Math.max(1 << 16, Math.min(size, 1 << 22));
+	}
+	
+	/**
+	 * Writes the pruning results of SNPs to the file.
+	 * 
+	 * @param snps
+	 *            the pruned SNPs
+	 * @throws PriorityPrunerException
+	 *             if the results couldn't be written
+	 */
+	public void write(ArrayList<SnpInfo> snps) throws PriorityPrunerException {
+		for (SnpInfo snp : snps) {
+			write(snp);
+		}
+	}
+	
+	/**
+	 * Writes the pruning results of a single SNP to the file, unless it failed
+	 * the filters without being force included.
+	 * 
+	 * @param snp
+	 *            the pruned SNP
+	 * @throws PriorityPrunerException
+	 *             if the results couldn't be written
+	 */
+	public void write(SnpInfo snp) throws PriorityPrunerException {
+		try {
+			if (snp.getSnpGenotypes().isValid() || snp.getForceInclude()){
+				putString(snp.getSnpName());
+				putByte('\t');
+				putString(snp.getChr());
+				putByte('\t');
+				putInt(snp.getPos());
+				putByte('\t');
+				putString(snp.getAllele1());
+				putByte('\t');
+				putString(snp.getAllele2());
+				putString(snp.getTagged() ? "\t1\t" : "\t0\t");
+				putString(snp.getPicked() ? "1\t" : "0\t");
+				if (Double.isNaN(snp.getBestTagRSquared())){
+					putString("NA\tNA\n");
+				} else {
+					putString(snp.getBestTag() != null ? snp.getBestTag()
+							.getSnpName() : "NA");
+					putByte('\t');
+					reserve(NumberFormatter.MAX_LENGTH);
+					formatter.format(snp.getBestTagRSquared(), buffer);
+					putByte('\n');
 				}
-				
-				if (snp.getSnpGenotypes().isValid() || snp.getForceInclude()){
-					writer.write(snp.getSnpName() + "\t"
-							+ snp.getChr() + "\t" 
-							+ snp.getPos() + "\t"
-							+ snp.getAllele1() + "\t" 
-							+ snp.getAllele2() + "\t"
-							+ (snp.getTagged() ? "1" : "0") + "\t" 
-							+ (snp.getPicked() ? "1" : "0") + "\t"
-							+ bestTag + "\t" 
-							+ r2 + "\n");
+				if (arrowFile != null) {
+					arrowFile.write(snp);
 				}
 			}
 		} catch (IOException e) {
 			throw new PriorityPrunerException("Could not create file: "
 					+ e.getMessage()
 					+ "\nPlease check that correct file path is provided.");
-		}finally{
-			if (writer != null){
-				try{
-					writer.close();
-				}catch(IOException e){e.printStackTrace();}
+		}
+	}
+	
+	private void putString(String value) throws IOException {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) >= 0x80) {
+				put(value.getBytes(charset));
+				return;
 			}
 		}
+		reserve(length);
+		for (int i = 0; i < length; i++) {
+			buffer.put((byte) value.charAt(i));
+		}
+	}
+
+	private void putInt(int value) throws IOException {
+		if (value < 0) {
+			putString(Integer.toString(value));
+			return;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		reserve(digits.length - start);
+		buffer.put(digits, start, digits.length - start);
+	}
+
+	private void putByte(char value) throws IOException {
+		reserve(1);
+		buffer.put((byte) value);
+	}
+
+	private void put(byte[] bytes) throws IOException {
+		for (int start = 0; start < bytes.length; start += buffer.capacity()) {
+			int length = Math.min(bytes.length - start, buffer.capacity());
+			reserve(length);
+			buffer.put(bytes, start, length);
+		}
+	}
+
+	/**
+	 * Writes the buffer to the file if it has less room than the given number
+	 * of bytes. Values longer than the buffer are put in parts.
+	 */
+	private void reserve(int length) throws IOException {
+		if (buffer.remaining() < length) {
+			writeBuffer();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		if (bgzfStream != null) {
+			bgzfStream.write(buffer.array(), 0, buffer.limit());
+		} else {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Writes the remaining rows, closes the file, and finishes its Arrow copy.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining rows couldn't be written, so the results
+	 *             are incomplete
+	 */
+	public void close() throws PriorityPrunerException {
+		IOException error = null;
+		if (stream != null){
+			try{
+				if (buffer != null) {
+					writeBuffer();
+				}
+				if (bgzfStream != null) {
+					bgzfStream.close();
+				}
+			}catch(IOException e){
+				error = e;
+			}
+			try{
+				stream.close();
+			}catch(IOException e){
+				if (error == null) {
+					error = e;
+				}
+			}
+			stream = null;
+		}
+		if (arrowFile != null){
+			try{
+				arrowFile.finish();
+			}catch(IOException e){
+				if (error == null) {
+					error = e;
+				}
+				arrowFile.close();
+			}
+			arrowFile = null;
+		}
+		if (error != null) {
+			throw new PriorityPrunerException("Could not write to results file "
+					+ filePath + ": " + error.getMessage());
+		}
 	}
 	
 }
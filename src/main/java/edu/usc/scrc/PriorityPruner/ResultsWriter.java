@@ -0,0 +1,153 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+
+/**
+ * This class writes the results files of the threshold configurations while
+ * the SNPs are pruned, instead of after the whole genome is pruned. Since
+ * pruning windows don't span chromosomes, the results of a chromosome are
+ * final once every SNP of that chromosome has been passed by the pruning
+ * loop. The rows are written in the order given by the --results_order
+ * option, each as soon as its chromosome and all rows before it are final.
+ * 
+ * In the chr_pos order, a chromosome is written as soon as it's pruned. In
+ * the pvalue order, the order the SNPs are pruned in, the same holds unless
+ * force included SNPs are sorted before all other SNPs; their rows then hold
+ * back the rows following them until their chromosomes are pruned.
+ */
+public class ResultsWriter {
+
+	private ArrayList<PruningState> states;
+	// one results file per threshold configuration, in the order of states
+	private ArrayList<ResultsFile> resultsFiles = new ArrayList<ResultsFile>();
+	// the SNPs in the order of the rows, with the number written so far
+	private ArrayList<SnpInfo> rowSnps;
+	private int numWritten = 0;
+	// number of SNPs of each chromosome not yet passed by the pruning loop,
+	// indexed by chromosome code
+	private int[] numRemaining;
+
+	/**
+	 * Constructor for ResultsWriter, creating the results files and writing
+	 * their headers.
+	 * 
+	 * @param states
+	 *            the pruning states of the threshold configurations
+	 * @param snpListFile
+	 *            the SnpListFile containing the SNPs to prune
+	 * @param options
+	 *            the command line options
+	 * @throws PriorityPrunerException
+	 *             if a results file couldn't be created
+	 */
+	public ResultsWriter(ArrayList<PruningState> states,
+			SnpListFile snpListFile, CommandLineOptions options)
+			throws PriorityPrunerException {
+		this.states = states;
+		this.rowSnps = options.getResultsByChrPos() ? snpListFile
+				.getSnpsSortedByChrPos() : snpListFile.getSnps();
+		this.numRemaining = new int[ChromosomeDictionary.getInstance().size()];
+		for (SnpInfo snp : rowSnps) {
+			numRemaining[snp.getChrCode()]++;
+		}
+		try {
+			for (PruningState state : states) {
+				resultsFiles.add(new ResultsFile(getFilePath(state, options),
+						snpListFile, options));
+			}
+		} catch (PriorityPrunerException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the path of the results file of a threshold configuration:
+	 * <out>.results, or <out>.<name>.results in sweep mode.
+	 */
+	static String getFilePath(PruningState state, CommandLineOptions options) {
+		String name = state.getConfiguration().getName();
+		return options.getOutputPrefix() + (name == null ? "" : "." + name)
+				+ ".results";
+	}
+
+	/**
+	 * Marks a SNP as passed by the pruning loop, and writes the rows that are
+	 * final as a result.
+	 * 
+	 * @param snp
+	 *            the SNP
+	 * @throws PriorityPrunerException
+	 *             if the results couldn't be written
+	 */
+	public void setPruned(SnpInfo snp) throws PriorityPrunerException {
+		numRemaining[snp.getChrCode()]--;
+		while (numWritten < rowSnps.size()
+				&& numRemaining[rowSnps.get(numWritten).getChrCode()] == 0) {
+			SnpInfo rowSnp = rowSnps.get(numWritten);
+			for (int i = 0; i < states.size(); i++) {
+				states.get(i).copyToSnp(rowSnp);
+				resultsFiles.get(i).write(rowSnp);
+			}
+			numWritten++;
+		}
+	}
+
+	/**
+	 * Closes the results files.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining rows of a results file couldn't be written
+	 */
+	public void close() throws PriorityPrunerException {
+		closeAll(resultsFiles);
+	}
+
+	/**
+	 * Closes results files, closing all of them even if one fails.
+	 * 
+	 * @param resultsFiles
+	 *            the results files
+	 * @throws PriorityPrunerException
+	 *             the first error encountered, if any
+	 */
+	static void closeAll(ArrayList<ResultsFile> resultsFiles)
+			throws PriorityPrunerException {
+		PriorityPrunerException error = null;
+		for (ResultsFile resultsFile : resultsFiles) {
+			try {
+				resultsFile.close();
+			} catch (PriorityPrunerException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
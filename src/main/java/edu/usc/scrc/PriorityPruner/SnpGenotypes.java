@@ -40,6 +40,8 @@ public class SnpGenotypes {
 	private String allele2;
 	private byte[] genotypes;
 	private byte[][] ldFormatGenotypes;
+	// index of this SNP's line among the lines of the tped file
+	private int rowIndex = -1;
 	private double maf;
 	private double a1Freq;
 
@@ -81,6 +83,26 @@ public class SnpGenotypes {
 		this.genotypes = compressGenotypes(genotypes);
 	}
 
+	/**
+	 * Constructor for SnpGenotypes, sharing the compressed genotypes of
+	 * another SnpGenotypes-object parsed from the same tped line. Used in batch
+	 * mode, where the same line is matched to one SnpInfo-object per SNP
+	 * input file.
+	 * 
+	 * @param genotypes
+	 *            SnpGenotypes-object holding the compressed genotypes
+	 * @param snpInfo
+	 *            the corresponding SnpInfo-object
+	 */
+	public SnpGenotypes(SnpGenotypes genotypes, SnpInfo snpInfo) {
+		this.snpName = genotypes.snpName;
+		this.snpInfo = snpInfo;
+		this.allele1 = genotypes.allele1;
+		this.allele2 = genotypes.allele2;
+		this.genotypes = genotypes.genotypes;
+		this.rowIndex = genotypes.rowIndex;
+	}
+
 	/**
 	 * Converts the original list of genotypes, as provided by the user in the
 	 * tped file, to a compressed format. In this format one byte is used
@@ -192,6 +214,14 @@ public class SnpGenotypes {
 		this.genotypes = genotypes;
 	}
 
+	public int getRowIndex() {
+		return rowIndex;
+	}
+
+	public void setRowIndex(int rowIndex) {
+		this.rowIndex = rowIndex;
+	}
+
 	public byte[][] getLdFormatGenotypes() {
 		return ldFormatGenotypes;
 	}
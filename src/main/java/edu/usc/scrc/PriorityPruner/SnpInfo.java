@@ -23,8 +23,6 @@ THE SOFTWARE.
 
 package edu.usc.scrc.PriorityPruner;
 
-import java.util.ArrayList;
-
 /**
  * This class stores information about a certain SNP. When information from the
  * tped and SNP input file is matched, an object of this class will be stored in
@@ -33,10 +31,15 @@ import java.util.ArrayList;
 public class SnpInfo implements Comparable<SnpInfo> {
 
 	private String snpName;
-	private String chr;
+	// code of the chromosome in ChromosomeDictionary
+	private int chrCode;
 	private int pos;
 	private String allele1;
 	private String allele2;
+	// allele codes assigned by SnpListFile, allowing alleles to be compared as
+	// integers (0 is the missing allele "0")
+	private int allele1Code = -1;
+	private int allele2Code = -1;
 	private double pValue;
 	// design score for this SNP provided in the SNP input file
 	private double designScore=Double.MAX_VALUE;
@@ -50,7 +53,10 @@ public class SnpInfo implements Comparable<SnpInfo> {
 	private int sortedByPosIndex;
 	private boolean inTped = false;
 	private SnpGenotypes snpGenotypes;
-	private ArrayList<SnpR2Pair> taggedByList = new ArrayList<SnpR2Pair>();
+	// the SNP tagging this SNP with the highest r^2, and that r^2 (NaN if
+	// this SNP isn't tagged by any SNP)
+	private SnpInfo bestTag = null;
+	private double bestTagRSquared = Double.NaN;
 	// metric weights defined for this SNP in SNP input file
 	private double[] metrics;
 	//private CommandLineOptions options = CommandLineOptions.getInstance();
@@ -86,8 +92,38 @@ public class SnpInfo implements Comparable<SnpInfo> {
 			String allele2, double pValue,
 			boolean forceInclude, double designScore, double[] metrics)
 			throws PriorityPrunerException {
+		this(snpName, ChromosomeDictionary.getInstance().getCode(chr), pos,
+				allele1, allele2, pValue, forceInclude, designScore, metrics);
+	}
+
+	/**
+	 * Constructor for SnpInfo, taking the chromosome as a code from
+	 * ChromosomeDictionary.
+	 * 
+	 * @param snpName
+	 *            name of this SNP
+	 * @param chrCode
+	 *            code of the chromosome of this SNP
+	 * @param pos
+	 *            base pair position
+	 * @param allele1
+	 *            first allele
+	 * @param allele2
+	 *            second allele
+	 * @param pValue
+	 *            associated p-value
+	 * @param forceInclude
+	 *            flag showing whether or not to force include this SNP
+	 * @param designScore
+	 *            design score
+	 * @param metrics
+	 *            metric weights defined for this SNP in SNP input file
+	 */
+	public SnpInfo(String snpName, int chrCode, int pos, String allele1,
+			String allele2, double pValue,
+			boolean forceInclude, double designScore, double[] metrics) {
 		this.snpName = snpName;
-		this.chr = chr;
+		this.chrCode = chrCode;
 		this.pos = pos;
 		this.metrics = metrics;
 		this.allele1 = allele1;
@@ -96,13 +132,7 @@ public class SnpInfo implements Comparable<SnpInfo> {
 		//this.numBeadTypes = numAssays;
 		this.forceInclude = forceInclude;
 		this.designScore = designScore;
-
-		if (chr.toUpperCase().equals("X")
-				|| chr.toUpperCase().equals("CHRX")
-				|| chr.toUpperCase().equals("23")) {
-			this.chrX = true;
-		}
-		
+		this.chrX = ChromosomeDictionary.getInstance().isChrX(chrCode);
 	}
 
 	/**
@@ -119,17 +149,19 @@ public class SnpInfo implements Comparable<SnpInfo> {
 	}
 
 	/**
-	 * Allows the storing of a SNP that has tagged this SNP, and the associated
-	 * r^2 value. In cases where the SNP is tagged by a surrogate and the r^2
-	 * value is unknown, "-1" is entered (in Pruner).
+	 * Stores the SNP tagging this SNP with the highest r^2, and the associated
+	 * r^2 value. In cases where the SNP is only tagged with unknown r^2, "-1"
+	 * is entered and the SNP is null.
 	 * 
 	 * @param snpInfo
 	 *            the SNP tagging this SNP
 	 * @param rSquared
-	 *            associated r^2 value
+	 *            associated r^2 value, or NaN if this SNP isn't tagged by any
+	 *            SNP
 	 */
-	public void addTaggedBy(SnpInfo snpInfo, double rSquared) {
-		this.taggedByList.add(new SnpR2Pair(snpInfo, rSquared));
+	public void setBestTag(SnpInfo snpInfo, double rSquared) {
+		this.bestTag = snpInfo;
+		this.bestTagRSquared = rSquared;
 	}
 
 	// public getters and setters for private fields of this class
@@ -139,7 +171,11 @@ public class SnpInfo implements Comparable<SnpInfo> {
 	}
 
 	public String getChr() {
-		return chr;
+		return ChromosomeDictionary.getInstance().getName(chrCode);
+	}
+
+	public int getChrCode() {
+		return chrCode;
 	}
 
 	public int getPos() {
@@ -162,6 +198,19 @@ public class SnpInfo implements Comparable<SnpInfo> {
 		this.allele2 = value;
 	}
 
+	public int getAllele1Code() {
+		return allele1Code;
+	}
+
+	public int getAllele2Code() {
+		return allele2Code;
+	}
+
+	public void setAlleleCodes(int allele1Code, int allele2Code) {
+		this.allele1Code = allele1Code;
+		this.allele2Code = allele2Code;
+	}
+
 	public double getPValue() {
 		return pValue;
 	}
@@ -245,8 +294,12 @@ public class SnpInfo implements Comparable<SnpInfo> {
 		this.snpGenotypes = snpGenotypes;
 	}
 
-	public ArrayList<SnpR2Pair> getTaggedByList() {
-		return taggedByList;
+	public SnpInfo getBestTag() {
+		return bestTag;
+	}
+
+	public double getBestTagRSquared() {
+		return bestTagRSquared;
 	}
 
 	public double[] getMetrics() {
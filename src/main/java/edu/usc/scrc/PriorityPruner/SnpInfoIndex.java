@@ -0,0 +1,196 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+
+/**
+ * This class is an unsynchronized open-addressing hash index over the SNPs of
+ * the SNP input table, keyed on the combination of SNP name, chromosome and
+ * base pair position. It is used by SnpListFile both for detecting duplicated
+ * rows while parsing, and for matching every row of the tped file to its
+ * SnpInfo-object.
+ * 
+ * Several SNPs may share the same key (e.g. multi-allelic sites listed on
+ * separate rows), so a lookup walks the probe sequence and returns every
+ * matching slot in the order the SNPs were added. Chromosomes are compared by
+ * their codes in ChromosomeDictionary, which are shared by all spellings of a
+ * chromosome name regardless of case.
+ */
+public class SnpInfoIndex {
+
+	// maximum fraction of occupied slots before the table is grown
+	private static final double MAX_LOAD = 0.5;
+
+	// SNPs in the order they were added; slots refer to positions in this list
+	private ArrayList<SnpInfo> snps = new ArrayList<SnpInfo>();
+
+	// position in snps + 1 for each slot, 0 if the slot is empty
+	private int[] slots;
+
+	// full hash code of the SNP stored in each slot, for quick rejection
+	private int[] slotHashes;
+
+	private int mask;
+
+	/**
+	 * Constructor for SnpInfoIndex.
+	 * 
+	 * @param expectedSize
+	 *            expected number of SNPs, used to pre-size the table
+	 */
+	public SnpInfoIndex(int expectedSize) {
+		int capacity = 16;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Adds a SNP to the index. No check for duplicates is made here.
+	 * 
+	 * @param snp
+	 *            the SnpInfo-object to add
+	 */
+	public void add(SnpInfo snp) {
+		if ((snps.size() + 1) > slots.length * MAX_LOAD) {
+			rehash(slots.length << 1);
+		}
+		snps.add(snp);
+		insert(snps.size(), hash(snp.getSnpName(), snp.getChrCode(), snp.getPos()));
+	}
+
+	/**
+	 * Returns the first slot holding a SNP with the given name, chromosome and
+	 * position, or -1 if there is none.
+	 * 
+	 * @param snpName
+	 *            name of the SNP
+	 * @param chrCode
+	 *            code of the chromosome of the SNP
+	 * @param pos
+	 *            base pair position
+	 * @return slot number to be used with getSnp and nextSlot, or -1
+	 */
+	public int firstSlot(String snpName, int chrCode, int pos) {
+		int hash = hash(snpName, chrCode, pos);
+		return probe(hash & mask, hash, snpName, chrCode, pos);
+	}
+
+	/**
+	 * Returns the next slot after the given one holding a SNP with the given
+	 * name, chromosome and position, or -1 if there are no more.
+	 * 
+	 * @param slot
+	 *            slot returned by a previous call to firstSlot or nextSlot
+	 * @param snpName
+	 *            name of the SNP
+	 * @param chrCode
+	 *            code of the chromosome of the SNP
+	 * @param pos
+	 *            base pair position
+	 * @return slot number of the next match, or -1
+	 */
+	public int nextSlot(int slot, String snpName, int chrCode, int pos) {
+		int hash = slotHashes[slot];
+		return probe((slot + 1) & mask, hash, snpName, chrCode, pos);
+	}
+
+	/**
+	 * Returns the SNP stored in a slot.
+	 * 
+	 * @param slot
+	 *            slot returned by firstSlot or nextSlot
+	 * @return the SnpInfo-object in this slot
+	 */
+	public SnpInfo getSnp(int slot) {
+		return snps.get(slots[slot] - 1);
+	}
+
+	public int size() {
+		return snps.size();
+	}
+
+	/**
+	 * Walks the probe sequence from a start slot until a matching SNP or an
+	 * empty slot is found.
+	 */
+	private int probe(int slot, int hash, String snpName, int chrCode, int pos) {
+		while (slots[slot] != 0) {
+			if (slotHashes[slot] == hash) {
+				SnpInfo snp = snps.get(slots[slot] - 1);
+				if (snp.getPos() == pos && snp.getChrCode() == chrCode
+						&& snp.getSnpName().equals(snpName)) {
+					return slot;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void insert(int entry, int hash) {
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = entry;
+		slotHashes[slot] = hash;
+	}
+
+	private void allocate(int capacity) {
+		slots = new int[capacity];
+		slotHashes = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Grows the table. SNPs are reinserted in the order they were added so that
+	 * SNPs sharing a key are still found in that order.
+	 */
+	private void rehash(int capacity) {
+		allocate(capacity);
+		for (int i = 0; i < snps.size(); i++) {
+			SnpInfo snp = snps.get(i);
+			insert(i + 1, hash(snp.getSnpName(), snp.getChrCode(), snp.getPos()));
+		}
+	}
+
+	/**
+	 * Computes the hash of a key.
+	 */
+	private static int hash(String snpName, int chrCode, int pos) {
+		int h = snpName.hashCode();
+		h = 31 * h + chrCode;
+		h = 31 * h + pos;
+		// finalization step of MurmurHash3 to spread the bits over the table
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
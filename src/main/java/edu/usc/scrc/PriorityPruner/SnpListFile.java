@@ -23,15 +23,25 @@ THE SOFTWARE.
 
 package edu.usc.scrc.PriorityPruner;
 
-import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -55,9 +65,13 @@ public class SnpListFile {
 	// HashSet of chromosomes contained in the file
 	private HashSet<String> chromsomeHash = new HashSet<String>();
 	
-	// Hashtable with SnpInfo-objects, which allows easy look up
-	private Hashtable<String, ArrayList<SnpInfo>> snpNameToSnpInfoListHash = 
-			new Hashtable<String, ArrayList<SnpInfo>>();
+	// index of SnpInfo-objects keyed on name, chromosome and position, which
+	// allows easy look up
+	private SnpInfoIndex snpInfoIndex = new SnpInfoIndex(1024);
+	
+	// codes assigned to the (upper case) allele names in the file, the missing
+	// allele "0" always has code 0
+	private HashMap<String, Integer> alleleCodes = new HashMap<String, Integer>();
 	
 	// file reader
 	//private BufferedReader reader;
@@ -71,6 +85,9 @@ public class SnpListFile {
 	
 	// splitting regex for input files that allows single tabs or spaces
 	private String delim = "[\\s|\\t]";
+	
+	// approximate number of bytes of the SNP input file parsed as one chunk
+	private static final long CHUNK_SIZE = 8 * 1024 * 1024;
 
 	/**
 	 * Constructor for SnpListFile. Initiates parsing of the SNP input file, if
@@ -110,6 +127,175 @@ public class SnpListFile {
 	public String getFilePath(){
 		return this.filePath;
 	}
+
+	/**
+	 * Finds the first SNP of the pruning window of an index SNP, i.e. the SNP
+	 * furthest upstream on the same chromosome within the maximum distance.
+	 *
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param maxDistance
+	 *            maximum distance in base pairs between the index SNP and the
+	 *            SNPs in its window
+	 * @return index of the first SNP in the list sorted by chromosome and
+	 *         position
+	 */
+	public int getWindowStart(SnpInfo indexSnp, long maxDistance) {
+		int startPos = (int) (indexSnp.getPos() - maxDistance);
+		if (startPos < 1) {
+			startPos = 1;
+		}
+		int start = indexSnp.getSortedByPosIndex();
+		while (start > 0) {
+			SnpInfo checkSnpInfo = snpsSortedByChrPos.get(start - 1);
+			if (checkSnpInfo.getChrCode() != indexSnp.getChrCode()
+					|| checkSnpInfo.getPos() < startPos) {
+				break;
+			}
+			start--;
+		}
+		return start;
+	}
+
+	/**
+	 * Finds the last SNP of the pruning window of an index SNP, i.e. the SNP
+	 * furthest downstream on the same chromosome within the maximum distance.
+	 *
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param maxDistance
+	 *            maximum distance in base pairs between the index SNP and the
+	 *            SNPs in its window
+	 * @return index of the last SNP in the list sorted by chromosome and
+	 *         position
+	 */
+	public int getWindowEnd(SnpInfo indexSnp, long maxDistance) {
+		int endPos = (int) (indexSnp.getPos() + maxDistance);
+		int end = indexSnp.getSortedByPosIndex();
+		while (end < snpsSortedByChrPos.size() - 1) {
+			SnpInfo checkSnpInfo = snpsSortedByChrPos.get(end + 1);
+			if (checkSnpInfo.getChrCode() != indexSnp.getChrCode()
+					|| checkSnpInfo.getPos() > endPos) {
+				break;
+			}
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Finds the first SNP of the pruning window of an index SNP, limited to
+	 * the nearest valid SNPs upstream of the index SNP. Invalid SNPs aren't
+	 * counted, since they aren't partners of the index SNP.
+	 *
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param maxDistance
+	 *            maximum distance in base pairs between the index SNP and the
+	 *            SNPs in its window
+	 * @param maxSnps
+	 *            maximum number of valid SNPs upstream of the index SNP
+	 * @return index of the first SNP in the list sorted by chromosome and
+	 *         position
+	 */
+	public int getWindowStart(SnpInfo indexSnp, long maxDistance, int maxSnps) {
+		int startPos = (int) (indexSnp.getPos() - maxDistance);
+		if (startPos < 1) {
+			startPos = 1;
+		}
+		int start = indexSnp.getSortedByPosIndex();
+		int numValid = 0;
+		while (start > 0) {
+			SnpInfo checkSnpInfo = snpsSortedByChrPos.get(start - 1);
+			if (checkSnpInfo.getChrCode() != indexSnp.getChrCode()
+					|| checkSnpInfo.getPos() < startPos) {
+				break;
+			}
+			if (isValid(checkSnpInfo) && ++numValid > maxSnps) {
+				break;
+			}
+			start--;
+		}
+		return start;
+	}
+
+	/**
+	 * Finds the last SNP of the pruning window of an index SNP, limited to the
+	 * nearest valid SNPs downstream of the index SNP.
+	 *
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param maxDistance
+	 *            maximum distance in base pairs between the index SNP and the
+	 *            SNPs in its window
+	 * @param maxSnps
+	 *            maximum number of valid SNPs downstream of the index SNP
+	 * @return index of the last SNP in the list sorted by chromosome and
+	 *         position
+	 */
+	public int getWindowEnd(SnpInfo indexSnp, long maxDistance, int maxSnps) {
+		int endPos = (int) (indexSnp.getPos() + maxDistance);
+		int end = indexSnp.getSortedByPosIndex();
+		int numValid = 0;
+		while (end < snpsSortedByChrPos.size() - 1) {
+			SnpInfo checkSnpInfo = snpsSortedByChrPos.get(end + 1);
+			if (checkSnpInfo.getChrCode() != indexSnp.getChrCode()
+					|| checkSnpInfo.getPos() > endPos) {
+				break;
+			}
+			if (isValid(checkSnpInfo) && ++numValid > maxSnps) {
+				break;
+			}
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Checks if the pruning window of an index SNP was limited by the maximum
+	 * number of SNPs, i.e. if there's a SNP within the maximum distance right
+	 * outside either end of the window.
+	 *
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param maxDistance
+	 *            maximum distance in base pairs
+	 * @param windowStart
+	 *            index of the first SNP of the window
+	 * @param windowEnd
+	 *            index of the last SNP of the window
+	 * @return true if the window was limited by the maximum number of SNPs
+	 */
+	public boolean isWindowCapped(SnpInfo indexSnp, long maxDistance,
+			int windowStart, int windowEnd) {
+		return (windowStart > 0 && isWithinDistance(indexSnp,
+				snpsSortedByChrPos.get(windowStart - 1), maxDistance))
+				|| (windowEnd < snpsSortedByChrPos.size() - 1 && isWithinDistance(
+						indexSnp, snpsSortedByChrPos.get(windowEnd + 1),
+						maxDistance));
+	}
+
+	/**
+	 * Checks if a SNP is on the same chromosome as an index SNP and within the
+	 * maximum distance, as in getWindowStart and getWindowEnd.
+	 */
+	private boolean isWithinDistance(SnpInfo indexSnp, SnpInfo snp,
+			long maxDistance) {
+		int startPos = (int) (indexSnp.getPos() - maxDistance);
+		if (startPos < 1) {
+			startPos = 1;
+		}
+		int endPos = (int) (indexSnp.getPos() + maxDistance);
+		return snp.getChrCode() == indexSnp.getChrCode()
+				&& snp.getPos() >= startPos && snp.getPos() <= endPos;
+	}
+
+	/**
+	 * Checks if a SNP passed the maf and call rate thresholds.
+	 */
+	private static boolean isValid(SnpInfo snp) {
+		return snp.getSnpGenotypes() != null && snp.getSnpGenotypes().isValid();
+	}
 	
 	/**
 	 * Parses the SNP input file, checks that values are valid and if they are,
@@ -119,18 +305,45 @@ public class SnpListFile {
 	 * before the new SnpInfo-object is stored. In case a duplicate is
 	 * encountered, a PriorityPrunerException will get thrown.
 	 * 
+	 * The lines after the header are split into chunks that are parsed by
+	 * SnpListFileChunk-objects, on several threads if more than one thread is
+	 * specified in the command line. The parsed chunks are merged in file
+	 * order, so duplicates and invalid lines are reported in the same way as
+	 * when the file is read line by line.
+	 * 
 	 * @throws PriorityPrunerException
 	 *             if problems are encountered during parsing
 	 */
 	private void parseFile() throws PriorityPrunerException {
 		
-		BufferedReader reader = null;
-		int lineNum = 1;
-		String line;
+		FileInputStream inputStream = null;
+		ExecutorService executor = null;
 		
 		try {
-			reader = new BufferedReader(new FileReader(filePath));
-			String[] header = reader.readLine().split(delim);
+			inputStream = new FileInputStream(filePath);
+			FileChannel channel = inputStream.getChannel();
+			long fileSize = channel.size();
+			
+			// reads the header line, and finds the offset of the first line after it
+			long dataStart = findLineEnd(channel, 0, fileSize, true);
+			if (dataStart == 0) {
+				throw new PriorityPrunerException("The SNP Input Table is empty.");
+			}
+			ByteBuffer headerBuffer = ByteBuffer.allocate((int) dataStart);
+			while (headerBuffer.hasRemaining()) {
+				if (channel.read(headerBuffer, headerBuffer.position()) < 0) {
+					break;
+				}
+			}
+			String headerLine = new String(headerBuffer.array(),
+					Charset.defaultCharset());
+			int headerEnd = headerLine.length();
+			while (headerEnd > 0
+					&& (headerLine.charAt(headerEnd - 1) == '\n' || headerLine
+							.charAt(headerEnd - 1) == '\r')) {
+				headerEnd--;
+			}
+			String[] header = headerLine.substring(0, headerEnd).split(delim);
 
 			// checks that necessary columns are provided
 			if (header.length < 8 || !header[0].equals("name")
@@ -153,7 +366,6 @@ public class SnpListFile {
 			// get metric names listed in the SNP Input Table, and makes sure no column name
 			//  is duplicated
 			Hashtable<String, Integer> columnNamesToIndexHash = new Hashtable<String, Integer>();
-			Hashtable<String, Integer> metricNamesToIndexHash = new Hashtable<String, Integer>();
 			for (int i = 0; i < header.length; i++) {
 				String columnName = header[i];
 				if (!columnNamesToIndexHash.containsKey(columnName)){
@@ -162,9 +374,6 @@ public class SnpListFile {
 					throw new PriorityPrunerException("The column name '" + columnName + "' " +
 						" is duplicated in the SNP Input Table.");
 				}
-				if (i >= 8){
-					metricNamesToIndexHash.put(columnName, i);
-				}
 			}
 			
 			// loops through all Metric-objects (the metrics specified in
@@ -183,188 +392,50 @@ public class SnpListFile {
 					"' does not exist in the SNP Input Table. Note that column names are case-sensitive.");
 				}
 			}
+			
+			// only the metric columns are converted to numbers by the chunks
+			int[] metricColumns = new int[metricNames.size()];
+			for (int i = 0; i < metricColumns.length; i++) {
+				metricColumns[i] = metricNames.get(i).getPos();
+			}
 
-			// reads and parses every line in the SNP input file, and checks and
-			// stores this information
-			while ((line = reader.readLine()) != null) {
-				String[] splitString = line.split(delim);
-				lineNum += 1;
-				
-				// check that there are the expected number of columns
-				if (splitString.length != header.length) {
-					throw new PriorityPrunerException(
-						"On line " + lineNum + " of " + filePath + ", expected " + header.length +
-						" columns, but found " + splitString.length + ".");
-				} 
-
-				// parse snpname
-				String snpName = new String(splitString[0]);
-				if (snpName.length() == 0){
-					throw new PriorityPrunerException("Invalid name on line " + lineNum +
-							" in SNP Input Table.");
-				}
-				
-				// parse chr
-				String chr = new String(splitString[1]);
-				chr = chr.toUpperCase();
-				if (chr.length() == 0){
-					throw new PriorityPrunerException("Invalid chr on line " + lineNum +
-							" in SNP Input Table.");
-				}
-				// checks that no unsupported chromosomes are specified in the SNP
-				// input file
-				if (chr.equals("M")
-						|| chr.equals("MT")
-						|| chr.equals("CHRM")
-						|| chr.equals("Y")
-						|| chr.equals("CHRY")
-						|| chr.equals("24")) {
-					throw new PriorityPrunerException(
-							"Chromosome " + chr + " not supported. Found on line " + lineNum + ".");
-				}
-				
-				// in case chromosome X is encountered it gets recoded to "23"
-//				if (chr.equals("X")
-//						|| chr.equals("CHRX")
-//						|| chr.equals("23")) {
-//					chr = "23";
-//				}
-				
-				// stores parsed chromosomes
-				if (!chromsomeHash.contains(chr)) {
-					chromsomeHash.add(chr);
-				}
-				
-				// skip the line if this isn't the chromosome we're filtering on
-				if (this.options.getChr() != null &&
-						!this.options.getChr().equals(chr)){
-					continue;
-				}
-				
-				// parse pos
-				int pos;
-				try {
-					pos = Integer.parseInt(new String(splitString[2]));
-				} catch (NumberFormatException e) {
-					throw new PriorityPrunerException(
-						"Invalid pos at line "
-									+ lineNum + " in SNP Input Table. Integer value expected.");
-				}
-
-				// parse allele1
-				String allele1 = new String(splitString[3].toUpperCase());
-				if (allele1.length() == 0){
-					throw new PriorityPrunerException("Invalid allele1 on line " + lineNum +
-							" in SNP Input Table.");
-				}
-				
-				// parse allele2
-				String allele2 = new String(splitString[4].toUpperCase());
-				if (allele2.length() == 0){
-					throw new PriorityPrunerException("Invalid allele2 on line " + lineNum +
-							" in SNP Input Table.");
-				}
-				
-				// parse p-value
-				double pValue;
-				try {
-					pValue = Double.parseDouble(new String(splitString[5]));
-				} catch (NumberFormatException e) {
-					throw new PriorityPrunerException(
-							"Invalid p at line "
-									+ lineNum + " in SNP Input Table. Decimal value expected.");
-				}
-
-//				// parse numAssays
-//				int numAssays;
-//				try {
-//					numAssays = Integer.parseInt(new String(splitString[6]));
-//					if (numAssays != 1 && numAssays != 2) {
-//						throw new NumberFormatException();
-//					}
-//				} catch (NumberFormatException e) {
-//					throw new PriorityPrunerException(
-//							"Invalid num_assays at line "
-//									+ lineNum + " in SNP Input Table. '1' or '2' expected.");
-//				}
+			// splits the rest of the file into chunks of whole lines
+			ArrayList<SnpListFileChunk> chunks = new ArrayList<SnpListFileChunk>();
+			long chunkStart = dataStart;
+			while (chunkStart < fileSize) {
+				long chunkEnd = findLineEnd(channel,
+						Math.min(chunkStart + CHUNK_SIZE, fileSize), fileSize, false);
+				chunks.add(new SnpListFileChunk(channel, filePath, chunkStart,
+						chunkEnd, header.length, metricColumns, numMetrics,
+						this.options.getChr()));
+				chunkStart = chunkEnd;
+			}
 
-				// parse force include flag
-				boolean forceInclude;
-				if (splitString[6].equals("0")) {
-					forceInclude = false;
-				} else if (splitString[6].equals("1")) {
-					forceInclude = true;
+			// parses the chunks, keeping at most two chunks per thread in
+			// memory at a time, and merges them in file order
+			int numThreads = Math.min(this.options.getThreads(), chunks.size());
+			ArrayDeque<Future<SnpListFileChunk>> parsing = new ArrayDeque<Future<SnpListFileChunk>>();
+			if (numThreads > 1) {
+				executor = Executors.newFixedThreadPool(numThreads);
+			}
+			int nextChunk = 0;
+			int lineNum = 1;
+			for (int i = 0; i < chunks.size(); i++) {
+				SnpListFileChunk chunk;
+				if (executor == null) {
+					chunk = chunks.get(i).call();
 				} else {
-					throw new PriorityPrunerException(
-							"Invalid force_include at line "
-								+ lineNum + " in SNP Input Table. '0' or '1' expected.");
-				}
-
-				// parse the design score
-				double designScore;
-				try {
-					designScore = Double.parseDouble(new String(splitString[7]));
-				} catch (NumberFormatException e) {
-					throw new PriorityPrunerException(
-							"Invalid design_score at line "
-								+ lineNum + " in SNP Input Table. Decimal value expected.");
-				}
-
-				// parses metric weights
-				double[] metrics = new double[numMetrics];
-				try {
-					for (int i = 0; i < metricNames.size(); i++) {
-						metrics[i] = Double.parseDouble(new String(
-								splitString[metricNames.get(i).getPos()]));
+					while (nextChunk < chunks.size()
+							&& parsing.size() < 2 * numThreads) {
+						parsing.add(executor.submit(chunks.get(nextChunk++)));
 					}
-				} catch (NumberFormatException e) {
-					throw new PriorityPrunerException(
-							"Invalid metric at line "
-								+ lineNum + " in SNP Input Table. Decimal value expected.");
-				}
-
-				// creates new SnpInfo-object with the parsed info from one
-				// line in SNP input file
-				SnpInfo snp = new SnpInfo(snpName, chr, pos, allele1,
-						allele2, pValue, forceInclude, designScore, metrics);
-
-				// checks whether the hashtable contains the SNP name,
-				// if it doesn't, it adds it
-				if (!snpNameToSnpInfoListHash.containsKey(snpName)) {
-					snpNameToSnpInfoListHash.put(snpName,
-							new ArrayList<SnpInfo>());
+					chunk = getParsedChunk(parsing.poll());
 				}
-				
-				ArrayList<SnpInfo> snpInfoList = snpNameToSnpInfoListHash
-						.get(snpName);
-				
-				// loops through the ArrayList corresponding to current SNP
-				// name in snpNameToSnpInfoListHash, to determine if this is
-				// a duplicate
-				for (SnpInfo currentSnp : snpInfoList) {
-					if ((currentSnp.getSnpName().equals(snpName)
-							&& currentSnp.getChr().equals(chr) && currentSnp
-							.getPos() == pos)
-							&& ((currentSnp.getAllele1().equals(allele1) && currentSnp
-									.getAllele2().equals(allele2)) || (currentSnp
-											.getAllele1().equals(allele2) && currentSnp
-											.getAllele2().equals(allele1)))) {
-						throw new PriorityPrunerException(
-								"Duplicated SNP \""
-										+ snpName
-										+ "\" at line "
-										+ lineNum
-										+ " in SNP Input Table. " 
-										+ "The combination of snpname, chr, pos, allele1/allele2 must be unique.");
-					}
-				}
-				// if not a duplicate, add the SNP to following data
-				// structures:
-				snpInfoList.add(snp);
-				snpNameToSnpInfoListHash.put(snpName, snpInfoList);
-				snps.add(snp);
-
+				chunks.set(i, null);
+				mergeChunk(chunk, lineNum);
+				lineNum += chunk.getNumLines();
 			}
+			
 			if (this.options.getChr() != null
 					&& !chromsomeHash.contains(this.options.getChr().toUpperCase())) {
 				throw new PriorityPrunerException(
@@ -381,9 +452,12 @@ public class SnpListFile {
 		} catch (PriorityPrunerException e){
 			throw e;
 		}finally{
-			if (reader != null){
+			if (executor != null){
+				executor.shutdownNow();
+			}
+			if (inputStream != null){
 				try{
-					reader.close();
+					inputStream.close();
 				}catch(IOException e){	
 					e.printStackTrace();
 				}
@@ -391,6 +465,136 @@ public class SnpListFile {
 		}
 	}
 
+	/**
+	 * Merges the SNPs of a parsed chunk into the data structures of this class,
+	 * checking every SNP against the SNPs of previous lines to determine if
+	 * it's a duplicate. If parsing of the chunk stopped at an invalid line, an
+	 * exception is thrown after the SNPs before that line have been merged.
+	 * 
+	 * @param chunk
+	 *            a parsed chunk
+	 * @param lineNumOffset
+	 *            line number of the line before the chunk
+	 * @throws PriorityPrunerException
+	 *             if a duplicate or an invalid line is encountered
+	 */
+	private void mergeChunk(SnpListFileChunk chunk, int lineNumOffset)
+			throws PriorityPrunerException {
+		
+		// stores parsed chromosomes
+		chromsomeHash.addAll(chunk.getChromosomes());
+		
+		ArrayList<SnpInfo> chunkSnps = chunk.getSnps();
+		for (int i = 0; i < chunkSnps.size(); i++) {
+			SnpInfo snp = chunkSnps.get(i);
+			String snpName = snp.getSnpName();
+			int chrCode = snp.getChrCode();
+			int pos = snp.getPos();
+
+			// assigns codes to the alleles, so they can be compared as integers
+			int allele1Code = addAlleleCode(snp.getAllele1());
+			int allele2Code = addAlleleCode(snp.getAllele2());
+			snp.setAlleleCodes(allele1Code, allele2Code);
+
+			// loops through the SNPs with the same name, chromosome and
+			// position in snpInfoIndex, to determine if this is a duplicate
+			for (int slot = snpInfoIndex.firstSlot(snpName, chrCode, pos); slot >= 0;
+					slot = snpInfoIndex.nextSlot(slot, snpName, chrCode, pos)) {
+				SnpInfo currentSnp = snpInfoIndex.getSnp(slot);
+				if ((currentSnp.getAllele1Code() == allele1Code && currentSnp
+						.getAllele2Code() == allele2Code)
+						|| (currentSnp.getAllele1Code() == allele2Code && currentSnp
+								.getAllele2Code() == allele1Code)) {
+					throw new PriorityPrunerException(
+							"Duplicated SNP \""
+									+ snpName
+									+ "\" at line "
+									+ (lineNumOffset + chunk.getSnpLine(i))
+									+ " in SNP Input Table. " 
+									+ "The combination of snpname, chr, pos, allele1/allele2 must be unique.");
+				}
+			}
+			// if not a duplicate, add the SNP to following data
+			// structures:
+			snpInfoIndex.add(snp);
+			snps.add(snp);
+		}
+		
+		if (chunk.hasError()) {
+			throw new PriorityPrunerException(chunk.getErrorMessage(lineNumOffset));
+		}
+	}
+
+	/**
+	 * Waits for a chunk to be parsed, and rethrows any exception thrown while
+	 * parsing it.
+	 */
+	private SnpListFileChunk getParsedChunk(Future<SnpListFileChunk> future)
+			throws PriorityPrunerException, IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new PriorityPrunerException(
+					"Interrupted while parsing the SNP Input Table.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PriorityPrunerException) {
+				throw (PriorityPrunerException) e.getCause();
+			} else if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new PriorityPrunerException("Could not parse the SNP Input Table: "
+					+ e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * Finds the end of a line in the file, i.e. the offset right after the
+	 * line terminator.
+	 * 
+	 * @param channel
+	 *            channel of the file
+	 * @param offset
+	 *            offset to start searching from
+	 * @param fileSize
+	 *            size of the file
+	 * @param anyTerminator
+	 *            if true, "\r" and "\r\n" end a line as well as "\n", otherwise
+	 *            only "\n" is searched for (which never splits a "\r\n")
+	 * @return offset after the line terminator, or the size of the file if no
+	 *         terminator is found
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static long findLineEnd(FileChannel channel, long offset,
+			long fileSize, boolean anyTerminator) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(65536);
+		while (offset < fileSize) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+			if (read <= 0) {
+				break;
+			}
+			byte[] bytes = buffer.array();
+			for (int i = 0; i < read; i++) {
+				if (bytes[i] == '\n') {
+					return offset + i + 1;
+				}
+				if (anyTerminator && bytes[i] == '\r') {
+					// a "\n" right after the "\r" belongs to the same terminator
+					long lineEnd = offset + i + 1;
+					ByteBuffer next = ByteBuffer.allocate(1);
+					if (lineEnd < fileSize && channel.read(next, lineEnd) == 1
+							&& next.get(0) == '\n') {
+						lineEnd++;
+					}
+					return lineEnd;
+				}
+			}
+			offset += read;
+		}
+		return fileSize;
+	}
+
 	/**
 	 * Parses the force include file, in case that option is chosen in command
 	 * line.
@@ -461,207 +665,317 @@ public class SnpListFile {
 	 */
 	public SnpInfo getSnpInfo(String snpName, String chr, int pos,
 			String allele1, String allele2) {
+		int chrCode = ChromosomeDictionary.getInstance().findCode(chr);
+		if (chrCode < 0) {
+			return null;
+		}
+		return getSnpInfo(snpName, chrCode, pos, allele1, allele2);
+	}
 
-		if (snpNameToSnpInfoListHash.containsKey(snpName)) {
-			ArrayList<SnpInfo> snpInfoList = snpNameToSnpInfoListHash
-					.get(snpName);
-
-			// loops through all SnpInfo-objects and first checks that
-			// chromosome and position matches
-			for (SnpInfo snpInfo : snpInfoList) {
-				if ((snpInfo.getChr().toUpperCase().equals(chr.toUpperCase()) && snpInfo
-						.getPos() == pos)) {
-					// if allele 1 is provided in tped, but allele 2 is missing,
-					// check if allele 1 matches any of the two alleles in SNP
-					// input file. If so, return the SnpInfo-object
-					if (!allele1.equals("0") && allele2.equals("0")) {
-						if ((snpInfo.getAllele1().equals(allele1) || snpInfo
-								.getAllele2().equals(allele1))) {
-							return snpInfo;
-						}
-						// if allele 2 is provided in tped, but allele 1 is
-						// missing, check if allele 2 matches any of the two
-						// alleles in SNP input file. If so, return the
-						// SnpInfo-object
-					} else if (!allele2.equals("0") && allele1.equals("0")) {
-						if (snpInfo.getAllele1().equals(allele2)
-								|| snpInfo.getAllele2().equals(allele2)) {
-							return snpInfo;
-						}
-						// if either none or both of the alleles are missing
-						// check that the information in tped matches SNP input
-						// file. If so, return the SnpInfo-object
-					} else if ((snpInfo.getAllele1().equals(allele1) && snpInfo
-							.getAllele2().equals(allele2))
-							|| (snpInfo.getAllele1().equals(allele2) && snpInfo
-									.getAllele2().equals(allele1))) {
-						return snpInfo;
-					}
+	/**
+	 * This method makes sure information about a certain SNP matches in both
+	 * the tped and SNP input file, with the chromosome given as a code from
+	 * ChromosomeDictionary.
+	 * 
+	 * @param snpName
+	 *            name of this SNP as provided in tped
+	 * @param chrCode
+	 *            code of the chromosome of this SNP as provided in tped
+	 * @param pos
+	 *            base pair position provided in tped
+	 * @param allele1
+	 *            allele 1 provided in tped
+	 * @param allele2
+	 *            allele 2 provided in tped
+	 * @return a matching SnpInfo-object
+	 */
+	public SnpInfo getSnpInfo(String snpName, int chrCode, int pos,
+			String allele1, String allele2) {
+
+		// alleles that don't occur in the SNP input table get code -1, which
+		// never matches
+		int allele1Code = getAlleleCode(allele1);
+		int allele2Code = getAlleleCode(allele2);
+
+		// loops through all SnpInfo-objects with matching name, chromosome and
+		// position
+		for (int slot = snpInfoIndex.firstSlot(snpName, chrCode, pos); slot >= 0;
+				slot = snpInfoIndex.nextSlot(slot, snpName, chrCode, pos)) {
+			SnpInfo snpInfo = snpInfoIndex.getSnp(slot);
+			int snpAllele1Code = snpInfo.getAllele1Code();
+			int snpAllele2Code = snpInfo.getAllele2Code();
+
+			// if allele 1 is provided in tped, but allele 2 is missing,
+			// check if allele 1 matches any of the two alleles in SNP
+			// input file. If so, return the SnpInfo-object
+			if (allele1Code != 0 && allele2Code == 0) {
+				if (snpAllele1Code == allele1Code || snpAllele2Code == allele1Code) {
+					return snpInfo;
 				}
+				// if allele 2 is provided in tped, but allele 1 is
+				// missing, check if allele 2 matches any of the two
+				// alleles in SNP input file. If so, return the
+				// SnpInfo-object
+			} else if (allele2Code != 0 && allele1Code == 0) {
+				if (snpAllele1Code == allele2Code || snpAllele2Code == allele2Code) {
+					return snpInfo;
+				}
+				// if either none or both of the alleles are missing
+				// check that the information in tped matches SNP input
+				// file. If so, return the SnpInfo-object
+			} else if ((snpAllele1Code == allele1Code && snpAllele2Code == allele2Code)
+					|| (snpAllele1Code == allele2Code && snpAllele2Code == allele1Code)) {
+				return snpInfo;
 			}
 		}
-		// if SNP name isn't in the hash or if it didn't match all criteria
+		// if SNP isn't in the index or if it didn't match all criteria
 		return null;
 	}
 
+	/**
+	 * Returns the code of an allele name, assigning a new code if the allele
+	 * hasn't been seen before.
+	 * 
+	 * @param allele
+	 *            upper case allele name from the SNP input table
+	 * @return the allele code
+	 */
+	private int addAlleleCode(String allele) {
+		Integer code = alleleCodes.get(allele);
+		if (code == null) {
+			code = allele.equals("0") ? 0 : alleleCodes.size() + 1;
+			alleleCodes.put(allele, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the alleles of the SNP input table, indexed by allele code (the
+	 * codes of SnpInfo.getAllele1Code() and getAllele2Code()). Unused codes
+	 * map to the missing allele "0".
+	 * 
+	 * @return the allele names
+	 */
+	public String[] getAlleles() {
+		int maxCode = 0;
+		for (int code : alleleCodes.values()) {
+			maxCode = Math.max(maxCode, code);
+		}
+		String[] alleles = new String[maxCode + 1];
+		Arrays.fill(alleles, "0");
+		for (Map.Entry<String, Integer> entry : alleleCodes.entrySet()) {
+			alleles[entry.getValue()] = entry.getKey();
+		}
+		return alleles;
+	}
+
+	/**
+	 * Returns the code of an allele name, 0 for the missing allele "0", or -1
+	 * if the allele doesn't occur in the SNP input table.
+	 * 
+	 * @param allele
+	 *            allele name
+	 * @return the allele code
+	 */
+	private int getAlleleCode(String allele) {
+		if (allele.equals("0")) {
+			return 0;
+		}
+		Integer code = alleleCodes.get(allele);
+		return (code == null) ? -1 : code;
+	}
 
 	
 	
 	/**
 	 * Sorts the parsed SNPs according to the parameters defined by the user in
-	 * command line.
+	 * command line, and creates the list of SNPs sorted by chromosome and
+	 * position.
+	 * 
+	 * SNPs are sorted by force include (if SNPs that are force included are
+	 * picked first), then by chromosome (if all chromosomes are included in the
+	 * run), then by p-value and finally by SNP name. All but the SNP name are
+	 * packed into one long sort key per SNP, so the bulk of the sorting is done
+	 * by Arrays.parallelSort on primitives. The sorts are stable, i.e. SNPs
+	 * that compare equal keep the order they have in the file.
 	 */
 	private void sortSnps() {
-		// sort by force include then p-value, if a specific chromosome is
-		// selected
-		if (options.getChr() != null){
-			if (options.getSortByForceIncludeAndPValue()) {
-				Collections.sort(snps, new ForceIncludePValueSorter());
-				// sort by p-value then name, if a specific chromosome is selected
-			} else if (!options.getSortByForceIncludeAndPValue()) {
-				Collections.sort(snps);
-			}
-		}else{
-			// sort by force include, then by chromosome and p-value, if all
-			// chromosomes are selected
-			if (options.getSortByForceIncludeAndPValue()) {
-				Collections.sort(snps, new FIChrPValueSorter());
-				// sort by chromosome and then p-value, if all chromosomes are
-				// selected
-			} else if (!options.getSortByForceIncludeAndPValue()) {
-				Collections.sort(snps, new ChrPValueSorter());
+		int numSnps = snps.size();
+		int[] chrRanks = getChromosomeRanks();
+		
+		// ranks of the p-values, in the order given by Double.compare
+		long[] pValueKeys = new long[numSnps];
+		for (int i = 0; i < numSnps; i++) {
+			long bits = Double.doubleToLongBits(snps.get(i).getPValue());
+			pValueKeys[i] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+		}
+		int[] pValueRanks = getRanks(pValueKeys);
+		
+		// sort by force include (bit 62), chromosome (bits 31-61) and
+		// p-value (bits 0-30)
+		long[] keys = new long[numSnps];
+		for (int i = 0; i < numSnps; i++) {
+			SnpInfo snpInfo = snps.get(i);
+			long key = pValueRanks[i];
+			if (options.getChr() == null) {
+				key |= ((long) chrRanks[snpInfo.getChrCode()]) << 31;
+			}
+			if (options.getSortByForceIncludeAndPValue()
+					&& !snpInfo.getForceInclude()) {
+				key |= 1L << 62;
 			}
+			keys[i] = key;
+		}
+		int[] order = getStableOrder(keys);
+		SnpInfo[] sortedSnps = new SnpInfo[numSnps];
+		for (int i = 0; i < numSnps; i++) {
+			sortedSnps[i] = snps.get(order[i]);
 		}
 		
+		// SNPs with the same key are sorted by name
+		int runStart = 0;
+		for (int i = 1; i <= numSnps; i++) {
+			if (i == numSnps || keys[order[i]] != keys[order[runStart]]) {
+				if (i - runStart > 1) {
+					Arrays.sort(sortedSnps, runStart, i, new NameSorter());
+				}
+				runStart = i;
+			}
+		}
+		snps.clear();
+		Collections.addAll(snps, sortedSnps);
 		
-		for (SnpInfo snpInfo : snps) {
+		// sort by chromosome (bits 32-62) then position (bits 0-31)
+		long[] posKeys = new long[numSnps];
+		for (int i = 0; i < numSnps; i++) {
+			posKeys[i] = (((long) chrRanks[sortedSnps[i].getChrCode()]) << 32)
+					| (sortedSnps[i].getPos() - (long) Integer.MIN_VALUE);
+		}
+		int[] posOrder = getStableOrder(posKeys);
+		snpsSortedByChrPos = new ArrayList<SnpInfo>(numSnps);
+		for (int i = 0; i < numSnps; i++) {
+			SnpInfo snpInfo = sortedSnps[posOrder[i]];
 			snpsSortedByChrPos.add(snpInfo);
+			snpInfo.setSortedByPosIndex(i);
 		}
-		
-		// sort by chromosome then position
-		Collections.sort(snpsSortedByChrPos, new PosSorter());
-		for (int i = 0; i < snpsSortedByChrPos.size(); i++) {
-			snpsSortedByChrPos.get(i).setSortedByPosIndex(i);
+	}
+	
+	/**
+	 * Ranks the chromosomes of the parsed SNPs. Chromosomes are compared as
+	 * integers if both names are integers, otherwise they're compared as
+	 * Strings.
+	 * 
+	 * @return rank of each chromosome, indexed by chromosome code
+	 */
+	private int[] getChromosomeRanks() {
+		ChromosomeDictionary dictionary = ChromosomeDictionary.getInstance();
+		int[] chrRanks = new int[dictionary.size()];
+		boolean[] found = new boolean[dictionary.size()];
+		ArrayList<Integer> chrCodes = new ArrayList<Integer>();
+		for (SnpInfo snpInfo : snps) {
+			if (!found[snpInfo.getChrCode()]) {
+				found[snpInfo.getChrCode()] = true;
+				chrCodes.add(snpInfo.getChrCode());
+			}
 		}
-		
+		Collections.sort(chrCodes, new ChrSorter());
+		for (int i = 0; i < chrCodes.size(); i++) {
+			chrRanks[chrCodes.get(i)] = i;
+		}
+		return chrRanks;
 	}
 	
 	/**
-	 * This sorter sorts SNPs by chromosome and base pair position. (It is being
-	 * used by SnpListFile when all chromosomes are included in the run.)
+	 * Returns the rank of each value among the distinct values, where equal
+	 * values get the same rank.
+	 * 
+	 * @param values
+	 *            values to rank
+	 * @return rank of each value
 	 */
-	private class ChrPValueSorter implements Comparator<SnpInfo> {
-
-		@Override
-		public int compare(SnpInfo x, SnpInfo y) {
-			if (x.getChr().equals(y.getChr())) {
-				if ((Double.compare(x.getPValue(), y.getPValue())) == 0) {
-					// the name check was just added for comparison reasons
-					return (x.getSnpName().compareTo(y.getSnpName()));
-				} else {
-					return Double.compare(x.getPValue(), y.getPValue());
-				}
-			} else {
-				// first trying to parse the chromosomes as integers, otherwise they'll
-				// get compared as Strings
-				int xInt;
-				int yInt;
-				try {
-					xInt = Integer.parseInt(x.getChr());
-					yInt = Integer.parseInt(y.getChr());
-					return Integer.valueOf(xInt).compareTo(Integer.valueOf(yInt));
-				} catch (NumberFormatException e) {
-					return x.getChr().compareTo(y.getChr());
-				}
+	private static int[] getRanks(long[] values) {
+		long[] distinctValues = values.clone();
+		Arrays.parallelSort(distinctValues);
+		int numDistinct = 0;
+		for (int i = 0; i < distinctValues.length; i++) {
+			if (i == 0 || distinctValues[i] != distinctValues[numDistinct - 1]) {
+				distinctValues[numDistinct++] = distinctValues[i];
 			}
 		}
+		int[] ranks = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ranks[i] = Arrays.binarySearch(distinctValues, 0, numDistinct,
+					values[i]);
+		}
+		return ranks;
 	}
 	
 	/**
-	 * This sorter sorts SNPs in regards to if they are force included, then by
-	 * chromosome and position. (It is being used by SnpListFile when all
-	 * chromosomes are included in the run.)
+	 * Returns the indices of the keys in ascending order of the keys. Indices
+	 * of equal keys are kept in ascending order, which makes the sort stable.
+	 * 
+	 * @param keys
+	 *            sort keys
+	 * @return indices of the keys, sorted
 	 */
-	private class FIChrPValueSorter implements Comparator<SnpInfo> {
-
-		@Override
-		public int compare(SnpInfo x, SnpInfo y) {
-			if (x.getForceInclude() == y.getForceInclude()) {
-				if (x.getChr().equals(y.getChr())) {
-					if ((Double.compare(x.getPValue(), y.getPValue())) == 0) {
-						// the name check was just added for comparison reasons
-						return (x.getSnpName().compareTo(y.getSnpName()));
-					} else {
-						return Double.compare(x.getPValue(), y.getPValue());
-					}
+	private static int[] getStableOrder(long[] keys) {
+		long[] sortedKeys = keys.clone();
+		Arrays.parallelSort(sortedKeys);
+		
+		// every index is placed after the indices before it with the same key,
+		// starting from the first position of that key in sortedKeys
+		int[] numPlaced = new int[keys.length];
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			int low = 0;
+			int high = sortedKeys.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (sortedKeys[middle] < keys[i]) {
+					low = middle + 1;
 				} else {
-					// tries to parse the chromosomes as integers, otherwise they'll
-					// get compared as Strings
-					int xInt;
-					int yInt;
-					try {
-						xInt = Integer.parseInt(x.getChr());
-						yInt = Integer.parseInt(y.getChr());
-						return Integer.valueOf(xInt).compareTo(
-								Integer.valueOf(yInt));
-					} catch (NumberFormatException e) {
-						return x.getChr().compareTo(y.getChr());
-					}
+					high = middle;
 				}
-			} else {
-				return Boolean.valueOf(y.getForceInclude()).compareTo(
-						Boolean.valueOf(x.getForceInclude()));
 			}
+			order[low + numPlaced[low]] = i;
+			numPlaced[low]++;
 		}
+		return order;
 	}
 	
-
 	/**
-	 * Sorts SNPs in regards to if they are force included and then by p-value. (It
-	 * is used by SnpListFile when evaluating single chromosomes.)
+	 * Sorts chromosome codes by chromosome name. The names are compared as
+	 * integers if both can be parsed as integers, otherwise they're compared as
+	 * Strings. (Used by SnpListFile.)
 	 */
-	private class ForceIncludePValueSorter implements Comparator<SnpInfo> {
+	private class ChrSorter implements Comparator<Integer> {
 
 		@Override
-		public int compare(SnpInfo x, SnpInfo y) {
-			if (x.getForceInclude() == y.getForceInclude()) {
-				if ((Double.compare(x.getPValue(), y.getPValue())) == 0) {
-					// the name check was just added for comparison reasons
-					return (x.getSnpName().compareTo(y.getSnpName())); 
-				} else {
-					return Double.compare(x.getPValue(), y.getPValue());
-				}
-			} else {
-				return Boolean.valueOf(y.getForceInclude()).compareTo(
-						Boolean.valueOf(x.getForceInclude()));
+		public int compare(Integer x, Integer y) {
+			String xChr = ChromosomeDictionary.getInstance().getName(x);
+			String yChr = ChromosomeDictionary.getInstance().getName(y);
+			if (xChr.equals(yChr)) {
+				return 0;
+			}
+			// tries to parse the chromosomes as integers, otherwise they'll
+			// get compared as Strings
+			try {
+				return Integer.valueOf(Integer.parseInt(xChr)).compareTo(
+						Integer.valueOf(Integer.parseInt(yChr)));
+			} catch (NumberFormatException e) {
+				return xChr.compareTo(yChr);
 			}
 		}
 	}
 	
 	/**
-	 * Sorts SnpInfo-objects in regards to chromosome and position. (Used by
-	 * SnpListFile.)
+	 * Sorts SnpInfo-objects by SNP name. (Used by SnpListFile.)
 	 */
-	private class PosSorter implements Comparator<SnpInfo> {
+	private class NameSorter implements Comparator<SnpInfo> {
 
 		@Override
 		public int compare(SnpInfo x, SnpInfo y) {
-			if (x.getChr().equals(y.getChr())) {
-				return Integer.valueOf(x.getPos()).compareTo(
-						Integer.valueOf(y.getPos()));
-			} else {
-				// tries to parse the chromsomes as integers, otherwise they'll
-				// get compared as Strings
-				int xInt;
-				int yInt;
-				try {
-					xInt = Integer.parseInt(x.getChr());
-					yInt = Integer.parseInt(y.getChr());
-					return Integer.valueOf(xInt).compareTo(Integer.valueOf(yInt));
-				} catch (NumberFormatException e) {
-					return x.getChr().compareTo(y.getChr());
-				}
-			}
+			return x.getSnpName().compareTo(y.getSnpName());
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,593 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+
+/**
+ * This class parses one chunk of the SNP input table, i.e. a range of whole
+ * lines of the file, directly from its bytes. Chunks are independent of each
+ * other, so SnpListFile can parse them on several threads and merge the results
+ * in file order, which is where duplicates are detected and line numbers are
+ * resolved.
+ * 
+ * Lines are split the same way as the regex "[\\s|\\t]" splits them (on every
+ * single whitespace or '|' character, with trailing empty fields removed), and
+ * the checks are made in the same order as they were when every line was split
+ * into Strings, so the same first error is reported. Only the fields needed for
+ * a SnpInfo-object and the metric columns specified in the command line are
+ * converted, all other columns are just counted.
+ */
+public class SnpListFileChunk implements Callable<SnpListFileChunk> {
+
+	// types of errors that stop the parsing of a chunk
+	private static final int NO_ERROR = 0;
+	private static final int INVALID_COLUMNS = 1;
+	private static final int INVALID_NAME = 2;
+	private static final int INVALID_CHR = 3;
+	private static final int UNSUPPORTED_CHR = 4;
+	private static final int INVALID_POS = 5;
+	private static final int INVALID_ALLELE1 = 6;
+	private static final int INVALID_ALLELE2 = 7;
+	private static final int INVALID_P = 8;
+	private static final int INVALID_FORCE_INCLUDE = 9;
+	private static final int INVALID_DESIGN_SCORE = 10;
+	private static final int INVALID_METRIC = 11;
+
+	// exact powers of ten, used by the fast path of parseDouble
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// upper case Strings for single character alleles, so the common alleles
+	// don't need to be allocated for every line
+	private static final String[] SINGLE_CHARACTER_ALLELES = new String[128];
+	static {
+		for (int i = 0; i < SINGLE_CHARACTER_ALLELES.length; i++) {
+			SINGLE_CHARACTER_ALLELES[i] = String.valueOf((char) i).toUpperCase();
+		}
+	}
+
+	// the charset used when the input table was read as text
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	// input for this chunk
+	private FileChannel channel;
+	private String filePath;
+	private long start;
+	private long end;
+	private int numColumns;
+	private int[] metricColumns;
+	private int numMetrics;
+	private String chrFilter;
+
+	// output of this chunk
+	private ArrayList<SnpInfo> snps = new ArrayList<SnpInfo>();
+	private int[] snpLines = new int[1024];
+	private LinkedHashSet<String> chromosomes = new LinkedHashSet<String>();
+	private int numLines = 0;
+	private int errorType = NO_ERROR;
+	private int errorLine = 0;
+	private String errorArgument = null;
+
+	/**
+	 * Constructor for SnpListFileChunk.
+	 * 
+	 * @param channel
+	 *            channel of the SNP input table, only positional reads are
+	 *            used so it may be shared between chunks
+	 * @param filePath
+	 *            file path for SNP input table, used in error messages
+	 * @param start
+	 *            offset of the first byte of this chunk, at the start of a line
+	 * @param end
+	 *            offset after the last byte of this chunk, at the end of a line
+	 *            or of the file
+	 * @param numColumns
+	 *            number of columns in the header
+	 * @param metricColumns
+	 *            column indices of the metrics specified in the command line
+	 * @param numMetrics
+	 *            number of metrics defined in command line
+	 * @param chrFilter
+	 *            chromosome specified in the command line, or null
+	 */
+	public SnpListFileChunk(FileChannel channel, String filePath, long start,
+			long end, int numColumns, int[] metricColumns, int numMetrics,
+			String chrFilter) {
+		this.channel = channel;
+		this.filePath = filePath;
+		this.start = start;
+		this.end = end;
+		this.numColumns = numColumns;
+		this.metricColumns = metricColumns;
+		this.numMetrics = numMetrics;
+		this.chrFilter = chrFilter;
+	}
+
+	/**
+	 * Reads and parses the lines of this chunk. Parsing stops at the first
+	 * invalid line, which is then reported by getErrorMessage.
+	 * 
+	 * @return this chunk
+	 * @throws IOException
+	 *             if the chunk can't be read
+	 * @throws PriorityPrunerException
+	 *             if a SnpInfo-object can't be created
+	 */
+	@Override
+	public SnpListFileChunk call() throws IOException, PriorityPrunerException {
+		byte[] buffer = new byte[(int) (end - start)];
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		long position = start;
+		while (byteBuffer.hasRemaining()) {
+			int read = channel.read(byteBuffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file " + filePath);
+			}
+			position += read;
+		}
+
+		int[] fieldStarts = new int[numColumns];
+		int[] fieldEnds = new int[numColumns];
+
+		// chromosome of the previous line, so the chromosome String and checks
+		// only need to be redone when the chromosome changes
+		int lastChrStart = -1;
+		int lastChrLength = 0;
+		String lastChr = null;
+		int lastChrCode = -1;
+		boolean skipLastChr = false;
+
+		int lineStart = 0;
+		while (lineStart < buffer.length) {
+
+			// finds the end of the line, lines are terminated by "\n", "\r" or
+			// "\r\n"
+			int lineEnd = lineStart;
+			while (lineEnd < buffer.length && buffer[lineEnd] != '\n'
+					&& buffer[lineEnd] != '\r') {
+				lineEnd++;
+			}
+			int nextLineStart = lineEnd + 1;
+			if (lineEnd < buffer.length && buffer[lineEnd] == '\r'
+					&& nextLineStart < buffer.length
+					&& buffer[nextLineStart] == '\n') {
+				nextLineStart++;
+			}
+			numLines++;
+
+			// splits the line into fields, keeping track of the last non-empty
+			// field since trailing empty fields are removed
+			int numFields = 0;
+			int lastNonEmptyField = -1;
+			boolean foundDelimiter = false;
+			int fieldStart = lineStart;
+			for (int i = lineStart; i <= lineEnd; i++) {
+				if (i == lineEnd || isDelimiter(buffer[i])) {
+					if (numFields < numColumns) {
+						fieldStarts[numFields] = fieldStart;
+						fieldEnds[numFields] = i;
+					}
+					if (i > fieldStart) {
+						lastNonEmptyField = numFields;
+					}
+					if (i < lineEnd) {
+						foundDelimiter = true;
+					}
+					numFields++;
+					fieldStart = i + 1;
+				}
+			}
+			numFields = foundDelimiter ? lastNonEmptyField + 1 : 1;
+
+			// check that there are the expected number of columns
+			if (numFields != numColumns) {
+				setError(INVALID_COLUMNS, String.valueOf(numFields));
+				return this;
+			}
+
+			// parse snpname
+			if (fieldEnds[0] == fieldStarts[0]) {
+				setError(INVALID_NAME, null);
+				return this;
+			}
+			String snpName = new String(buffer, fieldStarts[0], fieldEnds[0]
+					- fieldStarts[0], CHARSET);
+
+			// parse chr
+			int chrLength = fieldEnds[1] - fieldStarts[1];
+			if (chrLength == 0) {
+				setError(INVALID_CHR, null);
+				return this;
+			}
+			if (lastChr == null
+					|| !bytesEqual(buffer, lastChrStart, lastChrLength,
+							fieldStarts[1], chrLength)) {
+				String chr = new String(buffer, fieldStarts[1], chrLength,
+						CHARSET).toUpperCase();
+				// checks that no unsupported chromosomes are specified in the
+				// SNP input file
+				if (chr.equals("M") || chr.equals("MT") || chr.equals("CHRM")
+						|| chr.equals("Y") || chr.equals("CHRY")
+						|| chr.equals("24")) {
+					setError(UNSUPPORTED_CHR, chr);
+					return this;
+				}
+				// stores parsed chromosomes
+				chromosomes.add(chr);
+				lastChr = chr;
+				lastChrCode = ChromosomeDictionary.getInstance().getCode(chr);
+				lastChrStart = fieldStarts[1];
+				lastChrLength = chrLength;
+				skipLastChr = chrFilter != null && !chrFilter.equals(chr);
+			}
+
+			// skip the line if this isn't the chromosome we're filtering on
+			if (skipLastChr) {
+				lineStart = nextLineStart;
+				continue;
+			}
+
+			// parse pos
+			int pos;
+			try {
+				pos = parseInt(buffer, fieldStarts[2], fieldEnds[2]);
+			} catch (NumberFormatException e) {
+				setError(INVALID_POS, null);
+				return this;
+			}
+
+			// parse alleles
+			String allele1 = parseAllele(buffer, fieldStarts[3], fieldEnds[3]);
+			if (allele1.length() == 0) {
+				setError(INVALID_ALLELE1, null);
+				return this;
+			}
+			String allele2 = parseAllele(buffer, fieldStarts[4], fieldEnds[4]);
+			if (allele2.length() == 0) {
+				setError(INVALID_ALLELE2, null);
+				return this;
+			}
+
+			// parse p-value
+			double pValue;
+			try {
+				pValue = parseDouble(buffer, fieldStarts[5], fieldEnds[5]);
+			} catch (NumberFormatException e) {
+				setError(INVALID_P, null);
+				return this;
+			}
+
+			// parse force include flag
+			boolean forceInclude;
+			if (fieldEnds[6] - fieldStarts[6] == 1
+					&& buffer[fieldStarts[6]] == '0') {
+				forceInclude = false;
+			} else if (fieldEnds[6] - fieldStarts[6] == 1
+					&& buffer[fieldStarts[6]] == '1') {
+				forceInclude = true;
+			} else {
+				setError(INVALID_FORCE_INCLUDE, null);
+				return this;
+			}
+
+			// parse the design score
+			double designScore;
+			try {
+				designScore = parseDouble(buffer, fieldStarts[7], fieldEnds[7]);
+			} catch (NumberFormatException e) {
+				setError(INVALID_DESIGN_SCORE, null);
+				return this;
+			}
+
+			// parses metric weights
+			double[] metrics = new double[numMetrics];
+			try {
+				for (int i = 0; i < metricColumns.length; i++) {
+					metrics[i] = parseDouble(buffer,
+							fieldStarts[metricColumns[i]],
+							fieldEnds[metricColumns[i]]);
+				}
+			} catch (NumberFormatException e) {
+				setError(INVALID_METRIC, null);
+				return this;
+			}
+
+			if (snps.size() == snpLines.length) {
+				snpLines = Arrays.copyOf(snpLines, snpLines.length * 2);
+			}
+			snpLines[snps.size()] = numLines;
+			snps.add(new SnpInfo(snpName, lastChrCode, pos, allele1, allele2,
+					pValue, forceInclude, designScore, metrics));
+
+			lineStart = nextLineStart;
+		}
+		return this;
+	}
+
+	/**
+	 * Returns true if a byte splits fields, i.e. if it's matched by the regex
+	 * "[\\s|\\t]".
+	 */
+	private static boolean isDelimiter(byte b) {
+		return b == ' ' || b == '\t' || b == '|' || b == '\n' || b == '\r'
+				|| b == 0x0B || b == '\f';
+	}
+
+	/**
+	 * Returns true if two ranges of the buffer contain the same bytes.
+	 */
+	private static boolean bytesEqual(byte[] buffer, int start1, int length1,
+			int start2, int length2) {
+		if (length1 != length2) {
+			return false;
+		}
+		for (int i = 0; i < length1; i++) {
+			if (buffer[start1 + i] != buffer[start2 + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the upper case allele name stored in a range of the buffer.
+	 */
+	private static String parseAllele(byte[] buffer, int start, int end) {
+		if (end - start == 1 && buffer[start] >= 0) {
+			return SINGLE_CHARACTER_ALLELES[buffer[start]];
+		}
+		return new String(buffer, start, end - start, CHARSET).toUpperCase();
+	}
+
+	/**
+	 * Parses an integer stored as text in a range of a byte array. Values with
+	 * up to 9 digits are parsed directly from the bytes, anything else is
+	 * handed to Integer.parseInt, so the result (and whether an exception is
+	 * thrown) is always the same as for Integer.parseInt.
+	 * 
+	 * @param buffer
+	 *            byte array holding the text
+	 * @param start
+	 *            index of the first byte
+	 * @param end
+	 *            index after the last byte
+	 * @return the parsed integer
+	 * @throws NumberFormatException
+	 *             if the text isn't a valid integer
+	 */
+	public static int parseInt(byte[] buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+		if (i < end && end - i <= 9) {
+			int value = 0;
+			for (; i < end; i++) {
+				int digit = buffer[i] - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				value = value * 10 + digit;
+			}
+			if (i == end) {
+				return negative ? -value : value;
+			}
+		}
+		return Integer.parseInt(new String(buffer, start, end - start, CHARSET));
+	}
+
+	/**
+	 * Parses a decimal number stored as text in a range of a byte array. Plain
+	 * decimal and scientific notation with at most 15 significant digits and a
+	 * decimal exponent of at most 22 is converted exactly by a single
+	 * multiplication or division of two exactly representable doubles, which
+	 * gives the correctly rounded value. Anything else is handed to
+	 * Double.parseDouble, so the result (and whether an exception is thrown)
+	 * is always the same as for Double.parseDouble.
+	 * 
+	 * @param buffer
+	 *            byte array holding the text
+	 * @param start
+	 *            index of the first byte
+	 * @param end
+	 *            index after the last byte
+	 * @return the parsed number
+	 * @throws NumberFormatException
+	 *             if the text isn't a valid number
+	 */
+	public static double parseDouble(byte[] buffer, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean foundDigit = false;
+
+		// integer part
+		for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+			foundDigit = true;
+			mantissa = mantissa * 10 + (buffer[i] - '0');
+			if (mantissa != 0) {
+				significantDigits++;
+			}
+			if (significantDigits > 15) {
+				return parseDoubleSlow(buffer, start, end);
+			}
+		}
+
+		// fraction part
+		if (i < end && buffer[i] == '.') {
+			i++;
+			for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+				foundDigit = true;
+				mantissa = mantissa * 10 + (buffer[i] - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+				if (significantDigits > 15) {
+					return parseDoubleSlow(buffer, start, end);
+				}
+				exponent--;
+			}
+		}
+		if (!foundDigit) {
+			return parseDoubleSlow(buffer, start, end);
+		}
+
+		// exponent part
+		if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+				negativeExponent = buffer[i] == '-';
+				i++;
+			}
+			int exponentStart = i;
+			int exponentValue = 0;
+			for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'
+					&& i - exponentStart < 4; i++) {
+				exponentValue = exponentValue * 10 + (buffer[i] - '0');
+			}
+			if (i == exponentStart) {
+				return parseDoubleSlow(buffer, start, end);
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		if (i != end) {
+			return parseDoubleSlow(buffer, start, end);
+		}
+
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= 0 && exponent <= 22) {
+			value = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && exponent >= -22) {
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return parseDoubleSlow(buffer, start, end);
+		}
+		return negative ? -value : value;
+	}
+
+	private static double parseDoubleSlow(byte[] buffer, int start, int end) {
+		return Double.parseDouble(new String(buffer, start, end - start,
+				CHARSET));
+	}
+
+	private void setError(int errorType, String errorArgument) {
+		this.errorType = errorType;
+		this.errorArgument = errorArgument;
+		this.errorLine = numLines;
+	}
+
+	/**
+	 * Returns true if parsing stopped at an invalid line.
+	 */
+	public boolean hasError() {
+		return errorType != NO_ERROR;
+	}
+
+	/**
+	 * Returns the message for the invalid line that stopped the parsing.
+	 * 
+	 * @param lineNumOffset
+	 *            line number in the file of the line before this chunk
+	 * @return the error message
+	 */
+	public String getErrorMessage(int lineNumOffset) {
+		int lineNum = lineNumOffset + errorLine;
+		switch (errorType) {
+		case INVALID_COLUMNS:
+			return "On line " + lineNum + " of " + filePath + ", expected "
+					+ numColumns + " columns, but found " + errorArgument + ".";
+		case INVALID_NAME:
+			return "Invalid name on line " + lineNum + " in SNP Input Table.";
+		case INVALID_CHR:
+			return "Invalid chr on line " + lineNum + " in SNP Input Table.";
+		case UNSUPPORTED_CHR:
+			return "Chromosome " + errorArgument
+					+ " not supported. Found on line " + lineNum + ".";
+		case INVALID_POS:
+			return "Invalid pos at line " + lineNum
+					+ " in SNP Input Table. Integer value expected.";
+		case INVALID_ALLELE1:
+			return "Invalid allele1 on line " + lineNum + " in SNP Input Table.";
+		case INVALID_ALLELE2:
+			return "Invalid allele2 on line " + lineNum + " in SNP Input Table.";
+		case INVALID_P:
+			return "Invalid p at line " + lineNum
+					+ " in SNP Input Table. Decimal value expected.";
+		case INVALID_FORCE_INCLUDE:
+			return "Invalid force_include at line " + lineNum
+					+ " in SNP Input Table. '0' or '1' expected.";
+		case INVALID_DESIGN_SCORE:
+			return "Invalid design_score at line " + lineNum
+					+ " in SNP Input Table. Decimal value expected.";
+		case INVALID_METRIC:
+			return "Invalid metric at line " + lineNum
+					+ " in SNP Input Table. Decimal value expected.";
+		default:
+			return null;
+		}
+	}
+
+	// public access to the parsed SNPs
+
+	public ArrayList<SnpInfo> getSnps() {
+		return snps;
+	}
+
+	/**
+	 * Returns the line number, relative to the line before this chunk, of a
+	 * parsed SNP.
+	 */
+	public int getSnpLine(int index) {
+		return snpLines[index];
+	}
+
+	public LinkedHashSet<String> getChromosomes() {
+		return chromosomes;
+	}
+
+	public int getNumLines() {
+		return numLines;
+	}
+}
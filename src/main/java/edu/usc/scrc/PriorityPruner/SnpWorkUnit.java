@@ -50,9 +50,32 @@ public class SnpWorkUnit {
 	private String snpName;
 	private SnpInfo snpInfo;
 	private ArrayList<SnpGenotypes> currentGenotypes = new ArrayList<SnpGenotypes>();
+	// decoded genotypes (see GenotypeCache) of the SNPs in currentGenotypes,
+	// null if they should be decoded by this work unit
+	private ArrayList<byte[]> decodedGenotypes = null;
+	// flags showing which founders are haploid at the index SNP (male founders
+	// on chromosome X)
+	private boolean[] haploid;
+	// flag showing whether haploid was set up for an index SNP on chromosome X
+	private boolean haploidChrX;
 	//private ArrayList<Integer> founderIndices = new ArrayList<Integer>();
 	//private ArrayList<String> subjectSexes = new ArrayList<String>();
 	private ArrayList<Individual> keptFounders;
+	// LD shared with the other SNP input tables of a batch, if any
+	private LdCache ldCache = null;
+	// genotype cache decoding genotypes on demand, in adaptive mode
+	private GenotypeCache genotypeCache = null;
+	// adaptive mode: number of SNPs in a row below the r^2 floor ending the
+	// window on a side (0 if the whole window is used), and the floor
+	private int decayCount = 0;
+	private double decayFloorRSquared = 0;
+	// number of pairs of SNPs LD was calculated for
+	private int numEvaluations = 0;
+	// LD isn't estimated for pairs that can't reach this r^2
+	private double minRSquared = 0;
+	// returned by calculateLdResultCompressed for pairs that can't reach
+	// the minimum r^2, which unlike undefined LD mustn't be cached
+	private static final LdResult BELOW_MIN_R_SQUARED = new LdResult(Double.NaN, Double.NaN);
 //	private double minMaf;
 //	private double minimumHardyWeinbergPvalue;
 //	private double minimumGenotypePercentage;
@@ -104,6 +127,66 @@ public class SnpWorkUnit {
 		//convertGenotypes(currentGenotypes);
 	}
 
+	/**
+	 * Constructor for SnpWorkUnit, taking the genotypes of the SNPs within the
+	 * current pruning window in decoded form, as provided by GenotypeCache.
+	 * 
+	 * @param snpName
+	 *            name of index SNP
+	 * @param genotypesList
+	 *            list of SnpGenotypes-object within the current pruning window
+	 * @param decodedGenotypesList
+	 *            decoded genotypes of each SNP in genotypesList
+	 * @param referenceSNPIndex
+	 *            the position of the index SNP in genotypesList
+	 * @param keptFounders
+	 *            founder subjects in the genotypes list
+	 * @throws PriorityPrunerException
+	 *             if problem are encountered during initialization
+	 */
+	public SnpWorkUnit(String snpName, ArrayList<SnpGenotypes> genotypesList,
+			ArrayList<byte[]> decodedGenotypesList, int referenceSNPIndex,
+			ArrayList<Individual> keptFounders) throws PriorityPrunerException {
+		this(snpName, genotypesList, referenceSNPIndex, keptFounders);
+		this.decodedGenotypes = decodedGenotypesList;
+	}
+
+	/**
+	 * Constructor for SnpWorkUnit, taking a genotype cache that decodes the
+	 * genotypes of the SNPs within the current pruning window on demand. Used
+	 * in adaptive mode, where LD isn't calculated for all of them.
+	 * 
+	 * @param snpName
+	 *            name of index SNP
+	 * @param genotypesList
+	 *            list of SnpGenotypes-object within the current pruning window
+	 * @param genotypeCache
+	 *            the genotype cache
+	 * @param referenceSNPIndex
+	 *            the position of the index SNP in genotypesList
+	 * @param keptFounders
+	 *            founder subjects in the genotypes list
+	 * @throws PriorityPrunerException
+	 *             if problem are encountered during initialization
+	 */
+	public SnpWorkUnit(String snpName, ArrayList<SnpGenotypes> genotypesList,
+			GenotypeCache genotypeCache, int referenceSNPIndex,
+			ArrayList<Individual> keptFounders) throws PriorityPrunerException {
+		this(snpName, genotypesList, referenceSNPIndex, keptFounders);
+		this.genotypeCache = genotypeCache;
+	}
+
+	/**
+	 * Constructor for SnpWorkUnit, used to calculate LD between single pairs of
+	 * SNPs with calculateLdResultPair.
+	 * 
+	 * @param keptFounders
+	 *            founder subjects in the genotypes
+	 */
+	public SnpWorkUnit(ArrayList<Individual> keptFounders) {
+		this.keptFounders = keptFounders;
+	}
+
 	/**
 	 * Initiates all the calculations necessary for this SNP work unit.
 	 * 
@@ -268,42 +351,126 @@ public class SnpWorkUnit {
 		// gets genotypes of index SNP
 		SnpGenotypes referenceGenotypes = currentGenotypes
 				.get(referenceSNPIndex - 1);
-//
-//		if (isSnpValid(referenceGenotypes)) {
+		
+		// decodes the genotypes, unless already decoded or decoded on
+		// demand by the genotype cache
+		if (decodedGenotypes == null && genotypeCache == null) {
+			decodedGenotypes = new ArrayList<byte[]>(currentGenotypes.size());
 			for (SnpGenotypes genotypes : currentGenotypes) {
-				//if (isSnpValid(genotypes)) {
-					// if both index SNP and the second SNP are valid (i.e.,
-					// they passed the user defined filter for maf, hwe and
-					// missing genotype percentage), LD calculation for this
-					// pair is initiated
-					LdResult ldResult = calculateLdResultCompressed(referenceGenotypes,
-							genotypes);
-					if (ldResult != null && ldResult.getRSquared() > 1) {
-						ldResult.setRSquared(1);
-					}
-					// if the result from the calculation is not null and the
-					// r^2-value is a valid number, the information gets stored
-					// in a Result-object.
-					if (ldResult != null
-							&& !Double.isNaN(ldResult.getRSquared())) {
-						Result result = new Result(snpName,
-								referenceGenotypes.getMaf(), snpInfo.getChr(),
-								snpInfo.getPos(), genotypes.getSnpName(),
-								genotypes.getMaf(), genotypes.getSnpInfo()
-										.getChr(), genotypes.getSnpInfo()
-										.getPos(), ldResult.getRSquared(),
-								ldResult.getDPrime(),
-								referenceGenotypes.getSnpInfo(),
-								genotypes.getSnpInfo());
-						// valid results get added to a result list
-						addResult(result);
-					}
-				//}
+				decodedGenotypes.add(GenotypeCache.decode(genotypes,
+						keptFounders.size()));
 			}
-//			return true;
-//		} else {
-//			return false;
-//		}
+		}
+		byte[] referenceDecoded = getDecodedGenotypes(referenceSNPIndex - 1);
+		
+		// the ploidy of each founder only depends on the index SNP
+		setHaploid(snpInfo);
+
+		if (decayCount <= 0) {
+			for (int g = 0; g < currentGenotypes.size(); g++) {
+				Result result = calculateResult(referenceGenotypes,
+						referenceDecoded, g);
+				// valid results get added to a result list
+				if (result != null) {
+					addResult(result);
+				}
+			}
+			numEvaluations = currentGenotypes.size();
+			return;
+		}
+
+		// in adaptive mode, LD is calculated walking outward from the index
+		// SNP on each side, until decayCount SNPs in a row have an r^2-value
+		// below the floor (or undefined LD). The results are still added in
+		// order of position.
+		Result[] windowResults = new Result[currentGenotypes.size()];
+		int reference = referenceSNPIndex - 1;
+		windowResults[reference] = calculateResult(referenceGenotypes,
+				referenceDecoded, reference);
+		numEvaluations = 1;
+		for (int step = -1; step <= 1; step += 2) {
+			int numBelowFloor = 0;
+			for (int g = reference + step; g >= 0 && g < currentGenotypes.size()
+					&& numBelowFloor < decayCount; g += step) {
+				Result result = calculateResult(referenceGenotypes,
+						referenceDecoded, g);
+				windowResults[g] = result;
+				numEvaluations++;
+				if (result == null || result.getRSquared() < decayFloorRSquared) {
+					numBelowFloor++;
+				} else {
+					numBelowFloor = 0;
+				}
+			}
+		}
+		for (Result result : windowResults) {
+			if (result != null) {
+				addResult(result);
+			}
+		}
+	}
+
+	/**
+	 * Calculates LD between the index SNP and a SNP in the pruning window.
+	 * 
+	 * @param referenceGenotypes
+	 *            genotypes of the index SNP
+	 * @param referenceDecoded
+	 *            decoded genotypes of the index SNP
+	 * @param g
+	 *            position of the SNP in the pruning window
+	 * @return Result-object, or null if the r^2-value isn't a valid number
+	 */
+	private Result calculateResult(SnpGenotypes referenceGenotypes,
+			byte[] referenceDecoded, int g) {
+		SnpGenotypes genotypes = currentGenotypes.get(g);
+		LdResult ldResult;
+		if (ldCache != null
+				&& ldCache.contains(referenceGenotypes, genotypes)) {
+			ldResult = ldCache.get(referenceGenotypes, genotypes);
+		} else {
+			ldResult = calculateLdResultCompressed(referenceGenotypes,
+					referenceDecoded, genotypes, getDecodedGenotypes(g));
+			if (ldResult == BELOW_MIN_R_SQUARED) {
+				return null;
+			}
+			if (ldResult != null && ldResult.getRSquared() > 1) {
+				ldResult.setRSquared(1);
+			}
+			if (ldCache != null) {
+				ldCache.put(referenceGenotypes, genotypes, ldResult);
+			}
+		}
+		// if the result from the calculation is not null and the
+		// r^2-value is a valid number, the information gets stored
+		// in a Result-object.
+		if (ldResult != null && !Double.isNaN(ldResult.getRSquared())) {
+			return new Result(snpName,
+					referenceGenotypes.getMaf(), snpInfo.getChrCode(),
+					snpInfo.getPos(), genotypes.getSnpName(),
+					genotypes.getMaf(), genotypes.getSnpInfo()
+							.getChrCode(), genotypes.getSnpInfo()
+							.getPos(), ldResult.getRSquared(),
+					ldResult.getDPrime(),
+					referenceGenotypes.getSnpInfo(),
+					genotypes.getSnpInfo());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the decoded genotypes of a SNP in the pruning window, from the
+	 * genotype cache if genotypes are decoded on demand.
+	 * 
+	 * @param g
+	 *            position of the SNP in the pruning window
+	 * @return decoded genotypes
+	 */
+	private byte[] getDecodedGenotypes(int g) {
+		if (decodedGenotypes != null) {
+			return decodedGenotypes.get(g);
+		}
+		return genotypeCache.getDecodedGenotypes(currentGenotypes.get(g));
 	}
 	
 
@@ -440,23 +607,121 @@ public class SnpWorkUnit {
 	 * 
 	 * @param genotypes1
 	 *            genotypes for SNP 1
+	 * @param decoded1
+	 *            decoded genotypes for SNP 1
 	 * @param genotypes2
 	 *            genotypes for SNP 2
-	 * @param founderIndices
-	 *            indices of founder subjects
+	 * @param decoded2
+	 *            decoded genotypes for SNP 2
 	 * @return LdResult-object
 	 */
 	private LdResult calculateLdResultCompressed(SnpGenotypes genotypes1,
-			SnpGenotypes genotypes2) {
-		int doublehet = 0;
+			byte[] decoded1, SnpGenotypes genotypes2, byte[] decoded2) {
 		int[][] twoMarkerHaplos = new int[3][3];
-		int count;
-		double loglike, oldloglike, rsq, num, tmp, denom, denom1, denom2, dprime;
 
 		// if comparing a SNP with itself just return r^2=1, D'=1
 		if (genotypes1 == genotypes2) {
 			return new LdResult(1, 1);
 		}
+		int doublehet = countTwoMarkerHaplos(genotypes1, decoded1, genotypes2,
+				decoded2, twoMarkerHaplos);
+		if (isBelowMinRSquared(twoMarkerHaplos, doublehet)) {
+			return BELOW_MIN_R_SQUARED;
+		}
+		return estimateLd(twoMarkerHaplos, doublehet);
+	}
+
+	/**
+	 * Calculates r^2 and D' between two SNPs in both directions, i.e., once with
+	 * SNP 1 and once with SNP 2 as the first marker. The haplotypes are counted
+	 * only once, and the counts for the second direction are the transpose of
+	 * the counts for the first one, so each result is exactly the same as the
+	 * one calculateLdResultCompressed would give for that direction. Used by
+	 * LdGraph, which needs the LD between each pair of SNPs for whichever of the
+	 * two is picked as index SNP. Both SNPs must be on the same chromosome.
+	 * 
+	 * @param genotypes1
+	 *            genotypes for SNP 1
+	 * @param decoded1
+	 *            decoded genotypes for SNP 1
+	 * @param genotypes2
+	 *            genotypes for SNP 2
+	 * @param decoded2
+	 *            decoded genotypes for SNP 2
+	 * @param forward
+	 *            flag showing whether to calculate LD with SNP 1 as first marker
+	 * @param backward
+	 *            flag showing whether to calculate LD with SNP 2 as first
+	 *            marker
+	 * @return array with the LdResult-object of each direction, with null for
+	 *         directions that weren't calculated, where LD is undefined, or
+	 *         where r^2 can't reach the minimum r^2
+	 */
+	public LdResult[] calculateLdResultPair(SnpGenotypes genotypes1,
+			byte[] decoded1, SnpGenotypes genotypes2, byte[] decoded2,
+			boolean forward, boolean backward) {
+		int[][] twoMarkerHaplos = new int[3][3];
+		LdResult[] ldResults = new LdResult[2];
+		setHaploid(genotypes1.getSnpInfo());
+		int doublehet = countTwoMarkerHaplos(genotypes1, decoded1, genotypes2,
+				decoded2, twoMarkerHaplos);
+		// the bound on r^2 is the same in both directions
+		if (isBelowMinRSquared(twoMarkerHaplos, doublehet)) {
+			return ldResults;
+		}
+		if (forward) {
+			ldResults[0] = estimateLd(twoMarkerHaplos, doublehet);
+		}
+		if (backward) {
+			int[][] transposed = new int[3][3];
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					transposed[j][i] = twoMarkerHaplos[i][j];
+				}
+			}
+			ldResults[1] = estimateLd(transposed, doublehet);
+		}
+		return ldResults;
+	}
+
+	/**
+	 * Sets the ploidy of each founder, which only depends on the index SNP.
+	 * 
+	 * @param indexSnpInfo
+	 *            the index SNP
+	 */
+	private void setHaploid(SnpInfo indexSnpInfo) {
+		if (haploid != null && haploidChrX == indexSnpInfo.isChrX()) {
+			return;
+		}
+		haploid = new boolean[keptFounders.size()];
+		for (int f = 0; f < keptFounders.size(); f++) {
+			haploid[f] = indexSnpInfo.isChrX()
+					&& keptFounders.get(f).getSex() == Individual.Sex.MALE;
+		}
+		haploidChrX = indexSnpInfo.isChrX();
+	}
+
+	/**
+	 * Method ported from Haploview. Counts the two-marker haplotypes of two
+	 * SNPs, leaving double heterozygotes (which have unknown phase) aside.
+	 * 
+	 * @param genotypes1
+	 *            genotypes for SNP 1
+	 * @param decoded1
+	 *            decoded genotypes for SNP 1
+	 * @param genotypes2
+	 *            genotypes for SNP 2
+	 * @param decoded2
+	 *            decoded genotypes for SNP 2
+	 * @param twoMarkerHaplos
+	 *            3x3 matrix in which the haplotype counts are stored
+	 * @return number of double heterozygotes
+	 */
+	private int countTwoMarkerHaplos(SnpGenotypes genotypes1, byte[] decoded1,
+			SnpGenotypes genotypes2, byte[] decoded2, int[][] twoMarkerHaplos) {
+		int doublehet = 0;
+
 		// initialize twoMarkerHaplos matrix to contain all zeros
 		for (int i = 0; i < 3; i++) {
 			for (int j = 0; j < 3; j++) {
@@ -478,12 +743,8 @@ public class SnpWorkUnit {
 
 		// iterate through all chromosomes in dataset
 		for (int f = 0; f < keptFounders.size(); f++) {
-			// at the moment, "i" will equal "f", since we only support founders
-			//int i = founderIndices.get(f);
-			Individual founder = keptFounders.get(f);
-
-			byte genotype1 = genotypes1.getByteGenotype(f);
-			byte genotype2 = genotypes2.getByteGenotype(f);
+			byte genotype1 = decoded1[f];
+			byte genotype2 = decoded2[f];
 			if (genotype1 == 0){
 				a1 = 0;
 				b1 = 0;
@@ -513,8 +774,7 @@ public class SnpWorkUnit {
 			
 			// assign alleles for each of a pair of chromosomes at a marker
 			// to four variables
-			boolean haploid = snpInfo.isChrX() && founder.getSex() == Individual.Sex.MALE;
-			if (haploid) {
+			if (haploid[f]) {
 
 				// haploid (x chrom/male)
 				if (a1 != 0 && a2 != 0) {
@@ -539,6 +799,77 @@ public class SnpWorkUnit {
 				}
 			}
 		}
+		return doublehet;
+	}
+
+	/**
+	 * Returns true if r^2 estimated from the two-marker haplotype counts of two
+	 * SNPs can't reach the minimum r^2.
+	 * 
+	 * @param twoMarkerHaplos
+	 *            haplotype counts, with SNP 1 as first index
+	 * @param doublehet
+	 *            number of double heterozygotes
+	 * @return true if LD doesn't need to be estimated
+	 */
+	private boolean isBelowMinRSquared(int[][] twoMarkerHaplos, int doublehet) {
+		if (minRSquared <= 0) {
+			return false;
+		}
+		// leaves a margin for rounding in the EM algorithm, monomorphic SNPs
+		// (NaN) are left to estimateLd
+		return getMaxRSquared(twoMarkerHaplos, doublehet) + 1e-6 < minRSquared;
+	}
+
+	/**
+	 * Calculates an upper bound on r^2 estimated from the two-marker haplotype
+	 * counts of two SNPs. The EM algorithm only distributes the double
+	 * heterozygotes between haplotypes, so the allele frequencies of the
+	 * estimated haplotypes are those counted, and they bound D between
+	 * -min(pA1 pA2, pB1 pB2) and min(pA1 pB2, pB1 pA2). r^2 is then at most
+	 * D^2 / (pA1 pB1 pA2 pB2) for the larger bound.
+	 * 
+	 * @param twoMarkerHaplos
+	 *            haplotype counts, with SNP 1 as first index
+	 * @param doublehet
+	 *            number of double heterozygotes
+	 * @return the bound on r^2, or NaN if either SNP is monomorphic
+	 */
+	double getMaxRSquared(int[][] twoMarkerHaplos, int doublehet) {
+		int totalChroms = twoMarkerHaplos[1][1] + twoMarkerHaplos[1][2]
+				+ twoMarkerHaplos[2][1] + twoMarkerHaplos[2][2] + 2 * doublehet;
+		if (totalChroms == 0) {
+			return Double.NaN;
+		}
+		double pA1 = (twoMarkerHaplos[1][1] + twoMarkerHaplos[1][2] + doublehet)
+				/ (double) totalChroms;
+		double pB1 = 1 - pA1;
+		double pA2 = (twoMarkerHaplos[1][1] + twoMarkerHaplos[2][1] + doublehet)
+				/ (double) totalChroms;
+		double pB2 = 1 - pA2;
+		double denom = pA1 * pB1 * pA2 * pB2;
+		if (denom <= 0) {
+			return Double.NaN;
+		}
+		double maxD = Math.max(Math.min(pA1 * pB2, pB1 * pA2),
+				Math.min(pA1 * pA2, pB1 * pB2));
+		return maxD * maxD / denom;
+	}
+
+	/**
+	 * Method ported from Haploview. Estimates r^2 and D' from the two-marker
+	 * haplotype counts of two SNPs, using the EM algorithm to resolve the phase
+	 * of double heterozygotes.
+	 * 
+	 * @param twoMarkerHaplos
+	 *            haplotype counts, with SNP 1 as first index
+	 * @param doublehet
+	 *            number of double heterozygotes
+	 * @return LdResult-object, or null if either SNP is monomorphic
+	 */
+	LdResult estimateLd(int[][] twoMarkerHaplos, int doublehet) {
+		int count;
+		double loglike, oldloglike, rsq, num, tmp, denom, denom1, denom2, dprime;
 
 		// another monomorphic marker check
 		int r1 = twoMarkerHaplos[1][1] + twoMarkerHaplos[1][2];
@@ -945,6 +1276,33 @@ public class SnpWorkUnit {
 		this.results = results;
 	}
 
+	public void setLdCache(LdCache ldCache) {
+		this.ldCache = ldCache;
+	}
+
+	/**
+	 * Turns on adaptive mode, where LD is only calculated outward from the
+	 * index SNP until LD has decayed on each side.
+	 * 
+	 * @param decayCount
+	 *            number of SNPs in a row with r^2 below the floor that end the
+	 *            window on a side
+	 * @param decayFloorRSquared
+	 *            the r^2 floor
+	 */
+	public void setLdDecay(int decayCount, double decayFloorRSquared) {
+		this.decayCount = decayCount;
+		this.decayFloorRSquared = decayFloorRSquared;
+	}
+
+	public void setMinRSquared(double minRSquared) {
+		this.minRSquared = minRSquared;
+	}
+
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
 //	public boolean getIndexSnpPassed() {
 //		return indexSnpPassed;
 //	}
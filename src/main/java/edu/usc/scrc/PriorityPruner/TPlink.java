@@ -52,7 +52,26 @@ public class TPlink extends Genotypes {
 	private boolean remove;
 	private boolean keep;
 	private boolean keep_random;
+	// SNPs of each SNP input file, stored as SnpGenotypes-objects
+	private ArrayList<ArrayList<SnpGenotypes>> tableSnpGenotypes = new ArrayList<ArrayList<SnpGenotypes>>();
 	
+	// state of the tped file while it's parsed, which is kept from one
+	// chromosome to the next when it's parsed one chromosome at a time
+	private String tpedFilePath;
+	private BufferedReader tpedReader = null;
+	private ArrayList<SnpListFile> snpListFiles;
+	private int tpedLine = 1;
+	private int[] notFoundInSnpInputTable;
+	private int[] numIncluded;
+	// chromosome of the previous line, so the chromosome only needs to be
+	// looked up in ChromosomeDictionary when it changes
+	private String lastChr = null;
+	private int lastChrCode = -1;
+	private boolean lastChrIncluded = false;
+	// first line of the next chromosome, read while parsing the previous one
+	private String[] nextTpedLine = null;
+	// chromosomes already parsed, when parsing one chromosome at a time
+	private HashSet<Integer> parsedChrCodes = new HashSet<Integer>();
 
 	// splitting regex for input files that allows single tabs or spaces
 	private String delim = "[\\s|\\t]";
@@ -77,6 +96,35 @@ public class TPlink extends Genotypes {
 	 */
 	public TPlink(String filePathTPed, String filePathTFam,
 			SnpListFile snpListFile, PlinkSampleListFile keepRemoveSamples, CommandLineOptions options) throws PriorityPrunerException {
+		this(filePathTPed, filePathTFam, new ArrayList<SnpListFile>(
+				Collections.singletonList(snpListFile)), keepRemoveSamples,
+				options);
+	}
+
+	/**
+	 * Constructor used to parse the genotypes once for several SNP input files
+	 * (batch mode). Each tped line is compressed once, and shared by the
+	 * SnpGenotypes-objects of all SNP input files that contain the SNP.
+	 * 
+	 * @param filePathTPed
+	 *            relative or absolute file path for the tped file
+	 * @param filePathTFam
+	 *            relative or absolute file path for the tfam file
+	 * @param snpListFiles
+	 *            the SNP input files, providing information about which SNPS
+	 *            in the tped file to parse
+	 * @param keepRemoveSamples
+	 *            The PlinkSampleList containing the list samples to keep or
+	 *            remove based on the --keep or --remove options. If null, then
+	 *            no list is defined.
+	 * @throws PriorityPrunerException
+	 *             if files aren't found or if problems are encountered during
+	 *             parsing
+	 */
+	public TPlink(String filePathTPed, String filePathTFam,
+			ArrayList<SnpListFile> snpListFiles,
+			PlinkSampleListFile keepRemoveSamples, CommandLineOptions options)
+			throws PriorityPrunerException {
 		super(keepRemoveSamples, options);
 
 		LogWriter.getLogger().info("Reading pedigree information from [ " + filePathTFam + " ]");
@@ -98,7 +146,62 @@ public class TPlink extends Genotypes {
 		setKeepRemove();
 
 		// initiates tped parsing
-		parseTped(filePathTPed, snpListFile);
+		parseTped(filePathTPed, snpListFiles);
+	}
+
+	/**
+	 * Constructor used to parse the tped file either at once, or one
+	 * chromosome at a time. In the latter case, only the tfam file is parsed
+	 * here and the tped file is opened; each chromosome is then parsed by
+	 * nextChromosome().
+	 * 
+	 * @param filePathTPed
+	 *            relative or absolute file path for the tped file, which must
+	 *            be sorted by chromosome
+	 * @param filePathTFam
+	 *            relative or absolute file path for the tfam file
+	 * @param snpListFile
+	 *            the SNP input file, providing information about which SNPS in
+	 *            the tped file to parse
+	 * @param keepRemoveSamples
+	 *            The PlinkSampleList containing the list samples to keep or
+	 *            remove based on the --keep or --remove options. If null, then
+	 *            no list is defined.
+	 * @param byChromosome
+	 *            true if the tped file should be parsed one chromosome at a
+	 *            time
+	 * @throws PriorityPrunerException
+	 *             if files aren't found or if problems are encountered during
+	 *             parsing
+	 */
+	public TPlink(String filePathTPed, String filePathTFam,
+			SnpListFile snpListFile, PlinkSampleListFile keepRemoveSamples,
+			CommandLineOptions options, boolean byChromosome)
+			throws PriorityPrunerException {
+		super(keepRemoveSamples, options);
+
+		LogWriter.getLogger().info("Reading pedigree information from [ " + filePathTFam + " ]");
+		parseTfam(filePathTFam);
+		setKeepRemove();
+		ArrayList<SnpListFile> snpListFiles = new ArrayList<SnpListFile>(
+				Collections.singletonList(snpListFile));
+		if (byChromosome) {
+			openTped(filePathTPed, snpListFiles);
+		} else {
+			parseTped(filePathTPed, snpListFiles);
+		}
+	}
+
+	/**
+	 * Returns the genotypes of the SNPs in one of the SNP input files this
+	 * object was parsed for.
+	 * 
+	 * @param table
+	 *            index of the SNP input file
+	 * @return Genotypes-object with the SNPs of the SNP input file
+	 */
+	public Genotypes getTableGenotypes(int table) {
+		return new Genotypes(this, tableSnpGenotypes.get(table));
 	}
 
 	/**
@@ -304,33 +407,151 @@ public class TPlink extends Genotypes {
 	 * 
 	 * @param filePath
 	 *            relative or absolute file path for tped file
-	 * @param snpListFile
-	 *            relative or absolute file path for SNP input file
+	 * @param snpListFiles
+	 *            SNP input files
 	 * @throws PriorityPrunerException
 	 *             if any problems are encountered during parsing
 	 */
-	private void parseTped(String filePath, SnpListFile snpListFile)
+	private void parseTped(String filePath, ArrayList<SnpListFile> snpListFiles)
 			throws PriorityPrunerException {
-		BufferedReader reader = null;
-		//HashMap<String,Integer> uniqueSnpNameHash = new HashMap<String,Integer>();
+		openTped(filePath, snpListFiles);
+		try {
+			parseTpedLines(false);
+			logTpedSummary();
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not open file: "
+					+ e.getMessage());
+		} finally {
+			closeTped();
+		}
+	}
+
+	/**
+	 * Parses the SNPs of the next chromosome of the tped file, when the tped
+	 * file is parsed one chromosome at a time. The lines of a chromosome must
+	 * be next to each other in the tped file. Chromosomes without any SNPs
+	 * from the SNP input file are skipped.
+	 * 
+	 * @return Genotypes-object with the SNPs of the next chromosome, or null
+	 *         if there are no more chromosomes
+	 * @throws PriorityPrunerException
+	 *             if any problems are encountered during parsing, or if the
+	 *             tped file isn't sorted by chromosome
+	 */
+	public Genotypes nextChromosome() throws PriorityPrunerException {
+		ArrayList<SnpGenotypes> chromosomeSnpGenotypes = new ArrayList<SnpGenotypes>();
+		tableSnpGenotypes.set(0, chromosomeSnpGenotypes);
+		boolean done = false;
+		try {
+			while (chromosomeSnpGenotypes.isEmpty() && tpedReader != null) {
+				if (!parseTpedLines(true)) {
+					logTpedSummary();
+					closeTped();
+				}
+			}
+			done = true;
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not open file: "
+					+ e.getMessage());
+		} finally {
+			if (!done) {
+				closeTped();
+			}
+		}
+		if (chromosomeSnpGenotypes.isEmpty()) {
+			return null;
+		}
+		return new Genotypes(this, chromosomeSnpGenotypes);
+	}
+
+	/**
+	 * Opens the tped file for parsing.
+	 * 
+	 * @param filePath
+	 *            relative or absolute file path for tped file
+	 * @param snpListFiles
+	 *            SNP input files
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be opened
+	 */
+	private void openTped(String filePath, ArrayList<SnpListFile> snpListFiles)
+			throws PriorityPrunerException {
+		this.tpedFilePath = filePath;
+		this.snpListFiles = snpListFiles;
+		notFoundInSnpInputTable = new int[snpListFiles.size()];
+		numIncluded = new int[snpListFiles.size()];
+		for (int table = 0; table < snpListFiles.size(); table++) {
+			tableSnpGenotypes.add(table == 0 ? snpGenotypes
+					: new ArrayList<SnpGenotypes>());
+		}
+		try {
+			tpedReader = new BufferedReader(new FileReader(filePath));
+		} catch (FileNotFoundException e) {
+			throw new PriorityPrunerException("Could not open file: "
+					+ e.getMessage());
+		}
+
+		LogWriter.getLogger().info("Reading genotypes from [ " + filePath + " ]");
 		
-		int notFoundInSnpInputTable = 0;
+		if (this.options.getChr() != null){
+			LogWriter.getLogger().info("Extracting SNPs from chromosome " + this.options.getChr());
+		}
+	}
+
+	/**
+	 * Closes the tped file, if it's open.
+	 */
+	private void closeTped() {
 		try {
-			reader = new BufferedReader(new FileReader(filePath));
-			int line = 1;
+			if (tpedReader != null){
+				tpedReader.close();
+			}
+		} catch (IOException e) {
+		}
+		tpedReader = null;
+	}
 
-			LogWriter.getLogger().info("Reading genotypes from [ " + filePath + " ]");
+	/**
+	 * Logs the number of SNPs included from the tped file, once it's parsed.
+	 */
+	private void logTpedSummary() {
+		for (int table = 0; table < snpListFiles.size(); table++) {
+			LogWriter.getLogger().info("Excluding " + notFoundInSnpInputTable[table] + " SNPs missing from [ " + snpListFiles.get(table).getFilePath() + " ]");
 			
-			if (this.options.getChr() != null){
-				LogWriter.getLogger().info("Extracting SNPs from chromosome " + this.options.getChr());
-			}
-			while (reader.ready()) {
-				String[] splitString = reader.readLine().split(delim);
+			
+			LogWriter.getLogger().info(numIncluded[table] + " (of " + (tpedLine - 1) + ") SNPs to be included from [ " + tpedFilePath + " ]");
+		}
+	}
+
+	/**
+	 * Parses lines of the tped file, up to the end of the file, or up to the
+	 * end of the current chromosome if parsing one chromosome at a time. In
+	 * the latter case, the first line of the next chromosome is kept until
+	 * this method is called again.
+	 * 
+	 * @param byChromosome
+	 *            true if parsing should stop at the end of the chromosome
+	 * @return true if parsing stopped at the end of a chromosome, false if it
+	 *         reached the end of the file
+	 * @throws PriorityPrunerException
+	 *             if any problems are encountered during parsing
+	 * @throws IOException
+	 *             if the file couldn't be read
+	 */
+	private boolean parseTpedLines(boolean byChromosome)
+			throws PriorityPrunerException, IOException {
+		// chromosome of the lines parsed by this call, if parsing by chromosome
+		int chrCode = -1;
+		while (nextTpedLine != null || tpedReader.ready()) {
+			String[] splitString = nextTpedLine;
+			nextTpedLine = null;
+			if (splitString == null) {
+				splitString = tpedReader.readLine().split(delim);
 				// checks that no double tabs or spaces been entered in tped file
 				for (String str : splitString) {
 					if (str.length() == 0) {
 						throw new PriorityPrunerException(
-								"Problem with line " + line + " in [ " + filePath + " ]\r\n"
+								"Problem with line " + tpedLine + " in [ " + tpedFilePath + " ]\r\n"
 										+ "Ensure values are separated by a single space or tab character.");
 					}
 				}
@@ -339,141 +560,169 @@ public class TPlink extends Genotypes {
 				int expectedColumns = individuals.size() * 2 + 4;
 				if (splitString.length != expectedColumns) {
 					throw new PriorityPrunerException(
-							"Problem with line " + line + " in [ " + filePath + " ]\r\n"
+							"Problem with line " + tpedLine + " in [ " + tpedFilePath + " ]\r\n"
 									+ "Expecting 4 + 2 * " + individuals.size() + " = " + expectedColumns
 									+ " columns, but found " + splitString.length);
 				}
+			}
 
-				// stores chromosome X as "23"
-				String chr = new String(splitString[0]);
-//				if (chr.toUpperCase().equals("X")
-//						|| chr.toUpperCase().equals("CHRX")
-//						|| chr.toUpperCase().equals("23")) {
-//					chr = "23";
-//				}
+			// stores chromosome X as "23"
+			String chr = new String(splitString[0]);
+//			if (chr.toUpperCase().equals("X")
+//					|| chr.toUpperCase().equals("CHRX")
+//					|| chr.toUpperCase().equals("23")) {
+//				chr = "23";
+//			}
 
-				// checks if all chromosomes should be parsed or if a specific
-				// chromosome is specified in command line, and if it in that
-				// case matches the chromosome on the line in the tped where
-				// we are. If it does - continue parsing this line, else - go to
-				// next line
-				if (this.options.getChr() == null
+			// checks if all chromosomes should be parsed or if a specific
+			// chromosome is specified in command line, and if it in that
+			// case matches the chromosome on the line in the tped where
+			// we are. If it does - continue parsing this line, else - go to
+			// next line
+			if (!chr.equals(lastChr)) {
+				lastChr = chr;
+				lastChrCode = ChromosomeDictionary.getInstance().findCode(chr);
+				lastChrIncluded = this.options.getChr() == null
 						|| chr.toUpperCase().equals(
-								this.options.getChr()
-										.toUpperCase())) {
-					
-					String snpName = new String(splitString[1]);
-					
-//					//make sure there are no duplicate snps
-//					if (uniqueSnpNameHash.containsKey(snpName)){
-//						throw new PriorityPrunerException("Duplicate SNP found in tped file: " + snpName);
-//					}else{
-//						uniqueSnpNameHash.put(snpName, 0);
-//					}
-					
-					int pos;
-					try {
-						pos = Integer.parseInt(new String(splitString[3]));
-						if (pos < 1){
-							throw new NumberFormatException();
-						}
-					} catch (NumberFormatException e) {
-						throw new PriorityPrunerException(
-								"Problem with line " + line + " in [ " + filePath + " ]\r\n"
-								+ "Invalid value: \""
-										+ splitString[3]
-										+ "\", specified for position in column 4.");
-					}
-					String allele1 = "0";
-					String allele2 = "0";
-					String[] genotypes = new String[2 * keptFounders.size()];
-					int individualIndex = 0;
-					int genotypesIndex = 0;
-
-					// goes through genotypes for this SNP (from individuals
-					// that are set to be kept) and checks that no more than two
-					// alleles are provided. Correct genotypes are also stored
-					// in a String-array which will be saved together with other
-					// info in a SnpGenotypes-object.
-					for (int k = 4; k < splitString.length; k += 2) {
-						Individual individual = individuals.get(individualIndex);
-						if (individual.getKeep()) {
-
-							for (int j = 0; j < 2; j++) {
-								if (allele1.equals("0")) {
-									allele1 = new String(splitString[k + j]);
-								} else if (allele2.equals("0")
-										&& !allele1.equals(splitString[k + j])) {
-									allele2 = new String(splitString[k + j]);
-								}
-								if (!allele1.equals(splitString[k + j])
-										&& !allele2.equals(splitString[k + j])
-										&& !splitString[k + j].equals("0")) {
-									reader.close();
-									throw new PriorityPrunerException(
-											"Locus " + snpName + " has >2 alleles:\r\n"
-													+ "individual " + individual.getFamilyID() + " " + individual.getIndividualID() 
-													+ " has genotype [ " + splitString[k] + " " + splitString[k + 1] + " ]\r\n"
-													+ "but we've already seen [ " + allele1 + " ] and [ " + allele2 + " ]");
-								}
-								genotypes[genotypesIndex] = new String(
-										splitString[k + j]);
-								genotypesIndex++;
-							}
+								this.options.getChr().toUpperCase());
+			}
+			if (lastChrIncluded) {
+				
+				// stops at the first line of the next chromosome, if parsing
+				// by chromosome. Lines of chromosomes without SNPs in the SNP
+				// input file don't matter.
+				if (byChromosome && lastChrCode >= 0) {
+					if (chrCode == -1) {
+						if (!parsedChrCodes.add(lastChrCode)) {
+							throw new PriorityPrunerException(
+									"Problem with line " + tpedLine + " in [ " + tpedFilePath + " ]\r\n"
+											+ "Chromosome " + chr + " was already read, but the --stream option requires a tped file sorted by chromosome.");
 						}
-						individualIndex++;
+						chrCode = lastChrCode;
+					} else if (lastChrCode != chrCode) {
+						nextTpedLine = splitString;
+						return true;
 					}
+				}
+				parseTpedLine(splitString);
+			}
+			tpedLine++;
+		}
+		return false;
+	}
 
-					// gets SnpInfo-object from SnpListFile, if there is a
-					// matching SNP in there
-					SnpInfo snpInfo = snpListFile.getSnpInfo(snpName, chr, pos,
-							allele1, allele2);
-
-					// if the SnpInfo-object we got from SnpListFile is
-					// not null, we incorporate it in a SnpGenotypes-object
-					if (snpInfo != null) {
-						SnpGenotypes snpGenotypesLocal = new SnpGenotypes(
-								snpName, snpInfo, allele1, allele2, genotypes);
-						if (snpInfo.getSnpGenotypes() != null){
-							throw new PriorityPrunerException(
-									"Duplicated SNP \""
-											+ snpName
-											+ "\" at line "
-											+ line
-											+ " in TPED file. " 
-											+ "The combination of snpname, chr, pos, allele1/allele2 must be unique.");
-						}
-						snpInfo.setSnpGenotypes(snpGenotypesLocal);
-						snpInfo.setInTped(true);
-						snpGenotypes.add(snpGenotypesLocal);
-					}else{
-						notFoundInSnpInputTable++;
+	/**
+	 * Parses a line of the tped file, storing the genotypes of the SNP if it's
+	 * in any of the SNP input files.
+	 * 
+	 * @param splitString
+	 *            columns of the line
+	 * @throws PriorityPrunerException
+	 *             if any problems are encountered during parsing
+	 */
+	private void parseTpedLine(String[] splitString)
+			throws PriorityPrunerException {
+		String snpName = new String(splitString[1]);
+		
+//		//make sure there are no duplicate snps
+//		if (uniqueSnpNameHash.containsKey(snpName)){
+//			throw new PriorityPrunerException("Duplicate SNP found in tped file: " + snpName);
+//		}else{
+//			uniqueSnpNameHash.put(snpName, 0);
+//		}
+		
+		int pos;
+		try {
+			pos = Integer.parseInt(new String(splitString[3]));
+			if (pos < 1){
+				throw new NumberFormatException();
+			}
+		} catch (NumberFormatException e) {
+			throw new PriorityPrunerException(
+					"Problem with line " + tpedLine + " in [ " + tpedFilePath + " ]\r\n"
+					+ "Invalid value: \""
+							+ splitString[3]
+							+ "\", specified for position in column 4.");
+		}
+		String allele1 = "0";
+		String allele2 = "0";
+		String[] genotypes = new String[2 * keptFounders.size()];
+		int individualIndex = 0;
+		int genotypesIndex = 0;
+
+		// goes through genotypes for this SNP (from individuals
+		// that are set to be kept) and checks that no more than two
+		// alleles are provided. Correct genotypes are also stored
+		// in a String-array which will be saved together with other
+		// info in a SnpGenotypes-object.
+		for (int k = 4; k < splitString.length; k += 2) {
+			Individual individual = individuals.get(individualIndex);
+			if (individual.getKeep()) {
+
+				for (int j = 0; j < 2; j++) {
+					if (allele1.equals("0")) {
+						allele1 = new String(splitString[k + j]);
+					} else if (allele2.equals("0")
+							&& !allele1.equals(splitString[k + j])) {
+						allele2 = new String(splitString[k + j]);
 					}
+					if (!allele1.equals(splitString[k + j])
+							&& !allele2.equals(splitString[k + j])
+							&& !splitString[k + j].equals("0")) {
+						throw new PriorityPrunerException(
+								"Locus " + snpName + " has >2 alleles:\r\n"
+										+ "individual " + individual.getFamilyID() + " " + individual.getIndividualID() 
+										+ " has genotype [ " + splitString[k] + " " + splitString[k + 1] + " ]\r\n"
+										+ "but we've already seen [ " + allele1 + " ] and [ " + allele2 + " ]");
+					}
+					genotypes[genotypesIndex] = new String(
+							splitString[k + j]);
+					genotypesIndex++;
 				}
-				line++;
-				splitString = null;
 			}
-			
-			
-			LogWriter.getLogger().info("Excluding " + notFoundInSnpInputTable + " SNPs missing from [ " + snpListFile.getFilePath() + " ]");
-			
-			
-			LogWriter.getLogger().info(snpGenotypes.size() + " (of " + (line - 1) + ") SNPs to be included from [ " + filePath + " ]");
-			
-		} catch (FileNotFoundException e) {
-			throw new PriorityPrunerException("Could not open file: "
-					+ e.getMessage());
-		} catch (IOException e) {
-			throw new PriorityPrunerException("Could not open file: "
-					+ e.getMessage());
-		} catch (PriorityPrunerException e){
-			throw e;
-		} finally{
-			try {
-				if (reader != null){
-					reader.close();
+			individualIndex++;
+		}
+
+		// gets SnpInfo-object from each SnpListFile, if there is a
+		// matching SNP in there, and incorporates it in a
+		// SnpGenotypes-object. The genotypes are only compressed
+		// for the first match, and shared by the other matches.
+		SnpGenotypes parsedGenotypes = null;
+		for (int table = 0; table < snpListFiles.size(); table++) {
+			SnpInfo snpInfo = null;
+			if (lastChrCode >= 0) {
+				snpInfo = snpListFiles.get(table).getSnpInfo(snpName,
+						lastChrCode, pos, allele1, allele2);
+			}
+
+			// if the SnpInfo-object we got from SnpListFile is
+			// not null, we incorporate it in a SnpGenotypes-object
+			if (snpInfo != null) {
+				SnpGenotypes snpGenotypesLocal;
+				if (parsedGenotypes == null) {
+					snpGenotypesLocal = new SnpGenotypes(snpName,
+							snpInfo, allele1, allele2, genotypes);
+					snpGenotypesLocal.setRowIndex(tpedLine - 1);
+					parsedGenotypes = snpGenotypesLocal;
+				} else {
+					snpGenotypesLocal = new SnpGenotypes(
+							parsedGenotypes, snpInfo);
 				}
-			} catch (IOException e) {
+				if (snpInfo.getSnpGenotypes() != null){
+					throw new PriorityPrunerException(
+							"Duplicated SNP \""
+									+ snpName
+									+ "\" at line "
+									+ tpedLine
+									+ " in TPED file. " 
+									+ "The combination of snpname, chr, pos, allele1/allele2 must be unique.");
+				}
+				snpInfo.setSnpGenotypes(snpGenotypesLocal);
+				snpInfo.setInTped(true);
+				tableSnpGenotypes.get(table).add(snpGenotypesLocal);
+				numIncluded[table]++;
+			}else{
+				notFoundInSnpInputTable[table]++;
 			}
 		}
 	}
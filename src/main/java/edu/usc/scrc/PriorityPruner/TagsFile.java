@@ -0,0 +1,119 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/***
+ * This class writes the tags file to disk, which lists every time a SNP was
+ * tagged during pruning (--tags option), whereas the results file only lists
+ * the best tag of each SNP.
+ * 
+ * The file is tab-delimited, with a header line and the following columns:
+ * tagged SNP name, tagged SNP chromosome, tagged SNP position, tagging
+ * (selected) SNP name, tagging SNP chromosome, tagging SNP position, and
+ * pairwise r^2. The rows are in the order the tags were made.
+ * 
+ * Like the LD file, this file can be quite large, so the tags are written as
+ * they're made rather than stored in memory.
+ */
+public class TagsFile {
+
+	private String filePath;
+	private BufferedWriter writer = null;
+	private NumberFormatter formatter = null;
+
+	/**
+	 * Constructor for TagsFile. Creates the file and writes its header line,
+	 * overwriting already existing file with same name. The file is kept open
+	 * until close() is called.
+	 * 
+	 * @param filePath
+	 *            path of the tags file
+	 * @param precision
+	 *            number of decimal places of the r^2 values, or
+	 *            NumberFormatter.SHORTEST
+	 * @throws PriorityPrunerException
+	 *             if new file couldn't be created
+	 */
+	public TagsFile(String filePath, int precision)
+			throws PriorityPrunerException {
+		this.filePath = filePath;
+		this.formatter = new NumberFormatter(precision);
+		try {
+			LogWriter.getLogger().info("Writing tags to [ " + filePath + " ]");
+			writer = new BufferedWriter(new FileWriter(new File(filePath)));
+			writer.write("snp_name" + "\t" + "snp_chr" + "\t" + "snp_pos" + "\t"
+					+ "tag_snp_name" + "\t" + "tag_snp_chr" + "\t" + "tag_snp_pos"
+					+ "\t" + "r^2" + "\n");
+		} catch (IOException e) {
+			close();
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage());
+		}
+	}
+
+	/***
+	 * Writes one tag to the file.
+	 * 
+	 * @param snp
+	 *            the tagged SNP
+	 * @param taggedBy
+	 *            the SNP tagging it
+	 * @param rSquared
+	 *            r^2 between the two SNPs
+	 * @throws PriorityPrunerException
+	 *             if the tag couldn't be written
+	 */
+	public void writeTag(SnpInfo snp, SnpInfo taggedBy, double rSquared)
+			throws PriorityPrunerException {
+		try {
+			writer.write(snp.getSnpName() + "\t" + snp.getChr() + "\t"
+					+ snp.getPos() + "\t" + taggedBy.getSnpName() + "\t"
+					+ taggedBy.getChr() + "\t" + taggedBy.getPos() + "\t");
+			formatter.write(rSquared, writer);
+			writer.write('\n');
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not write to file "
+					+ filePath + ": " + e.getMessage());
+		}
+	}
+
+	/***
+	 * Closes this file.
+	 */
+	public void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			writer = null;
+		}
+	}
+}
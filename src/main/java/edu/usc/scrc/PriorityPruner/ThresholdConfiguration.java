@@ -0,0 +1,70 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.util.ArrayList;
+
+/**
+ * This class stores a named configuration of r^2 thresholds and surrogate
+ * thresholds, as defined on a line of the sweep file (see the --sweep option).
+ */
+public class ThresholdConfiguration {
+
+	private String name;
+	private ArrayList<R2Threshold> sortedR2Thresholds;
+	private ArrayList<SurrogateThreshold> sortedSurrogateThresholds;
+
+	/**
+	 * Constructor for ThresholdConfiguration.
+	 * 
+	 * @param name
+	 *            name of this configuration, used in the name of its results
+	 *            file
+	 * @param sortedR2Thresholds
+	 *            r^2 thresholds, sorted by p-value
+	 * @param sortedSurrogateThresholds
+	 *            surrogate thresholds, sorted by p-value
+	 */
+	public ThresholdConfiguration(String name,
+			ArrayList<R2Threshold> sortedR2Thresholds,
+			ArrayList<SurrogateThreshold> sortedSurrogateThresholds) {
+		this.name = name;
+		this.sortedR2Thresholds = sortedR2Thresholds;
+		this.sortedSurrogateThresholds = sortedSurrogateThresholds;
+	}
+
+	// public getters for private fields of this class
+
+	public String getName() {
+		return name;
+	}
+
+	public ArrayList<R2Threshold> getSortedR2Thresholds() {
+		return sortedR2Thresholds;
+	}
+
+	public ArrayList<SurrogateThreshold> getSortedSurrogateThresholds() {
+		return sortedSurrogateThresholds;
+	}
+}
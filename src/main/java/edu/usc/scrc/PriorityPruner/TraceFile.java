@@ -0,0 +1,342 @@
+/**
+Copyright (c) 2016 Christopher K. Edlund, Malin Anker, Fredrick R. Schumacher, W. James Gauderman, David V. Conti,
+University of Southern California,
+Los Angeles, CA  90033, USA.
+
+The MIT License (MIT)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+
+package edu.usc.scrc.PriorityPruner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class records the decisions made while pruning (specified by the
+ * --trace option) in a compact binary file, as an alternative to the debug
+ * messages of --verbose. Recording a decision only copies a few numbers into a
+ * block, and full blocks are written to the file by a separate thread, so
+ * tracing hardly slows pruning down. The trace subcommand renders a trace file
+ * as tab-delimited text.
+ * 
+ * A trace file starts with the magic number, the format version, the names of
+ * the threshold configurations (an empty name when the thresholds of the
+ * command line are used) and the names of the SNPs, sorted by chromosome and
+ * position. Then follows one record per decision, holding the event, the
+ * ordinal of the configuration, the ordinal of the index SNP and of the
+ * partner SNP (-1 if none), and r^2 and the r^2 threshold (as single precision
+ * numbers, NaN if not applicable). All numbers are big-endian.
+ */
+public class TraceFile {
+
+	// "PPTR"
+	static final int MAGIC = 0x50505452;
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 19;
+	private static final int BLOCK_SIZE = RECORD_SIZE * 4096;
+	private static final int MAX_PENDING = 4;
+
+	// the index SNP was skipped, as it's already picked or tagged
+	static final byte SKIP_TAGGED = 0;
+	// the index SNP was skipped, as its design score is below the minimum
+	static final byte SKIP_DESIGN_SCORE = 1;
+	// the index SNP was skipped, as it fails the MAF, HWE or call rate filters
+	static final byte SKIP_FILTERS = 2;
+	// the index SNP was picked, with the r^2 threshold of its p-value
+	static final byte INDEX = 3;
+	// the partner SNP was picked as a surrogate of the index SNP
+	static final byte SURROGATE = 4;
+	// the partner SNP was tagged by the index SNP
+	static final byte TAG = 5;
+	private static final String[] EVENT_NAMES = { "skip_tagged",
+			"skip_design_score", "skip_filters", "index", "surrogate", "tag" };
+
+	private String filePath;
+	private FileChannel channel;
+	private ExecutorService executor;
+	// blocks being written, in order, each returning its (cleared) buffer
+	private ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+	private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+	private boolean closed = false;
+
+	/**
+	 * Constructor for TraceFile. Creates the file and writes its header.
+	 * 
+	 * @param filePath
+	 *            path of the trace file
+	 * @param states
+	 *            the pruning states of the threshold configurations
+	 * @param snps
+	 *            the SNPs, sorted by chromosome and position
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be created
+	 */
+	public TraceFile(String filePath, ArrayList<PruningState> states,
+			ArrayList<SnpInfo> snps) throws PriorityPrunerException {
+		this.filePath = filePath;
+		LogWriter.getLogger().info("Writing trace to [ " + filePath + " ]");
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(filePath)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(states.size());
+				for (PruningState state : states) {
+					String name = state.getConfiguration().getName();
+					out.writeUTF(name == null ? "" : name);
+				}
+				out.writeInt(snps.size());
+				for (SnpInfo snp : snps) {
+					out.writeUTF(snp.getSnpName());
+				}
+			} finally {
+				out.close();
+			}
+			RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+			channel = file.getChannel();
+			channel.position(channel.size());
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not create file: "
+					+ e.getMessage());
+		}
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Records a decision.
+	 * 
+	 * @param event
+	 *            the event, e.g. INDEX or TAG
+	 * @param configuration
+	 *            ordinal of the threshold configuration
+	 * @param indexSnp
+	 *            the index SNP
+	 * @param partnerSnp
+	 *            the partner SNP, or null if none
+	 * @param rSquared
+	 *            r^2 between the SNPs, or NaN if not applicable
+	 * @param r2Threshold
+	 *            the r^2 threshold of the index SNP, or NaN if not applicable
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be written
+	 */
+	public void record(byte event, int configuration, SnpInfo indexSnp,
+			SnpInfo partnerSnp, double rSquared, double r2Threshold)
+			throws PriorityPrunerException {
+		if (block.remaining() < RECORD_SIZE) {
+			submitBlock();
+		}
+		block.put(event);
+		block.putShort((short) configuration);
+		block.putInt(indexSnp.getSortedByPosIndex());
+		block.putInt(partnerSnp == null ? -1 : partnerSnp.getSortedByPosIndex());
+		block.putFloat((float) rSquared);
+		block.putFloat((float) r2Threshold);
+	}
+
+	/**
+	 * Writes the remaining records and closes the file.
+	 * 
+	 * @throws PriorityPrunerException
+	 *             if the remaining records couldn't be written
+	 */
+	public void close() throws PriorityPrunerException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (block.position() > 0) {
+				submitBlock();
+			}
+			while (!pending.isEmpty()) {
+				waitForNextBlock();
+			}
+		} finally {
+			executor.shutdownNow();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new PriorityPrunerException("Could not write to trace file "
+						+ filePath + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Hands the current block to the writer thread, first waiting for the
+	 * oldest block if too many are pending, and reusing its buffer.
+	 */
+	private void submitBlock() throws PriorityPrunerException {
+		ByteBuffer next = null;
+		while (pending.size() >= MAX_PENDING) {
+			next = waitForNextBlock();
+		}
+		final ByteBuffer full = block;
+		full.flip();
+		pending.add(executor.submit(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() throws IOException {
+				while (full.hasRemaining()) {
+					channel.write(full);
+				}
+				full.clear();
+				return full;
+			}
+		}));
+		block = next != null ? next : ByteBuffer.allocate(BLOCK_SIZE);
+	}
+
+	/**
+	 * Waits until the oldest pending block is written, and returns its buffer.
+	 */
+	private ByteBuffer waitForNextBlock() throws PriorityPrunerException {
+		try {
+			return pending.remove().get();
+		} catch (InterruptedException e) {
+			throw new PriorityPrunerException("Interrupted while writing trace file "
+					+ filePath);
+		} catch (ExecutionException e) {
+			throw new PriorityPrunerException("Could not write to trace file "
+					+ filePath + ": " + e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Renders a trace file as tab-delimited text, one line per decision.
+	 * 
+	 * @param filePath
+	 *            path of the trace file
+	 * @param out
+	 *            the stream to print to
+	 * @throws PriorityPrunerException
+	 *             if the file couldn't be read, or isn't a trace file
+	 */
+	public static void render(String filePath, PrintStream out)
+			throws PriorityPrunerException {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(filePath), 1 << 16));
+			if (in.readInt() != MAGIC) {
+				throw new PriorityPrunerException(filePath + " is not a trace file.");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new PriorityPrunerException("Unsupported trace file version "
+						+ version + ".");
+			}
+			String[] configurations = new String[in.readInt()];
+			for (int i = 0; i < configurations.length; i++) {
+				configurations[i] = in.readUTF();
+				if (configurations[i].isEmpty()) {
+					configurations[i] = "NA";
+				}
+			}
+			String[] snpNames = new String[in.readInt()];
+			for (int i = 0; i < snpNames.length; i++) {
+				snpNames[i] = in.readUTF();
+			}
+
+			out.print("configuration\tevent\tindex_snp_name\tpartner_snp_name\tr^2\tr^2_threshold\n");
+			byte[] record = new byte[RECORD_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			StringBuilder line = new StringBuilder();
+			while (readRecord(in, record)) {
+				buffer.rewind();
+				int event = buffer.get();
+				int configuration = buffer.getShort() & 0xffff;
+				int indexSnp = buffer.getInt();
+				int partnerSnp = buffer.getInt();
+				float rSquared = buffer.getFloat();
+				float r2Threshold = buffer.getFloat();
+				if (event < 0 || event >= EVENT_NAMES.length
+						|| configuration < 0 || configuration >= configurations.length
+						|| indexSnp < 0 || indexSnp >= snpNames.length
+						|| partnerSnp < -1 || partnerSnp >= snpNames.length) {
+					throw new PriorityPrunerException("Invalid record in trace file "
+							+ filePath + ".");
+				}
+				line.setLength(0);
+				line.append(configurations[configuration]).append('\t')
+						.append(EVENT_NAMES[event]).append('\t')
+						.append(snpNames[indexSnp]).append('\t')
+						.append(partnerSnp < 0 ? "NA" : snpNames[partnerSnp]).append('\t');
+				appendFloat(line, rSquared).append('\t');
+				appendFloat(line, r2Threshold).append('\n');
+				out.append(line);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new PriorityPrunerException("Could not read trace file "
+					+ filePath + ": " + e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the next record, returning false at the end of the file.
+	 */
+	private static boolean readRecord(DataInputStream in, byte[] record)
+			throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return false;
+		}
+		record[0] = (byte) first;
+		try {
+			in.readFully(record, 1, RECORD_SIZE - 1);
+		} catch (EOFException e) {
+			throw new IOException("The last record is incomplete.");
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a single precision number in its shortest form, or NA for NaN.
+	 */
+	private static StringBuilder appendFloat(StringBuilder line, float value) {
+		return Float.isNaN(value) ? line.append("NA") : line.append(value);
+	}
+}
@@ -0,0 +1,100 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/***
+ * This test writes a small table with ArrowFileWriter, and verifies the
+ * layout of the Arrow IPC file: the magic numbers, the footer, and the
+ * dictionary and record batch messages it locates.
+ */
+public class ArrowFileWriterTest {
+
+	/***
+	 * Test that the footer locates one dictionary and two record batches
+	 */
+	@Test
+	public void testWrite() throws Exception {
+		File file = File.createTempFile("ArrowFileWriterTest", ".arrow");
+		file.deleteOnExit();
+		String[] names = { "name", "pos", "flag", "r^2" };
+		int[] types = { ArrowFileWriter.DICTIONARY, ArrowFileWriter.INT32,
+				ArrowFileWriter.INT8, ArrowFileWriter.FLOAT32 };
+		String[][] dictionaries = { { "a", "b" }, null, null, null };
+		ArrowFileWriter writer = new ArrowFileWriter(file.getPath(), names,
+				types, dictionaries, 2);
+		for (int row = 0; row < 3; row++) {
+			writer.setInt(row == 2 ? -1 : row);
+			writer.setInt(100 * row);
+			writer.setInt(row % 2);
+			writer.setFloat(row == 1 ? Float.NaN : 0.5f);
+			writer.endRow();
+		}
+		writer.finish();
+
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		int length = data.capacity();
+		assertEquals("ARROW1", new String(data.array(), 0, 6, "US-ASCII"));
+		assertEquals("ARROW1", new String(data.array(), length - 6, 6, "US-ASCII"));
+
+		// the footer flatbuffer precedes its length and the magic number
+		int footerLength = data.getInt(length - 10);
+		int footer = length - 10 - footerLength;
+		int table = footer + data.getInt(footer);
+		int vtable = checkRootTable(data, footer, 4);
+		assertEquals(4, data.getShort(table + data.getShort(vtable + 4)));
+		int[] expectedBlocks = { 1, 2 };
+		for (int field = 2; field <= 3; field++) {
+			int fieldOffset = table + data.getShort(vtable + 4 + 2 * field);
+			int vector = fieldOffset + data.getInt(fieldOffset);
+			int numBlocks = data.getInt(vector);
+			assertEquals(expectedBlocks[field - 2], numBlocks);
+			for (int i = 0; i < numBlocks; i++) {
+				int block = vector + 4 + 24 * i;
+				assertEquals(0, block % 8);
+				long offset = data.getLong(block);
+				int metadataLength = data.getInt(block + 8);
+				long bodyLength = data.getLong(block + 16);
+				assertEquals(0, offset % 8);
+				assertEquals(0, bodyLength % 8);
+				assertEquals(0xFFFFFFFF, data.getInt((int) offset));
+				assertEquals(metadataLength - 8, data.getInt((int) offset + 4));
+				assertTrue(offset + metadataLength + bodyLength <= footer);
+
+				// the Message header: version, header type, header and body
+				// length
+				int message = (int) offset + 8;
+				int messageTable = message + data.getInt(message);
+				int messageVtable = checkRootTable(data, message, 4);
+				assertEquals(bodyLength, data.getLong(messageTable
+						+ data.getShort(messageVtable + 4 + 2 * 3)));
+			}
+		}
+	}
+
+	/***
+	 * Checks the root table of a flatbuffer: its vtable follows the offset of
+	 * the root table and precedes the table, and holds its own size and the
+	 * (nonzero) size of the table
+	 * 
+	 * @return the offset of the vtable
+	 */
+	private static int checkRootTable(ByteBuffer data, int start, int numFields) {
+		int table = start + data.getInt(start);
+		int vtable = table - data.getInt(table);
+		assertTrue(vtable >= start + 4);
+		assertEquals(0, vtable % 2);
+		int vtableSize = data.getShort(vtable);
+		assertEquals(4 + 2 * numFields, vtableSize);
+		assertTrue(vtable + vtableSize <= table);
+		assertTrue(data.getShort(vtable + 2) > 0);
+		return vtable;
+	}
+}
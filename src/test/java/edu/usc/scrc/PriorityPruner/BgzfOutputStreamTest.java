@@ -0,0 +1,92 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/***
+ * This test writes compressible and incompressible data through a
+ * BgzfOutputStream with several threads, and verifies that it's read back by
+ * GZIPInputStream, and that the output is a sequence of BGZF blocks ending
+ * with the end of file block.
+ */
+public class BgzfOutputStreamTest {
+
+	/***
+	 * Test that data spanning many blocks is read back in order
+	 */
+	@Test
+	public void testWriteAndRead() throws Exception {
+		Random random = new Random(42);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		BgzfOutputStream out = new BgzfOutputStream(compressed, 3);
+		for (int i = 0; i < 20000; i++) {
+			byte[] row = ("rs" + i + "\t1\t" + (100 * i) + "\tA\tG\t"
+					+ random.nextDouble() + "\n").getBytes("US-ASCII");
+			out.write(row);
+			expected.write(row);
+			if (i == 10000) {
+				// ends the current block early
+				out.flush();
+			}
+		}
+		byte[] noise = new byte[200000];
+		random.nextBytes(noise);
+		out.write(noise);
+		expected.write(noise);
+		out.close();
+
+		byte[] bytes = compressed.toByteArray();
+		assertArrayEquals(expected.toByteArray(), decompress(bytes));
+
+		// walks the blocks by their sizes
+		int offset = 0;
+		int numBlocks = 0;
+		while (offset < bytes.length) {
+			assertEquals(0x1f, bytes[offset] & 0xff);
+			assertEquals(0x8b, bytes[offset + 1] & 0xff);
+			assertEquals('B', bytes[offset + 12]);
+			assertEquals('C', bytes[offset + 13]);
+			int blockSize = (bytes[offset + 16] & 0xff)
+					+ ((bytes[offset + 17] & 0xff) << 8) + 1;
+			assertTrue(blockSize <= BgzfOutputStream.MAX_BLOCK_SIZE);
+			offset += blockSize;
+			numBlocks++;
+		}
+		assertEquals(bytes.length, offset);
+		assertTrue(numBlocks > 10);
+		assertArrayEquals(BgzfOutputStream.EOF_BLOCK, Arrays.copyOfRange(bytes,
+				bytes.length - BgzfOutputStream.EOF_BLOCK.length, bytes.length));
+	}
+
+	/***
+	 * Test that a full block of incompressible data is stored in one block
+	 */
+	@Test
+	public void testIncompressibleBlock() throws Exception {
+		byte[] data = new byte[BgzfOutputStream.BLOCK_DATA_SIZE];
+		new Random(7).nextBytes(data);
+		byte[] block = BgzfOutputStream.compressBlock(data);
+		assertTrue(block.length <= BgzfOutputStream.MAX_BLOCK_SIZE);
+		assertArrayEquals(data, decompress(block));
+	}
+
+	private static byte[] decompress(byte[] bytes) throws Exception {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = in.read(buffer)) > 0) {
+			out.write(buffer, 0, length);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,74 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/***
+ * This test parses sweep files with invalid threshold configurations, and
+ * verifies that each is rejected with an error naming the problem.
+ */
+public class CommandLineOptionsTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/***
+	 * Test that a valid sweep file is parsed, taking unspecified thresholds
+	 * from the command line
+	 */
+	@Test
+	public void testSweepFile() throws Exception {
+		CommandLineOptions options = parseSweepFile("a --r2 0.2\nb --st 0.01 2\n");
+		assertEquals(2, options.getSweepConfigurations().size());
+		ThresholdConfiguration b = options.getSweepConfigurations().get(1);
+		assertEquals("b", b.getName());
+		assertEquals(0.5, b.getSortedR2Thresholds().get(0).getR2Threshold(), 0);
+		assertEquals(2, b.getSortedSurrogateThresholds().get(0).getNumSurrogates());
+	}
+
+	/***
+	 * Test that invalid sweep files are rejected
+	 */
+	@Test
+	public void testSweepFileErrors() throws Exception {
+		assertSweepFileError("a --r2 0.2\na --r2 0.3\n", "defined more than once");
+		assertSweepFileError("a --r2 0.2 --r2t 0.01 0.5\n", "can't both be specified");
+		assertSweepFileError("a --r2t 0.01\n", "Missing argument");
+		assertSweepFileError("a --st 0.01\n", "Missing argument");
+		assertSweepFileError("a --max_distance 1000\n", "Invalid option");
+		assertSweepFileError("# no configurations\n", "No threshold configurations");
+	}
+
+	/***
+	 * Parses the chr12 test dataset options with a sweep file
+	 */
+	private CommandLineOptions parseSweepFile(String contents) throws Exception {
+		File sweepFile = tempFolder.newFile();
+		Files.write(sweepFile.toPath(), contents.getBytes("UTF8"));
+		ClassLoader classLoader = getClass().getClassLoader();
+		String[] args = {
+				"--tped", classLoader.getResource("pp_1kgp3_yri_chr12_test.tped").getPath(),
+				"--tfam", classLoader.getResource("pp_1kgp3_yri_chr12_test.tfam").getPath(),
+				"--snp_table", classLoader.getResource("pp_1kgp3_yri_chr12_test.snp_input.txt").getPath(),
+				"--r2", "0.5",
+				"--sweep", sweepFile.getPath(),
+				"--out", new File(tempFolder.getRoot(), "out").getPath() };
+		return new CommandLineOptions(args);
+	}
+
+	private void assertSweepFileError(String contents, String expectedMessage)
+			throws Exception {
+		try {
+			parseSweepFile(contents);
+			fail("Expected the sweep file to be rejected: " + contents);
+		} catch (PriorityPrunerException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/***
+ * This test writes a small LD graph spanning two chromosomes to an LD store,
+ * and verifies that it's read back (with quantized r^2 and D' values), and
+ * that stores with other settings are rejected.
+ */
+public class LdStoreTest {
+
+	/***
+	 * Test that quantized values are rounded up by less than a quantization
+	 * step, so that values at a threshold are never read back below it
+	 */
+	@Test
+	public void testQuantize() {
+		assertEquals(0, LdStore.dequantize(LdStore.quantize(0)), 0);
+		assertEquals(0, LdStore.dequantize(LdStore.quantize(Double.NaN)), 0);
+		assertEquals(1, LdStore.dequantize(LdStore.quantize(1)), 0);
+		assertEquals(1, LdStore.dequantize(LdStore.quantize(1.2)), 0);
+		assertEquals(1, LdStore.dequantize(LdStore.quantize(0.999999)), 0);
+		assertTrue(LdStore.dequantize(LdStore.quantize(0.150001)) >= 0.150001);
+		for (double value = 0; value < 1; value += 0.001) {
+			double dequantized = LdStore.dequantize(LdStore.quantize(value));
+			assertTrue(dequantized >= value);
+			assertEquals(value, dequantized, 1 / 65535.0);
+		}
+		for (int level = 0; level <= 65535; level++) {
+			double value = level / 65535.0;
+			assertEquals(value, LdStore.dequantize(LdStore.quantize(value)), 0);
+		}
+	}
+
+	/***
+	 * Test that an LD graph is read back from a store
+	 */
+	@Test
+	public void testWriteAndOpen() throws Exception {
+		int chr1 = ChromosomeDictionary.getInstance().getCode("1");
+		int chr2 = ChromosomeDictionary.getInstance().getCode("2");
+		ArrayList<SnpInfo> snps = new ArrayList<SnpInfo>();
+		snps.add(new SnpInfo("a", chr1, 100, "A", "G", 0, false, 0, null));
+		snps.add(new SnpInfo("b", chr1, 200, "A", "G", 0, false, 0, null));
+		snps.add(new SnpInfo("c", chr1, 300, "A", "G", 0, false, 0, null));
+		snps.add(new SnpInfo("d", chr2, 100, "A", "G", 0, false, 0, null));
+		snps.add(new SnpInfo("e", chr2, 200, "A", "G", 0, false, 0, null));
+
+		// pairs a-b, a-c and d-e, in both directions
+		int[] rowStarts = { 0, 2, 3, 4, 5, 6 };
+		int[] partners = { 1, 2, 0, 0, 4, 3 };
+		double[] rSquared = { 0.5, 0.25, 0.51, 0.26, 1, 1 };
+		double[] dPrime = { 0.9, 0.8, 0.9, 0.8, 1, 1 };
+		LdGraph graph = new LdGraph(null, 0.2, rowStarts, partners, rSquared,
+				dPrime);
+
+		File file = File.createTempFile("LdStoreTest", ".ldstore");
+		file.deleteOnExit();
+		LdStore.write(file.getPath(), graph, snps, 42, 1000, true);
+
+		LdStore store = LdStore.open(file.getPath(), null, 42, 1000, 0.3, true);
+		assertNotNull(store);
+		assertEquals(5, store.getNumSnps());
+		assertEquals(6, store.getNumPairs());
+		assertEquals(0.2, store.getStoredMinRSquared(), 0);
+		for (int snp = 0; snp <= snps.size(); snp++) {
+			assertEquals(rowStarts[snp], store.getRowStart(snp));
+		}
+		for (int pair = 0; pair < partners.length; pair++) {
+			assertEquals(partners[pair], store.getPartner(pair));
+			assertTrue(store.getRSquared(pair) >= rSquared[pair]);
+			assertEquals(rSquared[pair], store.getRSquared(pair), 1 / 65535.0);
+			assertEquals(dPrime[pair], store.getDPrime(pair), 1 / 65535.0);
+		}
+
+		// other panel, maximum distance, lower minimum r^2
+		assertNull(LdStore.open(file.getPath(), null, 43, 1000, 0.3, true));
+		assertNull(LdStore.open(file.getPath(), null, 42, 2000, 0.3, true));
+		assertNull(LdStore.open(file.getPath(), null, 42, 1000, 0.1, true));
+
+		// D' is needed but not stored
+		File noDPrimeFile = File.createTempFile("LdStoreTest", ".ldstore");
+		noDPrimeFile.deleteOnExit();
+		LdStore.write(noDPrimeFile.getPath(), graph, snps, 42, 1000, false);
+		assertNull(LdStore.open(noDPrimeFile.getPath(), null, 42, 1000, 0.3, true));
+		assertNotNull(LdStore.open(noDPrimeFile.getPath(), null, 42, 1000, 0.3, false));
+	}
+}
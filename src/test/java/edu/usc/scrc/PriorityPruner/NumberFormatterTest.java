@@ -0,0 +1,72 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+/***
+ * This test verifies that NumberFormatter writes values exactly like
+ * Double.toString by default, and rounds them to a fixed number of decimal
+ * places otherwise.
+ */
+public class NumberFormatterTest {
+
+	/***
+	 * Test that the shortest form is the one written by Double.toString
+	 */
+	@Test
+	public void testShortest() throws Exception {
+		NumberFormatter formatter = new NumberFormatter(NumberFormatter.SHORTEST);
+		double[] values = { 0, -0.0, 1, 0.1, 1.0E-4, 0.0012305551541454307,
+				0.9999999311893629, -2.5, 1.0E20, Double.NaN,
+				Double.POSITIVE_INFINITY, Double.MIN_VALUE };
+		for (double value : values) {
+			assertEquals(Double.toString(value), formatter.toString(value));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			double value = random.nextDouble();
+			assertEquals(Double.toString(value), formatter.toString(value));
+		}
+	}
+
+	/***
+	 * Test rounding to a fixed number of decimal places
+	 */
+	@Test
+	public void testFixed() throws Exception {
+		assertEquals("0.500", new NumberFormatter(3).toString(0.5));
+		assertEquals("1.0000", new NumberFormatter(4).toString(0.99996));
+		assertEquals("0.0012", new NumberFormatter(4).toString(0.0012305551541454307));
+		assertEquals("-0.3", new NumberFormatter(1).toString(-0.25));
+		assertEquals("0.000", new NumberFormatter(3).toString(-0.0004));
+		assertEquals("12", new NumberFormatter(0).toString(11.5));
+		assertEquals("NaN", new NumberFormatter(3).toString(Double.NaN));
+		assertEquals("1.0E20", new NumberFormatter(3).toString(1.0E20));
+		Random random = new Random(42);
+		NumberFormatter formatter = new NumberFormatter(6);
+		for (int i = 0; i < 10000; i++) {
+			double value = random.nextDouble();
+			assertEquals(value, Double.parseDouble(formatter.toString(value)), 0.5e-6);
+		}
+	}
+
+	/***
+	 * Test formatting into a byte array and a Writer
+	 */
+	@Test
+	public void testFormatAndWrite() throws Exception {
+		NumberFormatter formatter = new NumberFormatter(2);
+		byte[] buffer = new byte[4 + NumberFormatter.MAX_LENGTH];
+		int end = formatter.format(0.256, buffer, 4);
+		assertEquals(8, end);
+		assertEquals("0.26", new String(buffer, 4, end - 4, "US-ASCII"));
+		StringWriter writer = new StringWriter();
+		formatter.write(0.256, writer);
+		formatter.write(1, writer);
+		assertEquals("0.261.00", writer.toString());
+	}
+}
@@ -2,6 +2,7 @@ package edu.usc.scrc.PriorityPruner;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -199,6 +200,251 @@ public class PriorityPrunerTest {
 	}
 	
 	
+	/***
+	 * LD graph equivalence test
+	 * This test verifies that calculating the LD graph before pruning (--ld_graph) gives results and LD tables 
+	 * identical to calculating LD for one index SNP at a time
+	 * @throws IOException 
+	 */
+	@Test
+	public void ldGraphTest() throws IOException{
+		String command = getChr12Options() + " --r2t 1 0.3 --r2t 0.01 0.5 --st 0.01 2 --metric p 10 --max_distance 30000 --ld";
+		File defaultPrefix = new File(tempFolder.getRoot(), "default");
+		File ldGraphPrefix = new File(tempFolder.getRoot(), "ld_graph");
+		
+		runPriorityPruner(command + " --out " + defaultPrefix.getPath());
+		runPriorityPruner(command + " --ld_graph --out " + ldGraphPrefix.getPath());
+		
+		assertSameFile(defaultPrefix.getPath() + ".results", ldGraphPrefix.getPath() + ".results");
+		assertSameFile(defaultPrefix.getPath() + ".ld", ldGraphPrefix.getPath() + ".ld");
+	}
+	
+	
+	/***
+	 * Streaming equivalence test
+	 * This test verifies that pruning one chromosome at a time (--stream) gives results and LD tables identical 
+	 * to pruning the whole genotype dataset at once
+	 * @throws IOException 
+	 */
+	@Test
+	public void streamTest() throws IOException{
+		String command = getChr12Options() + " --r2t 1 0.3 --r2t 0.01 0.5 --st 0.01 2 --metric p 10 --max_distance 30000 --ld";
+		File defaultPrefix = new File(tempFolder.getRoot(), "default");
+		File streamPrefix = new File(tempFolder.getRoot(), "stream");
+		
+		runPriorityPruner(command + " --out " + defaultPrefix.getPath());
+		runPriorityPruner(command + " --stream --out " + streamPrefix.getPath());
+		
+		assertSameFile(defaultPrefix.getPath() + ".results", streamPrefix.getPath() + ".results");
+		assertSameFile(defaultPrefix.getPath() + ".ld", streamPrefix.getPath() + ".ld");
+	}
+	
+	
+	/***
+	 * Adaptive LD window test
+	 * This test verifies that walking outward from the index SNP (--ld_decay) with a number of SNPs larger 
+	 * than the pruning window and an r^2 floor of 0 gives results and LD tables identical to calculating LD 
+	 * for the whole window, and that the walk never goes past the maximum distance
+	 * @throws IOException 
+	 */
+	@Test
+	public void ldDecayTest() throws IOException{
+		String command = getChr12Options() + " --r2t 1 0.3 --r2t 0.01 0.5 --st 0.01 2 --metric p 10 --max_distance 30000 --ld";
+		File defaultPrefix = new File(tempFolder.getRoot(), "default");
+		File unlimitedPrefix = new File(tempFolder.getRoot(), "unlimited");
+		File decayPrefix = new File(tempFolder.getRoot(), "decay");
+		
+		runPriorityPruner(command + " --out " + defaultPrefix.getPath());
+		runPriorityPruner(command + " --ld_decay 1000000 0 --out " + unlimitedPrefix.getPath());
+		assertSameFile(defaultPrefix.getPath() + ".results", unlimitedPrefix.getPath() + ".results");
+		assertSameFile(defaultPrefix.getPath() + ".ld", unlimitedPrefix.getPath() + ".ld");
+		
+		// with more SNPs than in the window, the walk only stops at the end of the window
+		int maxDistance = 10000;
+		runPriorityPruner(command.replace("30000", String.valueOf(maxDistance)) + " --ld_decay 1000000 0.5 --out " 
+				+ decayPrefix.getPath());
+		List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(decayPrefix.getPath() + ".ld"));
+		assertTrue(lines.size() > 1);
+		for (String line : lines.subList(1, lines.size())) {
+			String[] columns = line.split("\t");
+			int distance = Math.abs(Integer.parseInt(columns[2]) - Integer.parseInt(columns[7]));
+			assertTrue(distance <= maxDistance);
+		}
+	}
+	
+	
+	/***
+	 * Threshold sweep test
+	 * This test verifies that the results of each configuration of a sweep file are identical to a standalone 
+	 * run with the thresholds of that configuration, taking thresholds it doesn't specify from the command line
+	 * @throws IOException 
+	 */
+	@Test
+	public void sweepTest() throws IOException{
+		String[] names = { "a", "b", "c" };
+		String[] configurations = {
+				"--r2t 1 0.3 --r2t 0.01 0.5 --st 1 0 --st 0.01 2",
+				"--r2 0.2",
+				"--r2 0.8 --st 1 1" };
+		String[] standaloneThresholds = {
+				"--r2t 1 0.3 --r2t 0.01 0.5 --st 1 0 --st 0.01 2",
+				"--r2 0.2 --st 0.01 3",
+				"--r2 0.8 --st 1 1" };
+		File sweepFile = tempFolder.newFile("sweep.txt");
+		StringBuilder sweep = new StringBuilder("# name and thresholds\n");
+		for (int i = 0; i < names.length; i++) {
+			sweep.append(names[i] + " " + configurations[i] + "\n");
+		}
+		java.nio.file.Files.write(sweepFile.toPath(), sweep.toString().getBytes("UTF8"));
+		
+		String command = getChr12Options() + " --metric p 10 --max_distance 30000";
+		File sweepPrefix = new File(tempFolder.getRoot(), "sweep");
+		runPriorityPruner(command + " --r2 0.5 --st 0.01 3 --sweep " + sweepFile.getPath() + " --out " + sweepPrefix.getPath());
+		
+		for (int i = 0; i < names.length; i++) {
+			File standalonePrefix = new File(tempFolder.getRoot(), "standalone_" + names[i]);
+			runPriorityPruner(command + " " + standaloneThresholds[i] + " --out " + standalonePrefix.getPath());
+			assertSameFile(standalonePrefix.getPath() + ".results", sweepPrefix.getPath() + "." + names[i] + ".results");
+		}
+	}
+	
+	
+	/***
+	 * Batch test
+	 * This test verifies that pruning two SNP input tables of a batch manifest in parallel, sharing calculated 
+	 * LD, gives results and LD tables identical to pruning each table in a separate run
+	 * @throws IOException 
+	 */
+	@Test
+	public void batchTest() throws IOException{
+		ClassLoader classLoader = getClass().getClassLoader();
+		String tpedPath = classLoader.getResource("pp_1kgp3_yri_chr12_test.tped").getPath();
+		String tfamPath = classLoader.getResource("pp_1kgp3_yri_chr12_test.tfam").getPath();
+		String snpTablePath = classLoader.getResource("pp_1kgp3_yri_chr12_test.snp_input.txt").getPath();
+		
+		// the second table holds every other SNP of the first
+		List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(snpTablePath));
+		List<String> subsetLines = new ArrayList<String>();
+		for (int i = 0; i < lines.size(); i++) {
+			if (i == 0 || i % 2 == 1) {
+				subsetLines.add(lines.get(i));
+			}
+		}
+		File subsetTable = tempFolder.newFile("subset.snp_input.txt");
+		java.nio.file.Files.write(subsetTable.toPath(), subsetLines, java.nio.charset.Charset.forName("UTF8"));
+		String[] tables = { snpTablePath, subsetTable.getPath() };
+		
+		File manifest = tempFolder.newFile("manifest.txt");
+		StringBuilder manifestLines = new StringBuilder("# SNP input table and output prefix\n");
+		for (int i = 0; i < tables.length; i++) {
+			manifestLines.append(tables[i] + " " + new File(tempFolder.getRoot(), "batch" + i).getPath() + "\n");
+		}
+		java.nio.file.Files.write(manifest.toPath(), manifestLines.toString().getBytes("UTF8"));
+		
+		String thresholds = " --r2t 1 0.3 --r2t 0.01 0.5 --st 0.01 2 --metric p 10 --max_distance 30000 --ld";
+		runPriorityPruner("--tped " + tpedPath + " --tfam " + tfamPath + " --batch " + manifest.getPath()
+				+ " --batch_threads 2 --batch_ld_cache" + thresholds
+				+ " --out " + new File(tempFolder.getRoot(), "batch").getPath());
+		
+		for (int i = 0; i < tables.length; i++) {
+			File singlePrefix = new File(tempFolder.getRoot(), "single" + i);
+			runPriorityPruner("--tped " + tpedPath + " --tfam " + tfamPath + " --snp_table " + tables[i]
+					+ thresholds + " --out " + singlePrefix.getPath());
+			String batchPrefix = new File(tempFolder.getRoot(), "batch" + i).getPath();
+			assertSameFile(singlePrefix.getPath() + ".results", batchPrefix + ".results");
+			assertSameFile(singlePrefix.getPath() + ".ld", batchPrefix + ".ld");
+		}
+	}
+	
+	
+	/***
+	 * LD index test
+	 * This test verifies that querying a region of an indexed LD table (--ld_index), either as text or 
+	 * compressed with --bgzf, gives the rows of the index SNPs within the region, the same as filtering the 
+	 * text LD table by hand
+	 * @throws IOException 
+	 * @throws PriorityPrunerException 
+	 */
+	@Test
+	public void ldIndexTest() throws IOException, PriorityPrunerException{
+		String command = getChr12Options() + " --r2t 1 0.3 --r2t 0.01 0.5 --st 0.01 2 --metric p 10 --max_distance 30000 --ld --ld_index";
+		File textPrefix = new File(tempFolder.getRoot(), "text");
+		File bgzfPrefix = new File(tempFolder.getRoot(), "bgzf");
+		runPriorityPruner(command + " --out " + textPrefix.getPath());
+		runPriorityPruner(command + " --bgzf --out " + bgzfPrefix.getPath());
+		List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(textPrefix.getPath() + ".ld"));
+		
+		// a region, a single position, the whole chromosome and a chromosome that isn't in the table
+		String[] regions = { "12:115900000-115920000", "12:115915130", "12", "1:115900000-115920000" };
+		for (String region : regions) {
+			String chr = region.split(":")[0];
+			int start = region.contains(":") ? Integer.parseInt(region.split("[:-]")[1]) : 0;
+			int end = region.contains("-") ? Integer.parseInt(region.split("[:-]")[2]) : region.contains(":") ? start : Integer.MAX_VALUE;
+			
+			// filters the rows by the chromosome and position of the index SNP
+			StringBuilder expected = new StringBuilder(lines.get(0) + "\n");
+			int numRows = 0;
+			for (String line : lines.subList(1, lines.size())) {
+				String[] columns = line.split("\t");
+				int pos = Integer.parseInt(columns[2]);
+				if (columns[1].equals(chr) && pos >= start && pos <= end) {
+					expected.append(line + "\n");
+					numRows++;
+				}
+			}
+			if (!chr.equals("1")) {
+				assertTrue(numRows > 0);
+			}
+			
+			ByteArrayOutputStream textRows = new ByteArrayOutputStream();
+			LdIndex.query(textPrefix.getPath() + ".ld", region, textRows);
+			assertEquals(expected.toString(), textRows.toString("UTF8"));
+			ByteArrayOutputStream bgzfRows = new ByteArrayOutputStream();
+			LdIndex.query(bgzfPrefix.getPath() + ".ld.gz", region, bgzfRows);
+			assertEquals(expected.toString(), bgzfRows.toString("UTF8"));
+		}
+	}
+	
+	
+	/***
+	 * Returns the options specifying the chr12 test dataset as genotype dataset and SNP input table
+	 */
+	private String getChr12Options(){
+		ClassLoader classLoader = getClass().getClassLoader();
+		return "--tped " + classLoader.getResource("pp_1kgp3_yri_chr12_test.tped").getPath()
+				+ " --tfam " + classLoader.getResource("pp_1kgp3_yri_chr12_test.tfam").getPath()
+				+ " --snp_table " + classLoader.getResource("pp_1kgp3_yri_chr12_test.snp_input.txt").getPath();
+	}
+	
+	
+	/***
+	 * Runs PriorityPruner, and checks that it exits with return code 0
+	 * @param command
+	 */
+	private void runPriorityPruner(String command){
+		try{
+			PriorityPruner.main(command.split(" "));
+			fail("Expected system.exit to be called from PriorityPruner");
+		}catch(ExitSecurityException e) {
+			assertEquals(0, e.getStatus());
+		}
+	}
+	
+	
+	/***
+	 * Checks that two output files are identical
+	 * @param expectedPath
+	 * @param actualPath
+	 * @throws IOException
+	 */
+	private static void assertSameFile(String expectedPath, String actualPath) throws IOException{
+		String expected = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(expectedPath)), "UTF8");
+		String actual = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(actualPath)), "UTF8");
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, actual);
+	}
+	
+	
 	private void runPriorityPrunerAndVerify(String command, String expectedOutputPrefix, File resultsFile, File ldFile, File logFile) throws UnsupportedEncodingException, URISyntaxException, IOException{
 		// run PriorityPruner
 		try{
@@ -0,0 +1,78 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/***
+ * This test verifies that a pruning state keeps the best tag of each SNP, and
+ * that picks, pick order and best tags are read back from a checkpoint
+ * stream.
+ */
+public class PruningStateTest {
+
+	/***
+	 * Test that a pruning state is read back from a checkpoint stream
+	 */
+	@Test
+	public void testWriteAndRead() throws Exception {
+		int chr1 = ChromosomeDictionary.getInstance().getCode("1");
+		ArrayList<SnpInfo> snps = new ArrayList<SnpInfo>();
+		for (int i = 0; i < 70; i++) {
+			SnpInfo snp = new SnpInfo("rs" + i, chr1, 100 * (i + 1), "A", "G",
+					0, false, 0, null);
+			snp.setSortedByPosIndex(i);
+			snps.add(snp);
+		}
+
+		PruningState state = new PruningState(null, snps);
+		state.pick(snps.get(65));
+		state.tag(snps.get(3), snps.get(65), 0.75);
+		state.tag(snps.get(66), snps.get(65), 0.5);
+		state.pick(snps.get(3));
+		state.tag(snps.get(66), snps.get(3), 0.8);
+		// ties keep the first tag
+		state.tag(snps.get(66), snps.get(65), 0.8);
+		// tags with unknown r^2 never become the best tag
+		state.tag(snps.get(20), snps.get(3), -1);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		state.write(out);
+		out.close();
+
+		PruningState readState = new PruningState(null, snps);
+		readState.read(new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray())));
+		readState.copyToSnps(snps);
+
+		for (int i = 0; i < snps.size(); i++) {
+			SnpInfo snp = snps.get(i);
+			assertEquals(i == 3 || i == 65, snp.getPicked());
+			assertEquals(i == 3 || i == 20 || i == 65 || i == 66, snp.getTagged());
+		}
+		assertEquals(1, snps.get(65).getPickOrder());
+		assertEquals(2, snps.get(3).getPickOrder());
+		assertEquals(-1, snps.get(66).getPickOrder());
+
+		assertSame(snps.get(3), snps.get(66).getBestTag());
+		assertEquals(0.8, snps.get(66).getBestTagRSquared(), 0);
+		assertSame(snps.get(65), snps.get(3).getBestTag());
+		assertEquals(0.75, snps.get(3).getBestTagRSquared(), 0);
+		assertNull(snps.get(20).getBestTag());
+		assertEquals(-1, snps.get(20).getBestTagRSquared(), 0);
+		assertNull(snps.get(0).getBestTag());
+		assertTrue(Double.isNaN(snps.get(0).getBestTagRSquared()));
+
+		// a picked SNP picked after the read continues the pick order
+		readState.pick(snps.get(10));
+		readState.copyToSnps(snps);
+		assertEquals(3, snps.get(10).getPickOrder());
+	}
+}
@@ -0,0 +1,82 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SnpListFileChunkTest {
+
+	private static double parseDouble(String value) {
+		byte[] bytes = value.getBytes();
+		return SnpListFileChunk.parseDouble(bytes, 0, bytes.length);
+	}
+
+	private static int parseInt(String value) {
+		byte[] bytes = value.getBytes();
+		return SnpListFileChunk.parseInt(bytes, 0, bytes.length);
+	}
+
+	/***
+	 * Test that the byte parser gives exactly the same doubles as Double.parseDouble
+	 * for typical p-values, design scores and metrics, including values handled by the
+	 * slow path
+	 */
+	@Test
+	public void testParseDoubleMatchesDoubleParseDouble() {
+		String[] values = { "0", "-0", "1", "0.05", "5e-8", "5E-08", "1.234e-300",
+				"3.", ".5", "+0.25", "7.2e+01", "123456789012345678", "0.1000000000000000055511151231257827",
+				"1e-400", "1e400", "0.5d", "NaN", "Infinity", "-Infinity", "0x1p3" };
+		for (String value : values) {
+			assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+					Double.doubleToLongBits(parseDouble(value)));
+		}
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			double d = Math.pow(10, -random.nextInt(30)) * random.nextDouble();
+			String[] formats = { Double.toString(d), String.format("%.6g", d),
+					String.format("%.3e", d), String.format("%.10f", d) };
+			for (String value : formats) {
+				assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+						Double.doubleToLongBits(parseDouble(value)));
+			}
+		}
+	}
+
+	/***
+	 * Test that invalid numbers throw a NumberFormatException, like Double.parseDouble
+	 */
+	@Test
+	public void testParseDoubleInvalid() {
+		String[] values = { "", "-", ".", "e5", "1e", "1.2.3", "1,5", "NA", "0.05x" };
+		for (String value : values) {
+			try {
+				parseDouble(value);
+				fail(value);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	/***
+	 * Test that the byte parser gives the same integers as Integer.parseInt, and
+	 * throws for the same invalid values
+	 */
+	@Test
+	public void testParseInt() {
+		String[] values = { "0", "1", "-1", "+5", "123456789", "2147483647", "-2147483648" };
+		for (String value : values) {
+			assertEquals(value, Integer.parseInt(value), parseInt(value));
+		}
+		String[] invalidValues = { "", "-", "1.5", "2147483648", "12a", "1e5" };
+		for (String value : invalidValues) {
+			try {
+				parseInt(value);
+				fail(value);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/***
+ * This class tests the pruning windows found by the SnpListFile class, with and without a maximum
+ * number of SNPs (--max_window_snps). The SNP input table holds ten SNPs 100 bp apart on chromosome 1,
+ * two of which are invalid, followed by three SNPs on chromosome 2.
+ */
+public class SnpListFileTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private SnpListFile snpListFile;
+
+	@Before
+	public void setUp() throws Exception {
+		StringBuilder table = new StringBuilder("name\tchr\tpos\ta1\ta2\tp\tforceSelect\tdesignScore\n");
+		for (int pos = 100; pos <= 1000; pos += 100) {
+			table.append("rs1_" + pos + "\t1\t" + pos + "\tA\tG\t0.05\t0\t1\n");
+		}
+		for (int pos = 100; pos <= 300; pos += 100) {
+			table.append("rs2_" + pos + "\t2\t" + pos + "\tA\tG\t0.05\t0\t1\n");
+		}
+		File tableFile = tempFolder.newFile("window.snp_input.txt");
+		java.nio.file.Files.write(tableFile.toPath(), table.toString().getBytes("UTF8"));
+		snpListFile = new SnpListFile(tableFile.getPath(), 0, new CommandLineOptions());
+
+		// the SNPs at 300 and 700 bp on chromosome 1 didn't pass the filters
+		for (SnpInfo snp : snpListFile.getSnps()) {
+			SnpGenotypes genotypes = new SnpGenotypes(snp.getSnpName(), snp, "A", "G", new String[0]);
+			genotypes.setValid(!snp.getSnpName().equals("rs1_300") && !snp.getSnpName().equals("rs1_700"));
+			snp.setSnpGenotypes(genotypes);
+		}
+	}
+
+	/***
+	 * Returns the SNP with a name, checking it has the expected index in the sorted list
+	 */
+	private SnpInfo getSnp(String snpName, int expectedIndex) {
+		SnpInfo snp = snpListFile.getSnpsSortedByChrPos().get(expectedIndex);
+		assertEquals(snpName, snp.getSnpName());
+		assertEquals(expectedIndex, snp.getSortedByPosIndex());
+		return snp;
+	}
+
+	/***
+	 * Test that the number of valid SNPs caps the window, skipping over invalid SNPs
+	 */
+	@Test
+	public void testCappedWindow() {
+		SnpInfo snp = getSnp("rs1_500", 4);
+		assertEquals(0, snpListFile.getWindowStart(snp, 100000));
+		assertEquals(9, snpListFile.getWindowEnd(snp, 100000));
+
+		// 400 and 200 upstream, and 600 and 800 downstream, with 300 and 700 in between
+		int start = snpListFile.getWindowStart(snp, 100000, 2);
+		int end = snpListFile.getWindowEnd(snp, 100000, 2);
+		assertEquals(1, start);
+		assertEquals(7, end);
+		assertTrue(snpListFile.isWindowCapped(snp, 100000, start, end));
+
+		// a cap larger than the window doesn't change it
+		start = snpListFile.getWindowStart(snp, 100000, 5);
+		end = snpListFile.getWindowEnd(snp, 100000, 5);
+		assertEquals(0, start);
+		assertEquals(9, end);
+		assertFalse(snpListFile.isWindowCapped(snp, 100000, start, end));
+	}
+
+	/***
+	 * Test that invalid SNPs within the maximum distance don't count toward the cap, and that the window
+	 * isn't reported as capped when only the maximum distance limits it
+	 */
+	@Test
+	public void testCappedWindowWithMaxDistance() {
+		SnpInfo snp = getSnp("rs1_500", 4);
+
+		// the maximum distance limits the window before the cap does
+		int start = snpListFile.getWindowStart(snp, 150, 2);
+		int end = snpListFile.getWindowEnd(snp, 150, 2);
+		assertEquals(snpListFile.getWindowStart(snp, 150), start);
+		assertEquals(snpListFile.getWindowEnd(snp, 150), end);
+		assertEquals(3, start);
+		assertEquals(5, end);
+		assertFalse(snpListFile.isWindowCapped(snp, 150, start, end));
+
+		// the only SNPs past the cap of one valid SNP are invalid, 300 and 700
+		start = snpListFile.getWindowStart(snp, 250, 1);
+		end = snpListFile.getWindowEnd(snp, 250, 1);
+		assertEquals(2, start);
+		assertEquals(6, end);
+		assertFalse(snpListFile.isWindowCapped(snp, 250, start, end));
+
+		// one more SNP on each side is within the maximum distance
+		start = snpListFile.getWindowStart(snp, 300, 1);
+		end = snpListFile.getWindowEnd(snp, 300, 1);
+		assertEquals(2, start);
+		assertEquals(6, end);
+		assertTrue(snpListFile.isWindowCapped(snp, 300, start, end));
+	}
+
+	/***
+	 * Test that windows end at the chromosome boundary, and that SNPs on another chromosome don't make
+	 * a window capped
+	 */
+	@Test
+	public void testCappedWindowAtChromosomeBoundary() {
+		SnpInfo lastSnp = getSnp("rs1_1000", 9);
+		int start = snpListFile.getWindowStart(lastSnp, 100000, 2);
+		int end = snpListFile.getWindowEnd(lastSnp, 100000, 2);
+		assertEquals(6, start);
+		assertEquals(9, end);
+		assertTrue(snpListFile.isWindowCapped(lastSnp, 100000, start, end));
+
+		SnpInfo firstSnp = getSnp("rs2_100", 10);
+		start = snpListFile.getWindowStart(firstSnp, 100000, 2);
+		end = snpListFile.getWindowEnd(firstSnp, 100000, 2);
+		assertEquals(10, start);
+		assertEquals(12, end);
+		assertFalse(snpListFile.isWindowCapped(firstSnp, 100000, start, end));
+		assertEquals(10, snpListFile.getWindowStart(firstSnp, 100000));
+
+		// the last SNP of the chromosome is past the cap
+		start = snpListFile.getWindowStart(firstSnp, 100000, 1);
+		end = snpListFile.getWindowEnd(firstSnp, 100000, 1);
+		assertEquals(10, start);
+		assertEquals(11, end);
+		assertTrue(snpListFile.isWindowCapped(firstSnp, 100000, start, end));
+	}
+}
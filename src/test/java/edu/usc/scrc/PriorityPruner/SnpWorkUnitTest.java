@@ -9,6 +9,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -135,6 +136,99 @@ public class SnpWorkUnitTest {
 		validateR2AndDPrime(snpListFileHaploid, genotypesHaploid, haploviewResultsHaploid);
 	}
 	
+	/***
+	 * This tests the bound on r^2 used to skip LD estimation of pairs that can't reach the
+	 * minimum r^2. For random two-marker haplotype counts, the bound must never be below the
+	 * r^2 estimated by the EM algorithm (up to the margin isBelowMinRSquared leaves for rounding).
+	 */
+	@Test
+	public void testMaxRSquaredBound() {
+		SnpWorkUnit snpWorkUnit = new SnpWorkUnit(new ArrayList<Individual>());
+		Random random = new Random(42);
+		int numValidated = 0;
+		for (int n = 0; n < 100000; n++) {
+			// small counts make monomorphic SNPs and extreme frequencies likely
+			int maxCount = random.nextBoolean() ? 5 : 200;
+			int[][] twoMarkerHaplos = new int[3][3];
+			for (int i = 1; i < 3; i++) {
+				for (int j = 1; j < 3; j++) {
+					twoMarkerHaplos[i][j] = random.nextInt(maxCount);
+				}
+			}
+			int doublehet = random.nextInt(maxCount);
+			double maxRSquared = snpWorkUnit.getMaxRSquared(twoMarkerHaplos, doublehet);
+			LdResult ldResult = snpWorkUnit.estimateLd(twoMarkerHaplos, doublehet);
+			if (ldResult == null || Double.isNaN(ldResult.getRSquared())) {
+				continue;
+			}
+			assertFalse(Double.isNaN(maxRSquared));
+			assertTrue(maxRSquared + 1e-6 >= ldResult.getRSquared());
+			numValidated++;
+		}
+		System.out.println(numValidated + " bounds validated.");
+	}
+
+	/***
+	 * This tests that skipping LD estimation with a minimum r^2 doesn't lose any pairs. For
+	 * every pair of SNPs in the chromosome 12 test region, the LD is calculated with and without
+	 * a minimum r^2 of 0.2. Pairs that are skipped must have r^2 below 0.2, and all other pairs
+	 * must get the same LD as without the minimum.
+	 * 
+	 * @throws PriorityPrunerException
+	 */
+	@Test
+	public void testMinRSquaredSkipsOnlyPairsBelowMinimum() throws PriorityPrunerException {
+		double minRSquared = 0.2;
+		CommandLineOptions options = new CommandLineOptions();
+		ClassLoader classLoader = getClass().getClassLoader();
+		String filePathTPed = classLoader.getResource("pp_1kgp3_yri_chr12_test.tped").getPath();
+		String filePathTFam = classLoader.getResource("pp_1kgp3_yri_chr12_test.tfam").getPath();
+		String snpListFilePath = classLoader.getResource("pp_1kgp3_yri_chr12_test.snp_input.txt").getPath();
+		SnpListFile snpListFile = new SnpListFile(snpListFilePath, 0, options);
+		Genotypes genotypes = new TPlink(filePathTPed, filePathTFam, snpListFile, null, options);
+		for (SnpGenotypes g : genotypes.getSnpGenotypes()) {
+			g.calculateMafHweMissingPercentCompressed(genotypes.getKeptFounders());
+		}
+		
+		// decode the genotypes of all valid SNPs
+		ArrayList<SnpGenotypes> genotypesList = new ArrayList<SnpGenotypes>();
+		ArrayList<byte[]> decodedList = new ArrayList<byte[]>();
+		for (SnpInfo snpInfo : snpListFile.getSnps()) {
+			if (snpInfo.getSnpGenotypes().isValid()) {
+				genotypesList.add(snpInfo.getSnpGenotypes());
+				decodedList.add(GenotypeCache.decode(snpInfo.getSnpGenotypes(),
+						genotypes.getKeptFounders().size()));
+			}
+		}
+		
+		SnpWorkUnit fullWorkUnit = new SnpWorkUnit(genotypes.getKeptFounders());
+		SnpWorkUnit boundedWorkUnit = new SnpWorkUnit(genotypes.getKeptFounders());
+		boundedWorkUnit.setMinRSquared(minRSquared);
+		int numSkipped = 0;
+		for (int a = 0; a < genotypesList.size(); a++) {
+			for (int b = a + 1; b < genotypesList.size(); b++) {
+				LdResult[] full = fullWorkUnit.calculateLdResultPair(genotypesList.get(a),
+						decodedList.get(a), genotypesList.get(b), decodedList.get(b), true, true);
+				LdResult[] bounded = boundedWorkUnit.calculateLdResultPair(genotypesList.get(a),
+						decodedList.get(a), genotypesList.get(b), decodedList.get(b), true, true);
+				for (int d = 0; d < 2; d++) {
+					if (bounded[d] == null) {
+						if (full[d] != null) {
+							assertTrue(full[d].getRSquared() < minRSquared);
+							numSkipped++;
+						}
+					} else {
+						assertEquals(full[d].getRSquared(), bounded[d].getRSquared(), 0);
+						assertEquals(full[d].getDPrime(), bounded[d].getDPrime(), 0);
+					}
+				}
+			}
+		}
+		// the test region must actually exercise the bound
+		assertTrue(numSkipped > 0);
+		System.out.println(numSkipped + " skipped pairs validated.");
+	}
+	
 	/***
 	 * This is a helper function method to loop through every pair of SNPs in a SnpListFile with 
 	 * corresponding Genotypes and Haploview results to compare r2 and D'
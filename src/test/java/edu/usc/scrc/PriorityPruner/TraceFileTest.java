@@ -0,0 +1,59 @@
+package edu.usc.scrc.PriorityPruner;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/***
+ * This test records decisions of two threshold configurations in a trace
+ * file, spanning several blocks, and verifies that they're rendered back in
+ * order.
+ */
+public class TraceFileTest {
+
+	/***
+	 * Test that every recorded decision is rendered, in order
+	 */
+	@Test
+	public void testRecordAndRender() throws Exception {
+		int chr1 = ChromosomeDictionary.getInstance().getCode("1");
+		ArrayList<SnpInfo> snps = new ArrayList<SnpInfo>();
+		snps.add(new SnpInfo("a", chr1, 100, "A", "G", 0, false, 0, null));
+		snps.add(new SnpInfo("b", chr1, 200, "A", "G", 0, false, 0, null));
+		for (int i = 0; i < snps.size(); i++) {
+			snps.get(i).setSortedByPosIndex(i);
+		}
+		ArrayList<PruningState> states = new ArrayList<PruningState>();
+		states.add(new PruningState(new ThresholdConfiguration(null, null, null), snps));
+		states.add(new PruningState(new ThresholdConfiguration("x", null, null), snps));
+
+		File file = File.createTempFile("TraceFileTest", ".trace");
+		file.deleteOnExit();
+		TraceFile trace = new TraceFile(file.getPath(), states, snps);
+		trace.record(TraceFile.INDEX, 0, snps.get(0), null, Double.NaN, 0.5);
+		// enough records to fill several blocks
+		int numTags = 20000;
+		for (int i = 0; i < numTags; i++) {
+			trace.record(TraceFile.TAG, 1, snps.get(0), snps.get(1), 0.75, 0.5);
+		}
+		trace.record(TraceFile.SKIP_TAGGED, 1, snps.get(1), null, Double.NaN,
+				Double.NaN);
+		trace.close();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceFile.render(file.getPath(), new PrintStream(bytes));
+		String[] lines = bytes.toString().split("\n");
+		assertEquals(numTags + 3, lines.length);
+		assertEquals("configuration\tevent\tindex_snp_name\tpartner_snp_name\tr^2\tr^2_threshold", lines[0]);
+		assertEquals("NA\tindex\ta\tNA\tNA\t0.5", lines[1]);
+		for (int i = 0; i < numTags; i++) {
+			assertEquals("x\ttag\ta\tb\t0.75\t0.5", lines[2 + i]);
+		}
+		assertEquals("x\tskip_tagged\tb\tNA\tNA\tNA", lines[numTags + 2]);
+	}
+}